@@ -97,12 +97,15 @@ CREATE TABLE `xiaozhi`.`sys_role` (
   `roleName` varchar(100) NOT NULL COMMENT '角色名称',
   `roleDesc` TEXT DEFAULT NULL COMMENT '角色描述',
   `ttsId` int DEFAULT NULL COMMENT 'TTS服务ID',
+  `hedgeTtsId` int DEFAULT NULL COMMENT '备用TTS服务ID，主服务响应慢或失败时对冲请求；NULL不启用，0为默认Edge',
+  `hedgeVoiceName` varchar(100) DEFAULT NULL COMMENT '备用TTS服务音色',
   `modelId` int unsigned DEFAULT NULL COMMENT '模型ID',
   `sttId` int unsigned DEFAULT NULL COMMENT 'STT服务ID',
   `vadSpeechTh` FLOAT DEFAULT 0.5 COMMENT '语音检测阈值',
   `vadSilenceTh` FLOAT DEFAULT 0.3 COMMENT '静音检测阈值',
   `vadEnergyTh` FLOAT DEFAULT 0.01 COMMENT '能量检测阈值',
   `vadSilenceMs` INT DEFAULT 1200 COMMENT '静音检测时间',
+  `historyTokens` int DEFAULT NULL COMMENT '提示词token预算；NULL使用默认预算，0只按条数限制',
   `voiceName` varchar(100) NOT NULL COMMENT '角色语音名称',
   `state` enum('1','0') DEFAULT '1' COMMENT '状态：1-启用，0-禁用',
   `isDefault` enum('1','0') DEFAULT '0' COMMENT '是否默认角色：1-是，0-否',
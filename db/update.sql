@@ -33,3 +33,6 @@ INSERT INTO `sys_template` (`userId`, `templateName`, `templateDesc`, `templateC
 
 ALTER TABLE xiaozhi.sys_device ADD COLUMN function_names varchar(250) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL COMMENT '可用全局function的名称列表(逗号分割)，为空则使用所有全局function';
 ALTER TABLE xiaozhi.sys_message ADD COLUMN messageType varchar(20) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL COMMENT '消息类型';
+ALTER TABLE xiaozhi.sys_role ADD COLUMN hedgeTtsId int DEFAULT NULL COMMENT '备用TTS服务ID，主服务响应慢或失败时对冲请求；NULL不启用，0为默认Edge' AFTER ttsId;
+ALTER TABLE xiaozhi.sys_role ADD COLUMN hedgeVoiceName varchar(100) CHARACTER SET utf8mb4 COLLATE utf8mb4_unicode_ci NULL COMMENT '备用TTS服务音色' AFTER hedgeTtsId;
+ALTER TABLE xiaozhi.sys_role ADD COLUMN historyTokens int DEFAULT NULL COMMENT '提示词token预算；NULL使用默认预算，0只按条数限制' AFTER vadSilenceMs;
@@ -73,6 +73,10 @@ public abstract class ChatSession {
      * 会话的最后有效活动时间
      */
     protected Instant lastActivityTime;
+    /**
+     * 角色/配置快照，只在连接建立、切换角色和配置更新时整体替换
+     */
+    protected volatile SessionProfile sessionProfile = SessionProfile.EMPTY;
 
     /**
      * 会话属性存储
@@ -38,4 +38,15 @@ public class ConfigManager {
         }
         return config;
     }
+
+    /**
+     * 移除缓存的配置，下次获取时重新查询
+     *
+     * @param configId 配置ID
+     */
+    public void removeConfig(Integer configId) {
+        if (configId != null) {
+            configCache.remove(configId);
+        }
+    }
 }
@@ -1,7 +1,6 @@
 package com.xiaozhi.communication.common;
 
 import com.xiaozhi.communication.domain.*;
-import com.xiaozhi.dialogue.llm.factory.ChatModelFactory;
 import com.xiaozhi.dialogue.llm.memory.ChatMemory;
 import com.xiaozhi.dialogue.llm.memory.Conversation;
 import com.xiaozhi.dialogue.llm.tool.ToolsGlobalRegistry;
@@ -10,14 +9,12 @@ import com.xiaozhi.dialogue.service.AudioService;
 import com.xiaozhi.dialogue.service.DialogueService;
 import com.xiaozhi.dialogue.service.IotService;
 import com.xiaozhi.dialogue.service.VadService;
-import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
-import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
 import com.xiaozhi.entity.SysRole;
 import com.xiaozhi.enums.ListenState;
 import com.xiaozhi.service.SysDeviceService;
-import com.xiaozhi.service.SysRoleService;
+import com.xiaozhi.utils.AudioClip;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,32 +48,20 @@ public class MessageHandler {
     @Resource
     private SessionManager sessionManager;
 
-    @Resource
-    private ConfigManager configManager;
-
     @Resource
     private DialogueService dialogueService;
 
     @Resource
     private IotService iotService;
 
-    @Resource
-    private TtsServiceFactory ttsFactory;
-
-    @Resource
-    private SttServiceFactory sttFactory;
-
     @Autowired
     private ChatMemory chatMemory;
 
-    @Resource
-    private ChatModelFactory chatModelFactory;
-
     @Resource
     private ToolsGlobalRegistry toolsGlobalRegistry;
 
     @Resource
-    private SysRoleService roleService;
+    private SessionProfileManager sessionProfileManager;
 
     // 用于存储设备ID和验证码生成状态的映射
     private final Map<String, Boolean> captchaGenerationInProgress = new ConcurrentHashMap<>();
@@ -107,23 +92,12 @@ public class MessageHandler {
             //以上同步处理结束后，再启动虚拟线程进行设备初始化，确保chatSession中已设置的sysDevice信息
             Thread.startVirtualThread(() -> {
                 try {
-                    // 从数据库获取角色描述。device.getRoleId()表示当前设备的当前活跃角色，或者上次退出时的活跃角色。
-                    SysRole role = roleService.selectRoleById(device.getRoleId());
-
-                    if (role.getSttId() != null) {
-                        SysConfig sttConfig = configManager.getConfig(role.getSttId());
-                        if (sttConfig != null) {
-                            sttFactory.getSttService(sttConfig);// 提前初始化，加速后续使用
-                        }
-                    }
-                    if (role.getTtsId() != null) {
-                        SysConfig ttsConfig = configManager.getConfig(role.getTtsId());
-                        if (ttsConfig != null) {
-                            ttsFactory.getTtsService(ttsConfig, role.getVoiceName());// 提前初始化，加速后续使用
-                        }
-                    }
-                    if (role.getModelId() != null) {
-                        chatModelFactory.takeChatModel(chatSession);// 提前初始化，加速后续使用
+                    // 构建会话快照。device.getRoleId()表示当前设备的当前活跃角色，或者上次退出时的活跃角色。
+                    // 快照中的STT/TTS服务和对话模型在此提前初始化，后续音频帧和句子处理不再查询角色和配置
+                    SessionProfile profile = sessionProfileManager.refresh(chatSession);
+                    SysRole role = profile.role();
+
+                    if (role != null && role.getModelId() != null) {
                         Conversation conversation = chatMemory.initConversation(device, role, sessionId);
                         chatSession.setConversation( conversation);
                         // 注册全局函数
@@ -223,8 +197,8 @@ public class MessageHandler {
                 if (device.getDeviceName() != null && device.getRoleId() == null) {
                     String message = "设备未配置角色，请到角色配置页面完成配置后开始对话";
 
-                    String audioFilePath = ttsService.getDefaultTtsService().textToSpeech(message);
-                    audioService.sendAudioMessage(chatSession, new DialogueService.Sentence(message, audioFilePath), true,
+                    AudioClip audio = ttsService.getDefaultTtsService().synthesize(message);
+                    audioService.sendAudioMessage(chatSession, new DialogueService.Sentence(message, audio), true,
                             true);
 
                     // 延迟一段时间后再解除标记
@@ -253,7 +227,7 @@ public class MessageHandler {
                 }
 
                 audioService.sendAudioMessage(chatSession,
-                        new DialogueService.Sentence(codeResult.getCode(), codeResult.getAudioPath()), true, true);
+                        new DialogueService.Sentence(codeResult.getCode(), AudioClip.ofReplayableFile(audioFilePath)), true, true);
 
                 // 延迟一段时间后再解除标记
                 try {
@@ -16,6 +16,7 @@ import reactor.core.publisher.Sinks;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
@@ -238,6 +239,15 @@ public class SessionManager {
         return sessions.get(sessionId);
     }
 
+    /**
+     * 获取所有会话
+     *
+     * @return 会话集合
+     */
+    public Collection<ChatSession> getSessions() {
+        return sessions.values();
+    }
+
     /**
      * 获取会话
      *
@@ -0,0 +1,72 @@
+package com.xiaozhi.communication.common;
+
+import com.xiaozhi.dialogue.stt.SttService;
+import com.xiaozhi.dialogue.tts.TtsService;
+import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.entity.SysRole;
+import org.springframework.ai.chat.model.ChatModel;
+
+/**
+ * 会话配置快照
+ * 在连接建立时根据设备当前角色构建一次，之后只在角色/配置更新事件或切换角色时整体替换，
+ * 音频帧和句子处理的热路径直接读取快照，不再查询角色和配置。
+ *
+ * @param role            当前角色
+ * @param sttConfig       语音识别配置，为null时使用默认服务
+ * @param ttsConfig       语音合成配置，为null时使用默认服务
+ * @param hedgeTtsConfig  备用语音合成配置，未启用对冲或使用默认Edge服务时为null
+ * @param llmConfig       模型配置，角色未配置模型时为null
+ * @param voiceName       语音合成音色
+ * @param vadSpeechTh     VAD语音阈值
+ * @param vadSilenceTh    VAD静音阈值
+ * @param vadEnergyTh     VAD能量阈值
+ * @param vadSilenceMs    VAD静音超时（毫秒）
+ * @param sttService      已解析的语音识别服务
+ * @param ttsService      已解析的语音合成服务
+ * @param hedgeTtsService 已解析的备用语音合成服务，角色未启用对冲时为null
+ * @param chatModel       已创建的对话模型，角色未配置模型时为null
+ */
+public record SessionProfile(
+        SysRole role,
+        SysConfig sttConfig,
+        SysConfig ttsConfig,
+        SysConfig hedgeTtsConfig,
+        SysConfig llmConfig,
+        String voiceName,
+        float vadSpeechTh,
+        float vadSilenceTh,
+        float vadEnergyTh,
+        int vadSilenceMs,
+        SttService sttService,
+        TtsService ttsService,
+        TtsService hedgeTtsService,
+        ChatModel chatModel) {
+
+    public static final float DEFAULT_VAD_SPEECH_TH = 0.3f;
+    public static final float DEFAULT_VAD_SILENCE_TH = 0.2f;
+    public static final float DEFAULT_VAD_ENERGY_TH = 0.001f;
+    public static final int DEFAULT_VAD_SILENCE_MS = 1200;
+
+    /**
+     * 未绑定角色或快照尚未构建时使用的默认值
+     */
+    public static final SessionProfile EMPTY = new SessionProfile(null, null, null, null, null, null,
+            DEFAULT_VAD_SPEECH_TH, DEFAULT_VAD_SILENCE_TH, DEFAULT_VAD_ENERGY_TH, DEFAULT_VAD_SILENCE_MS,
+            null, null, null, null);
+
+    public Integer roleId() {
+        return role != null ? role.getRoleId() : null;
+    }
+
+    /**
+     * 快照是否引用了指定配置
+     */
+    public boolean usesConfig(Integer configId) {
+        return configId != null && (matches(sttConfig, configId) || matches(ttsConfig, configId)
+                || matches(hedgeTtsConfig, configId) || matches(llmConfig, configId));
+    }
+
+    private static boolean matches(SysConfig config, Integer configId) {
+        return config != null && configId.equals(config.getConfigId());
+    }
+}
@@ -0,0 +1,195 @@
+package com.xiaozhi.communication.common;
+
+import com.xiaozhi.dialogue.llm.factory.ChatModelFactory;
+import com.xiaozhi.dialogue.stt.SttService;
+import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
+import com.xiaozhi.dialogue.tts.TtsService;
+import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
+import com.xiaozhi.dialogue.tts.hedge.TtsHedger;
+import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.entity.SysDevice;
+import com.xiaozhi.entity.SysRole;
+import com.xiaozhi.event.ConfigUpdateEvent;
+import com.xiaozhi.event.DeviceUpdateEvent;
+import com.xiaozhi.event.RoleUpdateEvent;
+import com.xiaozhi.service.SysRoleService;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.chat.model.ChatModel;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * 会话配置快照管理
+ * 负责构建 {@link SessionProfile}，并在角色/配置更新或设备改绑角色时刷新受影响会话的快照
+ */
+@Component
+public class SessionProfileManager {
+    private static final Logger logger = LoggerFactory.getLogger(SessionProfileManager.class);
+
+    @Resource
+    private SysRoleService roleService;
+
+    @Resource
+    private ConfigManager configManager;
+
+    @Resource
+    private SessionManager sessionManager;
+
+    @Resource
+    private SttServiceFactory sttFactory;
+
+    @Resource
+    private TtsServiceFactory ttsFactory;
+
+    @Resource
+    private ChatModelFactory chatModelFactory;
+
+    @Resource
+    private TtsHedger ttsHedger;
+
+    /**
+     * 根据设备当前角色构建快照，同时解析STT/TTS服务和对话模型
+     *
+     * @param device 设备信息
+     * @return 快照，设备未绑定角色时返回 {@link SessionProfile#EMPTY}
+     */
+    public SessionProfile build(SysDevice device) {
+        if (device == null || device.getRoleId() == null) {
+            return SessionProfile.EMPTY;
+        }
+        SysRole role = roleService.selectRoleById(device.getRoleId());
+        if (role == null) {
+            return SessionProfile.EMPTY;
+        }
+
+        SysConfig sttConfig = role.getSttId() != null ? configManager.getConfig(role.getSttId()) : null;
+        SysConfig ttsConfig = role.getTtsId() != null ? configManager.getConfig(role.getTtsId()) : null;
+        SysConfig llmConfig = role.getModelId() != null ? configManager.getConfig(role.getModelId()) : null;
+
+        SttService sttService = null;
+        try {
+            sttService = sttFactory.getSttService(sttConfig);
+        } catch (Exception e) {
+            logger.error("初始化STT服务失败 - RoleId: {}", role.getRoleId(), e);
+        }
+
+        TtsService ttsService = null;
+        try {
+            ttsService = ttsFactory.getTtsService(ttsConfig, role.getVoiceName());
+        } catch (Exception e) {
+            logger.error("初始化TTS服务失败 - RoleId: {}", role.getRoleId(), e);
+        }
+
+        // 备用TTS服务，0表示默认Edge服务；配置不可用或未设置音色时不启用对冲，不改用未配置的服务
+        SysConfig hedgeTtsConfig = null;
+        TtsService hedgeTtsService = null;
+        Integer hedgeTtsId = role.getHedgeTtsId();
+        if (hedgeTtsId != null && ttsHedger.isEnabled()) {
+            try {
+                if (hedgeTtsId == 0) {
+                    hedgeTtsService = ttsFactory.getDefaultTtsService();
+                } else if (hedgeTtsId > 0) {
+                    hedgeTtsConfig = configManager.getConfig(hedgeTtsId);
+                    if (hedgeTtsConfig == null) {
+                        logger.warn("备用TTS服务配置不存在或已禁用，不启用对冲 - RoleId: {}, HedgeTtsId: {}",
+                                role.getRoleId(), hedgeTtsId);
+                    } else if (!StringUtils.hasText(role.getHedgeVoiceName())) {
+                        logger.warn("备用TTS服务未设置音色，不启用对冲 - RoleId: {}, HedgeTtsId: {}",
+                                role.getRoleId(), hedgeTtsId);
+                        hedgeTtsConfig = null;
+                    } else {
+                        hedgeTtsService = ttsFactory.getTtsService(hedgeTtsConfig, role.getHedgeVoiceName());
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("初始化备用TTS服务失败 - RoleId: {}", role.getRoleId(), e);
+            }
+        }
+
+        ChatModel chatModel = llmConfig != null ? chatModelFactory.takeChatModel(llmConfig, role) : null;
+
+        return new SessionProfile(
+                role,
+                sttConfig,
+                ttsConfig,
+                hedgeTtsConfig,
+                llmConfig,
+                role.getVoiceName(),
+                Optional.ofNullable(role.getVadSpeechTh()).orElse(SessionProfile.DEFAULT_VAD_SPEECH_TH),
+                Optional.ofNullable(role.getVadSilenceTh()).orElse(SessionProfile.DEFAULT_VAD_SILENCE_TH),
+                Optional.ofNullable(role.getVadEnergyTh()).orElse(SessionProfile.DEFAULT_VAD_ENERGY_TH),
+                Optional.ofNullable(role.getVadSilenceMs()).orElse(SessionProfile.DEFAULT_VAD_SILENCE_MS),
+                sttService,
+                ttsService,
+                hedgeTtsService,
+                chatModel);
+    }
+
+    /**
+     * 重新构建会话的快照并替换
+     *
+     * @param session 会话
+     * @return 新的快照
+     */
+    public SessionProfile refresh(ChatSession session) {
+        SessionProfile profile = build(session.getSysDevice());
+        session.setSessionProfile(profile);
+        return profile;
+    }
+
+    /**
+     * 角色更新后刷新使用该角色的会话
+     */
+    @EventListener
+    public void onRoleUpdate(RoleUpdateEvent event) {
+        for (ChatSession session : sessionManager.getSessions()) {
+            if (Objects.equals(session.getSessionProfile().roleId(), event.getRoleId())) {
+                refreshAsync(session);
+            }
+        }
+    }
+
+    /**
+     * 设备更新后，绑定的角色与快照不一致时刷新该设备的会话
+     */
+    @EventListener
+    public void onDeviceUpdate(DeviceUpdateEvent event) {
+        ChatSession session = sessionManager.getSessionByDeviceId(event.getDeviceId());
+        if (session == null || session.getSysDevice() == null) {
+            return;
+        }
+        if (!Objects.equals(session.getSessionProfile().roleId(), session.getSysDevice().getRoleId())) {
+            refreshAsync(session);
+        }
+    }
+
+    /**
+     * 配置更新后刷新引用该配置的会话
+     */
+    @EventListener
+    public void onConfigUpdate(ConfigUpdateEvent event) {
+        configManager.removeConfig(event.getConfigId());
+        for (ChatSession session : sessionManager.getSessions()) {
+            if (session.getSessionProfile().usesConfig(event.getConfigId())) {
+                refreshAsync(session);
+            }
+        }
+    }
+
+    private void refreshAsync(ChatSession session) {
+        Thread.startVirtualThread(() -> {
+            try {
+                refresh(session);
+                logger.info("会话配置已刷新 - SessionId: {}", session.getSessionId());
+            } catch (Exception e) {
+                logger.error("刷新会话配置失败 - SessionId: {}", session.getSessionId(), e);
+            }
+        });
+    }
+}
@@ -10,11 +10,13 @@ import com.xiaozhi.communication.common.ConfigManager;
 import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.event.ConfigUpdateEvent;
 import com.xiaozhi.service.SysConfigService;
 import com.xiaozhi.utils.CmsUtils;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
 
+import org.springframework.context.ApplicationContext;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -49,6 +51,9 @@ public class ConfigController extends BaseController {
     @Resource
     private SttServiceFactory sttServiceFactory;
 
+    @Resource
+    private ApplicationContext applicationContext;
+
     /**
      * 配置查询
      * 
@@ -94,6 +99,8 @@ public class ConfigController extends BaseController {
                         ttsServiceFactory.removeCache(oldSysConfig);
                     }
                 }
+                // 刷新配置缓存以及引用该配置的在线会话快照
+                applicationContext.publishEvent(new ConfigUpdateEvent(this, config.getConfigId()));
             }
             return AjaxResult.success();
         } catch (Exception e) {
@@ -7,6 +7,7 @@ import com.xiaozhi.common.web.PageFilter;
 import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
 import com.xiaozhi.entity.SysDevice;
+import com.xiaozhi.event.DeviceUpdateEvent;
 import com.xiaozhi.service.SysDeviceService;
 import com.xiaozhi.utils.CmsUtils;
 import com.xiaozhi.utils.JsonUtil;
@@ -16,6 +17,7 @@ import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
 
 import org.apache.ibatis.javassist.NotFoundException;
+import org.springframework.context.ApplicationContext;
 import org.springframework.core.env.Environment;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
@@ -46,6 +48,9 @@ public class DeviceController extends BaseController {
     @Resource
     private Environment environment;
 
+    @Resource
+    private ApplicationContext applicationContext;
+
     /**
      * 设备查询
      * 
@@ -121,6 +126,8 @@ public class DeviceController extends BaseController {
         try {
             device.setUserId(CmsUtils.getUserId());
             deviceService.update(device);
+            // 通知该设备的在线会话按新绑定的角色刷新配置快照
+            applicationContext.publishEvent(new DeviceUpdateEvent(this, device.getDeviceId()));
             return AjaxResult.success();
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
@@ -7,12 +7,24 @@ import com.xiaozhi.dialogue.llm.ChatService;
 import com.xiaozhi.entity.SysMessage;
 import com.xiaozhi.service.SysDeviceService;
 import com.xiaozhi.service.SysMessageService;
+import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.CmsUtils;
+import com.xiaozhi.utils.OggOpusWriter;
+import com.xiaozhi.utils.OpusProcessor;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.List;
+import java.util.UUID;
 
 
 /**
@@ -34,6 +46,9 @@ public class MessageController extends BaseController {
     @Resource
     private ChatService chatService;
 
+    @Resource
+    private OpusProcessor opusProcessor;
+
     /**
      * 查询对话
      *
@@ -79,5 +94,54 @@ public class MessageController extends BaseController {
             return AjaxResult.error();
         }
     }
-    
-}
\ No newline at end of file
+
+    /**
+     * 获取对话音频
+     * Ogg-Opus录音可以直接播放，不支持Ogg-Opus的浏览器可以传 format=wav 转换为WAV
+     *
+     * @param path   消息中的音频路径
+     * @param format 输出格式，wav 或为空
+     * @return
+     */
+    @GetMapping("/audio")
+    public ResponseEntity<byte[]> audio(@RequestParam String path,
+            @RequestParam(required = false) String format) {
+        try {
+            // 只取文件名，避免访问音频目录之外的文件
+            Path fileName = Paths.get(path).getFileName();
+            if (fileName == null) {
+                return ResponseEntity.badRequest().build();
+            }
+            Path file = Paths.get(AudioUtils.AUDIO_PATH).resolve(fileName.toString());
+            if (!Files.isRegularFile(file)) {
+                return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+            }
+            byte[] data = Files.readAllBytes(file);
+            String mimeType = AudioUtils.getMimeType(file.toString());
+
+            if ("wav".equalsIgnoreCase(format) && file.toString().endsWith(OggOpusWriter.EXTENSION)) {
+                String sid = "message-audio-" + UUID.randomUUID();
+                byte[] pcm;
+                try {
+                    pcm = opusProcessor.oggToPcm(sid, data);
+                } finally {
+                    opusProcessor.cleanup(sid);
+                }
+                ByteBuffer header = AudioUtils.wavHeader(pcm.length);
+                data = new byte[header.remaining() + pcm.length];
+                int headerLength = header.remaining();
+                header.get(data, 0, headerLength);
+                System.arraycopy(pcm, 0, data, headerLength, pcm.length);
+                mimeType = "audio/wav";
+            }
+
+            HttpHeaders headers = new HttpHeaders();
+            headers.setContentType(MediaType.parseMediaType(mimeType));
+            headers.setContentLength(data.length);
+            return new ResponseEntity<>(data, headers, HttpStatus.OK);
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+}
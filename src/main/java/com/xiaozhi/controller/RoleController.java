@@ -6,11 +6,13 @@ import com.xiaozhi.common.web.PageFilter;
 import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysRole;
+import com.xiaozhi.event.RoleUpdateEvent;
 import com.xiaozhi.service.SysConfigService;
 import com.xiaozhi.service.SysRoleService;
 import com.xiaozhi.utils.CmsUtils;
 import jakarta.annotation.Resource;
 import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.context.ApplicationContext;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.List;
@@ -35,6 +37,9 @@ public class RoleController extends BaseController {
     @Resource
     private SysConfigService configService;
 
+    @Resource
+    private ApplicationContext applicationContext;
+
     /**
      * 角色查询
      * 
@@ -69,6 +74,8 @@ public class RoleController extends BaseController {
         try {
             role.setUserId(CmsUtils.getUserId());
             roleService.update(role);
+            // 通知使用该角色的在线会话刷新配置快照
+            applicationContext.publishEvent(new RoleUpdateEvent(this, role.getRoleId()));
             return AjaxResult.success();
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
@@ -11,7 +11,6 @@ import com.xiaozhi.entity.SysDevice;
 import com.xiaozhi.entity.SysMessage;
 import com.xiaozhi.entity.SysRole;
 import com.xiaozhi.service.SysRoleService;
-import com.xiaozhi.utils.EmojiUtils;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,17 +19,26 @@ import org.springframework.ai.chat.metadata.ChatGenerationMetadata;
 import org.springframework.ai.chat.model.ChatModel;
 import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.model.ToolContext;
 import org.springframework.ai.chat.prompt.ChatOptions;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.model.tool.ToolCallingChatOptions;
+import org.springframework.ai.tool.ToolCallback;
+import org.springframework.ai.tool.definition.ToolDefinition;
+import org.springframework.ai.tool.metadata.ToolMetadata;
 import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.regex.Matcher;
+import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
 import static com.xiaozhi.dialogue.llm.memory.MessageWindowConversation.DEFAULT_HISTORY_LIMIT;
@@ -46,27 +54,9 @@ public class ChatService {
 
     public static final String TOOL_CONTEXT_SESSION_KEY = "session";
 
-    // 句子结束标点符号模式（中英文句号、感叹号、问号）
-    private static final Pattern SENTENCE_END_PATTERN = Pattern.compile("[。！？!?]");
-
-    // 逗号、分号等停顿标点
-    private static final Pattern PAUSE_PATTERN = Pattern.compile("[，、；,;]");
-
-    // 冒号和引号等特殊标点
-    private static final Pattern SPECIAL_PATTERN = Pattern.compile("[：:\"]");
-
-    // 换行符
-    private static final Pattern NEWLINE_PATTERN = Pattern.compile("[\n\r]");
-
-    // 数字模式（用于检测小数点是否在数字中）
-    private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+\\.\\d+");
-
     // 表情符号模式
     private static final Pattern EMOJI_PATTERN = Pattern.compile("\\p{So}|\\p{Sk}|\\p{Sm}");
 
-    // 最小句子长度（字符数）
-    private static final int MIN_SENTENCE_LENGTH = 5;
-
     // 新句子判断的字符阈值
     private static final int NEW_SENTENCE_TOKEN_THRESHOLD = 8;
 
@@ -148,16 +138,46 @@ public class ChatService {
         return chatModel.stream(prompt);
     }
 
+    /**
+     * 推测执行的流式对话（用户还没说完时以识别的中间结果提前调用），在确认之前：
+     * - 用户消息不写入对话历史，确认后写入确认的文本
+     * - 工具调用等待确认，取消后调用失败，不会产生副作用
+     * - 回复在确认且生成完成后才保存
+     *
+     * @param confirmation 以确认的用户文本完成表示采用本次回复，以null完成表示放弃
+     * @return 订阅句柄，放弃时调用 dispose 中止LLM请求；调用失败时返回null
+     */
+    public Disposable chatStreamBySentence(ChatSession session, String message, boolean useFunctionCall,
+            TriConsumer<String, Boolean, Boolean> sentenceHandler, CompletableFuture<String> confirmation) {
+        // 确认后先保存用户消息，再保存回复
+        CompletableFuture<String> confirmed = confirmation.thenApply(text -> {
+            if (text != null) {
+                session.getConversation().addMessage(new UserMessage(text), null);
+            }
+            return text;
+        });
+        return streamBySentence(session, message, useFunctionCall, sentenceHandler, confirmed);
+    }
+
     public void chatStreamBySentence(ChatSession session, String message, boolean useFunctionCall,
             TriConsumer<String, Boolean, Boolean> sentenceHandler) {
+        streamBySentence(session, message, useFunctionCall, sentenceHandler, null);
+    }
+
+    private Disposable streamBySentence(ChatSession session, String message, boolean useFunctionCall,
+            TriConsumer<String, Boolean, Boolean> sentenceHandler, CompletableFuture<String> confirmed) {
         try {
             SysDevice device = session.getSysDevice();
             device.setSessionId(session.getSessionId());
             // 创建流式响应监听器
-            StreamResponseListener streamListener = new TokenStreamResponseListener(session, message, sentenceHandler);
+            TokenStreamResponseListener streamListener = new TokenStreamResponseListener(session, message, sentenceHandler);
+            streamListener.confirmed = confirmed;
             final StringBuilder toolName = new StringBuilder(); // 当前句子的缓冲区
-            // 调用现有的流式方法
-            chatStream(session, device, message, useFunctionCall)
+            // 调用现有的流式方法，推测执行时不保存用户消息
+            Flux<ChatResponse> stream = confirmed == null
+                    ? chatStream(session, device, message, useFunctionCall)
+                    : speculativeStream(session, message, useFunctionCall, confirmed);
+            return stream
                     .subscribe(
                             chatResponse -> {
                                 String token = chatResponse.getResult() == null
@@ -186,9 +206,32 @@ public class ChatService {
             logger.error("处理LLM时出错: {}", e.getMessage(), e);
             // 发送错误信号
             sentenceHandler.accept("抱歉，我在处理您的请求时遇到了问题。", true, true);
+            return null;
         }
     }
 
+    /**
+     * 推测执行的流式请求：提示词不保存用户消息，工具调用等待确认
+     */
+    private Flux<ChatResponse> speculativeStream(ChatSession session, String message, boolean useFunctionCall,
+            CompletableFuture<String> confirmed) {
+        ChatModel chatModel = chatModelFactory.takeChatModel(session);
+
+        List<ToolCallback> toolCallbacks = new ArrayList<>();
+        if (useFunctionCall) {
+            for (ToolCallback callback : session.getToolCallbacks()) {
+                toolCallbacks.add(new ConfirmedToolCallback(callback, confirmed));
+            }
+        }
+        ChatOptions chatOptions = ToolCallingChatOptions.builder()
+                .toolCallbacks(toolCallbacks)
+                .toolContext(TOOL_CONTEXT_SESSION_KEY, session)
+                .build();
+
+        List<Message> messages = session.getConversation().preview(new UserMessage(message));
+        return chatModel.stream(new Prompt(messages, chatOptions));
+    }
+
 
     /**
      * 清除设备缓存
@@ -200,35 +243,73 @@ public class ChatService {
     }
 
     /**
-     * 判断文本是否包含实质性内容（不仅仅是空白字符或标点符号）
-     *
-     * @param text 要检查的文本
-     * @return 是否包含实质性内容
+     * 三参数消费者接口
      */
-    private boolean containsSubstantialContent(String text) {
-        if (text == null || text.trim().length() < MIN_SENTENCE_LENGTH) {
-            return false;
-        }
-
-        // 移除所有标点符号和空白字符后，检查是否还有内容
-        String stripped = text.replaceAll("[\\p{P}\\s]", "");
-        return stripped.length() >= 2; // 至少有两个非标点非空白字符
+    public interface TriConsumer<T, U, V> {
+        void accept(T t, U u, V v);
     }
 
     /**
-     * 三参数消费者接口
+     * 推测执行时的工具调用：等到用户文本确认后才调用，放弃或超时则调用失败
      */
-    public interface TriConsumer<T, U, V> {
-        void accept(T t, U u, V v);
+    private static final class ConfirmedToolCallback implements ToolCallback {
+        // 等待确认的最长时间，超过VAD静音时长和识别耗时即可
+        private static final long CONFIRM_TIMEOUT_MS = 10000;
+
+        private final ToolCallback delegate;
+        private final CompletableFuture<String> confirmed;
+
+        private ConfirmedToolCallback(ToolCallback delegate, CompletableFuture<String> confirmed) {
+            this.delegate = delegate;
+            this.confirmed = confirmed;
+        }
+
+        @Override
+        public ToolDefinition getToolDefinition() {
+            return delegate.getToolDefinition();
+        }
+
+        @Override
+        public ToolMetadata getToolMetadata() {
+            return delegate.getToolMetadata();
+        }
+
+        @Override
+        public String call(String toolInput) {
+            awaitConfirmation();
+            return delegate.call(toolInput);
+        }
+
+        @Override
+        public String call(String toolInput, ToolContext toolContext) {
+            awaitConfirmation();
+            return delegate.call(toolInput, toolContext);
+        }
+
+        private void awaitConfirmation() {
+            String text;
+            try {
+                text = confirmed.get(CONFIRM_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待确认被中断");
+            } catch (ExecutionException | TimeoutException e) {
+                throw new IllegalStateException("等待确认超时");
+            }
+            if (text == null) {
+                throw new IllegalStateException("推测执行已放弃，不调用工具");
+            }
+        }
     }
 
     class TokenStreamResponseListener implements StreamResponseListener {
 
-        final StringBuilder currentSentence = new StringBuilder(); // 当前句子的缓冲区
-        final StringBuilder contextBuffer = new StringBuilder(); // 上下文缓冲区，用于检测数字中的小数点
+        final SentenceSegmenter segmenter = new SentenceSegmenter(); // 流式断句器，保存当前句子
+        final Consumer<String> sentenceSink = this::onSentence; // 切出句子的回调，每次回复创建一次
         final AtomicInteger sentenceCount = new AtomicInteger(0); // 已发送句子的计数
         final StringBuilder fullResponse = new StringBuilder(); // 完整响应的缓冲区
         final AtomicBoolean finalSentenceSent = new AtomicBoolean(false); // 跟踪最后一个句子是否已发送
+        CompletableFuture<String> confirmed; // 推测执行时的确认结果，为null表示不是推测执行
         String message;// 用户消息内容
         ChatSession session;
         TriConsumer<String, Boolean, Boolean> sentenceHandler;
@@ -248,88 +329,26 @@ public class ChatService {
             // 将token添加到完整响应
             fullResponse.append(token);
 
-            // 逐字符处理token
-            for (int i = 0; i < token.length();) {
-                int codePoint = token.codePointAt(i);
-                String charStr = new String(Character.toChars(codePoint));
-
-                // 将字符添加到上下文缓冲区（保留最近的字符以检测数字模式）
-                contextBuffer.append(charStr);
-                if (contextBuffer.length() > 20) { // 保留足够的上下文
-                    contextBuffer.delete(0, contextBuffer.length() - 20);
-                }
-
-                // 将字符添加到当前句子缓冲区
-                currentSentence.append(charStr);
-
-                // 检查各种断句标记
-                boolean shouldSendSentence = false;
-                boolean isEndMark = SENTENCE_END_PATTERN.matcher(charStr).find();
-                boolean isPauseMark = PAUSE_PATTERN.matcher(charStr).find();
-                boolean isSpecialMark = SPECIAL_PATTERN.matcher(charStr).find();
-                boolean isNewline = NEWLINE_PATTERN.matcher(charStr).find();
-                boolean isEmoji = EmojiUtils.isEmoji(codePoint);
-
-                // 检查当前句子是否包含颜文字
-                boolean containsKaomoji = false;
-                if (currentSentence.length() >= 3) { // 颜文字至少需要3个字符
-                    containsKaomoji = EmojiUtils.containsKaomoji(currentSentence.toString());
-                }
-
-                // 如果当前字符是句号，检查它是否是数字中的小数点
-                if (isEndMark && charStr.equals(".")) {
-                    String context = contextBuffer.toString();
-                    Matcher numberMatcher = NUMBER_PATTERN.matcher(context);
-                    // 如果找到数字模式（如"0.271"），则不视为句子结束标点
-                    if (numberMatcher.find() && numberMatcher.end() >= context.length() - 3) {
-                        isEndMark = false;
-                    }
-                }
-
-                // 判断是否应该发送当前句子
-                if (isEndMark) {
-                    // 句子结束标点是强断句信号
-                    shouldSendSentence = true;
-                } else if (isNewline) {
-                    // 换行符也是强断句信号
-                    shouldSendSentence = true;
-                } else if ((isPauseMark || isSpecialMark || isEmoji || containsKaomoji)
-                        && currentSentence.length() >= MIN_SENTENCE_LENGTH) {
-                    // 停顿标点、特殊标点、表情符号或颜文字在句子足够长时可以断句
-                    shouldSendSentence = true;
-                }
-
-                // 如果应该发送句子，且当前句子长度满足要求
-                if (shouldSendSentence && currentSentence.length() >= MIN_SENTENCE_LENGTH) {
-                    String sentence = currentSentence.toString().trim();
-
-                    // 过滤颜文字
-                    sentence = EmojiUtils.filterKaomoji(sentence);
-
-                    if (containsSubstantialContent(sentence)) {
-                        boolean isFirst = sentenceCount.get() == 0;
-                        boolean isLast = false; // 只有在onComplete中才会有最后一个句子
+            // 逐码点断句，切出的句子交给 onSentence
+            segmenter.append(token, sentenceSink);
+        }
 
-                        sentenceHandler.accept(sentence, isFirst, isLast);
-                        sentenceCount.incrementAndGet();
+        void onSentence(String sentence) {
+            boolean isFirst = sentenceCount.get() == 0;
+            boolean isLast = false; // 只有在onComplete中才会有最后一个句子
 
-                        // 清空当前句子缓冲区
-                        currentSentence.setLength(0);
-                    }
-                }
-
-                // 移动到下一个码点
-                i += Character.charCount(codePoint);
-            }
+            sentenceHandler.accept(sentence, isFirst, isLast);
+            sentenceCount.incrementAndGet();
         }
 
         @Override
         public void onComplete(String toolName) {
             // 检查该会话是否已完成处理
             // 处理当前缓冲区剩余的内容（如果有）
-            if (currentSentence.length() > 0 && containsSubstantialContent(currentSentence.toString())
+            String remainder = segmenter.remainder();
+            if (!remainder.isEmpty() && SentenceSegmenter.hasSubstantialContent(remainder)
                     && !finalSentenceSent.get()) {
-                String sentence = currentSentence.toString().trim();
+                String sentence = remainder.trim();
                 boolean isFirst = sentenceCount.get() == 0;
                 boolean isLast = true; // 这是最后一个句子
 
@@ -344,7 +363,17 @@ public class ChatService {
                 finalSentenceSent.set(true);
             }
 
-            persistMessages(toolName);
+            if (confirmed == null) {
+                persistMessages(toolName);
+            } else {
+                // 推测执行的回复在确认后保存，用户消息使用确认的文本
+                confirmed.thenAccept(text -> {
+                    if (text != null) {
+                        message = text;
+                        persistMessages(toolName);
+                    }
+                });
+            }
 
             // 记录处理的句子数量
             logger.debug("总共处理了 {} 个句子", sentenceCount.get());
@@ -0,0 +1,316 @@
+package com.xiaozhi.dialogue.llm;
+
+import com.xiaozhi.utils.EmojiUtils;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * 流式断句器
+ * LLM回复的每个token都要逐字判断能否断句，这里按码点查表分类，不再为每个字符创建字符串、执行正则：
+ * - 码点类别：两级查找表（码点高位 -> 256项的块），不含标点的块共用同一个空块，汉字只会访问这个空块
+ * - 句点：英文句点先挂起，下一个码点是数字或英文字母时视为小数点、网址或缩写的一部分，否则在句点处断句
+ * - 颜文字：逐码点记录括号位置和最近的两个码点，在颜文字结束的码点即可判定，
+ *   结果与对整句执行 {@link EmojiUtils#containsKaomoji(String)} 相同
+ *
+ * 断句规则：句末标点和换行是强断句信号，停顿标点、特殊标点、表情符号和颜文字是弱断句信号，
+ * 两者都要求句子达到 {@value #MIN_SENTENCE_LENGTH} 个字符，且去掉标点后还有实际内容。
+ *
+ * 非线程安全，每次回复使用一个实例。
+ */
+public final class SentenceSegmenter {
+
+    // 最小句子长度（字符数）
+    public static final int MIN_SENTENCE_LENGTH = 5;
+
+    // 颜文字括号内最多的码点数，与 EmojiUtils 中的颜文字模式一致
+    private static final int KAOMOJI_MAX_INNER = 10;
+
+    // 码点类别，低4位
+    private static final byte OTHER = 0;
+    // 句子结束标点（中英文句号、感叹号、问号）
+    private static final byte END = 1;
+    // 换行符
+    private static final byte NEWLINE = 2;
+    // 逗号、分号等停顿标点
+    private static final byte PAUSE = 3;
+    // 冒号和引号等特殊标点
+    private static final byte SPECIAL = 4;
+    // 表情符号
+    private static final byte EMOJI = 5;
+    // 英文句点，是否断句取决于下一个码点
+    private static final byte DOT = 6;
+    // 英文字母和数字，出现在句点之后时句点不断句
+    private static final byte ALNUM = 7;
+    private static final int CLASS_MASK = 0x0F;
+
+    // 颜文字中出现的字符，需要更新颜文字状态
+    private static final int KAOMOJI_CHAR = 0x10;
+
+    private static final byte[] EMPTY_BLOCK = new byte[256];
+    private static final byte[][] BLOCKS = new byte[256][];
+
+    static {
+        Arrays.fill(BLOCKS, EMPTY_BLOCK);
+        mark("。！？!?", END);
+        mark("\n\r", NEWLINE);
+        mark("，、；,;", PAUSE);
+        mark("：:\"", SPECIAL);
+        mark(".", DOT);
+        for (int c = 0x2600; c <= 0x27BF; c++) {
+            // 杂项符号和装饰符号，其余表情符号都在辅助平面
+            set(c, EMOJI);
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            set(c, ALNUM);
+        }
+        for (int c = 'a'; c <= 'z'; c++) {
+            set(c, ALNUM);
+            set(Character.toUpperCase(c), ALNUM);
+        }
+        for (char c : "(（)）<＜>＞\\¯*_-o/:;=D".toCharArray()) {
+            block(c)[c & 0xFF] |= KAOMOJI_CHAR;
+        }
+    }
+
+    private final StringBuilder sentence = new StringBuilder();
+
+    // 英文句点后等待下一个码点
+    private boolean dotPending = false;
+
+    // 当前句子中的码点序号
+    private int position = 0;
+
+    // 当前句子是否包含颜文字
+    private boolean kaomoji = false;
+
+    // 上一个右括号之后最近的两个左括号位置，-1表示没有
+    private int roundOpen = -1;
+    private int roundOpenPrev = -1;
+    private int angleOpen = -1;
+    private int angleOpenPrev = -1;
+
+    // 最近的 \ ¯ * 位置，以及紧邻当前码点之前连续的 _ - 个数
+    private int edgePosition = -1;
+    private int dashRun = 0;
+
+    // 前两个码点
+    private int prev1 = -1;
+    private int prev2 = -1;
+
+    /**
+     * 输入一个token，每切出一个句子调用一次 sink
+     *
+     * @param token LLM输出的文本片段
+     * @param sink  接收切出的句子（已去除首尾空白和颜文字）
+     */
+    public void append(CharSequence token, Consumer<String> sink) {
+        for (int i = 0; i < token.length();) {
+            int codePoint = Character.codePointAt(token, i);
+            i += Character.charCount(codePoint);
+
+            int type = codePoint < 0x10000
+                    ? BLOCKS[codePoint >>> 8][codePoint & 0xFF]
+                    : (EmojiUtils.isEmoji(codePoint) ? EMOJI : OTHER);
+            int cls = type & CLASS_MASK;
+
+            if (dotPending) {
+                dotPending = false;
+                if (cls != ALNUM) {
+                    // 句点后不是字母数字，句点是句末标点
+                    tryEmit(sink);
+                }
+            }
+
+            sentence.appendCodePoint(codePoint);
+            if ((type & KAOMOJI_CHAR) != 0 || roundOpen >= 0 || angleOpen >= 0) {
+                trackKaomoji(codePoint);
+            } else {
+                dashRun = 0;
+            }
+            prev2 = prev1;
+            prev1 = codePoint;
+            position++;
+
+            if (cls == DOT) {
+                dotPending = true;
+            } else if ((cls >= END && cls <= EMOJI) || kaomoji) {
+                tryEmit(sink);
+            }
+        }
+    }
+
+    /**
+     * 尚未切出的剩余内容
+     */
+    public String remainder() {
+        return sentence.toString();
+    }
+
+    /**
+     * 清空当前句子
+     */
+    public void reset() {
+        sentence.setLength(0);
+        dotPending = false;
+        position = 0;
+        kaomoji = false;
+        roundOpen = roundOpenPrev = angleOpen = angleOpenPrev = -1;
+        edgePosition = -1;
+        dashRun = 0;
+        prev1 = prev2 = -1;
+    }
+
+    /**
+     * 判断文本是否包含实质性内容：去掉首尾空白后达到最小长度，且除标点和空白外至少还有两个字符
+     */
+    public static boolean hasSubstantialContent(String text) {
+        if (text == null || text.trim().length() < MIN_SENTENCE_LENGTH) {
+            return false;
+        }
+        int count = 0;
+        for (int i = 0; i < text.length();) {
+            int codePoint = text.codePointAt(i);
+            int charCount = Character.charCount(codePoint);
+            if (!isPunctuationOrSpace(codePoint)) {
+                count += charCount;
+                if (count >= 2) {
+                    return true;
+                }
+            }
+            i += charCount;
+        }
+        return false;
+    }
+
+    private void tryEmit(Consumer<String> sink) {
+        if (sentence.length() < MIN_SENTENCE_LENGTH) {
+            return;
+        }
+        String text = sentence.toString().trim();
+        if (kaomoji) {
+            text = EmojiUtils.filterKaomoji(text);
+        }
+        if (hasSubstantialContent(text)) {
+            sink.accept(text);
+            reset();
+        }
+    }
+
+    /**
+     * 更新颜文字状态，对应 EmojiUtils 中颜文字模式的各个分支
+     */
+    private void trackKaomoji(int c) {
+        int pos = position;
+        switch (c) {
+            case '(', '（' -> {
+                roundOpenPrev = roundOpen;
+                roundOpen = pos;
+            }
+            case ')', '）' -> {
+                // [(（][^)）]{1,10}[)）]
+                if (bracketClosed(pos, roundOpen, roundOpenPrev)) {
+                    kaomoji = true;
+                }
+                // :-?[)D(] 和 ;-?[)]
+                if (c == ')' && (prev1 == ':' || prev1 == ';' || (prev1 == '-' && (prev2 == ':' || prev2 == ';')))) {
+                    kaomoji = true;
+                }
+                roundOpen = roundOpenPrev = -1;
+            }
+            case '<', '＜' -> {
+                angleOpenPrev = angleOpen;
+                angleOpen = pos;
+            }
+            case '>', '＞' -> {
+                // [<＜][^>＞]{1,10}[>＞]
+                if (bracketClosed(pos, angleOpen, angleOpenPrev)) {
+                    kaomoji = true;
+                }
+                angleOpen = angleOpenPrev = -1;
+            }
+            default -> {
+            }
+        }
+        if (c == '(' || c == 'D') {
+            // :-?[)D(]
+            if (prev1 == ':' || (prev1 == '-' && prev2 == ':')) {
+                kaomoji = true;
+            }
+        } else if (c == '/') {
+            // \o/ 和 =\?[_/]
+            if ((prev1 == 'o' && prev2 == '\\') || prev1 == '=' || (prev1 == '\\' && prev2 == '=')) {
+                kaomoji = true;
+            }
+        } else if (c == '_' && (prev1 == '=' || (prev1 == '\\' && prev2 == '='))) {
+            // =\?[_/]
+            kaomoji = true;
+        }
+
+        // [\¯*][_-]{1,2}[\¯*]
+        if (c == '_' || c == '-') {
+            dashRun++;
+            return;
+        }
+        if (c == '\\' || c == '¯' || c == '*') {
+            if (dashRun >= 1 && dashRun <= 2 && edgePosition >= 0 && edgePosition == pos - dashRun - 1) {
+                kaomoji = true;
+            }
+            edgePosition = pos;
+        }
+        dashRun = 0;
+    }
+
+    /**
+     * 右括号与上一个右括号之后的某个左括号之间是否有1到10个码点
+     */
+    private static boolean bracketClosed(int pos, int open, int openPrev) {
+        if (open < 0) {
+            return false;
+        }
+        int inner = pos - open - 1;
+        if (inner == 0) {
+            // 紧挨着的左括号本身可以作为括号内的字符
+            inner = openPrev < 0 ? 0 : pos - openPrev - 1;
+        }
+        return inner >= 1 && inner <= KAOMOJI_MAX_INNER;
+    }
+
+    /**
+     * 与正则 [\p{P}\s] 相同
+     */
+    private static boolean isPunctuationOrSpace(int codePoint) {
+        switch (codePoint) {
+            case ' ', '\t', '\n', 0x0B, '\f', '\r' -> {
+                return true;
+            }
+            default -> {
+            }
+        }
+        return switch (Character.getType(codePoint)) {
+            case Character.CONNECTOR_PUNCTUATION, Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+                    Character.END_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION,
+                    Character.FINAL_QUOTE_PUNCTUATION, Character.OTHER_PUNCTUATION -> true;
+            default -> false;
+        };
+    }
+
+    private static void mark(String chars, byte cls) {
+        for (int i = 0; i < chars.length(); i++) {
+            set(chars.charAt(i), cls);
+        }
+    }
+
+    private static void set(int c, byte cls) {
+        byte[] block = block(c);
+        block[c & 0xFF] = (byte) ((block[c & 0xFF] & ~CLASS_MASK) | cls);
+    }
+
+    private static byte[] block(int c) {
+        int index = c >>> 8;
+        if (BLOCKS[index] == EMPTY_BLOCK) {
+            BLOCKS[index] = new byte[256];
+        }
+        return BLOCKS[index];
+    }
+}
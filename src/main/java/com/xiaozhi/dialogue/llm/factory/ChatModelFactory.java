@@ -6,11 +6,22 @@ import com.xiaozhi.dialogue.llm.providers.DifyChatModel;
 import com.xiaozhi.entity.SysConfig;
 import com.xiaozhi.entity.SysDevice;
 import com.xiaozhi.entity.SysRole;
+import com.xiaozhi.event.ConfigUpdateEvent;
+import com.xiaozhi.event.RoleUpdateEvent;
 import com.xiaozhi.service.SysConfigService;
 import com.xiaozhi.service.SysRoleService;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
 import java.net.http.HttpClient;
 import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,6 +39,9 @@ import org.springframework.ai.zhipuai.ZhiPuAiChatModel;
 import org.springframework.ai.zhipuai.ZhiPuAiChatOptions;
 import org.springframework.ai.zhipuai.api.ZhiPuAiApi;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
 import org.springframework.http.client.JdkClientHttpRequestFactory;
 import org.springframework.http.client.reactive.JdkClientHttpConnector;
 import org.springframework.stereotype.Component;
@@ -41,6 +55,11 @@ import org.springframework.web.reactive.function.client.WebClient;
 /**
  * ChatModel工厂
  * 根据配置的模型ID，创建对应的ChatModel
+ *
+ * 创建的ChatModel按（配置ID, temperature, topP）缓存，同一角色参数的所有会话和对话轮次共用一个实例，
+ * 实例内的HTTP客户端和连接池随之复用，每轮对话不再重新建立TCP/TLS连接。
+ * OpenAI协议的模型共用同一个JDK HttpClient，不同配置指向同一服务地址时也复用连接。
+ * 配置更新时移除该配置的所有实例；角色更新时移除该角色之前使用、且没有其他角色使用的实例。
  */
 @Component
 public class ChatModelFactory {
@@ -50,8 +69,54 @@ public class ChatModelFactory {
     private SysRoleService roleService;
     @Autowired
     private ToolCallingManager toolCallingManager;
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
     private final Logger logger = LoggerFactory.getLogger(ChatModelFactory.class);
 
+    // OpenAI协议共用的HTTP客户端，LM Studio不支持Http/2，所以需要强制使用HTTP/1.1
+    private static final HttpClient OPENAI_HTTP_CLIENT = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+
+    /**
+     * 缓存键
+     */
+    private record ModelKey(Integer configId, Double temperature, Double topP) {
+    }
+
+    /**
+     * 缓存统计
+     *
+     * @param hits      命中次数
+     * @param misses    未命中（新建实例）次数
+     * @param evictions 因配置或角色更新移除的实例数
+     * @param size      当前缓存的实例数
+     */
+    public record ModelCacheStats(long hits, long misses, long evictions, int size) {
+    }
+
+    private final Map<ModelKey, ChatModel> models = new ConcurrentHashMap<>();
+    // 角色ID -> 该角色最近使用的缓存键
+    private final Map<Integer, ModelKey> roleKeys = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    @PostConstruct
+    public void init() {
+        if (meterRegistry == null) {
+            return;
+        }
+        FunctionCounter.builder("llm.model.cache.requests", hits, LongAdder::sum)
+                .tag("result", "hit").register(meterRegistry);
+        FunctionCounter.builder("llm.model.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss").register(meterRegistry);
+        FunctionCounter.builder("llm.model.cache.evictions", evictions, LongAdder::sum).register(meterRegistry);
+        Gauge.builder("llm.model.cache.size", models, Map::size).register(meterRegistry);
+    }
+
     /**
      * 根据配置ID创建ChatModel，首次调用时缓存，缓存key为配置ID。
      * 
@@ -60,6 +125,11 @@ public class ChatModelFactory {
      * @return
      */
     public ChatModel takeChatModel(ChatSession session) {
+        // 优先使用会话快照中已创建的模型
+        ChatModel chatModel = session.getSessionProfile().chatModel();
+        if (chatModel != null) {
+            return chatModel;
+        }
         SysDevice device = session.getSysDevice();
         SysRole role = roleService.selectRoleById(device.getRoleId());
         Integer modelId = role.getModelId();
@@ -69,13 +139,94 @@ public class ChatModelFactory {
         return createChatModel(config, role);
     }
 
+    /**
+     * 根据模型配置和角色参数创建ChatModel，用于构建会话快照
+     *
+     * @param config 模型配置
+     * @param role   角色，提供temperature和topP
+     * @return
+     */
+    public ChatModel takeChatModel(SysConfig config, SysRole role) {
+        return createChatModel(config, role);
+    }
+
+    /**
+     * 缓存统计
+     */
+    public ModelCacheStats getStats() {
+        return new ModelCacheStats(hits.sum(), misses.sum(), evictions.sum(), models.size());
+    }
+
+    /**
+     * 配置更新后移除该配置的实例，先于会话快照刷新执行，刷新时创建新实例
+     */
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onConfigUpdate(ConfigUpdateEvent event) {
+        Integer configId = event.getConfigId();
+        if (configId == null) {
+            return;
+        }
+        roleKeys.values().removeIf(key -> configId.equals(key.configId()));
+        evict(key -> configId.equals(key.configId()));
+    }
+
+    /**
+     * 角色更新后（模型、temperature、topP可能变化）移除该角色之前使用的实例
+     */
+    @EventListener
+    @Order(Ordered.HIGHEST_PRECEDENCE)
+    public void onRoleUpdate(RoleUpdateEvent event) {
+        if (event.getRoleId() == null) {
+            return;
+        }
+        ModelKey previous = roleKeys.remove(event.getRoleId());
+        if (previous != null && !roleKeys.containsValue(previous)) {
+            evict(previous::equals);
+        }
+    }
+
+    private void evict(Predicate<ModelKey> filter) {
+        models.keySet().removeIf(key -> {
+            if (filter.test(key)) {
+                evictions.increment();
+                logger.info("移除缓存的ChatModel - 配置ID: {}, temperature: {}, topP: {}",
+                        key.configId(), key.temperature(), key.topP());
+                return true;
+            }
+            return false;
+        });
+    }
+
+    /**
+     * 获取缓存的ChatModel，没有时创建
+     */
+    private ChatModel createChatModel(SysConfig config, SysRole role) {
+        if (config.getConfigId() == null) {
+            return newChatModel(config, role);
+        }
+        ModelKey key = new ModelKey(config.getConfigId(), role.getTemperature(), role.getTopP());
+        if (role.getRoleId() != null) {
+            roleKeys.put(role.getRoleId(), key);
+        }
+        ChatModel chatModel = models.get(key);
+        if (chatModel != null) {
+            hits.increment();
+            return chatModel;
+        }
+        return models.computeIfAbsent(key, k -> {
+            misses.increment();
+            return newChatModel(config, role);
+        });
+    }
+
     /**
      * 创建ChatModel
      * 
      * @param config
      * @return
      */
-    private ChatModel createChatModel(SysConfig config, SysRole role) {
+    private ChatModel newChatModel(SysConfig config, SysRole role) {
         String provider = config.getProvider().toLowerCase();
         String model = config.getConfigName();
         String endpoint = config.getApiUrl();
@@ -122,24 +273,16 @@ public class ChatModelFactory {
         MultiValueMap<String, String> headers = new LinkedMultiValueMap<>();
         headers.add("Content-Type", "application/json");
 
-        // LM Studio不支持Http/2，所以需要强制使用HTTP/1.1
+        // 流式和非流式请求共用同一个HttpClient及其连接池
         var openAiApi = OpenAiApi.builder()
                 .apiKey(StringUtils.hasText(apiKey) ? new SimpleApiKey(apiKey) : new NoopApiKey())
                 .baseUrl(endpoint)
                 .completionsPath("/chat/completions")
                 .headers(headers)
                 .webClientBuilder(WebClient.builder()
-                        // Force HTTP/1.1 for streaming
-                        .clientConnector(new JdkClientHttpConnector(HttpClient.newBuilder()
-                                .version(HttpClient.Version.HTTP_1_1)
-                                .connectTimeout(Duration.ofSeconds(30))
-                                .build())))
+                        .clientConnector(new JdkClientHttpConnector(OPENAI_HTTP_CLIENT)))
                 .restClientBuilder(RestClient.builder()
-                        // Force HTTP/1.1 for non-streaming
-                        .requestFactory(new JdkClientHttpRequestFactory(HttpClient.newBuilder()
-                                .version(HttpClient.Version.HTTP_1_1)
-                                .connectTimeout(Duration.ofSeconds(30))
-                                .build())))
+                        .requestFactory(new JdkClientHttpRequestFactory(OPENAI_HTTP_CLIENT)))
                 .build();
         var openAiChatOptions = OpenAiChatOptions.builder()
                 .model(model)
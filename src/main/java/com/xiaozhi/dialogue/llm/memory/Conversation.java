@@ -53,4 +53,9 @@ public abstract class Conversation {
     abstract public void addMessage(AssistantMessage message, String audioPath);
 
     abstract public List<Message> prompt(UserMessage userMessage);
+
+    /**
+     * 与 prompt 相同地构建提示词，但不保存用户消息，用于推测执行，确认后再调用 addMessage 保存。
+     */
+    abstract public List<Message> preview(UserMessage userMessage);
 }
@@ -11,14 +11,13 @@ import com.xiaozhi.service.SysMessageService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 
-import static com.xiaozhi.dialogue.llm.memory.MessageWindowConversation.DEFAULT_HISTORY_LIMIT;
-
 /**
  * 基于数据库的聊天记忆实现
  * 全局单例类，负责Conversatin的初始化、保存、清理。
@@ -33,10 +32,19 @@ public class DatabaseChatMemory  implements ChatMemory {
     @Autowired
     private TtsServiceFactory ttsService;
 
+    // 提示词的默认token预算，角色可单独配置
+    @Value("${dialogue.history.max-tokens:2000}")
+    private int maxTokens;
+
+    // 历史消息条数上限
+    @Value("${dialogue.history.max-messages:10}")
+    private int maxMessages;
+
     @Override
     public Conversation initConversation(SysDevice device, SysRole role, String sessionId) {
         Conversation conversation = MessageWindowConversation.builder().chatMemory(this)
-                .maxMessages(DEFAULT_HISTORY_LIMIT)
+                .maxMessages(maxMessages)
+                .maxTokens(role.getHistoryTokens() != null ? role.getHistoryTokens() : maxTokens)
                 .role( role)
                 .device(device)
                 .sessionId(sessionId)
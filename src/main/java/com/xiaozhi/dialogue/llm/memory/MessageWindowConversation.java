@@ -11,23 +11,61 @@ import org.springframework.util.StringUtils;
 
 import java.util.*;
 
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
- * 限定消息条数（消息窗口）的Conversation实现。根据不同的策略，可实现聊天会话的持久化、加载、清除等功能。
+ * 限定token预算（消息窗口）的Conversation实现。根据不同的策略，可实现聊天会话的持久化、加载、清除等功能。
+ *
+ * 提示词（系统提示词 + 历史消息 + 本次用户消息）的估算token数不超过 maxTokens，提示词规模和首字延迟不再随消息长短波动：
+ * - 每条历史消息的token数在加入窗口时用 {@link TokenEstimator} 估算一次，窗口维护总数，不重复计算
+ * - 历史消息保存在双端队列中，超出预算时从队首移除最旧的消息，移除后不以AI回复开头
+ * - 本次用户消息较长时，只在构建提示词时少带几条历史，不从窗口中移除
+ * - 预算连最近一问一答都放不下时（系统提示词或本次用户消息过长）仍保留这一问一答，每个角色只记录一次警告
+ * maxMessages 是条数上限，同时决定从数据库加载的历史条数；maxTokens 不大于0时只按条数限制。
  */
 public class MessageWindowConversation extends Conversation {
     // 历史记录默认限制数量
     public static final int DEFAULT_HISTORY_LIMIT = 10;
     private final DatabaseChatMemory chatMemory;
     private final int maxMessages;
+    private final int maxTokens;
     private static final org.slf4j.Logger logger = org.slf4j.LoggerFactory.getLogger(MessageWindowConversation.class);
 
+    // 已记录过预算不足警告的角色
+    private static final Set<Integer> overBudgetRoles = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 窗口中的一条历史消息及其估算的token数
+     */
+    private record Entry(Message message, int tokens) {
+    }
+
+    // 历史消息窗口，队首最旧
+    private final Deque<Entry> window = new ArrayDeque<>();
+    private int windowTokens = 0;
+
+    // 系统提示词及其token数，角色描述不变时复用
+    private String systemText;
+    private int systemTokens;
 
     public MessageWindowConversation(DatabaseChatMemory chatMemory, SysDevice device, SysRole role, int maxMessages, List<Message> messages){
+        this(chatMemory, device, role, maxMessages, 0, messages);
+    }
+
+    public MessageWindowConversation(DatabaseChatMemory chatMemory, SysDevice device, SysRole role, int maxMessages,
+            int maxTokens, List<Message> messages){
         super(device, role, device.getSessionId(), messages);
         this.chatMemory = chatMemory;
         this.maxMessages = maxMessages;
+        this.maxTokens = maxTokens;
+        synchronized (window) {
+            // 先计入系统提示词，加载历史时按扣除它之后的预算裁剪
+            updateSystem(role.getRoleDesc());
+            for (Message message : messages) {
+                append(message);
+            }
+        }
     }
 
     public static class Builder {
@@ -35,6 +73,7 @@ public class MessageWindowConversation extends Conversation {
         private SysRole role;
         private String sessionId;
         private int maxMessages;
+        private int maxTokens;
         private DatabaseChatMemory chatMemory;
 
         public Builder device(SysDevice device) {
@@ -61,6 +100,14 @@ public class MessageWindowConversation extends Conversation {
             return this;
         }
 
+        /**
+         * 提示词的token预算，不大于0时只按条数限制
+         */
+        public Builder maxTokens(int maxTokens) {
+            this.maxTokens = maxTokens;
+            return this;
+        }
+
         public MessageWindowConversation build(){
             Assert.notNull(device, "device must not be null");
             Assert.notNull(role, "role must not be null");
@@ -72,7 +119,7 @@ public class MessageWindowConversation extends Conversation {
             List<SysMessage> history = chatMemory.getMessages(deviceId, SysMessage.MESSAGE_TYPE_NORMAL, maxMessages);
             List<Message> messages =convert( history);
 
-            return new MessageWindowConversation(chatMemory,device,role,maxMessages,messages);
+            return new MessageWindowConversation(chatMemory,device,role,maxMessages,maxTokens,messages);
         }
     }
 
@@ -80,6 +127,20 @@ public class MessageWindowConversation extends Conversation {
         return new Builder();
     }
 
+    /**
+     * 当前窗口中的历史消息（副本）
+     */
+    @Override
+    public List<Message> messages() {
+        synchronized (window) {
+            List<Message> messages = new ArrayList<>(window.size());
+            for (Entry entry : window) {
+                messages.add(entry.message());
+            }
+            return messages;
+        }
+    }
+
     @Override
     public void clear() {
         chatMemory.clearMessages(device().getDeviceId());
@@ -94,7 +155,9 @@ public class MessageWindowConversation extends Conversation {
     @Override
     public void addMessage(UserMessage message, String audioPath) {
         // 更新缓存
-        messages().add( message);
+        synchronized (window) {
+            append(message);
+        }
         String deviceId = device().getDeviceId();
         int roleId = role().getRoleId();
         String sender =  message.getMessageType().getValue();
@@ -119,7 +182,9 @@ public class MessageWindowConversation extends Conversation {
         // 非function消息才加入对话历史，避免调用混乱
         if(!hasToolCalls){
             // 更新缓存
-            messages().add( message);
+            synchronized (window) {
+                append(message);
+            }
         }
 
         // TODO 后续还需要根据元数据判断是function_call还是mcp调用
@@ -138,25 +203,138 @@ public class MessageWindowConversation extends Conversation {
     }
 
     public List<Message> prompt(UserMessage userMessage) {
-        String roleDesc = role().getRoleDesc();
-        SystemMessage systemMessage = new SystemMessage(StringUtils.hasText(roleDesc)?roleDesc:"");
+        List<Message> messages = preview(userMessage);
 
-        final var historyMessages = messages();
-        while (historyMessages.size() > maxMessages) {
-            historyMessages.remove(0);
-        }
+        // 保存用户消息，会被持久化至数据库。
+        this.addMessage( userMessage,null);
+
+        return messages;
+    }
+
+    @Override
+    public List<Message> preview(UserMessage userMessage) {
+        int userTokens = TokenEstimator.estimateMessage(userMessage.getText());
 
         List<Message> messages = new ArrayList<>();
-        messages.add(systemMessage);
-        messages.addAll(historyMessages);
-        messages.add(userMessage);
+        synchronized (window) {
+            updateSystem(role().getRoleDesc());
+            messages.add(new SystemMessage(systemText));
+            trim();
 
-        // 保存用户消息，会被持久化至数据库。
-        this.addMessage( userMessage,null);
+            // 扣除本次用户消息后的历史预算，从最旧的消息开始跳过，直到剩余的消息放得下，最近一问一答始终保留
+            Iterator<Entry> iterator = window.iterator();
+            Entry next = iterator.hasNext() ? iterator.next() : null;
+            if (maxTokens > 0) {
+                int available = maxTokens - systemTokens - userTokens;
+                int used = windowTokens;
+                int remaining = window.size();
+                int keep = -1;
+                boolean skipped = false;
+                while (next != null) {
+                    if (!(skipped && next.message().getMessageType() == MessageType.ASSISTANT)) {
+                        if (used <= available) {
+                            break;
+                        }
+                        if (keep < 0) {
+                            keep = lastPairSize();
+                        }
+                        if (remaining <= keep) {
+                            warnOverBudget(userTokens);
+                            break;
+                        }
+                    }
+                    used -= next.tokens();
+                    remaining--;
+                    skipped = true;
+                    next = iterator.hasNext() ? iterator.next() : null;
+                }
+            }
+            while (next != null) {
+                messages.add(next.message());
+                next = iterator.hasNext() ? iterator.next() : null;
+            }
+        }
+        messages.add(userMessage);
 
         return messages;
     }
 
+    /**
+     * 角色描述变化时重新估算系统提示词的token数，调用方持有 window 锁
+     */
+    private void updateSystem(String roleDesc) {
+        String text = StringUtils.hasText(roleDesc) ? roleDesc : "";
+        if (!text.equals(systemText)) {
+            systemText = text;
+            systemTokens = TokenEstimator.estimateMessage(text);
+        }
+    }
+
+    /**
+     * 加入一条历史消息，调用方持有 window 锁
+     */
+    private void append(Message message) {
+        Entry entry = new Entry(message, TokenEstimator.estimateMessage(message.getText()));
+        window.addLast(entry);
+        windowTokens += entry.tokens();
+        trim();
+    }
+
+    /**
+     * 从队首移除超出条数上限或（除系统提示词外的）token预算的消息，调用方持有 window 锁
+     * 超出token预算时最近一问一答不移除
+     */
+    private void trim() {
+        int budget = maxTokens > 0 ? maxTokens - systemTokens : Integer.MAX_VALUE;
+        int keep = -1;
+        boolean removed = false;
+        while (!window.isEmpty()) {
+            if (window.size() <= maxMessages
+                    && !(removed && window.peekFirst().message().getMessageType() == MessageType.ASSISTANT)) {
+                if (windowTokens <= budget) {
+                    break;
+                }
+                if (keep < 0) {
+                    keep = lastPairSize();
+                }
+                if (window.size() <= keep) {
+                    warnOverBudget(0);
+                    break;
+                }
+            }
+            windowTokens -= window.removeFirst().tokens();
+            removed = true;
+        }
+    }
+
+    /**
+     * 从最近一条后面紧跟AI回复的用户消息到队尾的消息数，没有完整的一问一答时为0，调用方持有 window 锁
+     */
+    private int lastPairSize() {
+        int count = 0;
+        boolean assistantAfter = false;
+        for (Iterator<Entry> it = window.descendingIterator(); it.hasNext(); ) {
+            MessageType type = it.next().message().getMessageType();
+            count++;
+            if (type == MessageType.USER && assistantAfter) {
+                return count;
+            }
+            assistantAfter = type == MessageType.ASSISTANT;
+        }
+        return 0;
+    }
+
+    /**
+     * 预算放不下最近一问一答时记录警告，每个角色只记录一次
+     */
+    private void warnOverBudget(int userTokens) {
+        Integer roleId = role().getRoleId();
+        if (roleId != null && overBudgetRoles.add(roleId)) {
+            logger.warn("提示词token预算不足，仍保留最近一问一答 - 角色: {}, 预算: {}, 系统提示词: {}, 用户消息: {}",
+                    roleId, maxTokens, systemTokens, userTokens);
+        }
+    }
+
     /**
      * 将数据库记录的SysMessag转换为spring-ai的Message。
      * 加载的历史都是普通消息(SysMessage.MESSAGE_TYPE_NORMAL)
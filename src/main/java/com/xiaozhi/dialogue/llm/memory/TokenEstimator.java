@@ -0,0 +1,62 @@
+package com.xiaozhi.dialogue.llm.memory;
+
+/**
+ * 估算文本的token数
+ * 不依赖具体模型的分词器，按常见BPE分词器的统计规律近似：
+ * - 汉字、假名、谚文和全角标点：每个字1个token
+ * - 连续的英文字母和数字：每4个字符1个token，不足4个按1个计
+ * - 英文标点：每个1个token；空白不计
+ * - 辅助平面字符（表情符号等）：每个2个token
+ * 每条消息另加 {@value #MESSAGE_OVERHEAD} 个token的角色和分隔符开销。
+ *
+ * 估算值只用于控制提示词的大致规模，对中文略偏大，宁可少带历史也不超出预算。
+ */
+public final class TokenEstimator {
+
+    // 每条消息的固定开销（角色标记和分隔符）
+    public static final int MESSAGE_OVERHEAD = 4;
+
+    // 英文字母数字平均每个token的字符数
+    private static final int ASCII_CHARS_PER_TOKEN = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * 一条消息的token数，含消息开销
+     */
+    public static int estimateMessage(String text) {
+        return MESSAGE_OVERHEAD + estimate(text);
+    }
+
+    /**
+     * 文本的token数
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int tokens = 0;
+        int asciiRun = 0;
+        for (int i = 0; i < text.length();) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (codePoint < 0x80 && Character.isLetterOrDigit(codePoint)) {
+                asciiRun++;
+                continue;
+            }
+            if (asciiRun > 0) {
+                tokens += (asciiRun + ASCII_CHARS_PER_TOKEN - 1) / ASCII_CHARS_PER_TOKEN;
+                asciiRun = 0;
+            }
+            if (Character.isWhitespace(codePoint)) {
+                continue;
+            }
+            tokens += Character.isSupplementaryCodePoint(codePoint) ? 2 : 1;
+        }
+        if (asciiRun > 0) {
+            tokens += (asciiRun + ASCII_CHARS_PER_TOKEN - 1) / ASCII_CHARS_PER_TOKEN;
+        }
+        return tokens;
+    }
+}
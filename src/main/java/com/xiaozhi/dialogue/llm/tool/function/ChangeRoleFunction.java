@@ -2,6 +2,7 @@ package com.xiaozhi.dialogue.llm.tool.function;
 
 import com.xiaozhi.common.web.PageFilter;
 import com.xiaozhi.communication.common.ChatSession;
+import com.xiaozhi.communication.common.SessionProfileManager;
 import com.xiaozhi.dialogue.llm.tool.ToolCallStringResultConverter;
 import com.xiaozhi.dialogue.llm.tool.ToolsGlobalRegistry;
 import com.xiaozhi.entity.SysDevice;
@@ -32,6 +33,8 @@ public class ChangeRoleFunction implements ToolsGlobalRegistry.GlobalFunction {
     private SysRoleService sysRoleService;
     @Resource
     private SysDeviceService sysDeviceService;
+    @Resource
+    private SessionProfileManager sessionProfileManager;
 
     @Override
     public ToolCallback getFunctionCallTool(ChatSession chatSession) {
@@ -53,6 +56,8 @@ public class ChangeRoleFunction implements ToolsGlobalRegistry.GlobalFunction {
                             if(role_id.isPresent()){
                                 sysDevice.setRoleId(role_id.get());//测试，固定角色
                                 sysDeviceService.update(sysDevice);
+                                // 角色变化后重建会话快照
+                                sessionProfileManager.refresh(chatSession);
                                 return "角色已切换至" + roleName;
                             }else{
                                 return "角色切换失败, 没有对应角色哦";
@@ -2,14 +2,17 @@ package com.xiaozhi.dialogue.service;
 
 import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
+import com.xiaozhi.utils.AudioClip;
 import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.OggOpusWriter;
+import com.xiaozhi.utils.OpusFrameStream;
+import com.xiaozhi.utils.OpusFrameStore;
 import com.xiaozhi.utils.OpusProcessor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -25,22 +28,20 @@ import java.util.function.Consumer;
 public class AudioService {
     private static final Logger logger = LoggerFactory.getLogger(AudioService.class);
 
-    // 帧发送时间间隔略小于OPUS_FRAME_DURATION_MS，避免因某些调度原因，导致没能在规定时间内发送，设备出现杂音
-    private static final long OPUS_FRAME_SEND_INTERVAL_MS = AudioUtils.OPUS_FRAME_DURATION_MS - 2;
-
     @Autowired
     private OpusProcessor opusProcessor;
 
+    @Autowired
+    private OpusFrameStore opusFrameStore;
+
     @Autowired
     private SessionManager sessionManager;
 
     @Autowired
     private MessageService messageService;
 
-    // 使用虚拟线程池处理定时任务
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
-            Runtime.getRuntime().availableProcessors(),
-            Thread.ofVirtual().name("audio-scheduler-", 0).factory());
+    @Autowired
+    private FramePacer framePacer;
 
     // 存储会话的回调函数，用于首句流式处理完成后通知
     private final Map<String, Consumer<String>> streamCompletionCallbacks = new ConcurrentHashMap<>();
@@ -63,8 +64,39 @@ public class AudioService {
     // 存储首帧发送状态
     private final Map<String, AtomicBoolean> firstFrameSent = new ConcurrentHashMap<>();
     
-    // 存储每个会话的调度任务
-    private final Map<String, ScheduledFuture<?>> scheduledTasks = new ConcurrentHashMap<>();
+    // 存储每个会话正在播放的音频流
+    private final Map<String, FramePacer.PacedStream> scheduledTasks = new ConcurrentHashMap<>();
+
+    // 存储每个会话当前回复的录音，保存实际下发给设备的Opus帧
+    private final Map<String, OggOpusWriter> assistantRecorders = new ConcurrentHashMap<>();
+
+    /**
+     * 开始录制助手回复，之后下发的Opus帧会写入同一个Ogg文件，直到发送停止消息
+     *
+     * @return 录音文件路径，创建失败时返回null
+     */
+    public String startRecording(ChatSession session) {
+        String sessionId = session.getSessionId();
+        finishRecording(sessionId);
+        try {
+            OggOpusWriter writer = OggOpusWriter.create();
+            assistantRecorders.put(sessionId, writer);
+            return AudioUtils.AUDIO_PATH + writer.getFileName();
+        } catch (IOException e) {
+            logger.error("创建助手录音文件失败: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 结束录制，文件在虚拟线程中完成写入
+     */
+    private void finishRecording(String sessionId) {
+        OggOpusWriter writer = assistantRecorders.remove(sessionId);
+        if (writer != null) {
+            writer.closeAsync();
+        }
+    }
 
     /**
      * 发送TTS开始消息
@@ -105,6 +137,7 @@ public class AudioService {
             
             // 取消调度任务
             cancelScheduledTask(sessionId);
+            finishRecording(sessionId);
             CompletableFuture<Void> sendTtsMessageFuture = CompletableFuture.runAsync(()->messageService.sendTtsMessage(session, null, "stop"));
             // 检查是否需要关闭会话
             if (sessionManager.isCloseAfterChat(sessionId)) {
@@ -146,7 +179,7 @@ public class AudioService {
             boolean isLast) {
 
         String sessionId = session.getSessionId();
-        String audioPath = sentence.getAudioPath();
+        AudioClip audio = sentence.getAudio();
         String text = sentence.getText();
 
         // 标记开始播放
@@ -157,8 +190,8 @@ public class AudioService {
         CompletableFuture<Void> startFuture = isFirst ? CompletableFuture.runAsync(()->sendStart(session))
                 : CompletableFuture.completedFuture(null);
         
-        if (audioPath == null) {
-            // 如果没有音频路径但是结束消息，发送结束标记
+        if (audio == null) {
+            // 如果没有音频但是结束消息，发送结束标记
             if (isLast) {
                 return startFuture.thenCompose(v -> sendStop(session));
             }
@@ -175,34 +208,12 @@ public class AudioService {
         // 发送句子表情
         CompletableFuture<Void> emotionFuture = sentenceStartFuture.thenRun(() -> sendSentenceEmotion(session, sentence, null));
 
-        // 处理音频文件
-        return emotionFuture.thenCompose(v -> CompletableFuture.supplyAsync(() -> {
-            String fullPath = audioPath;
-            File audioFile = new File(fullPath);
-            if (!audioFile.exists()) {
-                logger.warn("音频文件不存在: {}", fullPath);
-                return null;
-            }
-
-            List<byte[]> opusFrames;
-
-            try {
-                if (audioPath.contains(".opus")) {
-                    // 如果是opus文件，直接读取opus帧数据
-                    opusFrames = opusProcessor.readOpus(audioFile);
-                } else {
-                    // 如果不是opus文件，按照原来的逻辑处理
-                    byte[] audioData = AudioUtils.readAsPcm(fullPath);
-                    // 将PCM转换为Opus帧
-                    opusFrames = opusProcessor.pcmToOpus(sessionId, audioData, false);
-                }
-                return opusFrames;
-            } catch (Exception e) {
-                logger.error("处理音频文件失败: {}", fullPath, e);
-                return null;
-            }
-        })).thenCompose(opusFrames -> {
-            if (opusFrames == null || opusFrames.isEmpty()) {
+        // 流式合成的句子直接播放帧流，其余音频编码为Opus帧
+        return emotionFuture.thenCompose(v -> audio.isStreaming()
+                ? CompletableFuture.completedFuture(audio.getFrameStream())
+                : CompletableFuture.supplyAsync(() -> encodeAudio(sessionId, audio))
+        ).thenCompose(frames -> {
+            if (frames == null) {
                 finalPlayingState.set(false);
                 if (isLast) {
                     return sendStop(session);
@@ -213,60 +224,44 @@ public class AudioService {
             // 确保播放状态为true
             finalPlayingState.set(true);
             
-            // 创建发送帧的CompletableFuture
-            CompletableFuture<Void> sendFramesFuture = new CompletableFuture<>();
-            
-            // 创建帧发送任务
-            final int[] frameIndex = {0};
-            Runnable frameTask = new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        if (!finalPlayingState.get() || frameIndex[0] >= opusFrames.size() || !session.isOpen()) {
-                            // 取消调度任务
-                            cancelScheduledTask(sessionId);
-                            
-                            // 完成帧发送Future
-                            sendFramesFuture.complete(null);
-                            return;
-                        }
-                        
-                        // 更新活跃时间
-                        sessionManager.updateLastActivity(sessionId);
-                        
-                        // 发送当前帧
-                        byte[] frame = opusFrames.get(frameIndex[0]++);
-                        sendOpusFrame(session, frame);
-                        
-                    } catch (Exception e) {
-                        // 发生错误，取消调度任务
-                        cancelScheduledTask(sessionId);
-                        
-                        // 完成帧发送Future（带异常）
-                        sendFramesFuture.completeExceptionally(e);
-                    }
+            // 帧发送任务，由全局节拍器每帧调用一次
+            FramePacer.FrameTask frameTask = () -> {
+                if (!finalPlayingState.get() || frames.isDrained() || !session.isOpen()) {
+                    return FramePacer.Status.FINISHED;
                 }
+
+                // 流式合成的下一帧还没生成，等待
+                byte[] frame = frames.poll();
+                if (frame == null) {
+                    return FramePacer.Status.WAITING;
+                }
+
+                // 更新活跃时间
+                sessionManager.updateLastActivity(sessionId);
+
+                // 发送当前帧
+                sendOpusFrame(session, frame);
+
+                // 记录实际下发的帧
+                OggOpusWriter recorder = assistantRecorders.get(sessionId);
+                if (recorder != null) {
+                    recorder.writePacket(frame);
+                }
+                return FramePacer.Status.SENT;
             };
-            
-            // 启动定时任务，每隔OPUS_FRAME_SEND_INTERVAL_MS毫秒执行一次
-            ScheduledFuture<?> task = scheduler.scheduleAtFixedRate(
-                frameTask, 
-                0, 
-                OPUS_FRAME_SEND_INTERVAL_MS, 
-                TimeUnit.MILLISECONDS
-            );
-            
-            // 存储任务引用，以便稍后取消
-            scheduledTasks.put(sessionId, task);
-            
-            // 返回帧发送Future
-            return sendFramesFuture;
+
+            // 开始播放，存储流引用，以便稍后取消
+            FramePacer.PacedStream stream = framePacer.start(sessionId, frameTask);
+            scheduledTasks.put(sessionId, stream);
+
+            // 播放结束、被打断或出错时不再缓存后续合成的帧
+            return stream.completion().whenComplete((r, e) -> {
+                scheduledTasks.remove(sessionId, stream);
+                frames.cancel();
+            });
         }).whenComplete((result, error) -> {
             // 无论成功还是失败，都标记播放结束
             finalPlayingState.set(false);
-            
-            // 取消调度任务
-            cancelScheduledTask(sessionId);
         }).thenCompose(v -> {
             // 发送停止消息（只有在isLast为true时才发送）
             if (isLast) {
@@ -288,6 +283,31 @@ public class AudioService {
         });
     }
 
+    /**
+     * 将音频编码为Opus帧流，已编码的帧直接使用，内存中的PCM直接编码，
+     * 可重播的文件从帧存储读取（同一文件只编码一次），只播放一次的文件（如TTS输出）在内存中编码
+     */
+    private OpusFrameStream encodeAudio(String sessionId, AudioClip audio) {
+        if (audio.getOpusFrames() != null) {
+            return audio.getOpusFrames().isEmpty() ? null : OpusFrameStream.of(audio.getOpusFrames());
+        }
+        String audioPath = audio.getFilePath();
+        try {
+            List<byte[]> opusFrames;
+            if (audioPath == null) {
+                opusFrames = opusProcessor.pcmToOpus(sessionId, audio.toPcm(), false);
+            } else if (audio.isReplayable()) {
+                opusFrames = opusFrameStore.load(audioPath);
+            } else {
+                opusFrames = opusFrameStore.encode(audioPath);
+            }
+            return opusFrames.isEmpty() ? null : OpusFrameStream.of(opusFrames);
+        } catch (Exception e) {
+            logger.error("处理音频失败: {}", audioPath, e);
+            return null;
+        }
+    }
+
     /**
      * 发送表情信息。如果句子里没有分析出表情，则默认返回 happy
      */
@@ -312,12 +332,12 @@ public class AudioService {
     }
 
     /**
-     * 取消调度任务
+     * 取消正在播放的音频流
      */
     public void cancelScheduledTask(String sessionId) {
-        ScheduledFuture<?> task = scheduledTasks.remove(sessionId);
-        if (task != null && !task.isDone()) {
-            task.cancel(false);
+        FramePacer.PacedStream stream = scheduledTasks.remove(sessionId);
+        if (stream != null) {
+            stream.cancel();
         }
     }
 
@@ -334,6 +354,7 @@ public class AudioService {
         streamStartTimes.remove(sessionId);
         firstFrameSent.remove(sessionId);
         cancelScheduledTask(sessionId);
+        finishRecording(sessionId);
         opusProcessor.cleanup(sessionId);
     }
 }
\ No newline at end of file
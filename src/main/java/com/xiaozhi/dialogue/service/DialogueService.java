@@ -1,24 +1,27 @@
 package com.xiaozhi.dialogue.service;
 
 import com.xiaozhi.communication.common.ChatSession;
-import com.xiaozhi.communication.common.ConfigManager;
 import com.xiaozhi.communication.common.SessionManager;
+import com.xiaozhi.communication.common.SessionProfile;
 import com.xiaozhi.dialogue.llm.ChatService;
 import com.xiaozhi.dialogue.service.VadService.VadStatus;
 import com.xiaozhi.dialogue.stt.SttService;
-import com.xiaozhi.dialogue.stt.factory.SttServiceFactory;
-import com.xiaozhi.dialogue.tts.factory.TtsServiceFactory;
-import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.dialogue.tts.TtsService;
+import com.xiaozhi.dialogue.tts.hedge.TtsHedger;
+import com.xiaozhi.dialogue.tts.scheduler.TtsScheduler;
 import com.xiaozhi.entity.SysDevice;
-import com.xiaozhi.entity.SysRole;
 import com.xiaozhi.event.ChatSessionCloseEvent;
-import com.xiaozhi.service.SysRoleService;
+import com.xiaozhi.utils.AudioClip;
 import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.EmojiUtils;
 import com.xiaozhi.utils.EmojiUtils.EmoSentence;
+import com.xiaozhi.utils.OpusFrameStream;
+import com.xiaozhi.utils.OpusProcessor;
+import com.xiaozhi.utils.OpusStreamEncoder;
 import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationListener;
 import org.springframework.stereotype.Service;
 import org.springframework.util.ObjectUtils;
@@ -41,9 +44,10 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     private static final Logger logger = LoggerFactory.getLogger(DialogueService.class);
     private static final DecimalFormat df = new DecimalFormat("0.00");
     private static final long TIMEOUT_MS = 5000;
-    private static final int MAX_CONCURRENT_PER_SESSION = 3; // 每个session最大并发数
     private static final int MAX_RETRY_COUNT = 2; // 最大重试次数
     private static final long TTS_TIMEOUT_MS = 10000; // TTS生成超时时间
+    private static final long TTS_STREAM_TIMEOUT_MS = 60000; // 流式TTS整句合成超时时间
+    private static final int SENTENCE_BUFFER_CAPACITY = 64; // 句子重排缓冲区环形数组容量，超出部分进入溢出表
 
     @Resource
     private ChatService chatService;
@@ -51,12 +55,6 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     @Resource
     private AudioService audioService;
 
-    @Resource
-    private TtsServiceFactory ttsFactory;
-
-    @Resource
-    private SttServiceFactory sttFactory;
-
     @Resource
     private MessageService messageService;
 
@@ -70,28 +68,41 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     private SessionManager sessionManager;
 
     @Resource
-    private ConfigManager configManager;
-    
+    private OpusProcessor opusProcessor;
+
+    @Resource
+    private TtsScheduler ttsScheduler;
+
     @Resource
-    private SysRoleService roleService;
+    private TtsHedger ttsHedger;
+
+    @Resource
+    private SpeculativeChatService speculativeChatService;
+
+    @Resource
+    private EndpointDetector endpointDetector;
+
+    // 支持流式合成的TTS服务边合成边编码下发，首帧延迟取决于服务商返回第一块音频的时间
+    @Value("${tts.stream.enabled:true}")
+    private boolean ttsStreamEnabled;
+
+    // 录音格式：ogg 保存实际下发的Opus帧，wav 在回复结束时合并各句音频
+    @Value("${audio.record.format:ogg}")
+    private String recordFormat;
 
     // 会话状态管理
     private final Map<String, AtomicInteger> seqCounters = new ConcurrentHashMap<>();
     private final Map<String, Long> sttStartTimes = new ConcurrentHashMap<>();
     private final Map<String, Long> llmStartTimes = new ConcurrentHashMap<>();
-    private final Map<String, CopyOnWriteArrayList<Sentence>> sentenceQueue = new ConcurrentHashMap<>();
+    private final Map<String, SentenceReorderBuffer> sentenceBuffers = new ConcurrentHashMap<>();
     private final Map<String, AtomicBoolean> firstSentDone = new ConcurrentHashMap<>();
     private final Map<String, ReentrantLock> locks = new ConcurrentHashMap<>();
 
-    // 存储每个对话ID的所有模型回复音频路径
-    private final Map<String, Map<Integer, String>> dialogueAudioPaths = new ConcurrentHashMap<>();
+    // 存储每个对话ID的所有模型回复音频（WAV录音格式时用于合并保存）
+    private final Map<String, Map<Integer, AudioClip>> dialogueAudios = new ConcurrentHashMap<>();
     // 存储每个对话ID的完整文本回复
     private final Map<String, StringBuilder> dialogueResponses = new ConcurrentHashMap<>();
 
-    // 新增：并发控制相关
-    private final Map<String, Semaphore> sessionSemaphores = new ConcurrentHashMap<>();
-    private final Map<String, PriorityBlockingQueue<TtsTask>> sessionTaskQueues = new ConcurrentHashMap<>();
-
     @Override
     public void onApplicationEvent(ChatSessionCloseEvent event) {
         ChatSession chatSession = event.getSession();
@@ -99,7 +110,7 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             // clean up dialogue audio paths and responses
             if (StringUtils.hasText(chatSession.getDialogueId())) {
                 String dialogueId = chatSession.getDialogueId();
-                dialogueAudioPaths.remove(dialogueId);
+                dialogueAudios.remove(dialogueId);
                 dialogueResponses.remove(dialogueId);
             }
             cleanupSession(chatSession.getSessionId());
@@ -114,9 +125,10 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
         private final String text;
         private boolean isFirst;
         private boolean isLast;
-        private boolean ready = false;
-        private String audioPath = null;
+        private volatile boolean ready = false;
+        private volatile AudioClip audio = null;
         private long timestamp = System.currentTimeMillis();
+        private boolean timeoutScheduled = false;
         private double modelResponseTime = 0.0; // 模型响应时间（秒）
         private double ttsGenerationTime = 0.0; // TTS生成时间（秒）
         private String dialogueId = null; // 对话ID
@@ -126,9 +138,9 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             this.text = text;
         }
 
-        public Sentence(String text, String audioPath) {
+        public Sentence(String text, AudioClip audio) {
             this.text = text;
-            this.audioPath = audioPath;
+            this.audio = audio;
         }
 
         public Sentence(int seq, String text, boolean isFirst, boolean isLast) {
@@ -138,8 +150,11 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             this.isLast = isLast;
         }
 
-        public void setAudio(String path) {
-            this.audioPath = path;
+        /**
+         * 设置句子音频并标记为就绪；流式合成的句子在收到第一块音频时设置，之后边合成边播放
+         */
+        public void setAudio(AudioClip audio) {
+            this.audio = audio;
             this.ready = true;
         }
 
@@ -167,8 +182,8 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             return isLast;
         }
 
-        public String getAudioPath() {
-            return audioPath;
+        public AudioClip getAudio() {
+            return audio;
         }
 
         public void setModelResponseTime(double time) {
@@ -205,64 +220,40 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     }
 
     /**
-     * TTS任务封装，用于优先队列
+     * TTS任务封装
      */
-    private static class TtsTask implements Comparable<TtsTask> {
+    private static class TtsTask {
         private final String sessionId;
         private final Sentence sentence;
         private final EmoSentence emoSentence;
         private final boolean isFirst;
         private final boolean isLast;
-        private final SysConfig ttsConfig;
-        private final String voiceName;
+        private final TtsService ttsService;
+        private final TtsService hedgeService;
         private final String dialogueId;
         private final ChatSession session;
         private final long createTime;
         private int retryCount = 0;
         private boolean isRetry = false;
+        // 本次合成开始执行的时间（排队结束时）
+        private volatile long ttsStartTime;
 
         public TtsTask(ChatSession session, String sessionId, Sentence sentence,
                 EmoSentence emoSentence, boolean isFirst, boolean isLast,
-                SysConfig ttsConfig, String voiceName, String dialogueId) {
+                TtsService ttsService, String dialogueId) {
             this.session = session;
             this.sessionId = sessionId;
             this.sentence = sentence;
             this.emoSentence = emoSentence;
             this.isFirst = isFirst;
             this.isLast = isLast;
-            this.ttsConfig = ttsConfig;
-            this.voiceName = voiceName;
+            this.ttsService = ttsService;
+            // 角色启用对冲时的备用服务，与主服务相同时不对冲
+            TtsService hedge = session.getSessionProfile().hedgeTtsService();
+            this.hedgeService = hedge != ttsService ? hedge : null;
             this.dialogueId = dialogueId;
             this.createTime = System.currentTimeMillis();
         }
-
-        @Override
-        public int compareTo(TtsTask other) {
-            // 优先级：重试任务 > 首句 > 序号小的句子
-            if (this.isRetry != other.isRetry) {
-                return this.isRetry ? -1 : 1;
-            }
-            if (this.isFirst != other.isFirst) {
-                return this.isFirst ? -1 : 1;
-            }
-            return Integer.compare(this.sentence.getSeq(), other.sentence.getSeq());
-        }
-    }
-
-    /**
-     * 获取或创建session的信号量
-     */
-    private Semaphore getSessionSemaphore(String sessionId) {
-        return sessionSemaphores.computeIfAbsent(sessionId,
-                k -> new Semaphore(MAX_CONCURRENT_PER_SESSION));
-    }
-
-    /**
-     * 获取或创建session的任务队列
-     */
-    private PriorityBlockingQueue<TtsTask> getSessionTaskQueue(String sessionId) {
-        return sessionTaskQueues.computeIfAbsent(sessionId,
-                k -> new PriorityBlockingQueue<>());
     }
 
     /**
@@ -277,10 +268,8 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                 if (device == null || ObjectUtils.isEmpty(device.getRoleId())) {
                     return;
                 }
-                SysRole role = roleService.selectRoleById(device.getRoleId());
-                // 获取STT和TTS配置
-                SysConfig sttConfig = role.getSttId() != null ? configManager.getConfig(role.getSttId())
-                        : null;
+                // 使用会话快照中的STT服务，热路径上不再查询角色和配置
+                SessionProfile profile = session.getSessionProfile();
 
                 // 处理VAD
                 VadService.VadResult vadResult = vadService.processAudio(sessionId, opusData);
@@ -299,7 +288,7 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
 
                         // 初始化对话状态
                         initChat(sessionId);
-                        startStt(session, sessionId, sttConfig, device, vadResult.getProcessedData());
+                        startStt(session, sessionId, profile, vadResult.getProcessedData());
                         break;
 
                     case SPEECH_CONTINUE:
@@ -329,15 +318,18 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     private void startStt(
             ChatSession session,
             String sessionId,
-            SysConfig sttConfig,
-            SysDevice device,
+            SessionProfile profile,
             byte[] initialAudio) {
 
+        // 本次说话的录音文件，没有识别出文本时删除
+        final String recordingFile = vadService.getRecordingFile(sessionId);
+
         Thread.startVirtualThread(() -> {
+            boolean recognized = false;
             try {
                 // 如果正在播放，先中断音频
                 if (audioService.isPlaying(sessionId)) {
-                    sentenceQueue.get(sessionId).clear();
+                    sentenceBuffers.get(sessionId).clear();
                     audioService.sendStop(session);
                 }
 
@@ -349,9 +341,9 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                 sessionManager.setStreamingState(sessionId, true);
 
                 // 获取STT服务
-                SttService sttService = sttFactory.getSttService(sttConfig);
+                SttService sttService = profile.sttService();
                 if (sttService == null) {
-                    logger.error("无法获取STT服务 - Provider: {}", sttConfig != null ? sttConfig.getProvider() : "null");
+                    logger.error("无法获取STT服务 - Provider: {}", profile.sttConfig() != null ? profile.sttConfig().getProvider() : "null");
                     return;
                 }
 
@@ -365,27 +357,46 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                 session.setDialogueId(dialogueId);
                 final String finalText;
 
+                // 开启推测执行时，中间结果稳定后提前调用LLM
+                final SpeculativeChatService.Turn speculation = speculativeChatService.begin(session, sttService);
+                final boolean speculated;
+
                 if (sessionManager.getAudioStream(sessionId) != null) {
-                    finalText = sttService.streamRecognition(sessionManager.getAudioStream(sessionId));
+                    // 中间结果同时用于端点检测和推测执行
+                    finalText = sttService.streamRecognition(sessionManager.getAudioStream(sessionId), partial -> {
+                        endpointDetector.onPartial(sessionId, partial);
+                        if (speculation != null) {
+                            speculation.onPartial(partial);
+                        }
+                    });
+                    speculated = speculation != null && speculation.resolve(finalText);
                     if (!StringUtils.hasText(finalText)) {
                         return;
                     }
                 } else {
+                    if (speculation != null) {
+                        speculation.resolve(null);
+                    }
                     return;
                 }
 
                 // 初始化当前对话的音频路径映射和文本响应
-                dialogueAudioPaths.put(dialogueId, new ConcurrentHashMap<>());
+                dialogueAudios.put(dialogueId, new ConcurrentHashMap<>());
                 dialogueResponses.put(dialogueId, new StringBuilder());
 
+                // Ogg格式时直接录制下发给设备的Opus帧，不再在结束时合并各句音频
+                if (recordOgg()) {
+                    session.setAssistantAudioPath(audioService.startRecording(session));
+                }
+
                 // 获取完整的音频数据并保存
                 saveUserAudio(session);
+                recognized = true;
 
                 CompletableFuture.runAsync(() -> messageService.sendSttMessage(session, finalText))
                         .thenRun(() -> audioService.sendStart(session))
                         .thenRun(() -> {
-                            // 使用句子切分处理响应
-                            chatService.chatStreamBySentence(session, finalText, true,
+                            ChatService.TriConsumer<String, Boolean, Boolean> sentenceHandler =
                                     (sentence, isFirst, isLast) -> {
                                         handleSentence(
                                                 session,
@@ -394,7 +405,14 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                                                 isFirst,
                                                 isLast,
                                                 dialogueId);
-                                    });
+                                    };
+                            if (speculated) {
+                                // 推测请求的文本与最终结果一致，直接采用已生成的回复
+                                speculation.commit(finalText, sentenceHandler);
+                            } else {
+                                // 使用句子切分处理响应
+                                chatService.chatStreamBySentence(session, finalText, true, sentenceHandler);
+                            }
                         })
                         .exceptionally(e -> {
                             logger.error("处理对话失败: {}", e.getMessage(), e);
@@ -402,6 +420,10 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                         });
             } catch (Exception e) {
                 logger.error("流式识别错误: {}", e.getMessage(), e);
+            } finally {
+                if (!recognized) {
+                    vadService.discardRecording(sessionId, recordingFile);
+                }
             }
         });
     }
@@ -411,22 +433,14 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
      */
     private void saveUserAudio(ChatSession session) {
         try {
-            // 获取当前语音活动的PCM数据
-            List<byte[]> pcmFrames = vadService.getPcmData(session.getSessionId());
-
-            if (pcmFrames != null && !pcmFrames.isEmpty()) {
-                // 计算总大小并合并PCM帧
-                int totalSize = pcmFrames.stream().mapToInt(frame -> frame.length).sum();
-                byte[] fullPcmData = new byte[totalSize];
-                int offset = 0;
-
-                for (byte[] frame : pcmFrames) {
-                    System.arraycopy(frame, 0, fullPcmData, offset, frame.length);
-                    offset += frame.length;
-                }
+            // 录音已在说话期间增量写入文件，这里只记录文件名；创建录音文件失败时退回到一次性写入
+            String fileName = vadService.getRecordingFile(session.getSessionId());
+            if (fileName == null) {
+                fileName = vadService.savePcmAsWav(session.getSessionId());
+            }
 
-                // 保存为WAV文件
-                String userAudioPath = AudioUtils.AUDIO_PATH + AudioUtils.saveAsWav(fullPcmData);
+            if (fileName != null) {
+                String userAudioPath = AudioUtils.AUDIO_PATH + fileName;
                 session.setUserAudioPath(userAudioPath);
                 logger.debug("用户音频已保存: {}", userAudioPath);
             }
@@ -441,7 +455,7 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
     private void initChat(String sessionId) {
         llmStartTimes.put(sessionId, System.currentTimeMillis());
         seqCounters.putIfAbsent(sessionId, new AtomicInteger(0));
-        sentenceQueue.putIfAbsent(sessionId, new CopyOnWriteArrayList<>());
+        sentenceBuffers.putIfAbsent(sessionId, new SentenceReorderBuffer(SENTENCE_BUFFER_CAPACITY));
         firstSentDone.put(sessionId, new AtomicBoolean(false));
         locks.putIfAbsent(sessionId, new ReentrantLock());
     }
@@ -480,29 +494,19 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             responseTime = 0.0;
         }
 
-        SysDevice device = session.getSysDevice();
-        SysRole role = roleService.selectRoleById(device.getRoleId());
-        if (device == null || role == null) {
+        // 新增加的设备很有可能没有配置TTS，快照中已解析为默认Edge服务
+        final TtsService ttsService = session.getSessionProfile().ttsService();
+        if (ttsService == null) {
             return;
         }
 
-        // 新增加的设备很有可能没有配置TTS，采用默认Edge需要传递null
-        final SysConfig ttsConfig;
-        if (role.getTtsId() != null) {
-            ttsConfig = configManager.getConfig(role.getTtsId());
-        } else {
-            ttsConfig = null;
-        }
-        String voiceName = role.getVoiceName();
-
         // 创建句子对象
         Sentence sentence = new Sentence(seq, text, isFirst, isLast);
         sentence.setModelResponseTime(responseTime); // 记录模型响应时间
         sentence.setDialogueId(dialogueId); // 设置对话ID
 
-        // 添加到句子队列
-        CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-        queue.add(sentence);
+        // 按序号放入重排缓冲区
+        sentenceBuffers.get(sessionId).offer(sentence);
 
         // 如果句子为空且是结束状态，直接标记为准备好（不需要生成音频）
         if ((text == null || text.isEmpty()) && isLast) {
@@ -524,7 +528,7 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
 
         // 使用虚拟线程异步生成音频文件
         Thread.startVirtualThread(() -> {
-            generateAudio(session, sessionId, sentence, emoSentence, isFirst, isLast, ttsConfig, voiceName, dialogueId);
+            generateAudio(session, sessionId, sentence, emoSentence, isFirst, isLast, ttsService, dialogueId);
         });
     }
 
@@ -538,13 +542,12 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
             EmoSentence emoSentence,
             boolean isFirst,
             boolean isLast,
-            SysConfig ttsConfig,
-            String voiceName,
+            TtsService ttsService,
             String dialogueId) {
 
         // 创建TTS任务
         TtsTask task = new TtsTask(session, sessionId, sentence, emoSentence,
-                isFirst, isLast, ttsConfig, voiceName, dialogueId);
+                isFirst, isLast, ttsService, dialogueId);
 
         // 提交任务到队列
         submitTtsTask(task);
@@ -552,92 +555,227 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
 
     /**
      * 提交TTS任务
+     * 由调度器按服务商额度排队执行：首句优先，重试的句子排在本会话最前，其余按提交顺序在各会话间轮流执行
      */
     private void submitTtsTask(TtsTask task) {
-        PriorityBlockingQueue<TtsTask> taskQueue = getSessionTaskQueue(task.sessionId);
-        taskQueue.offer(task);
-
-        // 尝试处理队列中的任务
-        processTtsTaskQueue(task.sessionId);
+        TtsScheduler.Priority priority = task.isFirst ? TtsScheduler.Priority.FIRST
+                : task.isRetry ? TtsScheduler.Priority.RETRY : TtsScheduler.Priority.NORMAL;
+
+        if (ttsStreamEnabled && task.ttsService.isSupportStreamTts()) {
+            if (!task.isRetry) {
+                // 缓存命中时直接使用编码好的音频，不走流式合成，也不占用服务商额度
+                AudioClip cached = task.ttsService.getCachedAudio(task.emoSentence.getTtsSentence());
+                if (cached != null) {
+                    task.sentence.setTtsGenerationTime(0);
+                    handleTtsSuccess(task, cached);
+                    return;
+                }
+            }
+            executeStreamingTtsTask(task, priority);
+            return;
+        }
+        executeTtsTask(task, priority);
     }
 
     /**
-     * 处理TTS任务队列
+     * 执行TTS任务（带超时和重试）
+     * 超时从调度器开始执行合成时计算；超时后中断合成请求，名额保留到服务商调用真正返回，重试的请求在其后排队
      */
-    private void processTtsTaskQueue(String sessionId) {
-        Thread.startVirtualThread(() -> {
-            PriorityBlockingQueue<TtsTask> taskQueue = getSessionTaskQueue(sessionId);
-            Semaphore semaphore = getSessionSemaphore(sessionId);
-
-            while (!taskQueue.isEmpty()) {
-                // 尝试获取许可
-                if (!semaphore.tryAcquire()) {
-                    // 无法获取许可，等待其他任务完成
-                    break;
-                }
-
-                TtsTask task = taskQueue.poll();
-                if (task == null) {
-                    semaphore.release();
-                    break;
-                }
+    private void executeTtsTask(TtsTask task, TtsScheduler.Priority priority) {
+        String text = task.emoSentence.getTtsSentence();
+        CompletableFuture<Void> started = new CompletableFuture<>();
+        CompletableFuture<AudioClip> primary = ttsScheduler.submit(task.ttsService.getQuotaKey(), task.sessionId,
+                priority, 0, () -> {
+                    task.ttsStartTime = System.currentTimeMillis();
+                    started.complete(null);
+                    return task.ttsService.synthesize(text);
+                });
 
-                // 使用虚拟线程执行任务
-                Thread.startVirtualThread(() -> {
-                    try {
-                        executeTtsTask(task);
-                    } finally {
-                        semaphore.release();
-                        // 任务完成后，继续处理队列
-                        processTtsTaskQueue(sessionId);
+        // 排队期间被取消（会话结束）时不会开始
+        started.thenRun(() -> hedge(task, primary, false, priority)
+                .orTimeout(TTS_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenCompleteAsync((audio, error) -> {
+                    if (error == null) {
+                        // 记录TTS生成时间（主服务或备用服务先返回的一方）
+                        task.sentence.setTtsGenerationTime((System.currentTimeMillis() - task.ttsStartTime) / 1000.0);
+                        // 成功生成音频
+                        handleTtsSuccess(task, audio);
+                        return;
+                    }
+                    Throwable cause = rootCause(error);
+                    if (cause instanceof CancellationException) {
+                        return;
+                    }
+                    if (cause instanceof TimeoutException) {
+                        logger.warn("TTS生成超时 - 序号: {}, 重试次数: {}/{}, 内容: \"{}\"",
+                                task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, task.sentence.getText());
+                        handleTtsFailure(task, "超时");
+                    } else {
+                        logger.error("TTS生成失败 - 序号: {}, 重试次数: {}/{}, 错误: {}",
+                                task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, cause.getMessage());
+                        handleTtsFailure(task, cause.getMessage());
                     }
+                }, Thread::startVirtualThread));
+    }
+
+    /**
+     * 角色配置了备用服务时对冲请求：主服务超过自适应阈值未返回或直接失败时，备用服务整句合成，先返回的一方生效
+     * 备用请求按备用服务的额度和本句的优先级排队，落后的一方被取消（中断），同一句话不会合成两次
+     *
+     * @param primary 主服务请求，流式合成时在收到第一块音频时完成
+     * @param stream  是否流式合成，流式和整句的响应时间分开统计
+     */
+    private CompletableFuture<AudioClip> hedge(TtsTask task, CompletableFuture<AudioClip> primary, boolean stream,
+            TtsScheduler.Priority priority) {
+        if (task.hedgeService == null) {
+            return primary;
+        }
+        String key = task.ttsService.getQuotaKey() + (stream ? ":stream" : "");
+        return ttsHedger.hedge(key, primary, () -> ttsScheduler.submit(task.hedgeService.getQuotaKey(),
+                task.sessionId, priority, TTS_TIMEOUT_MS,
+                () -> task.hedgeService.synthesize(task.emoSentence.getTtsSentence())));
+    }
+
+    /**
+     * 执行流式TTS任务
+     * 服务商返回的PCM块直接送入该句的流式编码器，编码出的帧写入帧流；
+     * 收到第一块音频即把句子标记为就绪，播放与合成同时进行。
+     * 第一块音频到达前失败或超时按普通TTS失败重试（中断流式合成，名额保留到调用返回），之后失败则保留已合成的部分。
+     * 启用对冲时，备用服务的整句音频先于第一块音频返回则使用备用服务的结果，放弃流式合成。
+     */
+    private void executeStreamingTtsTask(TtsTask task, TtsScheduler.Priority priority) {
+        OpusFrameStream frameStream = new OpusFrameStream();
+        OpusStreamEncoder encoder = opusProcessor.createStreamEncoder(frameStream::offer);
+        AudioClip audio = AudioClip.ofStream(frameStream);
+        // WAV录音格式需要保留PCM用于合并保存，Ogg格式直接录制下发的帧
+        boolean keepPcm = !recordOgg();
+        CompletableFuture<Void> firstChunk = new CompletableFuture<>();
+        CompletableFuture<Void> started = new CompletableFuture<>();
+
+        CompletableFuture<Void> synthesis = ttsScheduler.submit(task.ttsService.getQuotaKey(), task.sessionId,
+                priority, TTS_STREAM_TIMEOUT_MS, () -> {
+                    task.ttsStartTime = System.currentTimeMillis();
+                    started.complete(null);
+                    task.ttsService.streamTextToSpeech(task.emoSentence.getTtsSentence(), pcm -> {
+                        if (pcm == null || pcm.length == 0 || frameStream.isCancelled()) {
+                            return;
+                        }
+                        encoder.write(pcm);
+                        if (keepPcm) {
+                            audio.appendPcm(pcm);
+                        }
+                        if (!firstChunk.isDone()) {
+                            task.sentence.setTtsGenerationTime(
+                                    (System.currentTimeMillis() - task.ttsStartTime) / 1000.0);
+                            firstChunk.complete(null);
+                        }
+                    });
+                    return null;
                 });
+
+        // 收到第一块音频时完成，合成结束仍没有音频时失败
+        CompletableFuture<AudioClip> primary = new CompletableFuture<>();
+        firstChunk.thenRun(() -> primary.complete(audio));
+        synthesis.whenComplete((v, e) -> primary.completeExceptionally(
+                e != null ? e : new IllegalStateException("未返回音频数据")));
+        // 首块音频超时、失败或备用服务先返回时中断流式合成
+        primary.whenComplete((v, e) -> {
+            if (e != null) {
+                frameStream.cancel();
+                synthesis.cancel(true);
             }
         });
+
+        // 排队期间被取消（会话结束）时不会开始
+        started.thenRun(() -> hedge(task, primary, true, priority)
+                .orTimeout(TTS_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                .whenCompleteAsync((ready, error) -> {
+                    if (error != null) {
+                        frameStream.cancel();
+                        Throwable cause = rootCause(error);
+                        if (cause instanceof CancellationException) {
+                            return;
+                        }
+                        String reason = cause instanceof TimeoutException ? "超时" : cause.getMessage();
+                        logger.warn("流式TTS首块音频获取失败 - 序号: {}, 重试次数: {}/{}, 原因: {}",
+                                task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, reason);
+                        handleTtsFailure(task, reason);
+                        return;
+                    }
+                    if (ready != audio) {
+                        // 备用服务先返回，流式合成已被中断
+                        task.sentence.setTtsGenerationTime((System.currentTimeMillis() - task.ttsStartTime) / 1000.0);
+                        handleTtsSuccess(task, ready);
+                        return;
+                    }
+                    onFirstChunk(task, audio, encoder, frameStream, synthesis, keepPcm);
+                }, Thread::startVirtualThread));
     }
 
     /**
-     * 执行TTS任务（带超时和重试）
+     * 流式合成收到第一块音频：开始播放，合成结束后结束帧流
      */
-    private void executeTtsTask(TtsTask task) {
-        CompletableFuture<String> future = CompletableFuture.supplyAsync(() -> {
-            try {
-                long ttsStartTime = System.currentTimeMillis();
-                String audioPath = ttsFactory.getTtsService(task.ttsConfig, task.voiceName)
-                        .textToSpeech(task.emoSentence.getTtsSentence());
-                long ttsDuration = System.currentTimeMillis() - ttsStartTime;
-
-                // 记录TTS生成时间
-                task.sentence.setTtsGenerationTime(ttsDuration / 1000.0);
-                return audioPath;
-            } catch (Exception e) {
-                throw new CompletionException(e);
+    private void onFirstChunk(TtsTask task, AudioClip audio, OpusStreamEncoder encoder, OpusFrameStream frameStream,
+            CompletableFuture<Void> synthesis, boolean keepPcm) {
+        // 开始播放
+        task.sentence.setMoods(task.emoSentence.getMoods());
+        task.sentence.setAudio(audio);
+        logger.info("句子首块音频已生成 - 序号: {}, 对话ID: {}, 模型响应: {}秒, 首块音频: {}秒, 内容: \"{}\"",
+                task.sentence.getSeq(), task.dialogueId,
+                df.format(task.sentence.getModelResponseTime()),
+                df.format(task.sentence.getTtsGenerationTime()),
+                task.sentence.getText());
+        onSentenceReady(task);
+
+        synthesis.whenComplete((v, e) -> {
+            if (e == null) {
+                logger.debug("句子流式合成完成 - 序号: {}, 帧数: {}, 耗时: {}ms",
+                        task.sentence.getSeq(), encoder.getFrameCount(), System.currentTimeMillis() - task.ttsStartTime);
+            } else {
+                Throwable cause = rootCause(e);
+                logger.warn("流式TTS合成中断，保留已合成部分 - 序号: {}, 原因: {}",
+                        task.sentence.getSeq(), cause instanceof TimeoutException ? "超时" : cause.getMessage());
             }
-        }, Thread::startVirtualThread);
-
-        try {
-            // 设置超时
-            String audioPath = future.get(TTS_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            encoder.finish();
+            frameStream.complete();
+
+            // WAV录音格式在回复结束时合并各句音频
+            if (keepPcm && task.dialogueId != null) {
+                dialogueAudios.computeIfAbsent(task.dialogueId, k -> new ConcurrentHashMap<>())
+                        .put(task.sentence.getSeq(), audio);
+                if (task.isLast) {
+                    saveAssistantResponse(task.session);
+                }
+            }
+        });
+    }
 
-            // 成功生成音频
-            handleTtsSuccess(task, audioPath);
+    private static Throwable rootCause(Throwable e) {
+        while (e.getCause() != null && (e instanceof CompletionException || e instanceof ExecutionException)) {
+            e = e.getCause();
+        }
+        return e;
+    }
 
-        } catch (TimeoutException e) {
-            logger.warn("TTS生成超时 - 序号: {}, 重试次数: {}/{}, 内容: \"{}\"",
-                    task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, task.sentence.getText());
-            handleTtsFailure(task, "超时");
+    /**
+     * 句子音频就绪后尝试播放
+     */
+    private void onSentenceReady(TtsTask task) {
+        // 如果是首句，需要标记首句处理完成
+        if (task.isFirst) {
+            firstSentDone.get(task.sessionId).set(true);
+        }
 
-        } catch (Exception e) {
-            logger.error("TTS生成失败 - 序号: {}, 重试次数: {}/{}, 错误: {}",
-                    task.sentence.getSeq(), task.retryCount, MAX_RETRY_COUNT, e.getMessage());
-            handleTtsFailure(task, e.getMessage());
+        // 尝试处理队列（首句流式处理已完成或首句非流式处理完成）
+        if (firstSentDone.get(task.sessionId).get()) {
+            processQueue(task.session, task.sessionId);
         }
     }
 
     /**
      * 处理TTS成功
      */
-    private void handleTtsSuccess(TtsTask task, String audioPath) {
+    private void handleTtsSuccess(TtsTask task, AudioClip audio) {
         // 记录心情
         task.sentence.setMoods(task.emoSentence.getMoods());
 
@@ -649,28 +787,20 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                 task.sentence.getText());
 
         // 标记音频准备就绪
-        task.sentence.setAudio(audioPath);
+        task.sentence.setAudio(audio);
 
-        // 如果有对话ID，将音频路径添加到对应的映射中
-        if (task.dialogueId != null && audioPath != null) {
-            dialogueAudioPaths.computeIfAbsent(task.dialogueId, k -> new ConcurrentHashMap<>())
-                    .put(task.sentence.getSeq(), audioPath);
+        // WAV录音格式时保留该句音频，回复结束时合并
+        if (task.dialogueId != null && audio != null && !recordOgg()) {
+            dialogueAudios.computeIfAbsent(task.dialogueId, k -> new ConcurrentHashMap<>())
+                    .put(task.sentence.getSeq(), audio);
         }
 
         // 如果是最后一个句子，合并并存储助手的完整音频
-        if (task.isLast && task.dialogueId != null) {
+        if (task.isLast && task.dialogueId != null && !recordOgg()) {
             saveAssistantResponse(task.session);
         }
 
-        // 如果是首句，需要标记首句处理完成
-        if (task.isFirst) {
-            firstSentDone.get(task.sessionId).set(true);
-        }
-
-        // 尝试处理队列（首句流式处理已完成或首句非流式处理完成）
-        if (firstSentDone.get(task.sessionId).get()) {
-            processQueue(task.session, task.sessionId);
-        }
+        onSentenceReady(task);
     }
 
     /**
@@ -708,40 +838,35 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
         }
     }
 
+    private boolean recordOgg() {
+        return !"wav".equalsIgnoreCase(recordFormat);
+    }
+
     /**
-     * 保存助手的完整响应（文本和合并音频）
+     * 保存助手的完整响应（合并音频）
+     * 合并后的文件名立即写入会话，音频数据在后台写入磁盘
      */
     private void saveAssistantResponse(ChatSession session) {
         String dialogueId = session.getDialogueId();
         try {
-            // 获取该对话的所有音频路径
-            Map<Integer, String> audioPaths = dialogueAudioPaths.get(dialogueId);
-            if (audioPaths == null || audioPaths.isEmpty()) {
-                logger.warn("对话 {} 没有可用的音频路径", dialogueId);
+            // 获取该对话的所有音频
+            Map<Integer, AudioClip> audios = dialogueAudios.get(dialogueId);
+            if (audios == null || audios.isEmpty()) {
+                logger.warn("对话 {} 没有可用的音频", dialogueId);
                 return;
             }
 
-            // 按序号排序音频路径
-            List<Integer> sortedSeqs = new ArrayList<>(audioPaths.keySet());
+            // 按序号排序
+            List<Integer> sortedSeqs = new ArrayList<>(audios.keySet());
             sortedSeqs.sort(Integer::compareTo);
-
-            // 准备要合并的音频文件路径
-            List<String> audioFilesToMerge = new ArrayList<>();
+            List<AudioClip> audiosToMerge = new ArrayList<>();
             for (Integer seq : sortedSeqs) {
-                String path = audioPaths.get(seq);
-                if (path != null) {
-                    audioFilesToMerge.add(path);
-                }
+                audiosToMerge.add(audios.get(seq));
             }
 
-            // 合并音频文件
-            if (!audioFilesToMerge.isEmpty()) {
-                String mergedAudioPath = AudioUtils.AUDIO_PATH + AudioUtils.mergeAudioFiles(audioFilesToMerge);
-
-                // 保存合并后的音频路径
-                session.setAssistantAudioPath(mergedAudioPath);
-                logger.info("对话 {} 的音频已合并: {}", dialogueId, mergedAudioPath);
-            }
+            String mergedAudioPath = AudioClip.spill(audiosToMerge);
+            session.setAssistantAudioPath(mergedAudioPath);
+            logger.info("对话 {} 的音频已合并: {}", dialogueId, mergedAudioPath);
         } catch (Exception e) {
             logger.error("保存助手响应失败 - 对话ID: {}, 错误: {}", dialogueId, e.getMessage(), e);
         }
@@ -749,80 +874,87 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
 
     /**
      * 处理音频队列
-     * 在流式处理完成后或非首句音频生成完成后调用
+     * 句子就绪、播放结束或等待超时时调用，按序号释放队头句子播放。
+     * 同一时刻只有一个线程在释放；其他线程的通知记录在缓冲区中，由正在释放的线程处理，
+     * 播放结束回调在同一线程中同步执行时也不会递归。
      */
     private void processQueue(ChatSession session, String sessionId) {
-        // 获取锁，确保线程安全
+        SentenceReorderBuffer buffer = sentenceBuffers.get(sessionId);
         ReentrantLock lock = locks.get(sessionId);
-        if (lock == null) {
+        if (buffer == null || lock == null) {
             return;
         }
 
-        // 尝试获取锁，避免多线程同时处理
-        if (!lock.tryLock()) {
+        buffer.signal();
+        if (lock.isHeldByCurrentThread()) {
             return;
         }
 
-        try {
-            // 获取句子队列
-            CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-            if (queue == null || queue.isEmpty()) {
-                return;
+        // 释放后再检查一次，避免在解锁前到达的通知被遗漏
+        while (buffer.isSignalled() && lock.tryLock()) {
+            try {
+                while (buffer.takeSignal()) {
+                    releaseNext(session, sessionId, buffer);
+                }
+            } finally {
+                lock.unlock();
             }
+        }
+    }
 
-            // 检查首句是否已经流式处理完成
-            AtomicBoolean firstDone = firstSentDone.get(sessionId);
-            if (firstDone == null || !firstDone.get()) {
-                // 首句尚未处理完成，等待
-                return;
-            }
+    /**
+     * 队头句子就绪（或等待超时）且当前没有在播放时，取出并播放
+     */
+    private void releaseNext(ChatSession session, String sessionId, SentenceReorderBuffer buffer) {
+        // 检查首句是否已经处理完成
+        AtomicBoolean firstDone = firstSentDone.get(sessionId);
+        if (firstDone == null || !firstDone.get()) {
+            return;
+        }
 
-            // 检查当前是否有句子正在播放
-            boolean isCurrentlyPlaying = audioService.isPlaying(sessionId);
+        // 如果当前正在播放，播放结束后会再次通知
+        if (audioService.isPlaying(sessionId)) {
+            return;
+        }
 
-            // 如果当前正在播放，不处理下一个句子
-            if (isCurrentlyPlaying) {
+        Sentence nextSentence = buffer.peek();
+        if (nextSentence == null) {
+            return;
+        }
+
+        if (!nextSentence.isReady()) {
+            if (!nextSentence.isTimeout()) {
+                // 还没就绪，到超时时间再检查一次
+                scheduleTimeoutCheck(session, sessionId, nextSentence);
                 return;
             }
+            // 句子超时但未准备好，标记为准备好但没有音频
+            nextSentence.setAudio(null);
+        }
 
-            // 找出最小序号
-            int minSeq = queue.stream()
-                    .mapToInt(Sentence::getSeq)
-                    .min()
-                    .orElse(Integer.MAX_VALUE);
-
-            // 找出该序号的句子
-            Sentence nextSentence = queue.stream()
-                    .filter(s -> s.getSeq() == minSeq)
-                    .findFirst()
-                    .orElse(null);
-
-            if (nextSentence != null) {
-                // 检查句子是否准备好或超时
-                if (nextSentence.isReady() || nextSentence.isTimeout()) {
-                    // 如果句子超时但未准备好，标记为准备好但没有音频
-                    if (nextSentence.isTimeout() && !nextSentence.isReady()) {
-                        nextSentence.setAudio(null);
-                    }
+        // 从队列中移除已处理的句子
+        buffer.remove(nextSentence);
 
-                    // 从队列中移除已处理的句子
-                    queue.remove(nextSentence);
-
-                    // 发送到客户端
-                    audioService.sendAudioMessage(
-                            session,
-                            nextSentence,
-                            false, // 不是开始消息
-                            nextSentence.isLast() // 如果是最后一句，则是结束消息
-                    ).thenRun(() -> {
-                        // 在播放完成后，递归调用处理下一个句子
-                        processQueue(session, sessionId);
-                    });
-                }
-            }
-        } finally {
-            lock.unlock();
+        // 发送到客户端，播放完成后通知处理下一个句子
+        audioService.sendAudioMessage(
+                session,
+                nextSentence,
+                false, // 不是开始消息
+                nextSentence.isLast() // 如果是最后一句，则是结束消息
+        ).thenRun(() -> processQueue(session, sessionId));
+    }
+
+    /**
+     * 队头句子等待超时后触发一次队列处理，每个句子只安排一次
+     */
+    private void scheduleTimeoutCheck(ChatSession session, String sessionId, Sentence sentence) {
+        if (sentence.timeoutScheduled) {
+            return;
         }
+        sentence.timeoutScheduled = true;
+        long delay = Math.max(0, TIMEOUT_MS - (System.currentTimeMillis() - sentence.timestamp)) + 10;
+        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                .execute(() -> processQueue(session, sessionId));
     }
 
     /**
@@ -920,14 +1052,17 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
                 sessionManager.closeAudioStream(sessionId);
                 sessionManager.setStreamingState(sessionId, false);
 
+                // 放弃正在进行的推测请求
+                speculativeChatService.cancel(sessionId);
+
                 if (sessionManager.isMusicPlaying(sessionId)) {
                     musicService.stopMusic(sessionId);
                     return;
                 }
                 // 清空句子队列
-                CopyOnWriteArrayList<Sentence> queue = sentenceQueue.get(sessionId);
-                if (queue != null) {
-                    queue.clear();
+                SentenceReorderBuffer buffer = sentenceBuffers.get(sessionId);
+                if (buffer != null) {
+                    buffer.clear();
                 }
 
                 // 重置首句处理状态
@@ -951,16 +1086,13 @@ public class DialogueService implements ApplicationListener<ChatSessionCloseEven
         seqCounters.remove(sessionId);
         sttStartTimes.remove(sessionId);
         llmStartTimes.remove(sessionId);
-        sentenceQueue.remove(sessionId);
+        sentenceBuffers.remove(sessionId);
         firstSentDone.remove(sessionId);
         locks.remove(sessionId);
 
-        // 新增：清理并发控制相关资源
-        sessionSemaphores.remove(sessionId);
-        PriorityBlockingQueue<TtsTask> taskQueue = sessionTaskQueues.remove(sessionId);
-        if (taskQueue != null) {
-            taskQueue.clear();
-        }
+        // 放弃推测请求，取消排队中的TTS任务
+        speculativeChatService.cancel(sessionId);
+        ttsScheduler.cancelSession(sessionId);
 
         // 清理AudioService中的资源
         audioService.cleanupSession(sessionId);
@@ -0,0 +1,307 @@
+package com.xiaozhi.dialogue.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 说话结束判定（端点检测）
+ * VAD在说话后检测到连续静音超过角色配置的静音时长才判定说话结束。固定时长对 "播放音乐" 这类简短完整的指令偏长，
+ * 对说话中习惯停顿的用户又可能偏短。这里在角色配置的时长基础上按已有的信号动态调整：
+ * - 识别文本：流式识别的中间结果以句末标点、语气词结尾或是完整的简短指令时缩短，以逗号、连词结尾时延长
+ * - 停顿习惯：记录用户说话中（未结束说话）的停顿时长，缩短后的时长不低于其 p90 的 {@value #PAUSE_MARGIN} 倍
+ * - VAD概率走势：静音期间概率持续处于低位时进一步缩短，概率回升（可能要继续说）时不缩短
+ *
+ * 结果限定在 [min-ms, max-ms] 之间。文本无法判断时不延长；文本未说完时会延长到配置时长的 incomplete-factor 倍，
+ * 这类说话的结束判定比固定时长更慢，需要固定时长时关闭 vad.endpoint.adaptive。
+ * 每次说话结束时采用的静音时长记录在 vad.endpoint.timeout 中（按文本判断结果分组）。
+ */
+@Component
+public class EndpointDetector {
+
+    // 每个会话保留的停顿样本数
+    private static final int PAUSE_HISTORY = 32;
+
+    // 计算停顿分位数所需的最少样本数
+    private static final int MIN_PAUSE_SAMPLES = 5;
+
+    // 短于该时长的静音不视为停顿（毫秒）
+    private static final int MIN_PAUSE_MS = 150;
+
+    // 缩短后的静音时长相对用户停顿p90的余量
+    private static final double PAUSE_MARGIN = 1.2;
+
+    // 静音期间VAD概率的均值低于该值且不再上升时，视为干净的说话结束
+    private static final float LOW_PROB = 0.05f;
+
+    // 每帧概率上升超过该值时视为可能继续说话
+    private static final float RISING_SLOPE = 0.02f;
+
+    // 概率持续处于低位时额外缩短的比例
+    private static final double LOW_PROB_FACTOR = 0.85;
+
+    // 简短指令的最大长度（去掉标点后的字符数）
+    private static final int SHORT_COMMAND_LENGTH = 8;
+
+    // 句末语气词
+    private static final String FINAL_PARTICLES = "吗呢吧啊呀啦哦嘛哈";
+
+    // 以这些词结尾说明话还没说完
+    private static final List<String> INCOMPLETE_ENDINGS = List.of(
+            "然后", "还有", "就是", "那个", "这个", "因为", "所以", "但是", "如果", "或者", "而且", "还是",
+            "和", "跟", "把", "给", "在", "的", "嗯", "呃", "额", "我想", "我要", "帮我", "请");
+
+    // 单独出现就完整的指令
+    private static final Set<String> COMPLETE_COMMANDS = Set.of(
+            "暂停", "停止", "停", "继续", "退出", "再见", "拜拜", "谢谢", "好的", "好", "是的", "不是", "不用了",
+            "下一首", "上一首", "换一首", "大声点", "小声点");
+
+    // 需要带宾语的指令动词，单独出现时话还没说完
+    private static final List<String> COMMAND_VERBS = List.of(
+            "播放", "打开", "关闭", "关掉", "调大", "调小", "讲", "唱");
+
+    /**
+     * 识别文本的完整程度
+     */
+    public enum Completeness {
+        COMPLETE,
+        INCOMPLETE,
+        UNKNOWN
+    }
+
+    // 关闭后始终使用角色配置的静音时长
+    @Value("${vad.endpoint.adaptive:true}")
+    private boolean adaptive;
+
+    @Value("${vad.endpoint.min-ms:400}")
+    private int minMs;
+
+    @Value("${vad.endpoint.max-ms:2000}")
+    private int maxMs;
+
+    @Value("${vad.endpoint.complete-factor:0.5}")
+    private double completeFactor;
+
+    @Value("${vad.endpoint.incomplete-factor:1.4}")
+    private double incompleteFactor;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, SessionState> sessions = new ConcurrentHashMap<>();
+
+    private final Map<Completeness, DistributionSummary> timeouts = new ConcurrentHashMap<>();
+
+    /**
+     * 一个会话的识别文本和停顿历史
+     */
+    private static final class SessionState {
+        private volatile String partial;
+        private volatile int pauseP90 = -1;
+        private final int[] pauses = new int[PAUSE_HISTORY];
+        private int pauseCount = 0;
+
+        private synchronized void recordPause(int pauseMs) {
+            pauses[pauseCount % PAUSE_HISTORY] = pauseMs;
+            pauseCount++;
+            if (pauseCount >= MIN_PAUSE_SAMPLES) {
+                int[] sorted = Arrays.copyOf(pauses, Math.min(pauseCount, PAUSE_HISTORY));
+                Arrays.sort(sorted);
+                pauseP90 = sorted[(int) Math.ceil(0.9 * sorted.length) - 1];
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        MeterRegistry registry = meterRegistry != null ? meterRegistry : new SimpleMeterRegistry();
+        for (Completeness completeness : Completeness.values()) {
+            timeouts.put(completeness, DistributionSummary.builder("vad.endpoint.timeout")
+                    .description("判定说话结束采用的静音时长")
+                    .baseUnit("milliseconds")
+                    .tag("text", completeness.name().toLowerCase())
+                    .publishPercentiles(0.5, 0.95)
+                    .register(registry));
+        }
+    }
+
+    /**
+     * 开始说话，清除上一次说话的识别文本
+     */
+    public void startUtterance(String sessionId) {
+        state(sessionId).partial = null;
+    }
+
+    /**
+     * 流式识别的中间结果
+     */
+    public void onPartial(String sessionId, String text) {
+        state(sessionId).partial = text;
+    }
+
+    /**
+     * 说话中的一次停顿（静音后又继续说话）
+     */
+    public void recordPause(String sessionId, int pauseMs) {
+        if (pauseMs >= MIN_PAUSE_MS) {
+            state(sessionId).recordPause(pauseMs);
+        }
+    }
+
+    /**
+     * 当前应采用的静音时长，说话中每个静音帧调用一次
+     *
+     * @param baseMs 角色配置的静音时长
+     * @param probs  最近的VAD概率，按时间顺序
+     */
+    public int silenceTimeout(String sessionId, int baseMs, List<Float> probs) {
+        if (!adaptive) {
+            return baseMs;
+        }
+        SessionState state = sessions.get(sessionId);
+        Completeness completeness = completeness(state != null ? state.partial : null);
+
+        double timeout = switch (completeness) {
+            case COMPLETE -> baseMs * completeFactor;
+            case INCOMPLETE -> baseMs * incompleteFactor;
+            default -> baseMs;
+        };
+        if (completeness != Completeness.INCOMPLETE) {
+            float slope = slope(probs);
+            if (slope > RISING_SLOPE) {
+                // 概率回升，可能还要继续说
+                timeout = Math.max(timeout, baseMs);
+            } else if (mean(probs) < LOW_PROB) {
+                timeout *= LOW_PROB_FACTOR;
+            }
+        }
+
+        // 不短于用户平时说话中的停顿，也不因停顿习惯超过配置的时长
+        int pauseP90 = state != null ? state.pauseP90 : -1;
+        int floor = Math.min(baseMs, Math.max(minMs, (int) (pauseP90 * PAUSE_MARGIN)));
+        int ceiling = Math.max(baseMs, maxMs);
+        return (int) Math.max(floor, Math.min(ceiling, timeout));
+    }
+
+    /**
+     * 说话结束，记录采用的静音时长
+     */
+    public void endUtterance(String sessionId, int timeoutMs) {
+        SessionState state = sessions.get(sessionId);
+        timeouts.get(completeness(state != null ? state.partial : null)).record(timeoutMs);
+    }
+
+    public void remove(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    /**
+     * 判断识别文本是否已经是完整的一句话
+     */
+    public static Completeness completeness(String text) {
+        if (text == null) {
+            return Completeness.UNKNOWN;
+        }
+        String trimmed = text.strip();
+        if (trimmed.isEmpty()) {
+            return Completeness.UNKNOWN;
+        }
+        char last = trimmed.charAt(trimmed.length() - 1);
+        if ("。！？.!?".indexOf(last) >= 0) {
+            return Completeness.COMPLETE;
+        }
+        if ("，,、：:；;…".indexOf(last) >= 0) {
+            return Completeness.INCOMPLETE;
+        }
+
+        String words = stripPunctuation(trimmed);
+        if (words.isEmpty()) {
+            return Completeness.UNKNOWN;
+        }
+        if (COMPLETE_COMMANDS.contains(words)) {
+            return Completeness.COMPLETE;
+        }
+        for (String ending : INCOMPLETE_ENDINGS) {
+            if (words.endsWith(ending)) {
+                return Completeness.INCOMPLETE;
+            }
+        }
+        if (FINAL_PARTICLES.indexOf(words.charAt(words.length() - 1)) >= 0) {
+            return Completeness.COMPLETE;
+        }
+        if (words.length() <= SHORT_COMMAND_LENGTH) {
+            for (String verb : COMMAND_VERBS) {
+                if (words.startsWith(verb)) {
+                    // 指令动词后面带了宾语即为完整指令，如 "播放音乐"、"打开灯"
+                    return words.length() > verb.length() ? Completeness.COMPLETE : Completeness.INCOMPLETE;
+                }
+            }
+        }
+        return Completeness.UNKNOWN;
+    }
+
+    private SessionState state(String sessionId) {
+        return sessions.computeIfAbsent(sessionId, k -> new SessionState());
+    }
+
+    private static String stripPunctuation(String text) {
+        StringBuilder builder = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isWhitespace(c) && !isPunctuation(c)) {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static boolean isPunctuation(char c) {
+        return switch (Character.getType(c)) {
+            case Character.CONNECTOR_PUNCTUATION, Character.DASH_PUNCTUATION, Character.START_PUNCTUATION,
+                    Character.END_PUNCTUATION, Character.INITIAL_QUOTE_PUNCTUATION,
+                    Character.FINAL_QUOTE_PUNCTUATION, Character.OTHER_PUNCTUATION -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * 最小二乘斜率（每帧的变化量）
+     */
+    private static float slope(List<Float> probs) {
+        int n = probs.size();
+        if (n < 3) {
+            return 0;
+        }
+        float meanX = (n - 1) / 2.0f;
+        float meanY = mean(probs);
+        float num = 0;
+        float den = 0;
+        for (int i = 0; i < n; i++) {
+            float dx = i - meanX;
+            num += dx * (probs.get(i) - meanY);
+            den += dx * dx;
+        }
+        return num / den;
+    }
+
+    private static float mean(List<Float> probs) {
+        if (probs.isEmpty()) {
+            return 1;
+        }
+        float sum = 0;
+        for (Float prob : probs) {
+            sum += prob;
+        }
+        return sum / probs.size();
+    }
+}
@@ -0,0 +1,310 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.utils.AudioUtils;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 全局音频帧节拍器
+ * 所有下发给设备的音频流（对话、音乐、绘本）共用一个计时线程，代替每个会话每段音频一个定时任务。
+ *
+ * 计时线程驱动一个哈希时间轮（每格 {@value #TICK_MS}ms），每个流按自己的截止时间挂在对应的格子上，
+ * 到期后在虚拟线程中发送下一帧，发送完成后按下一帧的截止时间重新挂回时间轮。
+ * 截止时间按帧时长（60ms）累加，不随调度误差漂移，因此不再需要用58ms的间隔来弥补抖动：
+ * - 追赶：落后超过一帧时同一次最多连发 {@code maxCatchUpFrames} 帧，追回计划进度
+ * - 跳过：落后超过 {@code maxLagMs} 时不再追赶，从当前时间重新计时，避免设备收到大量突发帧
+ * - 等待：流式合成的下一帧还没生成时，每 {@value #IDLE_POLL_MS}ms 检查一次，生成后立即发送并从该时刻重新计时
+ *
+ * 时间轮和待转入队列都为空时计时线程停下等待，有流加入时再唤醒，空闲时不再每格醒来一次。
+ *
+ * 发送延迟（实际发送时间与截止时间之差）记录在 audio.pacer.send.lag 直方图中。
+ */
+@Component
+public class FramePacer {
+    private static final Logger logger = LoggerFactory.getLogger(FramePacer.class);
+
+    // 时间轮每格时长（毫秒）
+    static final long TICK_MS = 5;
+
+    // 时间轮格数，必须是2的幂，覆盖范围为 TICK_MS * WHEEL_SIZE
+    private static final int WHEEL_SIZE = 64;
+
+    // 下一帧还没生成时的检查间隔（毫秒）
+    static final long IDLE_POLL_MS = 20;
+
+    private static final long FRAME_NANOS = TimeUnit.MILLISECONDS.toNanos(AudioUtils.OPUS_FRAME_DURATION_MS);
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(TICK_MS);
+
+    /**
+     * 每次到期时的发送结果
+     */
+    public enum Status {
+        // 已发送一帧
+        SENT,
+        // 下一帧还没准备好
+        WAITING,
+        // 播放结束（播完、被打断或会话关闭）
+        FINISHED
+    }
+
+    /**
+     * 帧发送任务，每次调用发送一帧
+     */
+    @FunctionalInterface
+    public interface FrameTask {
+        Status sendNext() throws Exception;
+    }
+
+    @Value("${audio.pacer.max-catch-up-frames:2}")
+    private int maxCatchUpFrames;
+
+    @Value("${audio.pacer.max-lag-ms:300}")
+    private long maxLagMs;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // 时间轮，只由计时线程访问
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final ArrayDeque<PacedStream>[] wheel = new ArrayDeque[WHEEL_SIZE];
+
+    // 新加入或重新挂回的流，由计时线程转入时间轮
+    private final ConcurrentLinkedQueue<PacedStream> pending = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger activeStreams = new AtomicInteger();
+    private final ExecutorService senders = Executors.newVirtualThreadPerTaskExecutor();
+    private final long startNanos = System.nanoTime();
+
+    private Timer lagTimer;
+    private Thread timerThread;
+    private volatile boolean running = true;
+
+    // 计时线程没有流可处理、正在等待唤醒
+    private volatile boolean idle = false;
+
+    /**
+     * 一个正在播放的音频流
+     */
+    public final class PacedStream {
+        private final String name;
+        private final FrameTask task;
+        private final CompletableFuture<Void> completion = new CompletableFuture<>();
+        private volatile boolean cancelled = false;
+
+        // 下一帧的截止时间，只在发送线程和计时线程之间交接，不会并发修改
+        private long deadline;
+
+        private PacedStream(String name, FrameTask task, long deadline) {
+            this.name = name;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * 播放结束时完成，发送出错时异常完成，取消后不再发送
+         */
+        public CompletableFuture<Void> completion() {
+            return completion;
+        }
+
+        /**
+         * 取消播放，已发出的帧不受影响
+         */
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                finish(null);
+            }
+        }
+
+        public boolean isDone() {
+            return completion.isDone();
+        }
+
+        private void fire() {
+            try {
+                long now = System.nanoTime();
+                int sent = 0;
+                while (!cancelled) {
+                    Status status = task.sendNext();
+                    if (status == Status.FINISHED) {
+                        finish(null);
+                        return;
+                    }
+                    if (status == Status.WAITING) {
+                        // 下一帧生成后从当时重新计时
+                        deadline = now + TimeUnit.MILLISECONDS.toNanos(IDLE_POLL_MS);
+                        break;
+                    }
+                    lagTimer.record(Math.max(0, now - deadline), TimeUnit.NANOSECONDS);
+                    sent++;
+                    deadline += FRAME_NANOS;
+                    long behind = now - deadline;
+                    if (behind > TimeUnit.MILLISECONDS.toNanos(maxLagMs)) {
+                        // 落后太多，放弃追赶
+                        deadline = now + FRAME_NANOS;
+                        break;
+                    }
+                    if (behind < 0 || sent >= maxCatchUpFrames) {
+                        break;
+                    }
+                    now = System.nanoTime();
+                }
+                if (!cancelled) {
+                    schedule(this);
+                }
+            } catch (Exception e) {
+                logger.warn("发送音频帧失败 - 流: {}, 错误: {}", name, e.getMessage());
+                finish(e);
+            }
+        }
+
+        private void finish(Throwable error) {
+            cancelled = true;
+            boolean completed = error == null ? completion.complete(null) : completion.completeExceptionally(error);
+            if (completed) {
+                activeStreams.decrementAndGet();
+            }
+        }
+    }
+
+    @PostConstruct
+    public void start() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel[i] = new ArrayDeque<>();
+        }
+        MeterRegistry registry = meterRegistry != null ? meterRegistry : new SimpleMeterRegistry();
+        lagTimer = Timer.builder("audio.pacer.send.lag")
+                .description("音频帧实际发送时间与计划时间之差")
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(1))
+                .register(registry);
+        Gauge.builder("audio.pacer.streams", activeStreams, AtomicInteger::get).register(registry);
+
+        timerThread = Thread.ofPlatform().daemon().name("frame-pacer").start(this::run);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (timerThread != null) {
+            timerThread.interrupt();
+        }
+        senders.shutdownNow();
+    }
+
+    /**
+     * 开始播放一个音频流，第一帧立即发送
+     *
+     * @param name 流名称，用于日志（一般为会话ID）
+     * @param task 帧发送任务
+     */
+    public PacedStream start(String name, FrameTask task) {
+        PacedStream stream = new PacedStream(name, task, System.nanoTime());
+        activeStreams.incrementAndGet();
+        senders.execute(stream::fire);
+        return stream;
+    }
+
+    /**
+     * 正在播放的流数量
+     */
+    public int getActiveStreams() {
+        return activeStreams.get();
+    }
+
+    /**
+     * 发送延迟统计
+     */
+    public Timer getLagTimer() {
+        return lagTimer;
+    }
+
+    /**
+     * 把流交给计时线程，计时线程空闲时唤醒它
+     */
+    private void schedule(PacedStream stream) {
+        pending.offer(stream);
+        if (idle) {
+            LockSupport.unpark(timerThread);
+        }
+    }
+
+    private long tickOf(long nanos) {
+        return Math.max(0, (nanos - startNanos + TICK_NANOS - 1) / TICK_NANOS);
+    }
+
+    private void run() {
+        long currentTick = tickOf(System.nanoTime());
+        // 时间轮中的流数量，只由计时线程访问
+        int scheduled = 0;
+        while (running) {
+            if (scheduled == 0 && pending.isEmpty()) {
+                // 先标记空闲再检查队列，与 schedule 中先入队再检查标记配合，不会错过唤醒
+                idle = true;
+                if (pending.isEmpty() && running) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                currentTick = tickOf(System.nanoTime());
+                continue;
+            }
+
+            // 转入新挂回的流，已经到期的放在当前格子
+            PacedStream stream;
+            while ((stream = pending.poll()) != null) {
+                long tick = Math.max(currentTick, tickOf(stream.deadline));
+                wheel[(int) (tick & (WHEEL_SIZE - 1))].add(stream);
+                scheduled++;
+            }
+
+            // 处理当前格子：到期的发送，超过一圈的留到下一圈
+            ArrayDeque<PacedStream> slot = wheel[(int) (currentTick & (WHEEL_SIZE - 1))];
+            for (int i = slot.size(); i > 0; i--) {
+                stream = slot.poll();
+                if (tickOf(stream.deadline) > currentTick && !stream.cancelled) {
+                    slot.add(stream);
+                    continue;
+                }
+                scheduled--;
+                if (stream.cancelled) {
+                    continue;
+                }
+                try {
+                    senders.execute(stream::fire);
+                } catch (Exception e) {
+                    // 应用关闭中
+                    stream.finish(e);
+                }
+            }
+
+            // 等到下一格，提前醒来（如被 schedule 唤醒）时继续等待
+            currentTick++;
+            long wait;
+            while (running && (wait = startNanos + currentTick * TICK_NANOS - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+        }
+    }
+}
@@ -51,10 +51,8 @@ public class HuiBenService {
     @Autowired
     private AudioService audioService;
 
-    // 使用虚拟线程执行器处理定时任务
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
-            Runtime.getRuntime().availableProcessors(),
-            Thread.ofVirtual().name("huiBen-scheduler-", 0).factory());
+    @Autowired
+    private FramePacer framePacer;
 
     // 存储每个会话的当前文本信息
     private final Map<String, List<TextLine>> sessionTexts = new ConcurrentHashMap<>();
@@ -65,8 +63,8 @@ public class HuiBenService {
     // 存储每个会话的音频文件路径，用于播放完成后删除
     private final Map<String, String> sessionAudioFiles = new ConcurrentHashMap<>();
 
-    // 存储每个会话的调度任务
-    private final Map<String, ScheduledFuture<?>> scheduledTasks = new ConcurrentHashMap<>();
+    // 存储每个会话正在播放的音频流
+    private final Map<String, FramePacer.PacedStream> scheduledTasks = new ConcurrentHashMap<>();
 
     /**
      * 文本行数据结构 - 使用JDK 16+ Record类型
@@ -191,52 +189,45 @@ public class HuiBenService {
                 }
             }
 
-            // 创建帧发送任务，使用原子引用替代数组
+            // 帧发送任务，由全局节拍器每帧调用一次
             AtomicLong frameIndexRef = new AtomicLong(0);
-            Runnable frameTask = () -> {
-                try {
-                    int currentIndex = (int) frameIndexRef.get();
-                    if (currentIndex >= frames.size()) {
-                        // 所有帧已发送，取消任务
-                        audioService.cancelScheduledTask(sessionId);
-                        return;
-                    }
-
-                    // 更新活跃时间
-                    sessionManager.updateLastActivity(sessionId);
-
-                    // 更新当前播放时间
-                    currPlayTime.set(currentIndex * OPUS_FRAME_INTERVAL_MS);
-
-                    // 先检查是否有对应这一帧的文本需要发送
-                    String textContent = textFrameMap.get(currentIndex);
-                    if (textContent != null) {
-                        audioService.sendSentenceStart(session, textContent);
-                    }
-
-                    // 发送当前帧
-                    byte[] frame = frames.get(currentIndex);
-                    audioService.sendOpusFrame(session, frame);
-
-                    // 增加帧索引
-                    frameIndexRef.incrementAndGet();
-
-                } catch (Exception e) {
-                    // 发生错误，取消调度任务
-                    logger.error("发送音频帧时发生错误", e);
-                    audioService.cancelScheduledTask(sessionId);
+            FramePacer.FrameTask frameTask = () -> {
+                int currentIndex = (int) frameIndexRef.get();
+                if (currentIndex >= frames.size()) {
+                    // 所有帧已发送
+                    return FramePacer.Status.FINISHED;
                 }
-            };
 
-            // 启动定时任务，每隔OPUS_FRAME_INTERVAL_MS毫秒执行一次
-            ScheduledFuture<?> task = scheduler.scheduleAtFixedRate(
-                    frameTask,
-                    0,
-                    OPUS_FRAME_INTERVAL_MS,
-                    TimeUnit.MILLISECONDS);
+                // 更新活跃时间
+                sessionManager.updateLastActivity(sessionId);
+
+                // 更新当前播放时间
+                currPlayTime.set(currentIndex * OPUS_FRAME_INTERVAL_MS);
+
+                // 先检查是否有对应这一帧的文本需要发送
+                String textContent = textFrameMap.get(currentIndex);
+                if (textContent != null) {
+                    audioService.sendSentenceStart(session, textContent);
+                }
+
+                // 发送当前帧
+                byte[] frame = frames.get(currentIndex);
+                audioService.sendOpusFrame(session, frame);
+
+                // 增加帧索引
+                frameIndexRef.incrementAndGet();
+                return FramePacer.Status.SENT;
+            };
 
-            // 存储任务引用，以便稍后取消
-            scheduledTasks.put(sessionId, task);
+            // 开始播放，存储流引用，以便稍后取消
+            FramePacer.PacedStream stream = framePacer.start(sessionId, frameTask);
+            scheduledTasks.put(sessionId, stream);
+            stream.completion().whenComplete((r, e) -> {
+                scheduledTasks.remove(sessionId, stream);
+                if (e != null) {
+                    logger.error("发送音频帧时发生错误", e);
+                }
+            });
         } catch (Exception e) {
             logger.error("处理音频时发生错误 - SessionId: {}", sessionId, e);
             try {
@@ -343,9 +334,9 @@ public class HuiBenService {
     public void stopHuiBen(String sessionId) {
         Thread.startVirtualThread(() -> {
             try {
-                ScheduledFuture<?> task = scheduledTasks.remove(sessionId);
-                if (task != null) {
-                    task.cancel(true); // 取消任务
+                FramePacer.PacedStream stream = scheduledTasks.remove(sessionId);
+                if (stream != null) {
+                    stream.cancel(); // 取消播放
                 }
 
                 // 清理音频文件
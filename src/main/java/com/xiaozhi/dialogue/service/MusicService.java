@@ -51,10 +51,8 @@ public class MusicService {
     @Autowired
     private AudioService audioService;
 
-    // 使用虚拟线程执行器处理定时任务
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
-            Runtime.getRuntime().availableProcessors(),
-            Thread.ofVirtual().name("music-scheduler-", 0).factory());
+    @Autowired
+    private FramePacer framePacer;
 
     // 存储每个会话的当前歌词信息
     private final Map<String, List<LyricLine>> sessionLyrics = new ConcurrentHashMap<>();
@@ -65,8 +63,8 @@ public class MusicService {
     // 存储每个会话的音频文件路径，用于播放完成后删除
     private final Map<String, String> sessionAudioFiles = new ConcurrentHashMap<>();
 
-    // 存储每个会话的调度任务
-    private final Map<String, ScheduledFuture<?>> scheduledTasks = new ConcurrentHashMap<>();
+    // 存储每个会话正在播放的音频流
+    private final Map<String, FramePacer.PacedStream> scheduledTasks = new ConcurrentHashMap<>();
 
     /**
      * 歌词行数据结构 - 使用JDK 16+ Record类型
@@ -197,52 +195,45 @@ public class MusicService {
                 }
             }
 
-            // 创建帧发送任务，使用原子引用替代数组
+            // 帧发送任务，由全局节拍器每帧调用一次
             AtomicLong frameIndexRef = new AtomicLong(0);
-            Runnable frameTask = () -> {
-                try {
-                    int currentIndex = (int) frameIndexRef.get();
-                    if (currentIndex >= frames.size()) {
-                        // 所有帧已发送，取消任务
-                        audioService.cancelScheduledTask(sessionId);
-                        return;
-                    }
+            FramePacer.FrameTask frameTask = () -> {
+                int currentIndex = (int) frameIndexRef.get();
+                if (currentIndex >= frames.size()) {
+                    // 所有帧已发送
+                    return FramePacer.Status.FINISHED;
+                }
 
-                    // 更新活跃时间
-                    sessionManager.updateLastActivity(sessionId);
+                // 更新活跃时间
+                sessionManager.updateLastActivity(sessionId);
 
-                    // 更新当前播放时间
-                    currPlayTime.set(currentIndex * OPUS_FRAME_INTERVAL_MS);
+                // 更新当前播放时间
+                currPlayTime.set(currentIndex * OPUS_FRAME_INTERVAL_MS);
 
-                    // 先检查是否有对应这一帧的歌词需要发送
-                    String lyricText = lyricFrameMap.get(currentIndex);
-                    if (lyricText != null) {
-                        audioService.sendSentenceStart(session, lyricText);
-                    }
+                // 先检查是否有对应这一帧的歌词需要发送
+                String lyricText = lyricFrameMap.get(currentIndex);
+                if (lyricText != null) {
+                    audioService.sendSentenceStart(session, lyricText);
+                }
 
-                    // 发送当前帧
-                    byte[] frame = frames.get(currentIndex);
-                    audioService.sendOpusFrame(session, frame);
+                // 发送当前帧
+                byte[] frame = frames.get(currentIndex);
+                audioService.sendOpusFrame(session, frame);
 
-                    // 增加帧索引
-                    frameIndexRef.incrementAndGet();
+                // 增加帧索引
+                frameIndexRef.incrementAndGet();
+                return FramePacer.Status.SENT;
+            };
 
-                } catch (Exception e) {
-                    // 发生错误，取消调度任务
+            // 开始播放，存储流引用，以便稍后取消
+            FramePacer.PacedStream stream = framePacer.start(sessionId, frameTask);
+            scheduledTasks.put(sessionId, stream);
+            stream.completion().whenComplete((r, e) -> {
+                scheduledTasks.remove(sessionId, stream);
+                if (e != null) {
                     logger.error("发送音频帧时发生错误", e);
-                    audioService.cancelScheduledTask(sessionId);
                 }
-            };
-
-            // 启动定时任务，每隔OPUS_FRAME_INTERVAL_MS毫秒执行一次
-            ScheduledFuture<?> task = scheduler.scheduleAtFixedRate(
-                    frameTask,
-                    0,
-                    OPUS_FRAME_INTERVAL_MS,
-                    TimeUnit.MILLISECONDS);
-
-            // 存储任务引用，以便稍后取消
-            scheduledTasks.put(sessionId, task);
+            });
         } catch (Exception e) {
             logger.error("处理音频时发生错误 - SessionId: {}", sessionId, e);
             try {
@@ -432,9 +423,9 @@ public class MusicService {
     public void stopMusic(String sessionId) {
         Thread.startVirtualThread(() -> {
             try {
-                ScheduledFuture<?> task = scheduledTasks.remove(sessionId);
-                if (task != null) {
-                    task.cancel(true); // 取消任务
+                FramePacer.PacedStream stream = scheduledTasks.remove(sessionId);
+                if (stream != null) {
+                    stream.cancel(); // 取消播放
                 }
 
                 // 清理音频文件
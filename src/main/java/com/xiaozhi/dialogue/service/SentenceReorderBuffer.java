@@ -0,0 +1,138 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.dialogue.service.DialogueService.Sentence;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 句子播放重排缓冲区
+ * 句子按序号放入环形数组（下标为 seq & mask），TTS线程以任意顺序完成合成，播放时严格按序号从队头取出。
+ *
+ * - 放入：由LLM回调线程按序号递增顺序放入，只写一个数组元素，无锁无等待
+ * - 取出：同一时刻只有一个消费者（由调用方保证），检查队头即可，O(1)
+ * - 序号跳过的位置（句子未放入，如没有TTS服务）视为空位直接越过
+ * - 超出环形数组容量的句子暂存在溢出表中，队头推进到该位置时再取出
+ *
+ * 就绪事件通过 {@link #signal()} / {@link #takeSignal()} 传递，消费者忙时到达的事件不会丢失。
+ */
+final class SentenceReorderBuffer {
+
+    private final int mask;
+    private final AtomicReferenceArray<Sentence> slots;
+    private final Map<Integer, Sentence> overflow = new ConcurrentHashMap<>();
+    private final AtomicBoolean signalled = new AtomicBoolean(false);
+
+    // 下一个要播放的序号，只由消费者修改
+    private volatile int head = -1;
+
+    // 已放入的最大序号加一，只由生产者修改
+    private volatile int tail = -1;
+
+    /**
+     * @param capacity 环形数组容量，向上取整为2的幂
+     */
+    SentenceReorderBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<>(size);
+    }
+
+    /**
+     * 放入句子，必须按序号递增的顺序调用
+     */
+    void offer(Sentence sentence) {
+        int seq = sentence.getSeq();
+        if (head < 0) {
+            head = seq;
+        }
+        if (seq - head > mask) {
+            overflow.put(seq, sentence);
+        } else {
+            slots.set(seq & mask, sentence);
+        }
+        tail = seq + 1;
+    }
+
+    /**
+     * 队头句子，越过空位；没有待播放的句子时返回null
+     */
+    Sentence peek() {
+        int h = head;
+        int t = tail;
+        while (h >= 0 && h < t) {
+            Sentence sentence = at(h);
+            if (sentence != null) {
+                head = h;
+                return sentence;
+            }
+            h++;
+        }
+        if (h >= 0) {
+            head = h;
+        }
+        return null;
+    }
+
+    /**
+     * 取出队头句子并推进队头，由消费者在 {@link #peek()} 之后调用
+     */
+    void remove(Sentence sentence) {
+        int seq = sentence.getSeq();
+        if (!slots.compareAndSet(seq & mask, sentence, null)) {
+            overflow.remove(seq, sentence);
+        }
+        head = seq + 1;
+        // 溢出表中已进入窗口的句子移回环形数组
+        if (!overflow.isEmpty()) {
+            Sentence moved = overflow.remove(seq + 1 + mask);
+            if (moved != null) {
+                slots.set(moved.getSeq() & mask, moved);
+            }
+        }
+    }
+
+    /**
+     * 清空所有待播放的句子，之后放入的句子从新的序号开始播放
+     */
+    void clear() {
+        int t = tail;
+        for (int h = Math.max(head, t - mask - 1); h >= 0 && h < t; h++) {
+            slots.set(h & mask, null);
+        }
+        overflow.clear();
+        head = t;
+    }
+
+    boolean isEmpty() {
+        return peek() == null;
+    }
+
+    /**
+     * 通知有句子就绪或播放结束
+     */
+    void signal() {
+        signalled.set(true);
+    }
+
+    boolean isSignalled() {
+        return signalled.get();
+    }
+
+    /**
+     * 取走就绪通知，返回之前是否有通知
+     */
+    boolean takeSignal() {
+        return signalled.getAndSet(false);
+    }
+
+    private Sentence at(int seq) {
+        Sentence sentence = slots.get(seq & mask);
+        if (sentence != null && sentence.getSeq() == seq) {
+            return sentence;
+        }
+        return overflow.get(seq);
+    }
+}
@@ -0,0 +1,314 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.communication.common.ChatSession;
+import com.xiaozhi.dialogue.llm.ChatService;
+import com.xiaozhi.dialogue.llm.ChatService.TriConsumer;
+import com.xiaozhi.dialogue.stt.SttService;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * 推测执行对话
+ * 默认要等VAD检测到足够长的静音、STT返回最终结果后才调用LLM。开启后，流式识别的中间结果保持不变达到
+ * {@code dialogue.speculative.stable-ms} 时，以中间结果提前调用LLM，回复的句子先缓存：
+ * - 最终结果与中间结果一致（忽略标点、空白和大小写）时直接采用，缓存的句子依次交给TTS
+ * - 不一致时放弃推测请求，按最终结果正常调用
+ * - 推测开始后中间结果又变化时立即放弃，等新的中间结果稳定后再推测，每轮最多 {@code max-attempts} 次
+ *
+ * 推测请求在确认前不写入对话历史，工具调用等到确认后才执行，放弃的请求只消耗一次LLM调用。
+ * 推测结果记录在 dialogue.speculative 计数器中（result=committed/cancelled），
+ * 采用时推测请求比正常调用提前的时间记录在 dialogue.speculative.lead 中。
+ */
+@Service
+public class SpeculativeChatService {
+    private static final Logger logger = LoggerFactory.getLogger(SpeculativeChatService.class);
+
+    // 比较识别结果时忽略的字符
+    private static final Pattern IGNORED = Pattern.compile("[\\p{P}\\s]");
+
+    private static final Executor VIRTUAL = Executors.newVirtualThreadPerTaskExecutor();
+
+    @Value("${dialogue.speculative.enabled:false}")
+    private boolean enabled;
+
+    @Value("${dialogue.speculative.stable-ms:300}")
+    private long stableMs;
+
+    @Value("${dialogue.speculative.min-chars:2}")
+    private int minChars;
+
+    @Value("${dialogue.speculative.max-attempts:2}")
+    private int maxAttempts;
+
+    @Resource
+    private ChatService chatService;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // 会话ID -> 正在识别的一轮对话
+    private final Map<String, Turn> turns = new ConcurrentHashMap<>();
+
+    private Counter committed;
+    private Counter cancelled;
+    private Timer lead;
+
+    private record BufferedSentence(String text, boolean isFirst, boolean isLast) {
+    }
+
+    @PostConstruct
+    public void init() {
+        MeterRegistry registry = meterRegistry != null ? meterRegistry : new SimpleMeterRegistry();
+        committed = Counter.builder("dialogue.speculative").tag("result", "committed")
+                .description("采用的推测请求数").register(registry);
+        cancelled = Counter.builder("dialogue.speculative").tag("result", "cancelled")
+                .description("放弃的推测请求数").register(registry);
+        lead = Timer.builder("dialogue.speculative.lead")
+                .description("采用的推测请求比收到最终识别结果提前的时间")
+                .publishPercentiles(0.5, 0.95)
+                .minimumExpectedValue(Duration.ofMillis(10))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(registry);
+    }
+
+    /**
+     * 开始一轮识别，未开启推测执行或STT服务不支持流式识别时返回null
+     */
+    public Turn begin(ChatSession session, SttService sttService) {
+        cancel(session.getSessionId());
+        if (!enabled || sttService == null || !sttService.supportsStreaming()) {
+            return null;
+        }
+        Turn turn = new Turn(session);
+        turns.put(session.getSessionId(), turn);
+        return turn;
+    }
+
+    /**
+     * 放弃会话正在进行的推测请求
+     */
+    public void cancel(String sessionId) {
+        Turn turn = turns.remove(sessionId);
+        if (turn != null) {
+            turn.resolve(null);
+        }
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : IGNORED.matcher(text).replaceAll("").toLowerCase();
+    }
+
+    /**
+     * 一轮识别中的推测状态
+     */
+    public final class Turn {
+        private final ChatSession session;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // 最近的中间结果及其版本号，版本号在稳定检查时用于判断中间结果是否变化过
+        private String partial;
+        private int version = 0;
+        private int attempts = 0;
+        private boolean resolved = false;
+
+        // 正在进行的推测请求
+        private Attempt current;
+
+        private Turn(ChatSession session) {
+            this.session = session;
+        }
+
+        /**
+         * 流式识别的中间结果
+         */
+        public void onPartial(String text) {
+            Attempt stale = null;
+            int expected;
+            lock.lock();
+            try {
+                if (resolved || text == null || text.equals(partial)) {
+                    return;
+                }
+                partial = text;
+                expected = ++version;
+                if (current != null && !current.normalized.equals(normalize(text))) {
+                    stale = current;
+                    current = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (stale != null) {
+                logger.debug("识别结果变化，放弃推测请求 - SessionId: {}, 推测文本: {}", session.getSessionId(), stale.text);
+                stale.cancel();
+            }
+            CompletableFuture.delayedExecutor(stableMs, TimeUnit.MILLISECONDS, VIRTUAL)
+                    .execute(() -> startIfStable(expected));
+        }
+
+        private void startIfStable(int expected) {
+            Attempt attempt;
+            lock.lock();
+            try {
+                if (resolved || version != expected || current != null || attempts >= maxAttempts
+                        || normalize(partial).length() < minChars) {
+                    return;
+                }
+                attempts++;
+                attempt = new Attempt(partial);
+                current = attempt;
+            } finally {
+                lock.unlock();
+            }
+            logger.debug("识别结果已稳定，提前调用LLM - SessionId: {}, 文本: {}", session.getSessionId(), attempt.text);
+            attempt.start(session);
+        }
+
+        /**
+         * 收到最终识别结果，结束本轮推测
+         *
+         * @param finalText 最终识别结果，为空时放弃推测请求
+         * @return 推测请求的文本与最终结果一致时返回true，之后调用 {@link #commit} 采用推测的回复
+         */
+        public boolean resolve(String finalText) {
+            Attempt attempt;
+            boolean matched;
+            lock.lock();
+            try {
+                resolved = true;
+                attempt = current;
+                matched = attempt != null && finalText != null && attempt.normalized.equals(normalize(finalText));
+                if (!matched) {
+                    current = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+            turns.remove(session.getSessionId(), this);
+            if (attempt != null && !matched) {
+                logger.debug("最终识别结果与推测不一致，放弃推测请求 - SessionId: {}, 推测: {}, 最终: {}",
+                        session.getSessionId(), attempt.text, finalText);
+                attempt.cancel();
+            }
+            return matched;
+        }
+
+        /**
+         * 采用推测请求的回复，缓存的句子和之后生成的句子依次交给 handler
+         *
+         * @param finalText 最终识别结果，保存到对话历史
+         */
+        public void commit(String finalText, TriConsumer<String, Boolean, Boolean> handler) {
+            Attempt attempt = current;
+            lead.record(System.nanoTime() - attempt.startNanos, TimeUnit.NANOSECONDS);
+            committed.increment();
+            logger.info("采用推测请求的回复 - SessionId: {}, 提前: {}ms", session.getSessionId(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - attempt.startNanos));
+            attempt.commit(finalText, handler);
+        }
+    }
+
+    /**
+     * 一次推测请求，确认前句子缓存在 buffered 中
+     */
+    private final class Attempt {
+        private final String text;
+        private final String normalized;
+        private final long startNanos = System.nanoTime();
+        private final CompletableFuture<String> confirmation = new CompletableFuture<>();
+        private final List<BufferedSentence> buffered = new ArrayList<>();
+        private TriConsumer<String, Boolean, Boolean> downstream;
+        // 已确认、缓存的句子正在锁外交给下游
+        private boolean flushing;
+        private Disposable subscription;
+
+        private Attempt(String text) {
+            this.text = text;
+            this.normalized = normalize(text);
+        }
+
+        private void start(ChatSession session) {
+            Disposable disposable = chatService.chatStreamBySentence(session, text, true, this::offer, confirmation);
+            synchronized (this) {
+                subscription = disposable;
+                if (confirmation.isDone() && downstream == null && disposable != null) {
+                    // 启动期间已被放弃
+                    disposable.dispose();
+                }
+            }
+        }
+
+        /**
+         * 收到一句回复，句子按流中的顺序依次到达；下游处理（提交TTS）在锁外调用
+         */
+        private void offer(String sentence, Boolean isFirst, Boolean isLast) {
+            TriConsumer<String, Boolean, Boolean> handler;
+            synchronized (this) {
+                if (downstream == null || flushing) {
+                    // 未确认，或已确认但缓存的句子还在交给下游，先缓存以保持顺序；已放弃时丢弃
+                    if (downstream != null || !confirmation.isDone()) {
+                        buffered.add(new BufferedSentence(sentence, isFirst, isLast));
+                    }
+                    return;
+                }
+                handler = downstream;
+            }
+            handler.accept(sentence, isFirst, isLast);
+        }
+
+        private void commit(String finalText, TriConsumer<String, Boolean, Boolean> handler) {
+            synchronized (this) {
+                downstream = handler;
+                confirmation.complete(finalText);
+                flushing = true;
+            }
+            // 在锁外把缓存的句子交给下游，期间到达的句子继续缓存，直到取空后才改为直接交给下游
+            while (true) {
+                List<BufferedSentence> pending;
+                synchronized (this) {
+                    if (buffered.isEmpty()) {
+                        flushing = false;
+                        return;
+                    }
+                    pending = new ArrayList<>(buffered);
+                    buffered.clear();
+                }
+                for (BufferedSentence sentence : pending) {
+                    handler.accept(sentence.text(), sentence.isFirst(), sentence.isLast());
+                }
+            }
+        }
+
+        private synchronized void cancel() {
+            if (confirmation.complete(null)) {
+                cancelled.increment();
+            }
+            buffered.clear();
+            if (subscription != null) {
+                subscription.dispose();
+            }
+        }
+    }
+}
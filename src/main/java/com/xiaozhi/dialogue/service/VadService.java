@@ -1,28 +1,38 @@
 package com.xiaozhi.dialogue.service;
 
+import com.xiaozhi.communication.common.ChatSession;
 import com.xiaozhi.communication.common.SessionManager;
-import com.xiaozhi.dialogue.vad.impl.SileroVadModel;
-import com.xiaozhi.entity.SysDevice;
-import com.xiaozhi.entity.SysRole;
-import com.xiaozhi.service.SysRoleService;
+import com.xiaozhi.communication.common.SessionProfile;
+import com.xiaozhi.dialogue.vad.VadModel;
+import com.xiaozhi.utils.AudioRingBuffer;
+import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.AutomaticGainControl;
+import com.xiaozhi.utils.OggOpusWriter;
 import com.xiaozhi.utils.OpusProcessor;
+import com.xiaozhi.utils.PcmKernels;
+import com.xiaozhi.utils.WavWriter;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class VadService {
@@ -32,27 +42,68 @@ public class VadService {
     private OpusProcessor opusProcessor;
 
     @Autowired
-    private SileroVadModel vadModel;
+    private VadModel vadModel;
 
     @Autowired
     private SessionManager sessionManager;
 
     @Autowired
-    private SysRoleService roleService;
+    private AutomaticGainControl agc;
 
     @Autowired
-    private AutomaticGainControl agc;
+    private EndpointDetector endpointDetector;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
 
     // 语音检测前缓冲时长(毫秒)
     private int preBufferMs = 500;
 
+    // 单次说话最长采集时长(毫秒)，超出部分不再保存，保证每个会话的内存上限
+    @Value("${vad.max-utterance-ms:30000}")
+    private int maxUtteranceMs;
+
+    // 采集缓冲区是否使用堆外内存
+    @Value("${vad.buffer.off-heap:false}")
+    private boolean offHeapBuffers;
+
+    // 录音格式：ogg 直接保存设备上传的Opus帧，wav 保存解码后的PCM
+    @Value("${audio.record.format:ogg}")
+    private String recordFormat;
+
+    // 预筛选：能量明显低于噪声底的帧直接判定为静音，不调用模型
+    @Value("${vad.pregate.enabled:true}")
+    private boolean preGateEnabled;
+
+    // 能量（RMS）低于噪声底的多少倍时视为静音
+    @Value("${vad.pregate.noise-ratio:1.5}")
+    private float preGateNoiseRatio;
+
+    // 绝对静音电平（RMS），低于此值的帧总是视为静音
+    @Value("${vad.pregate.min-rms:0.002}")
+    private float preGateMinRms;
+
+    // 过零率高于此值且能量高于噪声底时可能是清辅音，仍交给模型判断
+    @Value("${vad.pregate.zcr-threshold:0.3}")
+    private float preGateZcrThreshold;
+
+    // 推理统计
+    private final LongAdder inferenceRuns = new LongAdder();
+    private final LongAdder inferenceSkips = new LongAdder();
+
     // 会话状态和锁
     private final ConcurrentHashMap<String, VadState> states = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, Object> locks = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
 
     // 最小PCM长度阈值(约100ms的16kHz 16bit音频)
     private static final int MIN_PCM_LENGTH = 1600;
 
+    // 16kHz, 16bit, mono = 32 bytes/ms
+    private static final int PCM_BYTES_PER_MS = 32;
+
+    // 每个Opus帧预留的字节数（含2字节长度前缀）
+    private static final int OPUS_BYTES_PER_FRAME = 256;
+
     // VAD模型所需的样本大小
     private static final int VAD_SAMPLE_SIZE = 512;
 
@@ -70,6 +121,18 @@ public class VadService {
             } else {
                 logger.warn("AGC服务未注入，将跳过自动增益控制");
             }
+
+            if (meterRegistry != null) {
+                FunctionCounter.builder("vad.inference.runs", inferenceRuns, LongAdder::doubleValue)
+                        .description("VAD模型推理帧数")
+                        .register(meterRegistry);
+                FunctionCounter.builder("vad.inference.skips", inferenceSkips, LongAdder::doubleValue)
+                        .description("预筛选跳过模型推理的帧数")
+                        .register(meterRegistry);
+                Gauge.builder("vad.inference.skip.ratio", this, VadService::getInferenceSkipRatio)
+                        .description("预筛选跳过模型推理的比例")
+                        .register(meterRegistry);
+            }
         } catch (Exception e) {
             logger.error("初始化VAD服务失败", e);
         }
@@ -78,6 +141,7 @@ public class VadService {
     @PreDestroy
     public void cleanup() {
         logger.info("VAD服务资源已释放");
+        states.values().forEach(VadState::finishRecording);
         states.clear();
         locks.clear();
     }
@@ -101,17 +165,26 @@ public class VadService {
         // 帧计数器（用于每10帧输出一次）
         private int frameCounter = 0;
 
-        // 预缓冲
-        private final LinkedList<byte[]> preBuffer = new LinkedList<>();
-        private int preBufferSize = 0;
-        private final int maxPreBufferSize;
+        // 预缓冲，写满后覆盖最旧数据
+        private final AudioRingBuffer preBuffer;
 
-        // 音频数据
-        private final List<byte[]> pcmData = new ArrayList<>();
-        private final List<byte[]> opusData = new ArrayList<>();
+        // 音频数据，PCM写满即截断，Opus保留最近的帧
+        private final AudioRingBuffer pcmData;
+        private final AudioRingBuffer opusData;
+        private boolean pcmTruncated = false;
+
+        // 当前说话的录音文件，说话期间边采集边写入，语音结束后异步完成
+        private WavWriter recorder;
+        private OggOpusWriter opusRecorder;
+        private String recordingFile;
+        // 录音文件的写入器，结束录音后仍保留，丢弃录音时要等它关闭后再删除文件
+        private Closeable recordingWriter;
+
+        // 最近的Opus帧，语音开始时作为录音的开头，与PCM预缓冲对应
+        private final AudioRingBuffer opusPreRoll;
 
         // 短帧累积
-        private final ByteArrayOutputStream pcmAccumulator = new ByteArrayOutputStream();
+        private final AudioRingBuffer pcmAccumulator;
         private long lastAccumTime = 0;
 
         // AGC相关统计
@@ -119,8 +192,44 @@ public class VadService {
         private int lowQualityFrameCount = 0;
         private int totalFrameCount = 0;
 
+        // 热路径复用的解码和样本缓冲区
+        private final short[] decodeBuffer = new short[AudioUtils.FRAME_SIZE * 12];
+        private float[] sampleBuffer = new float[AudioUtils.FRAME_SIZE * 12];
+
+        // 流式窗口：上一帧不足一个窗口的剩余样本，和下一帧拼接后送入模型
+        private final float[] carry = new float[VAD_SAMPLE_SIZE];
+        private int carryLength = 0;
+        private float[] windowBuffer = new float[AudioUtils.FRAME_SIZE * 12 + VAD_SAMPLE_SIZE];
+        private float lastModelProb = 0.0f;
+
+        /**
+         * 获取至少能容纳指定样本数的窗口拼接缓冲区
+         */
+        public float[] windowBuffer(int size) {
+            if (windowBuffer.length < size) {
+                windowBuffer = new float[size];
+            }
+            return windowBuffer;
+        }
+
+        /**
+         * 获取至少能容纳指定样本数的样本缓冲区
+         */
+        public float[] sampleBuffer(int size) {
+            if (sampleBuffer.length < size) {
+                sampleBuffer = new float[size];
+            }
+            return sampleBuffer;
+        }
+
         public VadState() {
-            this.maxPreBufferSize = preBufferMs * 32; // 16kHz, 16bit, mono = 32 bytes/ms
+            this.preBuffer = new AudioRingBuffer(preBufferMs * PCM_BYTES_PER_MS, offHeapBuffers);
+            this.pcmData = new AudioRingBuffer(maxUtteranceMs * PCM_BYTES_PER_MS, offHeapBuffers);
+            this.opusData = new AudioRingBuffer(
+                    maxUtteranceMs / AudioUtils.OPUS_FRAME_DURATION_MS * OPUS_BYTES_PER_FRAME, offHeapBuffers);
+            this.pcmAccumulator = new AudioRingBuffer(MIN_PCM_LENGTH * 4, false);
+            this.opusPreRoll = new AudioRingBuffer(
+                    (preBufferMs / AudioUtils.OPUS_FRAME_DURATION_MS + 1) * OPUS_BYTES_PER_FRAME, false);
             this.lastAccumTime = System.currentTimeMillis();
         }
 
@@ -237,48 +346,23 @@ public class VadService {
             if (speaking)
                 return;
 
-            preBuffer.add(data.clone());
-            preBufferSize += data.length;
-
-            while (preBufferSize > maxPreBufferSize && !preBuffer.isEmpty()) {
-                byte[] removed = preBuffer.removeFirst();
-                preBufferSize -= removed.length;
-            }
+            preBuffer.writeOverwrite(data, 0, data.length);
         }
 
         public byte[] drainPreBuffer() {
-            if (preBuffer.isEmpty())
-                return new byte[0];
-
-            byte[] result = new byte[preBufferSize];
-            int offset = 0;
-
-            for (byte[] chunk : preBuffer) {
-                System.arraycopy(chunk, 0, result, offset, chunk.length);
-                offset += chunk.length;
-            }
-
-            preBuffer.clear();
-            preBufferSize = 0;
-            return result;
+            return preBuffer.drain();
         }
 
         // 累积缓冲区管理
         public void accumulate(byte[] pcm) {
             if (pcm != null && pcm.length > 0) {
-                try {
-                    pcmAccumulator.write(pcm);
-                    lastAccumTime = System.currentTimeMillis();
-                } catch (Exception e) {
-                    logger.error("累积PCM数据失败", e);
-                }
+                pcmAccumulator.writeOverwrite(pcm, 0, pcm.length);
+                lastAccumTime = System.currentTimeMillis();
             }
         }
 
         public byte[] drainAccumulator() {
-            byte[] result = pcmAccumulator.toByteArray();
-            pcmAccumulator.reset();
-            return result;
+            return pcmAccumulator.drain();
         }
 
         public int getAccumSize() {
@@ -292,22 +376,104 @@ public class VadService {
         // 音频数据管理
         public void addPcm(byte[] pcm) {
             if (pcm != null && pcm.length > 0) {
-                pcmData.add(pcm.clone());
+                int written = pcmData.write(pcm, 0, pcm.length);
+                if (recorder != null) {
+                    recorder.write(pcm, 0, written);
+                }
+                if (written < pcm.length && !pcmTruncated) {
+                    pcmTruncated = true;
+                    logger.warn("说话时长超过{}ms，超出部分不再保存", maxUtteranceMs);
+                }
+            }
+        }
+
+        public void clearPcm() {
+            pcmData.clear();
+            pcmTruncated = false;
+        }
+
+        /**
+         * 开始新的录音文件，创建失败时只保留内存中的数据
+         */
+        public void startRecording() {
+            finishRecording();
+            try {
+                if ("wav".equalsIgnoreCase(recordFormat)) {
+                    recorder = WavWriter.create();
+                    recordingFile = recorder.getFileName();
+                    recordingWriter = recorder;
+                } else {
+                    opusRecorder = OggOpusWriter.create();
+                    recordingFile = opusRecorder.getFileName();
+                    recordingWriter = opusRecorder;
+                    for (byte[] frame : opusPreRoll.frames()) {
+                        opusRecorder.writePacket(frame);
+                    }
+                    opusPreRoll.clear();
+                }
+            } catch (Exception e) {
+                recordingFile = null;
+                recordingWriter = null;
+                logger.error("创建录音文件失败: {}", e.getMessage());
+            }
+        }
+
+        /**
+         * 删除指定的录音文件，仍是当前录音时先停止写入，文件关闭和删除在虚拟线程中完成
+         */
+        public void discardRecording(String fileName) {
+            Closeable writer = null;
+            if (fileName.equals(recordingFile)) {
+                finishRecording();
+                writer = recordingWriter;
+                recordingWriter = null;
+                recordingFile = null;
+            }
+            deleteRecording(writer, fileName);
+        }
+
+        /**
+         * 结束录音，文件头回写和关闭在虚拟线程中完成
+         */
+        public void finishRecording() {
+            if (recorder != null) {
+                recorder.closeAsync();
+                recorder = null;
+            }
+            if (opusRecorder != null) {
+                opusRecorder.closeAsync();
+                opusRecorder = null;
             }
         }
 
         public void addOpus(byte[] opus) {
             if (opus != null && opus.length > 0) {
-                opusData.add(opus.clone());
+                opusData.writeFrame(opus);
+                if (opusRecorder != null) {
+                    // 与PCM采集相同的时长上限
+                    if (opusRecorder.getPacketCount() < maxUtteranceMs / AudioUtils.OPUS_FRAME_DURATION_MS) {
+                        opusRecorder.writePacket(opus);
+                    }
+                } else {
+                    opusPreRoll.writeFrame(opus);
+                }
             }
         }
 
         public List<byte[]> getPcmData() {
-            return new ArrayList<>(pcmData);
+            List<byte[]> result = new ArrayList<>();
+            if (!pcmData.isEmpty()) {
+                result.add(pcmData.toByteArray());
+            }
+            return result;
+        }
+
+        public ByteBuffer[] getPcmSnapshot() {
+            return pcmData.snapshot();
         }
 
         public List<byte[]> getOpusData() {
-            return new ArrayList<>(opusData);
+            return opusData.frames();
         }
 
         public void reset() {
@@ -319,11 +485,16 @@ public class VadService {
             originalProbs.clear(); // 重置原始概率列表
             frameCounter = 0;      // 重置帧计数器
             preBuffer.clear();
-            preBufferSize = 0;
-            pcmData.clear();
+            clearPcm();
+            finishRecording();
+            recordingFile = null;
+            recordingWriter = null;
             opusData.clear();
-            pcmAccumulator.reset();
+            opusPreRoll.clear();
+            pcmAccumulator.clear();
             lastAccumTime = System.currentTimeMillis();
+            carryLength = 0;
+            lastModelProb = 0.0f;
             
             // 重置AGC相关统计
             detectedDeviceType = "normal";
@@ -336,8 +507,9 @@ public class VadService {
      * 初始化会话
      */
     public void initSession(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             if (state == null) {
                 state = new VadState();
@@ -345,6 +517,11 @@ public class VadService {
             } else {
                 state.reset();
             }
+
+            // 重置模型状态
+            if (vadModel != null) {
+                vadModel.resetSession(sessionId);
+            }
             
             // 重置AGC状态
             if (agc != null) {
@@ -352,6 +529,8 @@ public class VadService {
             }
             
             logger.info("VAD会话已初始化: {}", sessionId);
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -359,17 +538,21 @@ public class VadService {
      * 检查会话是否已初始化
      */
     public boolean isSessionInitialized(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             return states.containsKey(sessionId);
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
      * 获取会话锁
      */
-    private Object getLock(String sessionId) {
-        return locks.computeIfAbsent(sessionId, k -> new Object());
+    private ReentrantLock getLock(String sessionId) {
+        // 推理时会阻塞等待批量结果，使用ReentrantLock避免虚拟线程被固定在载体线程上
+        return locks.computeIfAbsent(sessionId, k -> new ReentrantLock());
     }
 
     /**
@@ -381,25 +564,18 @@ public class VadService {
             return null;
         }
 
-        Object lock = getLock(sessionId);
+        ReentrantLock lock = getLock(sessionId);
 
-        // 获取设备配置
-        SysDevice device = sessionManager.getDeviceConfig(sessionId);
-        // 添加空值检查，使用默认值
-        float speechThreshold = 0.3f;
-        float silenceThreshold = 0.2f;
-        float energyThreshold = 0.001f;
-        int silenceTimeoutMs = 1200;
-
-        if (device != null && device.getRoleId() != null) {
-            SysRole role = roleService.selectRoleById(device.getRoleId());
-            speechThreshold = Optional.ofNullable(role.getVadSpeechTh()).orElse(speechThreshold);
-            silenceThreshold = Optional.ofNullable(role.getVadSilenceTh()).orElse(silenceThreshold);
-            energyThreshold = Optional.ofNullable(role.getVadEnergyTh()).orElse(energyThreshold);
-            silenceTimeoutMs = Optional.ofNullable(role.getVadSilenceMs()).orElse(silenceTimeoutMs);
-        }
+        // 从会话快照读取VAD阈值，未绑定角色时使用默认值
+        ChatSession session = sessionManager.getSession(sessionId);
+        SessionProfile profile = session != null ? session.getSessionProfile() : SessionProfile.EMPTY;
+        float speechThreshold = profile.vadSpeechTh();
+        float silenceThreshold = profile.vadSilenceTh();
+        float energyThreshold = profile.vadEnergyTh();
+        int silenceTimeoutMs = profile.vadSilenceMs();
 
-        synchronized (lock) {
+        lock.lock();
+        try {
             try {
                 // 获取会话状态
                 VadState state = states.computeIfAbsent(sessionId, k -> new VadState());
@@ -407,41 +583,42 @@ public class VadService {
                 // 保存原始Opus数据
                 state.addOpus(opusData);
 
-                // 解码Opus数据
+                // 解码Opus数据，直接解码到会话复用的缓冲区
                 byte[] pcmData;
+                float[] samples;
+                int sampleCount;
                 try {
-                    pcmData = opusProcessor.opusToPcm(sessionId, opusData);
-                    if (pcmData == null || pcmData.length == 0) {
+                    sampleCount = opusProcessor.opusToPcm(sessionId, opusData, state.decodeBuffer);
+                    if (sampleCount <= 0) {
                         return new VadResult(VadStatus.NO_SPEECH, null);
                     }
+                    samples = state.sampleBuffer(sampleCount);
+                    pcmData = new byte[sampleCount * 2];
+                    PcmKernels.shortToPcm(state.decodeBuffer, pcmData, 0, sampleCount);
+                    PcmKernels.shortToFloat(state.decodeBuffer, samples, sampleCount); // 归一化到[-1,1]
                 } catch (Exception e) {
                     logger.error("Opus解码失败: {}", e.getMessage());
                     return new VadResult(VadStatus.ERROR, null);
                 }
 
-                // 分析原始音频
-                float[] originalSamples = bytesToFloats(pcmData);
-                float originalEnergy = calcEnergy(originalSamples);
-                
-                // 获取原始VAD概率
-                float originalSpeechProb = detectSpeech(originalSamples);
-                state.addOriginalProb(originalSpeechProb);
+                // 在AGC之前用原始音频做预筛选，噪声底来自AGC对原始音频的统计
+                boolean gatedSilent = isObviouslySilent(sessionId, samples, sampleCount);
 
                 // ========== 应用 AGC ==========
                 String deviceType = state.getDetectedDeviceType();
-                byte[] originalPcm = pcmData.clone(); // 保留原始数据用于对比
                 
                 // 检查AGC是否可用
                 if (agc != null) {
                     pcmData = agc.process(sessionId, pcmData, deviceType);
                 }
                 
-                // 获取AGC统计信息
-                AutomaticGainControl.AgcStats agcStats = agc != null ? agc.getStats(sessionId) : new AutomaticGainControl.AgcStats();
+                // 获取AGC增益和信噪比，每帧直接读取数值，不创建统计对象
+                float agcGain = agc != null ? agc.getCurrentGain(sessionId) : 1.0f;
+                float agcSnr = agc != null ? agc.getSnr(sessionId) : 0.0f;
                 
                 // 根据AGC增益动态调整VAD阈值
-                float adjustedSpeechThreshold = adjustVadThreshold(speechThreshold, agcStats);
-                float adjustedSilenceThreshold = adjustVadThreshold(silenceThreshold, agcStats);
+                float adjustedSpeechThreshold = adjustVadThreshold(speechThreshold, agcGain, agcSnr);
+                float adjustedSilenceThreshold = adjustVadThreshold(silenceThreshold, agcGain, agcSnr);
 
                 // 添加到预缓冲区
                 state.addToPreBuffer(pcmData);
@@ -463,31 +640,51 @@ public class VadService {
                     
                 }
 
-                // 分析AGC处理后的音频
-                float[] samples = bytesToFloats(pcmData);
-                float energy = calcEnergy(samples);
+                // 分析AGC处理后的音频，复用同一个样本缓冲区
+                sampleCount = pcmData.length / 2;
+                samples = state.sampleBuffer(sampleCount);
+                bytesToFloats(pcmData, samples);
+                float energy = calcEnergy(samples, sampleCount);
                 state.updateEnergy(energy);
 
-                // VAD推断（AGC后）
-                float speechProb = detectSpeech(samples);
+                // VAD推断（AGC后），每帧只推理一次；预筛选判定为静音的帧跳过推理
+                float speechProb;
+                if (gatedSilent) {
+                    speechProb = 0.0f;
+                    // 跳过的样本不送入模型，剩余样本与下一帧不再连续
+                    state.carryLength = 0;
+                    inferenceSkips.increment();
+                } else {
+                    speechProb = detectSpeech(sessionId, state, samples, sampleCount);
+                    inferenceRuns.increment();
+                }
                 state.addProb(speechProb);
+                // 原始概率不再单独推理，与AGC后的概率一致
+                state.addOriginalProb(speechProb);
+                float originalSpeechProb = speechProb;
 
                 // 判断语音状态
                 boolean hasEnergy = energy > state.getAvgEnergy() * 1.5 && energy > energyThreshold;
                 boolean isSpeech = speechProb > adjustedSpeechThreshold && hasEnergy;
                 boolean isSilence = speechProb < adjustedSilenceThreshold;
+                if (state.isSpeaking() && !isSilence && state.getSilenceDuration() > 0) {
+                    // 说话中的停顿结束，记录停顿时长用于端点检测
+                    endpointDetector.recordPause(sessionId, state.getSilenceDuration());
+                }
                 state.updateSilence(isSilence);
 
                 // 处理状态转换
                 if (!state.isSpeaking() && isSpeech) {
                     // 语音开始
-                    state.pcmData.clear();
+                    state.clearPcm();
+                    state.startRecording();
                     state.setSpeaking(true);
+                    endpointDetector.startUtterance(sessionId);
                     
                     // 记录AGC和设备信息
                     String agcInfo = "";
                     agcInfo = String.format(", AGC增益: %.2f, 设备类型: %s", 
-                                            agcStats.gain, state.getDetectedDeviceType());
+                                            agcGain, state.getDetectedDeviceType());
                     
                     logger.info("检测到语音开始 - SessionId: {}, 概率: {}, 原始概率: {}, 能量: {}, " +
                               "调整后阈值: {}{}", 
@@ -511,12 +708,15 @@ public class VadService {
 
                     return new VadResult(VadStatus.SPEECH_START, result);
                 } else if (state.isSpeaking() && isSilence) {
-                    // 检查静音时长
+                    // 检查静音时长，静音时长按识别文本、停顿习惯和VAD概率走势动态调整
                     int silenceDuration = state.getSilenceDuration();
-                    if (silenceDuration > silenceTimeoutMs) {
+                    int endpointTimeoutMs = endpointDetector.silenceTimeout(sessionId, silenceTimeoutMs, state.getProbs());
+                    if (silenceDuration > endpointTimeoutMs) {
                         // 语音结束
                         state.setSpeaking(false);
-                        logger.info("语音结束: {}, 静音: {}ms", sessionId, silenceDuration);
+                        state.finishRecording();
+                        endpointDetector.endUtterance(sessionId, endpointTimeoutMs);
+                        logger.info("语音结束: {}, 静音: {}ms, 判定时长: {}ms", sessionId, silenceDuration, endpointTimeoutMs);
                         return new VadResult(VadStatus.SPEECH_END, pcmData);
                     } else {
                         // 继续收集
@@ -535,15 +735,59 @@ public class VadService {
                 logger.error("处理音频失败: {}, 错误: {}", sessionId, e.getMessage(), e);
                 return new VadResult(VadStatus.ERROR, null);
             }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 预筛选：根据能量、过零率和AGC噪声底判断是否为明显的静音帧
+     */
+    private boolean isObviouslySilent(String sessionId, float[] samples, int length) {
+        if (!preGateEnabled || length == 0) {
+            return false;
+        }
+
+        float rms = PcmKernels.rms(samples, length);
+        if (rms < preGateMinRms) {
+            return true;
+        }
+
+        // AGC尚未建立噪声底时不做噪声底判断（噪声底在此之前只是初始值）
+        if (agc == null || !agc.isNoiseFloorReady(sessionId)) {
+            return false;
         }
+        float noiseFloor = agc.getNoiseFloor(sessionId);
+        if (rms >= noiseFloor * preGateNoiseRatio) {
+            return false;
+        }
+
+        // 能量接近噪声底，但过零率高且高于噪声底时可能是清辅音开头
+        if (rms <= noiseFloor) {
+            return true;
+        }
+        int crossings = 0;
+        for (int i = 1; i < length; i++) {
+            if ((samples[i] >= 0) != (samples[i - 1] >= 0)) {
+                crossings++;
+            }
+        }
+        return (float) crossings / length <= preGateZcrThreshold;
+    }
+
+    /**
+     * 获取预筛选跳过模型推理的比例
+     */
+    public double getInferenceSkipRatio() {
+        long skips = inferenceSkips.sum();
+        long total = skips + inferenceRuns.sum();
+        return total == 0 ? 0.0 : (double) skips / total;
     }
 
     /**
-     * 根据AGC统计信息调整VAD阈值
+     * 根据AGC增益和信噪比调整VAD阈值
      */
-    private float adjustVadThreshold(float baseThreshold, AutomaticGainControl.AgcStats agcStats) {
-        float gainFactor = agcStats.gain;
-        float snr = agcStats.snr;
+    private float adjustVadThreshold(float baseThreshold, float gainFactor, float snr) {
         
         // 基于增益的调整
         float gainAdjustment = 1.0f;
@@ -575,35 +819,34 @@ public class VadService {
     }
 
     /**
-     * 执行语音检测
+     * 执行语音检测，使用会话独立的模型状态。
+     * 上一帧剩余的样本与本帧拼接后按512切分为不重叠的窗口，每个样本只经过模型一次，
+     * 不足一个窗口的尾部留到下一帧；本帧没有完整窗口时沿用上一次的概率。
      */
-    private float detectSpeech(float[] samples) {
-        if (vadModel == null || samples == null || samples.length == 0) {
+    private float detectSpeech(String sessionId, VadState state, float[] samples, int length) {
+        if (vadModel == null || samples == null || length == 0) {
             return 0.0f;
         }
 
-        try {
-            // 处理样本大小
-            if (samples.length == VAD_SAMPLE_SIZE) {
-                return vadModel.getSpeechProbability(samples);
-            }
+        int total = state.carryLength + length;
+        int windows = total / VAD_SAMPLE_SIZE;
+        if (windows == 0) {
+            System.arraycopy(samples, 0, state.carry, state.carryLength, length);
+            state.carryLength = total;
+            return state.lastModelProb;
+        }
 
-            // 样本不足，需要填充
-            if (samples.length < VAD_SAMPLE_SIZE) {
-                float[] padded = new float[VAD_SAMPLE_SIZE];
-                System.arraycopy(samples, 0, padded, 0, samples.length);
-                return vadModel.getSpeechProbability(padded);
-            }
+        float[] buffer = state.windowBuffer(total);
+        System.arraycopy(state.carry, 0, buffer, 0, state.carryLength);
+        System.arraycopy(samples, 0, buffer, state.carryLength, length);
+        int used = windows * VAD_SAMPLE_SIZE;
+        state.carryLength = total - used;
+        System.arraycopy(buffer, used, state.carry, 0, state.carryLength);
 
-            // 样本过长，分段处理
-            float maxProb = 0.0f;
-            for (int offset = 0; offset <= samples.length - VAD_SAMPLE_SIZE; offset += VAD_SAMPLE_SIZE / 2) {
-                float[] chunk = new float[VAD_SAMPLE_SIZE];
-                System.arraycopy(samples, offset, chunk, 0, VAD_SAMPLE_SIZE);
-                float prob = vadModel.getSpeechProbability(chunk);
-                maxProb = Math.max(maxProb, prob);
-            }
-            return maxProb;
+        try {
+            // 所有窗口作为一个请求提交给批量推理，按顺序推进会话的模型状态
+            state.lastModelProb = vadModel.getMaxSpeechProbability(sessionId, buffer, used, VAD_SAMPLE_SIZE);
+            return state.lastModelProb;
         } catch (Exception e) {
             logger.error("VAD推断失败: {}", e.getMessage());
             return 0.0f;
@@ -611,49 +854,45 @@ public class VadService {
     }
 
     /**
-     * 字节数组转浮点数组
+     * 字节数组转浮点数组，写入调用方提供的缓冲区
      */
-    private float[] bytesToFloats(byte[] pcmData) {
-        int sampleCount = pcmData.length / 2;
-        float[] samples = new float[sampleCount];
-
-        ByteBuffer buffer = ByteBuffer.wrap(pcmData).order(ByteOrder.LITTLE_ENDIAN);
-        for (int i = 0; i < sampleCount; i++) {
-            short sample = buffer.getShort();
-            samples[i] = sample / 32768.0f; // 归一化到[-1,1]
-        }
-
-        return samples;
+    private void bytesToFloats(byte[] pcmData, float[] samples) {
+        PcmKernels.pcmToFloat(pcmData, 0, samples, pcmData.length / 2); // 归一化到[-1,1]
     }
 
     /**
      * 计算音频能量
      */
-    private float calcEnergy(float[] samples) {
-        float sum = 0;
-        for (float sample : samples) {
-            sum += Math.abs(sample);
-        }
-        return sum / samples.length;
+    private float calcEnergy(float[] samples, int length) {
+        return PcmKernels.meanAbs(samples, length);
     }
 
     /**
      * 重置会话
      */
     public void resetSession(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             if (state != null) {
                 state.reset();
             }
             states.remove(sessionId);
             locks.remove(sessionId);
+            endpointDetector.remove(sessionId);
+
+            // 释放模型状态
+            if (vadModel != null) {
+                vadModel.resetSession(sessionId);
+            }
             
             // 重置AGC状态
             if (agc != null) {
                 agc.resetSession(sessionId);
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -661,10 +900,13 @@ public class VadService {
      * 检查是否正在说话
      */
     public boolean isSpeaking(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             return state != null && state.isSpeaking();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -672,10 +914,13 @@ public class VadService {
      * 获取当前语音概率
      */
     public float getSpeechProbability(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             return state != null ? state.getLastProb() : 0.0f;
+        } finally {
+            lock.unlock();
         }
     }
     
@@ -683,10 +928,13 @@ public class VadService {
      * 获取原始语音概率
      */
     public float getOriginalSpeechProbability(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             return state != null ? state.getLastOriginalProb() : 0.0f;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -694,21 +942,100 @@ public class VadService {
      * 获取音频数据
      */
     public List<byte[]> getPcmData(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             return state != null ? state.getPcmData() : new ArrayList<>();
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * 将当前采集的PCM数据直接从环形缓冲区写入WAV文件，不做中间复制
+     *
+     * @return 文件名，没有数据时返回null
+     */
+    public String savePcmAsWav(String sessionId) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
+            VadState state = states.get(sessionId);
+            if (state == null || state.pcmData.isEmpty()) {
+                return null;
+            }
+            return AudioUtils.saveAsWav(state.getPcmSnapshot());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取最近一次说话的录音文件名，录音在说话期间已经写入磁盘，这里不做任何IO
+     *
+     * @return 文件名，没有录音时返回null
+     */
+    public String getRecordingFile(String sessionId) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
+            VadState state = states.get(sessionId);
+            return state != null ? state.recordingFile : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 丢弃没有识别出文本的录音文件，文件名在语音开始时通过 {@link #getRecordingFile} 取得
+     */
+    public void discardRecording(String sessionId, String fileName) {
+        if (fileName == null) {
+            return;
+        }
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
+            VadState state = states.get(sessionId);
+            if (state != null) {
+                state.discardRecording(fileName);
+            } else {
+                deleteRecording(null, fileName);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在虚拟线程中关闭写入器并删除录音文件
+     */
+    private static void deleteRecording(Closeable writer, String fileName) {
+        Thread.startVirtualThread(() -> {
+            try {
+                // close可重入，返回时之前的异步关闭也已完成
+                if (writer != null) {
+                    writer.close();
+                }
+                Files.deleteIfExists(Paths.get(AudioUtils.AUDIO_PATH, fileName));
+            } catch (IOException e) {
+                logger.warn("删除录音文件失败 - 文件: {}", fileName, e);
+            }
+        });
+    }
+
     /**
      * 获取Opus数据
      */
     public List<byte[]> getOpusData(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             return state != null ? state.getOpusData() : new ArrayList<>();
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -723,10 +1050,13 @@ public class VadService {
      * 获取检测到的设备类型
      */
     public String getDetectedDeviceType(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             return state != null ? state.getDetectedDeviceType() : "normal";
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -734,13 +1064,16 @@ public class VadService {
      * 手动设置设备类型（用于测试或特殊情况）
      */
     public void setDeviceType(String sessionId, String deviceType) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             if (state != null) {
                 state.detectedDeviceType = deviceType;
                 logger.info("手动设置设备类型 - SessionId: {}, 类型: {}", sessionId, deviceType);
             }
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -748,10 +1081,13 @@ public class VadService {
      * 获取当前帧计数
      */
     public int getFrameCounter(String sessionId) {
-        Object lock = getLock(sessionId);
-        synchronized (lock) {
+        ReentrantLock lock = getLock(sessionId);
+        lock.lock();
+        try {
             VadState state = states.get(sessionId);
             return state != null ? state.getFrameCounter() : 0;
+        } finally {
+            lock.unlock();
         }
     }
 
@@ -2,6 +2,8 @@ package com.xiaozhi.dialogue.stt;
 
 import reactor.core.publisher.Sinks;
 
+import java.util.function.Consumer;
+
 /**
  * STT服务接口
  */
@@ -28,6 +30,18 @@ public interface SttService {
    */
   String streamRecognition(Sinks.Many<byte[]> audioSink);
 
+  /**
+   * 流式处理音频数据，识别过程中回调中间结果
+   * 不支持中间结果的服务不会回调，与 {@link #streamRecognition(Sinks.Many)} 相同
+   *
+   * @param audioSink       音频数据流
+   * @param partialListener 中间结果回调，参数为到目前为止识别出的完整文本（可能还会变化）
+   * @return 识别的文本结果
+   */
+  default String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialListener) {
+    return streamRecognition(audioSink);
+  }
+
   /**
    * 检查服务是否支持流式处理
    * 
@@ -14,6 +14,7 @@ import reactor.core.publisher.Sinks;
 
 import java.nio.ByteBuffer;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 import io.reactivex.BackpressureStrategy;
 import io.reactivex.Flowable;
@@ -48,7 +49,15 @@ public class AliyunSttService implements SttService {
 
     @Override
     public String streamRecognition(Sinks.Many<byte[]> audioSink) {
+        return streamRecognition(audioSink, text -> {
+        });
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialListener) {
         var recognizer = new Recognition();
+        // 已结束的句子，中间结果为这些句子加上当前句子的非稳态结果
+        var sentences = new StringBuffer();
 
         // 创建识别参数
         var param = RecognitionParam.builder()
@@ -73,6 +82,10 @@ public class AliyunSttService implements SttService {
                                     if (result.isSentenceEnd()) {
                                         logger.info("语音识别结果: {}", result.getSentence().getText());
                                         sink.next(result.getSentence().getText());
+                                        sentences.append(result.getSentence().getText());
+                                        partialListener.accept(sentences.toString());
+                                    } else if (result.getSentence() != null && result.getSentence().getText() != null) {
+                                        partialListener.accept(sentences + result.getSentence().getText());
                                     }
                                 },
                                 Throwable::printStackTrace,
@@ -38,6 +38,7 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 public class TencentSttService implements SttService {
     private static final Logger logger = LoggerFactory.getLogger(TencentSttService.class);
@@ -134,6 +135,12 @@ public class TencentSttService implements SttService {
 
     @Override
     public String streamRecognition(Sinks.Many<byte[]> audioSink) {
+        return streamRecognition(audioSink, text -> {
+        });
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialListener) {
         // 检查配置是否已设置
         if (secretId == null || secretKey == null || appId == null) {
             logger.error("腾讯云语音识别配置未设置，无法进行识别");
@@ -194,6 +201,7 @@ public class TencentSttService implements SttService {
                                 textBuilder.setLength(0);
                                 textBuilder.append(text);
                             }
+                            partialListener.accept(text);
                         }
                     }
                 }
@@ -210,6 +218,7 @@ public class TencentSttService implements SttService {
                                 textBuilder.append(text);
                             }
                             finalResult.set(text);
+                            partialListener.accept(text);
                         }
                     }
                 }
@@ -7,6 +7,7 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
 
 import jakarta.annotation.PostConstruct;
 
@@ -117,6 +118,12 @@ public class VoskSttService implements SttService {
 
     @Override
     public String streamRecognition(Sinks.Many<byte[]> audioSink) {
+        return streamRecognition(audioSink, text -> {
+        });
+    }
+
+    @Override
+    public String streamRecognition(Sinks.Many<byte[]> audioSink, Consumer<String> partialListener) {
         // 使用阻塞队列存储音频数据
         BlockingQueue<byte[]> audioQueue = new LinkedBlockingQueue<>();
         AtomicBoolean isCompleted = new AtomicBoolean(false);
@@ -150,6 +157,14 @@ public class VoskSttService implements SttService {
                                         String text = jsonResult.getString("text").replaceAll("\\s+", "");
                                         recognizedText.add(text);
                                         logger.debug("Vosk识别中间结果: {}", text);
+                                        partialListener.accept(String.join("", recognizedText));
+                                    }
+                                } else {
+                                    // 当前句子的非稳态结果
+                                    JSONObject jsonPartial = new JSONObject(recognizer.getPartialResult());
+                                    String partial = jsonPartial.optString("partial").replaceAll("\\s+", "");
+                                    if (!partial.isEmpty()) {
+                                        partialListener.accept(String.join("", recognizedText) + partial);
                                     }
                                 }
                             }
@@ -1,5 +1,7 @@
 package com.xiaozhi.dialogue.tts;
 
+import com.xiaozhi.utils.AudioClip;
+
 import java.util.UUID;
 import java.util.function.Consumer;
 
@@ -30,7 +32,15 @@ public interface TtsService {
   }
 
   /**
-   * 
+   * 服务商额度标识，标识相同的请求共享并发数和QPS限制（见 {@link com.xiaozhi.dialogue.tts.scheduler.TtsScheduler}）
+   * 默认按服务商计算；按配置区分账号时应返回"服务商:配置ID"
+   */
+  default String getQuotaKey() {
+    return getProviderName();
+  }
+
+  /**
+   * 是否支持流式合成，支持时优先调用 {@link #streamTextToSpeech}
    */
   default boolean isSupportStreamTts() {
     return false;
@@ -44,11 +54,33 @@ public interface TtsService {
    */
   String textToSpeech(String text) throws Exception;
 
+  /**
+   * 将文本转换为语音，结果保存在内存中，对话流程使用
+   * 默认调用 {@link #textToSpeech} 并引用生成的文件，能直接拿到音频数据的服务商应覆盖此方法，避免写入再读取文件
+   * 
+   * @param text 要转换为语音的文本
+   * @return 合成的音频，没有音频时返回null
+   */
+  default AudioClip synthesize(String text) throws Exception {
+    return AudioClip.ofFile(textToSpeech(text));
+  }
+
+  /**
+   * 查找已缓存的合成结果，不调用服务商
+   * 
+   * @param text 要转换为语音的文本
+   * @return 缓存的音频，未缓存或不支持缓存时返回null
+   */
+  default AudioClip getCachedAudio(String text) {
+    return null;
+  }
+
   /**
    * 流式将文本转换为语音
+   * 方法阻塞到合成结束，期间每收到一段音频就调用一次消费者
    * 
    * @param text              要转换为语音的文本
-   * @param audioDataConsumer 音频数据消费者，接收PCM格式的音频数据块
+   * @param audioDataConsumer 音频数据消费者，接收16kHz、16bit、单声道的PCM数据块，块长度任意
    * @throws Exception 转换过程中可能发生的异常
    */
   default void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
@@ -0,0 +1,137 @@
+package com.xiaozhi.dialogue.tts.cache;
+
+import com.xiaozhi.dialogue.tts.TtsService;
+import com.xiaozhi.utils.AudioClip;
+import com.xiaozhi.utils.OpusProcessor;
+import com.xiaozhi.utils.OpusStreamEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * 带结果缓存的TTS服务，由 {@link com.xiaozhi.dialogue.tts.factory.TtsServiceFactory} 包装在服务商实现外层
+ * 命中时直接返回缓存的Opus帧；未命中时调用服务商，编码后写入缓存，播放使用同一份编码结果。
+ * 流式合成未命中时照常流式下发，合成结束后在后台编码写入缓存，下次同样的文本不再走流式。
+ */
+public class CachedTtsService implements TtsService {
+    private static final Logger logger = LoggerFactory.getLogger(CachedTtsService.class);
+
+    private final TtsService delegate;
+    private final String keyPrefix;
+    private final TtsCache cache;
+    private final OpusProcessor opusProcessor;
+
+    /**
+     * @param delegate  服务商实现
+     * @param keyPrefix 服务实例标识（服务商:配置ID:音色）
+     */
+    public CachedTtsService(TtsService delegate, String keyPrefix, TtsCache cache, OpusProcessor opusProcessor) {
+        this.delegate = delegate;
+        this.keyPrefix = keyPrefix;
+        this.cache = cache;
+        this.opusProcessor = opusProcessor;
+    }
+
+    public TtsService getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String getProviderName() {
+        return delegate.getProviderName();
+    }
+
+    /**
+     * 同一服务商配置（同一账号）的所有音色共享额度
+     */
+    @Override
+    public String getQuotaKey() {
+        return keyPrefix.substring(0, keyPrefix.indexOf(':', keyPrefix.indexOf(':') + 1));
+    }
+
+    @Override
+    public String audioFormat() {
+        return delegate.audioFormat();
+    }
+
+    @Override
+    public boolean isSupportStreamTts() {
+        return delegate.isSupportStreamTts();
+    }
+
+    @Override
+    public String textToSpeech(String text) throws Exception {
+        return delegate.textToSpeech(text);
+    }
+
+    @Override
+    public AudioClip getCachedAudio(String text) {
+        if (!cache.isCacheable(text)) {
+            return null;
+        }
+        List<byte[]> frames = cache.get(cache.key(keyPrefix, text));
+        return frames == null ? null : AudioClip.ofOpus(frames);
+    }
+
+    @Override
+    public AudioClip synthesize(String text) throws Exception {
+        if (!cache.isCacheable(text)) {
+            return delegate.synthesize(text);
+        }
+        String key = cache.key(keyPrefix, text);
+        List<byte[]> cached = cache.get(key);
+        if (cached != null) {
+            return AudioClip.ofOpus(cached);
+        }
+
+        AudioClip audio = delegate.synthesize(text);
+        if (audio == null) {
+            return null;
+        }
+        List<byte[]> frames = encode(audio.toPcm());
+        cache.put(key, frames);
+        // 播放直接使用这份编码结果，保存录音时仍使用原始PCM或文件
+        audio.setOpusFrames(frames);
+        return audio;
+    }
+
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        if (!cache.isCacheable(text)) {
+            delegate.streamTextToSpeech(text, audioDataConsumer);
+            return;
+        }
+        Queue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+        delegate.streamTextToSpeech(text, pcm -> {
+            chunks.add(pcm);
+            audioDataConsumer.accept(pcm);
+        });
+        String key = cache.key(keyPrefix, text);
+        Thread.startVirtualThread(() -> {
+            List<byte[]> frames = new ArrayList<>();
+            OpusStreamEncoder encoder = opusProcessor.createStreamEncoder(frames::add);
+            for (byte[] chunk : chunks) {
+                encoder.write(chunk);
+            }
+            encoder.finish();
+            cache.put(key, frames);
+        });
+    }
+
+    private List<byte[]> encode(byte[] pcm) {
+        List<byte[]> frames = new ArrayList<>();
+        if (pcm == null || pcm.length == 0) {
+            return frames;
+        }
+        OpusStreamEncoder encoder = opusProcessor.createStreamEncoder(frames::add);
+        encoder.write(pcm);
+        encoder.finish();
+        logger.debug("TTS结果已编码缓存 - 服务: {}, 帧数: {}", keyPrefix, frames.size());
+        return frames;
+    }
+}
@@ -0,0 +1,387 @@
+package com.xiaozhi.dialogue.tts.cache;
+
+import com.xiaozhi.utils.AudioUtils;
+import com.xiaozhi.utils.OggOpusWriter;
+import com.xiaozhi.utils.OpusProcessor;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+/**
+ * TTS合成结果缓存
+ * 键为（服务商, 配置ID, 音色, 规范化文本），值为编码好的Opus帧，命中时既不调用服务商也不重新编码。
+ * - 内存层：按总字节数限制的LRU
+ * - 磁盘层：Ogg-Opus文件，每个服务商配置和音色一个目录，超过有效期的文件在读取和定期清理时删除
+ *
+ * 只缓存较短的文本（提示语、问候语、错误提示和常见短回复），长句重复的概率低，不占用缓存。
+ */
+@Component
+public class TtsCache {
+    private static final Logger logger = LoggerFactory.getLogger(TtsCache.class);
+
+    public static final String CACHE_PATH = AudioUtils.AUDIO_PATH + "tts-cache/";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern UNSAFE_CHARS = Pattern.compile("[^A-Za-z0-9_-]");
+
+    // 每帧额外占用的内存估算（数组对象头和链表引用）
+    private static final int FRAME_OVERHEAD = 32;
+
+    @Value("${tts.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tts.cache.max-text-length:40}")
+    private int maxTextLength;
+
+    @Value("${tts.cache.memory.max-bytes:16777216}")
+    private long memoryMaxBytes;
+
+    @Value("${tts.cache.disk.enabled:true}")
+    private boolean diskEnabled;
+
+    @Value("${tts.cache.disk.ttl-hours:168}")
+    private long diskTtlHours;
+
+    @Resource
+    private OpusProcessor opusProcessor;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // 访问顺序的LinkedHashMap，最久未使用的在最前
+    private final LinkedHashMap<String, List<byte[]>> memory = new LinkedHashMap<>(256, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long memoryBytes = 0;
+
+    private final LongAdder memoryHits = new LongAdder();
+    private final LongAdder diskHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("tts-cache-cleaner-", 0).factory());
+
+    /**
+     * 缓存统计
+     */
+    public record CacheStats(long memoryHits, long diskHits, long misses, long puts, long evictions,
+                             int memoryEntries, long memoryBytes) {
+        public double hitRate() {
+            long total = memoryHits + diskHits + misses;
+            return total == 0 ? 0 : (double) (memoryHits + diskHits) / total;
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        if (meterRegistry != null) {
+            registerMetrics(meterRegistry);
+        }
+        if (diskEnabled) {
+            cleaner.scheduleWithFixedDelay(this::cleanExpired, 1, 60, TimeUnit.MINUTES);
+        }
+        logger.info("TTS缓存已启用 - 内存上限: {}KB, 磁盘缓存: {}, 有效期: {}小时",
+                memoryMaxBytes / 1024, diskEnabled, diskTtlHours);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        cleaner.shutdownNow();
+    }
+
+    private void registerMetrics(MeterRegistry registry) {
+        FunctionCounter.builder("tts.cache.requests", memoryHits, LongAdder::sum)
+                .tag("result", "memory_hit").register(registry);
+        FunctionCounter.builder("tts.cache.requests", diskHits, LongAdder::sum)
+                .tag("result", "disk_hit").register(registry);
+        FunctionCounter.builder("tts.cache.requests", misses, LongAdder::sum)
+                .tag("result", "miss").register(registry);
+        FunctionCounter.builder("tts.cache.puts", puts, LongAdder::sum).register(registry);
+        FunctionCounter.builder("tts.cache.evictions", evictions, LongAdder::sum).register(registry);
+        Gauge.builder("tts.cache.memory.entries", this, c -> c.getStats().memoryEntries()).register(registry);
+        Gauge.builder("tts.cache.memory.bytes", this, c -> c.getStats().memoryBytes()).register(registry);
+    }
+
+    /**
+     * 文本是否需要缓存
+     */
+    public boolean isCacheable(String text) {
+        return enabled && text != null && !text.isBlank() && text.length() <= maxTextLength;
+    }
+
+    /**
+     * 生成缓存键
+     *
+     * @param prefix 服务实例标识（服务商:配置ID:音色）
+     * @param text   合成文本
+     */
+    public String key(String prefix, String text) {
+        return prefix + "|" + normalize(text);
+    }
+
+    /**
+     * 规范化文本：全角半角统一、合并空白，不影响发音的差异不产生新的缓存项
+     */
+    static String normalize(String text) {
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFKC).strip();
+        return WHITESPACE.matcher(normalized).replaceAll(" ");
+    }
+
+    /**
+     * 查找缓存的Opus帧，先查内存再查磁盘，磁盘命中时放回内存
+     *
+     * @return 帧列表，未命中时返回null
+     */
+    public List<byte[]> get(String key) {
+        lock.lock();
+        try {
+            List<byte[]> frames = memory.get(key);
+            if (frames != null) {
+                memoryHits.increment();
+                return frames;
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        List<byte[]> frames = diskEnabled ? readDisk(key) : null;
+        if (frames != null) {
+            diskHits.increment();
+            putMemory(key, frames);
+            return frames;
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * 保存合成结果，内存层立即可用，磁盘文件在虚拟线程中写入
+     */
+    public void put(String key, List<byte[]> frames) {
+        if (!enabled || frames == null || frames.isEmpty()) {
+            return;
+        }
+        List<byte[]> snapshot = List.copyOf(frames);
+        putMemory(key, snapshot);
+        puts.increment();
+        if (diskEnabled) {
+            Thread.startVirtualThread(() -> writeDisk(key, snapshot));
+        }
+    }
+
+    /**
+     * 删除某个服务商配置的全部缓存，配置变更时调用
+     *
+     * @param prefix 服务实例标识前缀（服务商:配置ID:）
+     */
+    public void invalidate(String prefix) {
+        lock.lock();
+        try {
+            Iterator<Map.Entry<String, List<byte[]>>> it = memory.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, List<byte[]>> entry = it.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    memoryBytes -= sizeOf(entry.getValue());
+                    it.remove();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (diskEnabled) {
+            String dirPrefix = safeName(prefix);
+            Thread.startVirtualThread(() -> deleteDirs(dirPrefix));
+        }
+    }
+
+    public CacheStats getStats() {
+        lock.lock();
+        try {
+            return new CacheStats(memoryHits.sum(), diskHits.sum(), misses.sum(), puts.sum(), evictions.sum(),
+                    memory.size(), memoryBytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void putMemory(String key, List<byte[]> frames) {
+        long size = sizeOf(frames);
+        if (size > memoryMaxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            List<byte[]> previous = memory.put(key, frames);
+            if (previous != null) {
+                memoryBytes -= sizeOf(previous);
+            }
+            memoryBytes += size;
+            Iterator<List<byte[]>> it = memory.values().iterator();
+            while (memoryBytes > memoryMaxBytes && it.hasNext()) {
+                memoryBytes -= sizeOf(it.next());
+                it.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long sizeOf(List<byte[]> frames) {
+        long size = 0;
+        for (byte[] frame : frames) {
+            size += frame.length + FRAME_OVERHEAD;
+        }
+        return size;
+    }
+
+    private Path diskPath(String key) {
+        int split = key.indexOf('|');
+        String dir = safeName(split >= 0 ? key.substring(0, split) : "");
+        return Paths.get(CACHE_PATH, dir, sha256(key) + OggOpusWriter.EXTENSION);
+    }
+
+    private List<byte[]> readDisk(String key) {
+        Path path = diskPath(key);
+        File file = path.toFile();
+        if (!file.isFile()) {
+            return null;
+        }
+        if (isExpired(file.lastModified())) {
+            deleteQuietly(path);
+            return null;
+        }
+        try {
+            List<byte[]> frames = opusProcessor.readOpus(file);
+            return frames.isEmpty() ? null : frames;
+        } catch (IOException e) {
+            logger.warn("读取TTS缓存文件失败 - 文件: {}, 错误: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, List<byte[]> frames) {
+        Path path = diskPath(key);
+        // 先写临时文件再改名，并发读取时不会读到写了一半的文件
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            OggOpusWriter writer = OggOpusWriter.create(temp);
+            try (writer) {
+                for (byte[] frame : frames) {
+                    writer.writePacket(frame);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("写入TTS缓存文件失败 - 文件: {}, 错误: {}", path, e.getMessage());
+            deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * 删除过期的磁盘缓存文件
+     */
+    private void cleanExpired() {
+        Path root = Paths.get(CACHE_PATH);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        int removed = 0;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, Files::isDirectory)) {
+            for (Path dir : dirs) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path file : files) {
+                        if (isExpired(file.toFile().lastModified()) && deleteQuietly(file)) {
+                            removed++;
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("清理TTS缓存失败: {}", e.getMessage());
+        }
+        if (removed > 0) {
+            logger.info("已清理过期TTS缓存文件 {} 个", removed);
+        }
+    }
+
+    private void deleteDirs(String dirPrefix) {
+        Path root = Paths.get(CACHE_PATH);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root,
+                p -> Files.isDirectory(p) && p.getFileName().toString().startsWith(dirPrefix))) {
+            for (Path dir : dirs) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                    for (Path file : files) {
+                        deleteQuietly(file);
+                    }
+                }
+                deleteQuietly(dir);
+            }
+        } catch (IOException e) {
+            logger.warn("删除TTS缓存目录失败: {}", e.getMessage());
+        }
+    }
+
+    private boolean isExpired(long lastModified) {
+        return System.currentTimeMillis() - lastModified > TimeUnit.HOURS.toMillis(diskTtlHours);
+    }
+
+    private static boolean deleteQuietly(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String safeName(String prefix) {
+        return UNSAFE_CHARS.matcher(prefix).replaceAll("_");
+    }
+
+    private static String sha256(String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package com.xiaozhi.dialogue.tts.factory;
 
 import com.xiaozhi.dialogue.tts.TtsService;
+import com.xiaozhi.dialogue.tts.cache.CachedTtsService;
+import com.xiaozhi.dialogue.tts.cache.TtsCache;
 import com.xiaozhi.dialogue.tts.providers.*;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.OpusProcessor;
 
+import jakarta.annotation.Resource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -21,6 +25,12 @@ public class TtsServiceFactory {
     // 缓存已初始化的服务：键为"provider:configId:voiceName"格式，确保音色变化时创建新实例
     private final Map<String, TtsService> serviceCache = new ConcurrentHashMap<>();
 
+    @Resource
+    private TtsCache ttsCache;
+
+    @Resource
+    private OpusProcessor opusProcessor;
+
     // 语音生成文件保存地址
     private static final String OUTPUT_PATH = "audio/";
 
@@ -63,7 +73,9 @@ public class TtsServiceFactory {
             return serviceCache.get(cacheKey);
         }
 
-        var service = createApiService(config, voiceName, OUTPUT_PATH);
+        // 合成结果缓存与服务实例使用同一个键，相同服务商配置和音色的相同文本只合成一次
+        var service = new CachedTtsService(createApiService(config, voiceName, OUTPUT_PATH), cacheKey, ttsCache,
+                opusProcessor);
         serviceCache.put(cacheKey, service);
         return service;
     }
@@ -110,6 +122,8 @@ public class TtsServiceFactory {
             // 检查provider和configId是否匹配
             return keyProvider.equals(provider) && keyConfigId.equals(String.valueOf(configId));
         });
-        
+
+        // 配置变更后合成结果可能不同（模型、参数），清除该配置的缓存音频
+        ttsCache.invalidate(provider + ":" + configId + ":");
     }
 }
\ No newline at end of file
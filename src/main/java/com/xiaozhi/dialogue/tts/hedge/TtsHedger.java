@@ -0,0 +1,239 @@
+package com.xiaozhi.dialogue.tts.hedge;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * TTS对冲请求
+ * 主服务在阈值时间内没有返回时，把同一句话再发给备用服务，先返回的结果生效；主服务直接失败时立即改用备用服务。
+ *
+ * 先返回的一方生效后取消另一方（请求由 TtsScheduler 执行时取消会中断服务商调用），同一句话不会合成和计费两次。
+ *
+ * 阈值按每个主服务最近 {@value #WINDOW_SIZE} 次响应时间的分位数（默认p95）自适应调整，
+ * 样本不足时使用默认阈值。被取消的主服务以取消时已用的时间计入样本（实际响应时间不短于该值），阈值不会因对冲而偏低。
+ *
+ * 对冲比例（tts.hedge.hedged / tts.hedge.requests）和备用服务胜出比例（tts.hedge.wins / tts.hedge.hedged）
+ * 以计数器和 tts.hedge.rate、tts.hedge.win.rate 两个比例指标输出。
+ */
+@Component
+public class TtsHedger {
+    private static final Logger logger = LoggerFactory.getLogger(TtsHedger.class);
+
+    // 每个主服务保留的响应时间样本数
+    static final int WINDOW_SIZE = 256;
+
+    // 计算分位数所需的最少样本数
+    private static final int MIN_SAMPLES = 20;
+
+    // 每记录多少个样本重新计算一次阈值
+    private static final int RECOMPUTE_INTERVAL = 16;
+
+    @Value("${tts.hedge.enabled:true}")
+    private boolean enabled;
+
+    @Value("${tts.hedge.percentile:0.95}")
+    private double percentile;
+
+    @Value("${tts.hedge.default-delay-ms:1500}")
+    private long defaultDelayMs;
+
+    @Value("${tts.hedge.min-delay-ms:200}")
+    private long minDelayMs;
+
+    @Value("${tts.hedge.max-delay-ms:5000}")
+    private long maxDelayMs;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private final Map<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+
+    private Counter requests;
+    private Counter hedgedSlow;
+    private Counter hedgedFailed;
+    private Counter wins;
+
+    /**
+     * 对冲统计
+     *
+     * @param requests 启用了对冲的请求数
+     * @param hedged   发出对冲请求的次数（主服务超过阈值或失败）
+     * @param wins     备用服务先返回的次数
+     */
+    public record HedgeStats(long requests, long hedged, long wins) {
+        public double hedgeRate() {
+            return requests == 0 ? 0 : (double) hedged / requests;
+        }
+
+        public double winRate() {
+            return hedged == 0 ? 0 : (double) wins / hedged;
+        }
+    }
+
+    /**
+     * 一个主服务最近的响应时间，环形数组保存
+     */
+    private final class LatencyWindow {
+        private final long[] samples = new long[WINDOW_SIZE];
+        private int count = 0;
+        private volatile long threshold = defaultDelayMs;
+
+        private synchronized void record(long millis) {
+            samples[count % WINDOW_SIZE] = millis;
+            count++;
+            if (count >= MIN_SAMPLES && count % RECOMPUTE_INTERVAL == 0) {
+                long[] sorted = Arrays.copyOf(samples, Math.min(count, WINDOW_SIZE));
+                Arrays.sort(sorted);
+                long value = sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+                threshold = Math.max(minDelayMs, Math.min(maxDelayMs, value));
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        MeterRegistry registry = meterRegistry != null ? meterRegistry : new SimpleMeterRegistry();
+        requests = Counter.builder("tts.hedge.requests").description("启用对冲的TTS请求数").register(registry);
+        hedgedSlow = Counter.builder("tts.hedge.hedged").tag("reason", "slow")
+                .description("主服务超过阈值未返回而发出的对冲请求数").register(registry);
+        hedgedFailed = Counter.builder("tts.hedge.hedged").tag("reason", "failed")
+                .description("主服务失败后改用备用服务的次数").register(registry);
+        wins = Counter.builder("tts.hedge.wins").description("备用服务先返回的次数").register(registry);
+        Gauge.builder("tts.hedge.rate", this, h -> h.getStats().hedgeRate()).register(registry);
+        Gauge.builder("tts.hedge.win.rate", this, h -> h.getStats().winRate()).register(registry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 主服务当前的对冲阈值（毫秒）
+     */
+    public long getThreshold(String key) {
+        LatencyWindow window = windows.get(key);
+        return window != null ? window.threshold : defaultDelayMs;
+    }
+
+    public HedgeStats getStats() {
+        return new HedgeStats((long) requests.count(), (long) (hedgedSlow.count() + hedgedFailed.count()),
+                (long) wins.count());
+    }
+
+    /**
+     * 对冲执行一次请求
+     *
+     * @param key       主服务标识，每个标识单独统计响应时间
+     * @param primary   已发出的主服务请求，结果为null视为失败；备用服务先返回时被取消
+     * @param secondary 发出备用服务请求，只在需要时调用一次；主服务先返回时被取消
+     * @return 先成功返回的结果；两者都失败时以主服务的错误结束。结果结束（包括被调用方取消或超时）时取消仍未完成的请求
+     */
+    public <T> CompletableFuture<T> hedge(String key, CompletableFuture<T> primary,
+            Supplier<CompletableFuture<T>> secondary) {
+        requests.increment();
+        long startNanos = System.nanoTime();
+        LatencyWindow window = windows.computeIfAbsent(key, k -> new LatencyWindow());
+
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicBoolean launched = new AtomicBoolean(false);
+        AtomicReference<CompletableFuture<T>> backup = new AtomicReference<>();
+
+        result.whenComplete((value, error) -> {
+            // 取消落后的一方
+            CompletableFuture<T> future = backup.get();
+            if (future != null) {
+                future.cancel(true);
+            }
+            if (primary.cancel(true)) {
+                window.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+        });
+
+        Runnable launch = () -> {
+            CompletableFuture<T> future;
+            try {
+                future = secondary.get();
+            } catch (Exception e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+            backup.set(future);
+            if (result.isDone()) {
+                // 发出备用请求期间已有结果
+                future.cancel(true);
+            }
+            future.whenComplete((value, error) -> {
+                if (error == null && value != null) {
+                    if (result.complete(value)) {
+                        wins.increment();
+                    }
+                } else if (primary.isDone()) {
+                    // 主服务已失败，以主服务的错误结束
+                    primary.whenComplete((v, e) -> {
+                        if (e != null || v == null) {
+                            result.completeExceptionally(failure(v, e));
+                        }
+                    });
+                }
+            });
+        };
+
+        primary.whenComplete((value, error) -> {
+            if (error == null && value != null) {
+                window.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+                result.complete(value);
+                return;
+            }
+            if (result.isDone()) {
+                // 已有结果（备用服务胜出或调用方放弃），主服务被取消
+                return;
+            }
+            if (launched.compareAndSet(false, true)) {
+                // 主服务直接失败，立即改用备用服务
+                hedgedFailed.increment();
+                logger.info("TTS主服务失败，改用备用服务 - 服务: {}, 原因: {}", key, failure(value, error).getMessage());
+                launch.run();
+                return;
+            }
+            CompletableFuture<T> future = backup.get();
+            if (future != null && future.isDone()) {
+                // 备用服务也已失败
+                result.completeExceptionally(failure(value, error));
+            }
+        });
+
+        long threshold = window.threshold;
+        CompletableFuture.delayedExecutor(threshold, TimeUnit.MILLISECONDS).execute(() -> {
+            if (!primary.isDone() && launched.compareAndSet(false, true)) {
+                hedgedSlow.increment();
+                logger.debug("TTS主服务超过对冲阈值 - 服务: {}, 阈值: {}ms", key, threshold);
+                launch.run();
+            }
+        });
+        return result;
+    }
+
+    private static Throwable failure(Object value, Throwable error) {
+        if (error != null) {
+            return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        }
+        return new IllegalStateException("未返回音频数据");
+    }
+}
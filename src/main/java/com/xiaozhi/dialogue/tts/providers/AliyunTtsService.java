@@ -9,6 +9,7 @@ import com.alibaba.dashscope.audio.tts.SpeechSynthesisParam;
 import com.alibaba.dashscope.audio.tts.SpeechSynthesizer;
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.AudioClip;
 import com.xiaozhi.utils.AudioUtils;
 
 import cn.hutool.core.util.StrUtil;
@@ -19,14 +20,9 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URL;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.time.Duration;
+import java.util.function.Consumer;
 
 public class AliyunTtsService implements TtsService {
     private static final Logger logger = LoggerFactory.getLogger(AliyunTtsService.class);
@@ -34,10 +30,16 @@ public class AliyunTtsService implements TtsService {
     private static final String PROVIDER_NAME = "aliyun";
     // 添加重试次数常量
     private static final int MAX_RETRY_ATTEMPTS = 3;
-    // 添加重试间隔常量（毫秒）
+    // 添加重试间隔常量（毫秒），之后每次翻倍
     private static final long RETRY_DELAY_MS = 1000;
     // 添加TTS操作超时时间（秒）
     private static final long TTS_TIMEOUT_SECONDS = 5;
+    // 一次合成（含重试和下载）的总时长（毫秒），小于对话层10秒的TTS超时，失败能在超时前交给对话层重试
+    private static final long TTS_BUDGET_MS = 8000;
+
+    private static final ProviderRuntime.RetryPolicy RETRY_POLICY = new ProviderRuntime.RetryPolicy(
+            MAX_RETRY_ATTEMPTS, Duration.ofSeconds(TTS_TIMEOUT_SECONDS), Duration.ofMillis(RETRY_DELAY_MS),
+            Duration.ofMillis(TTS_BUDGET_MS));
 
     // 阿里云配置
     private final String apiKey;
@@ -56,140 +58,130 @@ public class AliyunTtsService implements TtsService {
         return PROVIDER_NAME;
     }
 
+    /**
+     * cosyvoice 支持流式返回，sambert 和 qwen-tts 只能整句合成
+     */
+    @Override
+    public boolean isSupportStreamTts() {
+        return !voiceName.contains("sambert") && getVoiceByName(voiceName) == null;
+    }
+
     @Override
     public String textToSpeech(String text) throws Exception {
         try {
             if (voiceName.contains("sambert")) {
-                return ttsSambert(text);
+                return saveAudio(ttsSambert(text));
             } else if (getVoiceByName(voiceName) != null) {
                 return ttsQwen(text);
             } else {
-                return ttsCosyvoice(text);
+                return saveAudio(ttsCosyvoice(text));
+            }
+        } catch (Exception e) {
+            logger.error("语音合成aliyun -使用{}模型语音合成失败：", voiceName, e);
+            throw new Exception("语音合成失败");
+        }
+    }
+
+    /**
+     * sambert 和 cosyvoice 返回的WAV数据直接在内存中转换为PCM；qwen-tts 只返回下载地址，仍使用文件
+     */
+    @Override
+    public AudioClip synthesize(String text) throws Exception {
+        try {
+            ByteBuffer audio;
+            if (voiceName.contains("sambert")) {
+                audio = ttsSambert(text);
+            } else if (getVoiceByName(voiceName) != null) {
+                return AudioClip.ofFile(ttsQwen(text));
+            } else {
+                audio = ttsCosyvoice(text);
             }
+            return audio == null ? null : AudioClip.ofPcm(AudioUtils.wavBytesToPcm(audio.array()));
         } catch (Exception e) {
             logger.error("语音合成aliyun -使用{}模型语音合成失败：", voiceName, e);
             throw new Exception("语音合成失败");
         }
     }
 
-    private String ttsQwen(String text) {
-        int attempts = 0;
-        while (attempts < MAX_RETRY_ATTEMPTS) {
-            try {
-                AudioParameters.Voice voice = getVoiceByName(voiceName);
-                MultiModalConversationParam param = MultiModalConversationParam.builder()
-                        .model("qwen-tts")
+    /**
+     * 保存合成的音频文件
+     *
+     * @return 文件路径，失败时返回空字符串
+     */
+    private String saveAudio(ByteBuffer audio) {
+        if (audio == null) {
+            return StrUtil.EMPTY;
+        }
+        String outPath = outputPath + getAudioFileName();
+        try (FileOutputStream fos = new FileOutputStream(new File(outPath))) {
+            fos.write(audio.array());
+        } catch (IOException e) {
+            logger.error("语音合成aliyun - 使用{}模型保存音频失败：", voiceName, e);
+            return StrUtil.EMPTY;
+        }
+        return outPath;
+    }
+
+    /**
+     * cosyvoice 流式合成，每收到一段16kHz PCM即交给消费者
+     * 失败时不在这里重试，由调用方根据是否已收到音频决定
+     */
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisParam param =
+                com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisParam.builder()
                         .apiKey(apiKey)
-                        .text(text)
-                        .voice(voice)
+                        .model("cosyvoice-v1")
+                        .voice(voiceName)
+                        .format(com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisAudioFormat.PCM_16000HZ_MONO_16BIT)
                         .build();
-                
-                // 使用线程池和Future实现超时控制
-                ExecutorService executor = Executors.newSingleThreadExecutor();
-                Future<MultiModalConversationResult> future = executor.submit(() -> {
-                    MultiModalConversation conv = new MultiModalConversation();
-                    return conv.call(param);
-                });
-                
-                // 等待结果，设置超时
-                MultiModalConversationResult result;
-                try {
-                    result = future.get(TTS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-                } catch (TimeoutException e) {
-                    future.cancel(true);
-                    logger.warn("语音合成aliyun - 使用{}模型超时，正在重试 ({}/{})", voiceName, attempts + 1, MAX_RETRY_ATTEMPTS);
-                    attempts++;
-                    if (attempts >= MAX_RETRY_ATTEMPTS) {
-                        logger.error("语音合成aliyun - 使用{}模型多次超时，放弃重试", voiceName);
-                        executor.shutdownNow();
-                        return StrUtil.EMPTY;
-                    }
-                    // 等待一段时间后重试
-                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                    executor.shutdownNow();
-                    continue;
-                } finally {
-                    executor.shutdownNow();
-                }
-                
-                // 检查结果是否有效
-                if (result == null || result.getOutput() == null || 
-                    result.getOutput().getAudio() == null || 
-                    result.getOutput().getAudio().getUrl() == null) {
-                    
-                    logger.warn("语音合成aliyun - 使用{}模型返回无效结果，正在重试 ({}/{})", voiceName, attempts + 1, MAX_RETRY_ATTEMPTS);
-                    attempts++;
-                    if (attempts >= MAX_RETRY_ATTEMPTS) {
-                        logger.error("语音合成aliyun - 使用{}模型多次返回无效结果，放弃重试", voiceName);
-                        return StrUtil.EMPTY;
-                    }
-                    // 等待一段时间后重试
-                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                    continue;
-                }
-                
-                String audioUrl = result.getOutput().getAudio().getUrl();
-                String outPath = outputPath + getAudioFileName();
-                File file = new File(outPath);
-                
-                // 下载音频文件到本地，也添加超时控制
-                executor = Executors.newSingleThreadExecutor();
-                Future<Boolean> downloadFuture = executor.submit(() -> {
-                    try (InputStream in = new URL(audioUrl).openStream();
-                            FileOutputStream out = new FileOutputStream(file)) {
-                        byte[] buffer = new byte[1024];
-                        int bytesRead;
-                        while ((bytesRead = in.read(buffer)) != -1) {
-                            out.write(buffer, 0, bytesRead);
-                        }
-                        return true;
-                    } catch (Exception e) {
-                        return false;
-                    }
-                });
-                
-                try {
-                    Boolean downloadSuccess = downloadFuture.get(TTS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-                    if (!downloadSuccess) {
-                        throw new IOException("下载音频文件失败");
-                    }
-                } catch (TimeoutException e) {
-                    downloadFuture.cancel(true);
-                    logger.warn("语音合成aliyun - 使用{}模型下载音频超时，正在重试 ({}/{})", voiceName, attempts + 1, MAX_RETRY_ATTEMPTS);
-                    attempts++;
-                    if (attempts >= MAX_RETRY_ATTEMPTS) {
-                        logger.error("语音合成aliyun - 使用{}模型多次下载超时，放弃重试", voiceName);
-                        executor.shutdownNow();
-                        return StrUtil.EMPTY;
-                    }
-                    // 等待一段时间后重试
-                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                    executor.shutdownNow();
-                    continue;
-                } finally {
-                    executor.shutdownNow();
-                }
-                
-                return outPath;
-            } catch (Exception e) {
-                attempts++;
-                if (attempts < MAX_RETRY_ATTEMPTS) {
-                    logger.warn("语音合成aliyun - 使用{}模型失败，正在重试 ({}/{}): {}", voiceName, attempts, MAX_RETRY_ATTEMPTS, e.getMessage());
-                    try {
-                        // 等待一段时间后重试
-                        TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        logger.error("重试等待被中断", ie);
-                        return StrUtil.EMPTY;
-                    }
-                } else {
-                    logger.error("语音合成aliyun - 使用{}模型语音合成失败，已达到最大重试次数：", voiceName, e);
-                    return StrUtil.EMPTY;
+        try {
+            com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer synthesizer =
+                    new com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer(param, null);
+            synthesizer.callAsFlowable(text).blockingForEach(result -> {
+                ByteBuffer frame = result.getAudioFrame();
+                if (frame != null && frame.hasRemaining()) {
+                    byte[] pcm = new byte[frame.remaining()];
+                    frame.get(pcm);
+                    audioDataConsumer.accept(pcm);
                 }
-            }
+            });
+        } catch (Exception e) {
+            logger.error("语音合成aliyun - 使用{}模型流式合成失败：{}", voiceName, e.getMessage());
+            throw new Exception("流式语音合成失败", e);
         }
-        return StrUtil.EMPTY;
+    }
+
+    private String ttsQwen(String text) throws Exception {
+        AudioParameters.Voice voice = getVoiceByName(voiceName);
+        MultiModalConversationParam param = MultiModalConversationParam.builder()
+                .model("qwen-tts")
+                .apiKey(apiKey)
+                .text(text)
+                .voice(voice)
+                .build();
+
+        // 合成和下载共用一个总时长
+        long deadline = ProviderRuntime.deadline(RETRY_POLICY);
+        MultiModalConversationResult result = ProviderRuntime.call("语音合成aliyun - " + voiceName, () -> {
+            MultiModalConversationResult r = new MultiModalConversation().call(param);
+            // 结果无效时返回null，按失败重试
+            if (r == null || r.getOutput() == null || r.getOutput().getAudio() == null
+                    || r.getOutput().getAudio().getUrl() == null) {
+                return null;
+            }
+            return r;
+        }, RETRY_POLICY, deadline);
+
+        // 下载音频文件到本地，复用共享连接池
+        String audioUrl = result.getOutput().getAudio().getUrl();
+        String outPath = outputPath + getAudioFileName();
+        File file = new File(outPath);
+        ProviderRuntime.call("下载音频aliyun - " + voiceName, () -> {
+            ProviderRuntime.download(audioUrl, file, Duration.ofSeconds(TTS_TIMEOUT_SECONDS));
+            return outPath;
+        }, RETRY_POLICY, deadline);
+        return outPath;
     }
 
     private AudioParameters.Voice getVoiceByName(String voiceName) {
@@ -207,174 +199,36 @@ public class AliyunTtsService implements TtsService {
         }
     }
 
-    // cosyvoice默认并发只有3个，所以需要增加一个重试机制
-    private String ttsCosyvoice(String text) {
-        int attempts = 0;
-        while (attempts < MAX_RETRY_ATTEMPTS) {
-            try {
-                com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisParam param =
+    // cosyvoice账号并发上限由TtsScheduler控制，这里只重试超时和偶发错误
+    private ByteBuffer ttsCosyvoice(String text) throws Exception {
+        com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisParam param =
                 com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisParam.builder()
-                                .apiKey(apiKey)
-                                .model("cosyvoice-v1")
-                                .voice(voiceName)
-                                .format(com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisAudioFormat.WAV_16000HZ_MONO_16BIT)
-                                .build();
-                
-                // 使用线程池和Future实现超时控制
-                ExecutorService executor = Executors.newSingleThreadExecutor();
-                Future<ByteBuffer> future = executor.submit(() -> {
-                    com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer synthesizer = 
-                        new com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer(param, null);
-                    return synthesizer.call(text);
-                });
-                
-                // 等待结果，设置超时
-                ByteBuffer audio;
-                try {
-                    audio = future.get(TTS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-                } catch (TimeoutException e) {
-                    future.cancel(true);
-                    logger.warn("语音合成aliyun - 使用{}模型超时，正在重试 ({}/{})", voiceName, attempts + 1, MAX_RETRY_ATTEMPTS);
-                    attempts++;
-                    if (attempts >= MAX_RETRY_ATTEMPTS) {
-                        logger.error("语音合成aliyun - 使用{}模型多次超时，放弃重试", voiceName);
-                        executor.shutdownNow();
-                        return StrUtil.EMPTY;
-                    }
-                    // 等待一段时间后重试
-                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                    executor.shutdownNow();
-                    continue;
-                } finally {
-                    executor.shutdownNow();
-                }
-                
-                // 检查返回的ByteBuffer是否为null
-                if (audio == null) {
-                    attempts++;
-                    if (attempts < MAX_RETRY_ATTEMPTS) {
-                        logger.warn("语音合成aliyun - 使用{}模型返回null，正在重试 ({}/{})", voiceName, attempts, MAX_RETRY_ATTEMPTS);
-                        // 等待一段时间后重试
-                        TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                        continue;
-                    } else {
-                        logger.error("语音合成aliyun - 使用{}模型多次返回null，放弃重试", voiceName);
-                        return StrUtil.EMPTY;
-                    }
-                }
-                
-                String outPath = outputPath + getAudioFileName();
-                File file = new File(outPath);
-                try (FileOutputStream fos = new FileOutputStream(file)) {
-                    fos.write(audio.array());
-                } catch (IOException e) {
-                    logger.error("语音合成aliyun -使用{}模型语音合成失败：", voiceName, e);
-                    return StrUtil.EMPTY;
-                }
-                return outPath;
-            } catch (Exception e) {
-                attempts++;
-                if (attempts < MAX_RETRY_ATTEMPTS) {
-                    logger.warn("语音合成aliyun - 使用{}模型失败，正在重试 ({}/{}): {}", voiceName, attempts, MAX_RETRY_ATTEMPTS, e.getMessage());
-                    try {
-                        // 等待一段时间后重试
-                        TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        logger.error("重试等待被中断", ie);
-                        return StrUtil.EMPTY;
-                    }
-                } else {
-                    logger.error("语音合成aliyun -使用{}模型语音合成失败，已达到最大重试次数：", voiceName, e);
-                    return StrUtil.EMPTY;
-                }
-            }
-        }
-        return StrUtil.EMPTY;
-    }
-
-    public String ttsSambert(String text) {
-        int attempts = 0;
-        while (attempts < MAX_RETRY_ATTEMPTS) {
-            try {
-                SpeechSynthesisParam param = SpeechSynthesisParam.builder()
                         .apiKey(apiKey)
-                        .model(voiceName)
-                        .text(text)
-                        .sampleRate(AudioUtils.SAMPLE_RATE)
-                        .format(SpeechSynthesisAudioFormat.WAV)
+                        .model("cosyvoice-v1")
+                        .voice(voiceName)
+                        .format(com.alibaba.dashscope.audio.ttsv2.SpeechSynthesisAudioFormat.WAV_16000HZ_MONO_16BIT)
                         .build();
-                
-                // 使用线程池和Future实现超时控制
-                ExecutorService executor = Executors.newSingleThreadExecutor();
-                Future<ByteBuffer> future = executor.submit(() -> {
-                    SpeechSynthesizer synthesizer = new SpeechSynthesizer();
-                    return synthesizer.call(param);
-                });
-                
-                // 等待结果，设置超时
-                ByteBuffer audio;
-                try {
-                    audio = future.get(TTS_TIMEOUT_SECONDS, TimeUnit.SECONDS);
-                } catch (TimeoutException e) {
-                    future.cancel(true);
-                    logger.warn("语音合成aliyun - 使用{}模型超时，正在重试 ({}/{})", voiceName, attempts + 1, MAX_RETRY_ATTEMPTS);
-                    attempts++;
-                    if (attempts >= MAX_RETRY_ATTEMPTS) {
-                        logger.error("语音合成aliyun - 使用{}模型多次超时，放弃重试", voiceName);
-                        executor.shutdownNow();
-                        return StrUtil.EMPTY;
-                    }
-                    // 等待一段时间后重试
-                    TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                    executor.shutdownNow();
-                    continue;
-                } finally {
-                    executor.shutdownNow();
-                }
-                
-                // 检查返回的ByteBuffer是否为null
-                if (audio == null) {
-                    attempts++;
-                    if (attempts < MAX_RETRY_ATTEMPTS) {
-                        logger.warn("语音合成aliyun - 使用{}模型返回null，正在重试 ({}/{})", voiceName, attempts, MAX_RETRY_ATTEMPTS);
-                        // 等待一段时间后重试
-                        TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                        continue;
-                    } else {
-                        logger.error("语音合成aliyun - 使用{}模型多次返回null，放弃重试", voiceName);
-                        return StrUtil.EMPTY;
-                    }
-                }
-                
-                String outPath = outputPath + getAudioFileName();
-                File file = new File(outPath);
-                try (FileOutputStream fos = new FileOutputStream(file)) {
-                    fos.write(audio.array());
-                } catch (IOException e) {
-                    logger.error("语音合成aliyun - 使用{}模型失败：", voiceName, e);
-                    return StrUtil.EMPTY;
-                }
-                return outPath;
-            } catch (Exception e) {
-                attempts++;
-                if (attempts < MAX_RETRY_ATTEMPTS) {
-                    logger.warn("语音合成aliyun - 使用{}模型失败，正在重试 ({}/{}): {}", voiceName, attempts, MAX_RETRY_ATTEMPTS, e.getMessage());
-                    try {
-                        // 等待一段时间后重试
-                        TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        logger.error("重试等待被中断", ie);
-                        return StrUtil.EMPTY;
-                    }
-                } else {
-                    logger.error("语音合成aliyun - 使用{}模型失败，已达到最大重试次数：", voiceName, e);
-                    return StrUtil.EMPTY;
-                }
-            }
-        }
-        return StrUtil.EMPTY;
+
+        return ProviderRuntime.call("语音合成aliyun - " + voiceName, () -> {
+            com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer synthesizer =
+                    new com.alibaba.dashscope.audio.ttsv2.SpeechSynthesizer(param, null);
+            return synthesizer.call(text);
+        }, RETRY_POLICY);
+    }
+
+    private ByteBuffer ttsSambert(String text) throws Exception {
+        SpeechSynthesisParam param = SpeechSynthesisParam.builder()
+                .apiKey(apiKey)
+                .model(voiceName)
+                .text(text)
+                .sampleRate(AudioUtils.SAMPLE_RATE)
+                .format(SpeechSynthesisAudioFormat.WAV)
+                .build();
+
+        return ProviderRuntime.call("语音合成aliyun - " + voiceName, () -> {
+            SpeechSynthesizer synthesizer = new SpeechSynthesizer();
+            return synthesizer.call(param);
+        }, RETRY_POLICY);
     }
 
-}
\ No newline at end of file
+}
@@ -12,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.xiaozhi.dialogue.tts.TtsService;
+import com.xiaozhi.utils.AudioClip;
 import com.xiaozhi.utils.AudioUtils;
 
 public class EdgeTtsService implements TtsService {
@@ -42,6 +43,24 @@ public class EdgeTtsService implements TtsService {
 
     @Override
     public String textToSpeech(String text) throws Exception {
+        byte[] pcmData = synthesizePcm(text);
+
+        // 将PCM转换回WAV (使用AudioUtils中的设置：16kHz, 单声道, 160kbps)
+        String resampledFileName = AudioUtils.saveAsWav(pcmData);
+
+        // 返回重采样后的文件路径
+        return AudioUtils.AUDIO_PATH + resampledFileName;
+    }
+
+    /**
+     * Edge TTS 只能输出文件，解码为PCM后删除原文件，不再重新写入WAV
+     */
+    @Override
+    public AudioClip synthesize(String text) throws Exception {
+        return AudioClip.ofPcm(synthesizePcm(text));
+    }
+
+    private byte[] synthesizePcm(String text) throws Exception {
         // 获取中文语音
         Voice voiceObj = TTSVoice.provides().stream()
                 .filter(v -> v.getShortName().equals(voiceName))
@@ -59,17 +78,12 @@ public class EdgeTtsService implements TtsService {
 
         String fullPath = outputPath + audioFilePath;
 
-        // 1. 将MP3转换为PCM (已经设置为16kHz采样率和单声道)
+        // 将MP3转换为PCM (已经设置为16kHz采样率和单声道)
         byte[] pcmData = AudioUtils.mp3ToPcm(fullPath);
 
-        // 2. 将PCM转换回WAV (使用AudioUtils中的设置：16kHz, 单声道, 160kbps)
-        String resampledFileName = AudioUtils.saveAsWav(pcmData);
-
-        // 3. 删除原始文件
+        // 删除原始文件
         Files.deleteIfExists(Paths.get(fullPath));
-
-        // 4. 返回重采样后的文件路径
-        return AudioUtils.AUDIO_PATH + resampledFileName;
+        return pcmData;
     }
 
 }
\ No newline at end of file
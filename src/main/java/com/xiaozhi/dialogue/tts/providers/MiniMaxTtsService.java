@@ -5,7 +5,8 @@ import com.fasterxml.jackson.databind.PropertyNamingStrategies;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.entity.SysConfig;
-import com.xiaozhi.utils.HttpUtil;
+import com.xiaozhi.utils.AudioClip;
+import com.xiaozhi.utils.AudioUtils;
 import com.xiaozhi.utils.JsonUtil;
 import lombok.Data;
 import lombok.experimental.Accessors;
@@ -19,6 +20,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HexFormat;
+import java.util.function.Consumer;
 
 @Slf4j
 public class MiniMaxTtsService implements TtsService {
@@ -31,7 +33,7 @@ public class MiniMaxTtsService implements TtsService {
     private final String outputPath;
     private final String voiceName;
 
-    private final OkHttpClient client = HttpUtil.client;
+    private final OkHttpClient client = ProviderRuntime.HTTP;
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
     public MiniMaxTtsService(SysConfig config, String voiceName, String outputPath) {
@@ -51,15 +53,72 @@ public class MiniMaxTtsService implements TtsService {
         return "mp3";
     }
 
+    @Override
+    public boolean isSupportStreamTts() {
+        return true;
+    }
+
     @Override
     public String textToSpeech(String text) throws Exception {
         var output = Paths.get(outputPath, getAudioFileName()).toString();
-        sendRequest(text, output);
+        var bytes = sendRequest(new Text2AudioParams(voiceName, text));
+        if (bytes != null) {
+            Files.write(Paths.get(output), bytes);
+        }
         return output;
     }
 
-    private void sendRequest(String text, String filepath) {
+    /**
+     * 直接请求16kHz PCM，结果保存在内存中
+     */
+    @Override
+    public AudioClip synthesize(String text) throws Exception {
         var params = new Text2AudioParams(voiceName, text);
+        params.getAudioSetting().setFormat("pcm");
+        params.getAudioSetting().setSampleRate(AudioUtils.SAMPLE_RATE);
+        var bytes = sendRequest(params);
+        return bytes == null ? null : AudioClip.ofPcm(bytes);
+    }
+
+    /**
+     * 流式合成，服务端以SSE逐段返回16kHz PCM
+     */
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        var params = new Text2AudioParams(voiceName, text).setStream(true);
+        params.getAudioSetting().setFormat("pcm");
+        params.getAudioSetting().setSampleRate(AudioUtils.SAMPLE_RATE);
+        var request = new Request.Builder()
+                .url("https://api.minimaxi.com/v1/t2a_v2?Groupid=%s".formatted(groupId))
+                .addHeader("Content-Type", "application/json")
+                .addHeader("Authorization", "Bearer %s".formatted(apiKey))
+                .post(RequestBody.create(JsonUtil.toJson(params), JSON))
+                .build();
+
+        try (var resp = client.newCall(request).execute()) {
+            if (!resp.isSuccessful()) {
+                throw new IOException("TTS请求失败 " + resp.body().string());
+            }
+            var source = resp.body().source();
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (!line.startsWith("data:")) {
+                    continue;
+                }
+                var chunk = JsonUtil.fromJson(line.substring(5).trim(), Text2AudioResp.class);
+                if (chunk.baseResp != null && chunk.baseResp.statusCode != 0) {
+                    throw new IOException("TTS失败 %d:%s".formatted(chunk.baseResp.statusCode, chunk.baseResp.statusMsg));
+                }
+                // status 为2的最后一条数据是完整音频，分段已经全部收到，跳过
+                if (chunk.data == null || chunk.data.status() != 1 || chunk.data.audio() == null) {
+                    continue;
+                }
+                audioDataConsumer.accept(HexFormat.of().parseHex(chunk.data.audio()));
+            }
+        }
+    }
+
+    private byte[] sendRequest(Text2AudioParams params) {
         var request = new Request.Builder()
                 .url("https://api.minimaxi.com/v1/t2a_v2?Groupid=%s".formatted(groupId))
                 .addHeader("Content-Type", "application/json")
@@ -71,8 +130,7 @@ public class MiniMaxTtsService implements TtsService {
             if (resp.isSuccessful()) {
                 var respBody = JsonUtil.fromJson(resp.body().string(), Text2AudioResp.class);
                 if (respBody.baseResp.statusCode == 0) {
-                    var bytes = HexFormat.of().parseHex(respBody.data.audio);
-                    Files.write(Paths.get(filepath), bytes);
+                    return HexFormat.of().parseHex(respBody.data.audio);
                 } else {
                     log.error("TTS失败 {}:{}", respBody.baseResp.statusCode, respBody.baseResp.statusMsg);
                 }
@@ -83,6 +141,7 @@ public class MiniMaxTtsService implements TtsService {
             log.error("发送TTS请求时发生错误", e);
             throw new RuntimeException("发送TTS请求失败", e);
         }
+        return null;
     }
 
     @Data
@@ -0,0 +1,159 @@
+package com.xiaozhi.dialogue.tts.providers;
+
+import com.xiaozhi.utils.HttpUtil;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.BufferedSink;
+import okio.Okio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * TTS服务商共享的运行环境
+ * - 虚拟线程执行器：需要超时控制的同步SDK调用在这里执行，不再每次调用创建一个线程池
+ * - HTTP客户端：长连接复用的连接池，同一服务商的连续请求不再重复TCP/TLS握手
+ * - 超时重试：单次调用超时即取消，失败后按指数退避（带随机抖动）重试，避免并发请求同时重试
+ */
+public final class ProviderRuntime {
+    private static final Logger logger = LoggerFactory.getLogger(ProviderRuntime.class);
+
+    // 连接池保留的空闲连接数和空闲时长
+    private static final int MAX_IDLE_CONNECTIONS = 32;
+    private static final long KEEP_ALIVE_MINUTES = 5;
+
+    /**
+     * 虚拟线程执行器
+     */
+    public static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("tts-provider-", 0).factory());
+
+    /**
+     * 共享HTTP客户端，超时设置与 {@link HttpUtil#client} 相同，使用独立的连接池
+     */
+    public static final OkHttpClient HTTP;
+
+    static {
+        Dispatcher dispatcher = new Dispatcher(EXECUTOR);
+        dispatcher.setMaxRequests(256);
+        dispatcher.setMaxRequestsPerHost(64);
+        HTTP = HttpUtil.client.newBuilder()
+                .connectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+                .dispatcher(dispatcher)
+                .build();
+    }
+
+    /**
+     * 重试策略
+     *
+     * @param maxAttempts 最多调用次数（含第一次）
+     * @param timeout     单次调用超时时间
+     * @param backoff     第一次重试前的等待时间，之后每次翻倍
+     * @param budget      所有调用和重试等待的总时长上限，超出后不再重试
+     */
+    public record RetryPolicy(int maxAttempts, Duration timeout, Duration backoff, Duration budget) {
+    }
+
+    private ProviderRuntime() {
+    }
+
+    /**
+     * 在虚拟线程中执行调用，超时或失败时按策略重试
+     *
+     * @param name   调用名称，用于日志
+     * @param action 调用，返回null视为失败
+     * @return 调用结果
+     * @throws Exception 达到最大次数或总时长仍失败时抛出最后一次的错误
+     */
+    public static <T> T call(String name, Callable<T> action, RetryPolicy policy) throws Exception {
+        return call(name, action, policy, deadline(policy));
+    }
+
+    /**
+     * 同上，多个调用共用一个截止时间（{@link System#nanoTime()}），单次超时不超过剩余时间
+     */
+    public static <T> T call(String name, Callable<T> action, RetryPolicy policy, long deadline) throws Exception {
+        Exception last = null;
+        for (int attempt = 1; attempt <= policy.maxAttempts(); attempt++) {
+            long timeoutMs = Math.min(policy.timeout().toMillis(),
+                    TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+            if (timeoutMs <= 0) {
+                break;
+            }
+            Future<T> future = EXECUTOR.submit(action);
+            try {
+                T result = future.get(timeoutMs, TimeUnit.MILLISECONDS);
+                if (result != null) {
+                    return result;
+                }
+                last = new IOException("未返回结果");
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                last = new TimeoutException("超时（" + timeoutMs + "ms）");
+            } catch (ExecutionException e) {
+                last = e.getCause() instanceof Exception cause ? cause : e;
+            }
+            if (attempt < policy.maxAttempts()) {
+                long delay = backoff(policy.backoff(), attempt);
+                if (System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay) >= deadline) {
+                    break;
+                }
+                logger.warn("{} 失败，正在重试 ({}/{}): {}", name, attempt, policy.maxAttempts(), last.getMessage());
+                Thread.sleep(delay);
+            }
+        }
+        if (last == null) {
+            last = new TimeoutException("超出总时长（" + policy.budget().toMillis() + "ms）");
+        }
+        logger.error("{} 失败，已达到最大重试次数或总时长: {}", name, last.getMessage());
+        throw last;
+    }
+
+    /**
+     * 从现在开始按策略总时长计算的截止时间
+     */
+    public static long deadline(RetryPolicy policy) {
+        return System.nanoTime() + policy.budget().toNanos();
+    }
+
+    /**
+     * 下载文件到本地
+     *
+     * @param timeout 整个下载过程的超时时间
+     */
+    public static void download(String url, File file, Duration timeout) throws IOException {
+        Call call = HTTP.newCall(new Request.Builder().url(url).build());
+        call.timeout().timeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        try (Response response = call.execute()) {
+            if (!response.isSuccessful()) {
+                throw new IOException("下载失败: " + response.code() + " " + url);
+            }
+            try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+                sink.writeAll(response.body().source());
+            }
+        }
+    }
+
+    /**
+     * 第n次重试前的等待时间：backoff * 2^(n-1)，随机取其一半到全部，避免同时失败的请求同时重试
+     */
+    private static long backoff(Duration backoff, int attempt) {
+        long max = backoff.toMillis() << Math.min(attempt - 1, 10);
+        return max / 2 + ThreadLocalRandom.current().nextLong(max / 2 + 1);
+    }
+}
@@ -4,25 +4,42 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.xiaozhi.dialogue.tts.TtsService;
 import com.xiaozhi.entity.SysConfig;
+import com.xiaozhi.utils.AudioClip;
 import com.xiaozhi.utils.AudioUtils;
-import com.xiaozhi.utils.HttpUtil;
 
 import okhttp3.*;
+import okio.ByteString;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class VolcengineTtsService implements TtsService {
     private static final Logger logger = LoggerFactory.getLogger(VolcengineTtsService.class);
 
     private static final String PROVIDER_NAME = "volcengine";
     private static final String API_URL = "https://openspeech.bytedance.com/api/v1/tts";
+    private static final String WS_URL = "wss://openspeech.bytedance.com/api/v1/tts/ws_binary";
     private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
 
+    // 二进制协议头：版本1、头长度4字节；完整客户端请求；JSON序列化、不压缩
+    private static final byte[] CLIENT_REQUEST_HEADER = {0x11, 0x10, 0x10, 0x00};
+    // 服务端消息类型
+    private static final int MESSAGE_AUDIO_ONLY = 0xB;
+    private static final int MESSAGE_ERROR = 0xF;
+    // 流式合成整句超时时间（秒）
+    private static final long STREAM_TIMEOUT_SECONDS = 60;
+
     // 音频名称
     private String voiceName;
 
@@ -33,7 +50,7 @@ public class VolcengineTtsService implements TtsService {
     private String appId;
     private String accessToken; // 对应 apiKey
 
-    private final OkHttpClient client = HttpUtil.client;
+    private final OkHttpClient client = ProviderRuntime.HTTP;
 
     public VolcengineTtsService(SysConfig config, String voiceName, String outputPath) {
         this.voiceName = voiceName;
@@ -47,6 +64,11 @@ public class VolcengineTtsService implements TtsService {
         return PROVIDER_NAME;
     }
 
+    @Override
+    public boolean isSupportStreamTts() {
+        return true;
+    }
+
     @Override
     public String textToSpeech(String text) throws Exception {
         if (text == null || text.isEmpty()) {
@@ -60,58 +82,185 @@ public class VolcengineTtsService implements TtsService {
             String audioFilePath = outputPath + audioFileName;
 
             // 发送POST请求
-            boolean success = sendRequest(text, audioFilePath);
-
-            if (success) {
-                return audioFilePath;
-            } else {
+            byte[] audioData = sendRequest(text, "wav");
+            if (audioData == null) {
                 throw new Exception("语音合成失败");
             }
+
+            // 保存音频文件
+            File audioFile = new File(audioFilePath);
+            try (FileOutputStream fout = new FileOutputStream(audioFile)) {
+                fout.write(audioData);
+            }
+            return audioFilePath;
         } catch (Exception e) {
             logger.error("语音合成时发生错误！", e);
             throw e;
         }
     }
 
+    /**
+     * 直接请求16kHz PCM，结果保存在内存中
+     */
+    @Override
+    public AudioClip synthesize(String text) throws Exception {
+        if (text == null || text.isEmpty()) {
+            logger.warn("文本内容为空！");
+            return null;
+        }
+        byte[] pcm = sendRequest(text, "pcm");
+        if (pcm == null) {
+            throw new Exception("语音合成失败");
+        }
+        return AudioClip.ofPcm(pcm);
+    }
+
+    /**
+     * 通过WebSocket二进制协议流式合成，服务端每返回一段PCM即交给消费者
+     */
+    @Override
+    public void streamTextToSpeech(String text, Consumer<byte[]> audioDataConsumer) throws Exception {
+        if (text == null || text.isEmpty()) {
+            logger.warn("文本内容为空！");
+            return;
+        }
+
+        byte[] payload = buildRequest(text, "pcm", "submit").toString().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer message = ByteBuffer.allocate(CLIENT_REQUEST_HEADER.length + 4 + payload.length);
+        message.put(CLIENT_REQUEST_HEADER).putInt(payload.length).put(payload);
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        Request request = new Request.Builder()
+                .url(WS_URL)
+                .addHeader("Authorization", "Bearer; " + accessToken)
+                .build();
+
+        WebSocket webSocket = client.newWebSocket(request, new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.send(ByteString.of(message.array()));
+            }
+
+            @Override
+            public void onMessage(WebSocket webSocket, ByteString bytes) {
+                try {
+                    if (handleStreamMessage(bytes.toByteArray(), audioDataConsumer)) {
+                        done.complete(null);
+                    }
+                } catch (Exception e) {
+                    done.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                done.completeExceptionally(t);
+            }
+
+            @Override
+            public void onClosed(WebSocket webSocket, int code, String reason) {
+                done.completeExceptionally(new IOException("连接已关闭: " + code + " " + reason));
+            }
+        });
+
+        try {
+            done.get(STREAM_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            logger.error("流式语音合成失败: {}", e.getCause().getMessage());
+            throw new Exception("流式语音合成失败", e.getCause());
+        } finally {
+            webSocket.close(1000, null);
+        }
+    }
+
+    /**
+     * 解析服务端二进制消息
+     *
+     * @return 是否为最后一段音频
+     */
+    private boolean handleStreamMessage(byte[] data, Consumer<byte[]> audioDataConsumer) throws IOException {
+        int headerSize = (data[0] & 0x0F) * 4;
+        int messageType = (data[1] & 0xFF) >> 4;
+        int flags = data[1] & 0x0F;
+        ByteBuffer payload = ByteBuffer.wrap(data, headerSize, data.length - headerSize);
+
+        if (messageType == MESSAGE_AUDIO_ONLY) {
+            if (flags == 0) {
+                // 不带序号的确认消息
+                return false;
+            }
+            int sequence = payload.getInt();
+            int size = payload.getInt();
+            if (size > 0) {
+                byte[] audio = new byte[size];
+                payload.get(audio);
+                audioDataConsumer.accept(audio);
+            }
+            // 序号为负表示最后一段
+            return sequence < 0;
+        }
+        if (messageType == MESSAGE_ERROR) {
+            int code = payload.getInt();
+            int size = payload.getInt();
+            String errorMessage = new String(data, payload.position(), size, StandardCharsets.UTF_8);
+            throw new IOException("TTS返回错误: code=" + code + ", message=" + errorMessage);
+        }
+        return false;
+    }
+
+    /**
+     * 构建请求参数
+     *
+     * @param encoding  音频编码，wav/pcm/mp3
+     * @param operation query 为一次性返回，submit 为流式返回
+     */
+    private JsonObject buildRequest(String text, String encoding, String operation) {
+        JsonObject requestJson = new JsonObject();
+
+        // app部分
+        JsonObject app = new JsonObject();
+        app.addProperty("appid", appId);
+        app.addProperty("token", accessToken);
+        app.addProperty("cluster", "volcano_tts");
+        requestJson.add("app", app);
+
+        // user部分
+        JsonObject user = new JsonObject();
+        user.addProperty("uid", UUID.randomUUID().toString());
+        requestJson.add("user", user);
+
+        // audio部分
+        JsonObject audio = new JsonObject();
+        audio.addProperty("voice_type", voiceName);
+        audio.addProperty("encoding", encoding);
+        audio.addProperty("speed_ratio", 1.0);
+        audio.addProperty("volume_ratio", 1.0);
+        audio.addProperty("pitch_ratio", 1.0);
+        audio.addProperty("rate", AudioUtils.SAMPLE_RATE);
+        requestJson.add("audio", audio);
+
+        // request部分
+        JsonObject request_JsonObject = new JsonObject();
+        request_JsonObject.addProperty("reqid", UUID.randomUUID().toString());
+        request_JsonObject.addProperty("text", text);
+        request_JsonObject.addProperty("text_type", "plain");
+        request_JsonObject.addProperty("operation", operation);
+        request_JsonObject.addProperty("with_frontend", 1);
+        request_JsonObject.addProperty("frontend_type", "unitTson");
+        requestJson.add("request", request_JsonObject);
+        return requestJson;
+    }
+
     /**
      * 发送POST请求到火山引擎API，获取语音合成结果
+     *
+     * @param encoding 音频编码
+     * @return 音频数据，失败返回null
      */
-    private boolean sendRequest(String text, String audioFilePath) throws Exception {
+    private byte[] sendRequest(String text, String encoding) throws Exception {
         try {
             // 构建请求参数
-            JsonObject requestJson = new JsonObject();
-
-            // app部分
-            JsonObject app = new JsonObject();
-            app.addProperty("appid", appId);
-            app.addProperty("token", accessToken);
-            app.addProperty("cluster", "volcano_tts");
-            requestJson.add("app", app);
-
-            // user部分
-            JsonObject user = new JsonObject();
-            user.addProperty("uid", UUID.randomUUID().toString());
-            requestJson.add("user", user);
-
-            // audio部分
-            JsonObject audio = new JsonObject();
-            audio.addProperty("voice_type", voiceName);
-            audio.addProperty("encoding", "wav");
-            audio.addProperty("speed_ratio", 1.0);
-            audio.addProperty("volume_ratio", 1.0);
-            audio.addProperty("pitch_ratio", 1.0);
-            audio.addProperty("rate", AudioUtils.SAMPLE_RATE);
-            requestJson.add("audio", audio);
-
-            // request部分
-            JsonObject request_JsonObject = new JsonObject();
-            request_JsonObject.addProperty("reqid", UUID.randomUUID().toString());
-            request_JsonObject.addProperty("text", text);
-            request_JsonObject.addProperty("text_type", "plain");
-            request_JsonObject.addProperty("operation", "query");
-            request_JsonObject.addProperty("with_frontend", 1);
-            request_JsonObject.addProperty("frontend_type", "unitTson");
-            requestJson.add("request", request_JsonObject);
+            JsonObject requestJson = buildRequest(text, encoding, "query");
 
             // 使用Bearer Token鉴权方式
             String bearerToken = "Bearer; " + accessToken; // 注意分号是火山引擎的特殊格式
@@ -130,7 +279,7 @@ public class VolcengineTtsService implements TtsService {
                 if (!response.isSuccessful()) {
                     String errorBody = response.body() != null ? response.body().string() : "无响应体";
                     logger.error("TTS请求失败: {} {}, 错误信息: {}, 原始内容: {}", response.code(), response.message(), errorBody, text);
-                    return false;
+                    return null;
                 }
 
                 // 解析响应
@@ -143,28 +292,20 @@ public class VolcengineTtsService implements TtsService {
                         logger.error("TTS请求返回错误: code={}, message={}",
                                 jsonResponse.get("code").getAsInt(),
                                 jsonResponse.get("message").getAsString());
-                        return false;
+                        return null;
                     }
 
                     // 获取音频数据
                     if (jsonResponse.has("data")) {
                         String base64Audio = jsonResponse.get("data").getAsString();
-                        byte[] audioData = Base64.getDecoder().decode(base64Audio);
-
-                        // 保存音频文件
-                        File audioFile = new File(audioFilePath);
-                        try (FileOutputStream fout = new FileOutputStream(audioFile)) {
-                            fout.write(audioData);
-                        }
-
-                        return true;
+                        return Base64.getDecoder().decode(base64Audio);
                     } else {
                         logger.error("TTS响应中未找到音频数据: {}", responseBody);
-                        return false;
+                        return null;
                     }
                 } else {
                     logger.error("TTS响应体为空");
-                    return false;
+                    return null;
                 }
             }
         } catch (Exception e) {
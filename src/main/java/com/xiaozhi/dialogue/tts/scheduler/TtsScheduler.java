@@ -0,0 +1,478 @@
+package com.xiaozhi.dialogue.tts.scheduler;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * TTS请求调度器
+ * 服务商的并发和QPS限制是按账号（即一个服务商配置）计算的，所有会话共享；只按会话限流时，多个会话同时回复会超出账号额度，
+ * 请求被服务商拒绝后再重试，重试又进一步挤占额度。调度器为每个额度标识（{@code 服务商:配置ID}）维护一个队列：
+ * - 并发：同时进行的合成请求不超过 {@code tts.scheduler.<服务商>.max-concurrent}
+ * - QPS：令牌桶限制每秒发起的请求数 {@code tts.scheduler.<服务商>.qps}，0表示不限制
+ * - 公平：各会话的句子轮流出队，单个会话同时最多占用 {@code max-concurrent-per-session} 个名额，长回复不会挤占其他会话
+ * - 首句优先：每次回复的首句进入优先队列，不受单会话名额限制，先于所有普通句子出队，首句延迟不随排队长度增长
+ *
+ * 名额按服务商调用的实际执行时间占用：调用方超时或取消时中断执行调用的线程，但名额保留到调用真正返回，
+ * 服务商那边仍在处理的请求始终计入并发数，不会因为调用方放弃等待而超出额度。
+ *
+ * 排队时间记录在 tts.scheduler.wait 直方图中。
+ */
+@Component
+public class TtsScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(TtsScheduler.class);
+
+    private static final String DEFAULT_PROVIDER = "default";
+
+    /**
+     * 句子优先级
+     */
+    public enum Priority {
+        // 回复的首句，优先于所有会话的普通句子
+        FIRST,
+        // 重试的句子，排在本会话队列最前
+        RETRY,
+        // 普通句子，按提交顺序
+        NORMAL
+    }
+
+    @Value("${tts.scheduler.max-concurrent-per-session:3}")
+    private int maxConcurrentPerSession;
+
+    @Resource
+    private Environment environment;
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    private MeterRegistry registry;
+
+    // 额度标识 -> 队列
+    private final Map<String, Quota> quotas = new ConcurrentHashMap<>();
+
+    /**
+     * 额度使用情况
+     */
+    public record QuotaStats(int maxConcurrent, double qps, int running, int queued) {
+    }
+
+    private record Ticket(String sessionId, Priority priority, Job<?> job, long enqueueNanos) {
+    }
+
+    /**
+     * 一次服务商调用
+     * CompletableFuture 的 cancel 不会中断执行中的调用，这里记录执行调用的线程，
+     * 结果被取消或超时时中断该线程（虚拟线程上阻塞的Socket读写和等待随之结束）
+     */
+    private static final class Job<T> {
+        private final Callable<T> action;
+        private final long timeoutMs;
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+
+        // 执行调用的线程，调用返回后置空
+        private Thread thread;
+        private T value;
+        private Throwable error;
+
+        private Job(Callable<T> action, long timeoutMs) {
+            this.action = action;
+            this.timeoutMs = timeoutMs;
+            result.whenComplete((v, e) -> {
+                if (e != null) {
+                    interrupt();
+                }
+            });
+        }
+
+        private boolean isDone() {
+            return result.isDone();
+        }
+
+        /**
+         * 在当前线程执行调用，结果暂存，名额释放后再由 {@link #complete()} 交给调用方
+         */
+        private void call() {
+            synchronized (this) {
+                if (result.isDone()) {
+                    // 排队期间已取消
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            if (timeoutMs > 0) {
+                CompletableFuture.delayedExecutor(timeoutMs, TimeUnit.MILLISECONDS).execute(() ->
+                        result.completeExceptionally(new TimeoutException("TTS调用超时（" + timeoutMs + "ms）")));
+            }
+            try {
+                value = action.call();
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // 清除调用返回后才到达的中断
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        private void complete() {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(value);
+            }
+        }
+
+        private synchronized void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * 一个会话在某个额度下的排队句子
+     */
+    private static final class SessionQueue {
+        private final ArrayDeque<Ticket> tickets = new ArrayDeque<>();
+        private int running = 0;
+        private boolean inRing = false;
+    }
+
+    /**
+     * 一个服务商账号的额度和排队句子，所有字段在 lock 内访问
+     */
+    private final class Quota {
+        private final String key;
+        private final int maxConcurrent;
+        private final double qps;
+        private final double burst;
+        private final ReentrantLock lock = new ReentrantLock();
+
+        // 首句队列，按提交顺序
+        private final ArrayDeque<Ticket> firsts = new ArrayDeque<>();
+        // 有普通句子排队的会话，轮流出队
+        private final ArrayDeque<SessionQueue> ring = new ArrayDeque<>();
+        private final Map<String, SessionQueue> sessions = new HashMap<>();
+
+        private int running = 0;
+        private int queued = 0;
+        private double tokens;
+        private long refillNanos = System.nanoTime();
+        private boolean wakeupScheduled = false;
+
+        private final Timer firstWait;
+        private final Timer normalWait;
+
+        private Quota(String key, int maxConcurrent, double qps) {
+            this.key = key;
+            this.maxConcurrent = maxConcurrent;
+            this.qps = qps;
+            this.burst = Math.max(1, qps);
+            this.tokens = burst;
+            this.firstWait = waitTimer(key, "first");
+            this.normalWait = waitTimer(key, "normal");
+            Gauge.builder("tts.scheduler.running", this, q -> q.stats().running())
+                    .tag("quota", key).register(registry);
+            Gauge.builder("tts.scheduler.queued", this, q -> q.stats().queued())
+                    .tag("quota", key).register(registry);
+        }
+
+        private void submit(Ticket ticket) {
+            lock.lock();
+            try {
+                SessionQueue session = sessions.computeIfAbsent(ticket.sessionId(), k -> new SessionQueue());
+                switch (ticket.priority()) {
+                    case FIRST -> firsts.add(ticket);
+                    case RETRY -> session.tickets.addFirst(ticket);
+                    default -> session.tickets.add(ticket);
+                }
+                if (ticket.priority() != Priority.FIRST && !session.inRing) {
+                    session.inRing = true;
+                    ring.add(session);
+                }
+                queued++;
+            } finally {
+                lock.unlock();
+            }
+            drain();
+        }
+
+        /**
+         * 在额度允许的范围内发起排队的请求
+         */
+        private void drain() {
+            List<Ticket> started = new ArrayList<>();
+            lock.lock();
+            try {
+                while (running < maxConcurrent && queued > 0) {
+                    if (qps > 0) {
+                        refill(System.nanoTime());
+                        if (tokens < 1) {
+                            scheduleWakeup((long) ((1 - tokens) / qps * TimeUnit.SECONDS.toNanos(1)));
+                            break;
+                        }
+                    }
+                    Ticket ticket = pollNext();
+                    if (ticket == null) {
+                        // 排队的会话都已占满单会话名额，或排队的调用都已取消
+                        break;
+                    }
+                    if (qps > 0) {
+                        tokens -= 1;
+                    }
+                    running++;
+                    queued--;
+                    sessions.get(ticket.sessionId()).running++;
+                    started.add(ticket);
+                }
+            } finally {
+                lock.unlock();
+            }
+            for (Ticket ticket : started) {
+                long waited = System.nanoTime() - ticket.enqueueNanos();
+                (ticket.priority() == Priority.FIRST ? firstWait : normalWait).record(waited, TimeUnit.NANOSECONDS);
+                Thread.startVirtualThread(() -> run(ticket));
+            }
+        }
+
+        private Ticket pollNext() {
+            removeCancelled(firsts);
+            Ticket first = firsts.poll();
+            if (first != null) {
+                return first;
+            }
+            for (int i = ring.size(); i > 0; i--) {
+                SessionQueue session = ring.poll();
+                removeCancelled(session.tickets);
+                if (session.tickets.isEmpty()) {
+                    session.inRing = false;
+                    continue;
+                }
+                if (session.running >= maxConcurrentPerSession) {
+                    ring.add(session);
+                    continue;
+                }
+                Ticket ticket = session.tickets.poll();
+                if (session.tickets.isEmpty()) {
+                    session.inRing = false;
+                } else {
+                    ring.add(session);
+                }
+                return ticket;
+            }
+            return null;
+        }
+
+        /**
+         * 移除排队期间已取消的调用，不占用名额和令牌
+         */
+        private void removeCancelled(ArrayDeque<Ticket> tickets) {
+            List<String> removed = null;
+            for (Iterator<Ticket> it = tickets.iterator(); it.hasNext(); ) {
+                Ticket ticket = it.next();
+                if (ticket.job().isDone()) {
+                    it.remove();
+                    queued--;
+                    if (removed == null) {
+                        removed = new ArrayList<>();
+                    }
+                    removed.add(ticket.sessionId());
+                }
+            }
+            if (removed == null) {
+                return;
+            }
+            // 会话排队的调用全部取消、也没有执行中的调用时移除会话
+            for (String sessionId : removed) {
+                SessionQueue session = sessions.get(sessionId);
+                if (session != null) {
+                    removeIfIdle(sessionId, session);
+                }
+            }
+        }
+
+        private void run(Ticket ticket) {
+            try {
+                // 调用返回后才释放名额
+                ticket.job().call();
+            } finally {
+                lock.lock();
+                try {
+                    running--;
+                    SessionQueue session = sessions.get(ticket.sessionId());
+                    if (session != null) {
+                        session.running--;
+                        removeIfIdle(ticket.sessionId(), session);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                drain();
+                ticket.job().complete();
+            }
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(burst, tokens + (now - refillNanos) * qps / TimeUnit.SECONDS.toNanos(1));
+            refillNanos = now;
+        }
+
+        private void scheduleWakeup(long delayNanos) {
+            if (wakeupScheduled) {
+                return;
+            }
+            wakeupScheduled = true;
+            CompletableFuture.delayedExecutor(Math.max(1, delayNanos), TimeUnit.NANOSECONDS).execute(() -> {
+                lock.lock();
+                try {
+                    wakeupScheduled = false;
+                } finally {
+                    lock.unlock();
+                }
+                drain();
+            });
+        }
+
+        private void cancel(String sessionId) {
+            lock.lock();
+            try {
+                int before = firsts.size();
+                firsts.removeIf(ticket -> {
+                    if (ticket.sessionId().equals(sessionId)) {
+                        ticket.job().result.cancel(false);
+                        return true;
+                    }
+                    return false;
+                });
+                queued -= before - firsts.size();
+                SessionQueue session = sessions.get(sessionId);
+                if (session != null) {
+                    queued -= session.tickets.size();
+                    session.tickets.forEach(ticket -> ticket.job().result.cancel(false));
+                    // 轮转队列中的会话在下次出队时移除
+                    session.tickets.clear();
+                    removeIfIdle(sessionId, session);
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void removeIfIdle(String sessionId, SessionQueue session) {
+            if (session.running <= 0 && session.tickets.isEmpty()
+                    && firsts.stream().noneMatch(ticket -> ticket.sessionId().equals(sessionId))) {
+                sessions.remove(sessionId);
+            }
+        }
+
+        private QuotaStats stats() {
+            lock.lock();
+            try {
+                return new QuotaStats(maxConcurrent, qps, running, queued);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        registry = meterRegistry != null ? meterRegistry : new SimpleMeterRegistry();
+    }
+
+    /**
+     * 提交一次服务商调用，额度允许时在虚拟线程中执行
+     * 取消返回的Future时，排队中的调用不再执行，执行中的调用被中断；超时同样中断调用。
+     * 两种情况下名额都保留到调用真正返回。
+     *
+     * @param quotaKey  额度标识，见 {@link com.xiaozhi.dialogue.tts.TtsService#getQuotaKey()}
+     * @param sessionId 会话ID，用于公平排队
+     * @param priority  优先级
+     * @param timeoutMs 从开始执行起的超时时间，超时后Future以 TimeoutException 结束，不大于0时不限制
+     * @param action    服务商调用，阻塞到合成结束
+     * @return 调用结果
+     */
+    public <T> CompletableFuture<T> submit(String quotaKey, String sessionId, Priority priority, long timeoutMs,
+            Callable<T> action) {
+        Job<T> job = new Job<>(action, timeoutMs);
+        quota(quotaKey).submit(new Ticket(sessionId, priority, job, System.nanoTime()));
+        return job.result;
+    }
+
+    /**
+     * 取消会话所有排队中的调用（Future被取消），已开始的调用不受影响
+     */
+    public void cancelSession(String sessionId) {
+        for (Quota quota : quotas.values()) {
+            quota.cancel(sessionId);
+        }
+    }
+
+    /**
+     * 各额度的使用情况
+     */
+    public Map<String, QuotaStats> getStats() {
+        Map<String, QuotaStats> stats = new LinkedHashMap<>();
+        quotas.forEach((key, quota) -> stats.put(key, quota.stats()));
+        return stats;
+    }
+
+    private Quota quota(String quotaKey) {
+        return quotas.computeIfAbsent(quotaKey, key -> {
+            String provider = key.contains(":") ? key.substring(0, key.indexOf(':')) : key;
+            int maxConcurrent = Math.max(1, limit(provider, "max-concurrent", 8).intValue());
+            double qps = Math.max(0, limit(provider, "qps", 0).doubleValue());
+            logger.info("TTS额度初始化 - 额度: {}, 最大并发: {}, QPS: {}", key, maxConcurrent, qps > 0 ? qps : "不限");
+            return new Quota(key, maxConcurrent, qps);
+        });
+    }
+
+    /**
+     * 读取服务商的额度配置，未配置时使用 tts.scheduler.default 下的配置
+     */
+    private Number limit(String provider, String name, Number defaultValue) {
+        Double value = environment.getProperty("tts.scheduler." + provider + "." + name, Double.class);
+        if (value == null) {
+            value = environment.getProperty("tts.scheduler." + DEFAULT_PROVIDER + "." + name, Double.class);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    private Timer waitTimer(String quotaKey, String priority) {
+        return Timer.builder("tts.scheduler.wait")
+                .description("TTS请求排队等待时间")
+                .tag("quota", quotaKey)
+                .tag("priority", priority)
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry);
+    }
+}
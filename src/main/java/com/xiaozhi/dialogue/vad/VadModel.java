@@ -17,11 +17,38 @@ public interface VadModel {
      */
     float getSpeechProbability(float[] samples);
 
+    /**
+     * 获取指定会话的语音概率，每个会话维护独立的模型状态
+     * 
+     * @param sessionId 会话ID
+     * @param samples   音频样本数据
+     * @return 语音概率 (0.0-1.0)
+     */
+    float getSpeechProbability(String sessionId, float[] samples);
+
+    /**
+     * 以hop为步长在样本上滑动窗口，按顺序推理并返回最大语音概率
+     * 
+     * @param sessionId 会话ID
+     * @param samples   音频样本数据
+     * @param length    有效样本数
+     * @param hop       窗口步长
+     * @return 最大语音概率 (0.0-1.0)，推理失败或超时时为0
+     */
+    float getMaxSpeechProbability(String sessionId, float[] samples, int length, int hop);
+
     /**
      * 重置模型状态
      */
     void reset();
 
+    /**
+     * 释放指定会话的模型状态
+     * 
+     * @param sessionId 会话ID
+     */
+    void resetSession(String sessionId);
+
     /**
      * 关闭模型资源
      */
@@ -15,25 +15,89 @@ import com.xiaozhi.utils.AudioUtils;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Silero VAD模型实现
+ *
+ * 每个会话持有独立的RNN状态，不同会话的推理窗口在一个很短的tick内被收集起来，
+ * 合并为一次批量的 OrtSession.run 调用（input [N,512]，state [2,N,128]），
+ * 推理完成后再把概率和新状态分发回各个会话。
+ *
+ * 开启零分配模式（vad.zero-alloc.enabled）时，输入输出张量建立在预分配的直接内存上并按批大小缓存复用，
+ * 窗口直接从调用方的样本数组拷贝进张量，模型推理本身不再产生新的数组和张量。
+ * 只覆盖推理这一段：VadService每帧交给下游的PCM数组和AGC的输出仍是新分配的。
+ *
+ * 每个会话复用同一个推理请求对象，调用方park等待推理线程唤醒，批量推理的轮次列表也按线程复用，
+ * 每帧不再分配请求、Future和集合。
  */
 @Component
 public class SileroVadModel implements VadModel {
     private static final Logger logger = LoggerFactory.getLogger(SileroVadModel.class);
 
+    // 兼容旧接口（不带会话ID）时使用的会话键
+    private static final String DEFAULT_SESSION = "__default__";
+
+    // RNN状态维度
+    private static final int STATE_SIZE = 128;
+
+    // 等待批量推理结果的超时时间
+    private static final long INFERENCE_TIMEOUT_MS = 1000;
+
     @Value("${vad.model.path:models/silero_vad.onnx}")
     private String modelPath;
 
+    // 是否启用跨会话批量推理
+    @Value("${vad.batch.enabled:true}")
+    private boolean batchEnabled;
+
+    // 批量收集窗口（毫秒）
+    @Value("${vad.batch.tick-ms:2}")
+    private int batchTickMs;
+
+    // 单批最大会话数
+    @Value("${vad.batch.max-size:64}")
+    private int maxBatchSize;
+
+    // 批量推理工作线程数，0表示按CPU核数自动计算
+    @Value("${vad.batch.workers:0}")
+    private int batchWorkers;
+
+    // 是否复用直接内存张量
+    @Value("${vad.zero-alloc.enabled:true}")
+    private boolean zeroAlloc;
+
     private OrtEnvironment env;
     private OrtSession session;
-    private float[][][] state;
-    private float[][] context;
+    private OnnxTensor srTensor;
+    private String probOutputName;
+    private String stateOutputName;
     private final int windowSize = 512; // 16kHz的窗口大小
 
+    // 每个会话独立的RNN状态
+    private final ConcurrentHashMap<String, SessionState> sessionStates = new ConcurrentHashMap<>();
+
+    // 等待批量推理的请求
+    private final LinkedBlockingQueue<InferenceRequest> pending = new LinkedBlockingQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private volatile boolean running = false;
+
+    // 推理轮次编号，用来标记会话在本轮是否已有窗口
+    private final AtomicLong rounds = new AtomicLong();
+
     @PostConstruct
     @Override
     public void initialize() {
@@ -49,72 +113,332 @@ public class SileroVadModel implements VadModel {
             // 创建会话
             session = env.createSession(modelPath, opts);
 
+            // 输出依次为语音概率和新状态
+            List<String> outputNames = new ArrayList<>(session.getOutputNames());
+            probOutputName = outputNames.get(0);
+            stateOutputName = outputNames.get(1);
+
+            // 采样率是常量，张量只创建一次
+            srTensor = OnnxTensor.createTensor(env, new long[] { AudioUtils.SAMPLE_RATE });
+
             // 初始化状态
             reset();
 
-            logger.info("Silero VAD模型初始化成功");
+            if (batchEnabled) {
+                startWorkers();
+            }
+
+            logger.info("Silero VAD模型初始化成功，批量推理: {}, 工作线程: {}, 零分配模式: {}",
+                    batchEnabled, workers.size(), zeroAlloc);
         } catch (OrtException e) {
             logger.error("Silero VAD模型初始化失败", e);
             throw new RuntimeException("VAD模型初始化失败", e);
         }
     }
 
+    /**
+     * 启动批量推理线程，推理本身是CPU密集型的本地调用，使用平台线程
+     */
+    private void startWorkers() {
+        int count = batchWorkers > 0 ? batchWorkers : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        running = true;
+        for (int i = 0; i < count; i++) {
+            workers.add(Thread.ofPlatform().daemon().name("vad-batch-" + i).start(this::batchLoop));
+        }
+    }
+
     @Override
     public float getSpeechProbability(float[] samples) {
+        return getSpeechProbability(DEFAULT_SESSION, samples);
+    }
+
+    @Override
+    public float getSpeechProbability(String sessionId, float[] samples) {
+        if (samples.length != windowSize) {
+            throw new IllegalArgumentException("样本数量必须是" + windowSize);
+        }
+        return getMaxSpeechProbability(sessionId, samples, samples.length, windowSize);
+    }
+
+    /**
+     * 以hop为步长在样本上滑动512窗口，按顺序推理并返回最大语音概率。
+     * 窗口直接从samples拷贝进推理张量，不足512的部分补零，调用方可以复用samples数组。
+     *
+     * @param sessionId 会话ID
+     * @param samples   样本数组
+     * @param length    有效样本数
+     * @param hop       窗口步长
+     * @return 最大语音概率，推理失败时为0
+     */
+    @Override
+    public float getMaxSpeechProbability(String sessionId, float[] samples, int length, int hop) {
+        if (length <= 0) {
+            return 0.0f;
+        }
+
+        SessionState state = sessionStates.computeIfAbsent(sessionId, k -> new SessionState());
+        InferenceRequest request = state.acquire();
+        boolean abandoned = false;
+
         try {
-            if (samples.length != windowSize) {
-                throw new IllegalArgumentException("样本数量必须是" + windowSize);
+            if (!running) {
+                // 未启用批量推理时直接在调用线程上推理，零分配模式下使用会话自己的张量
+                // 调用方是虚拟线程，用ReentrantLock而不是synchronized，推理期间不占住载体线程
+                request.prepare(samples, length, hop, null);
+                state.lock.lock();
+                try {
+                    state.batch.add(request);
+                    if (zeroAlloc) {
+                        if (state.buffers == null) {
+                            state.buffers = new InferenceBuffers(1);
+                        }
+                        runBatch(state.batch, state.round, state.buffers);
+                    } else {
+                        runBatch(state.batch, state.round, null);
+                    }
+                } finally {
+                    state.batch.clear();
+                    state.lock.unlock();
+                }
+                return request.maxProb;
             }
 
-            // 准备输入数据
-            float[][] x = new float[][] { samples };
+            request.prepare(samples, length, hop, Thread.currentThread());
+            pending.offer(request);
+            if (!request.await(INFERENCE_TIMEOUT_MS)) {
+                // 放弃这一帧：还没被取走的直接移出队列，已在推理中的不再写回会话状态，
+                // 避免和该会话的下一帧同时修改RNN状态；推理线程可能仍持有该请求，不再复用
+                request.cancel();
+                pending.remove(request);
+                abandoned = true;
+                logger.warn("VAD模型推理超时，丢弃本帧 - SessionId: {}", sessionId);
+                return 0.0f;
+            }
+            if (request.error != null) {
+                logger.error("VAD模型推理失败 - SessionId: {}", sessionId, request.error);
+                return 0.0f;
+            }
+            return request.maxProb;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.cancel();
+            pending.remove(request);
+            abandoned = true;
+            return 0.0f;
+        } catch (Exception e) {
+            logger.error("VAD模型推理失败 - SessionId: {}", sessionId, e);
+            return 0.0f;
+        } finally {
+            state.release(request, abandoned);
+        }
+    }
 
-            // 创建输入张量
-            OnnxTensor inputTensor = OnnxTensor.createTensor(env, x);
-            OnnxTensor stateTensor = OnnxTensor.createTensor(env, state);
-            OnnxTensor srTensor = OnnxTensor.createTensor(env, new long[] { AudioUtils.SAMPLE_RATE });
+    /**
+     * 批量推理线程主循环：取到第一个请求后等待一个tick，把这段时间内其他会话提交的请求一起推理
+     */
+    private void batchLoop() {
+        List<InferenceRequest> batch = new ArrayList<>(maxBatchSize);
+        List<InferenceRequest> round = new ArrayList<>(maxBatchSize);
+        InferenceBuffers buffers = zeroAlloc ? new InferenceBuffers(maxBatchSize) : null;
+        try {
+            while (running) {
+                try {
+                    InferenceRequest first = pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    if (batchTickMs > 0) {
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(batchTickMs));
+                    }
+                    pending.drainTo(batch, maxBatchSize - 1);
+                    runBatch(batch, round, buffers);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (Exception e) {
+                    logger.error("VAD批量推理失败，批大小: {}", batch.size(), e);
+                    // 已完成的请求已移出批次，只通知剩下的
+                    for (InferenceRequest request : batch) {
+                        request.fail(e);
+                    }
+                } finally {
+                    batch.clear();
+                }
+            }
+        } finally {
+            if (buffers != null) {
+                buffers.close();
+            }
+        }
+    }
 
-            // 准备输入映射
-            Map<String, OnnxTensor> inputs = new HashMap<>();
-            inputs.put("input", inputTensor);
-            inputs.put("sr", srTensor);
-            inputs.put("state", stateTensor);
+    /**
+     * 分轮推理：每轮每个会话最多取一个窗口，保证同一会话的窗口按顺序推进RNN状态
+     * 完成和已取消的请求在通知调用方之前移出批次，之后不再访问（调用方会复用请求对象）
+     *
+     * @param batch 待推理的请求，返回时为空
+     * @param round 复用的本轮请求列表
+     */
+    private void runBatch(List<InferenceRequest> batch, List<InferenceRequest> round, InferenceBuffers buffers)
+            throws OrtException {
+        while (!batch.isEmpty()) {
+            round.clear();
+            long roundId = rounds.incrementAndGet();
+            for (InferenceRequest request : batch) {
+                if (!request.isCancelled() && request.state.lastRound != roundId) {
+                    request.state.lastRound = roundId;
+                    round.add(request);
+                }
+            }
+            if (!round.isEmpty()) {
+                if (buffers != null) {
+                    inferRound(round, buffers);
+                } else {
+                    inferRound(round);
+                }
+            }
+            round.clear();
 
-            try {
-                // 运行模型
-                OrtSession.Result result = session.run(inputs);
+            int kept = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                InferenceRequest request = batch.get(i);
+                if (request.isCancelled()) {
+                    continue;
+                }
+                if (request.isDone()) {
+                    request.complete();
+                    continue;
+                }
+                batch.set(kept++, request);
+            }
+            while (batch.size() > kept) {
+                batch.removeLast();
+            }
+        }
+    }
 
-                // 获取输出
-                float[][] output = (float[][]) result.get(0).getValue();
-                state = (float[][][]) result.get(1).getValue();
+    /**
+     * 执行一次批量推理，每次分配新的输入数组和张量
+     */
+    private void inferRound(List<InferenceRequest> round) throws OrtException {
+        int n = round.size();
+        float[] input = new float[n * windowSize];
+        float[] state = new float[2 * n * STATE_SIZE];
+        FloatBuffer inputBuffer = FloatBuffer.wrap(input);
 
-                // 更新上下文
-                context = x;
+        // 汇集输入和状态，state布局为[2][N][128]
+        for (int i = 0; i < n; i++) {
+            InferenceRequest request = round.get(i);
+            request.copyWindow(inputBuffer, i * windowSize);
+            for (int layer = 0; layer < 2; layer++) {
+                System.arraycopy(request.state.data, layer * STATE_SIZE, state, (layer * n + i) * STATE_SIZE, STATE_SIZE);
+            }
+        }
+
+        try (OnnxTensor inputTensor = OnnxTensor.createTensor(env, inputBuffer, new long[] { n, windowSize });
+                OnnxTensor stateTensor = OnnxTensor.createTensor(env, FloatBuffer.wrap(state), new long[] { 2, n, STATE_SIZE });
+                OrtSession.Result result = session.run(Map.of("input", inputTensor, "sr", srTensor, "state", stateTensor))) {
+            scatter(round, ((OnnxTensor) result.get(0)).getFloatBuffer(), ((OnnxTensor) result.get(1)).getFloatBuffer());
+        }
+    }
+
+    /**
+     * 执行一次批量推理，输入写入预分配的直接内存，输出写入固定的输出张量
+     */
+    private void inferRound(List<InferenceRequest> round, InferenceBuffers buffers) throws OrtException {
+        int n = round.size();
+        BatchTensors tensors = buffers.tensorsFor(n);
+
+        for (int i = 0; i < n; i++) {
+            InferenceRequest request = round.get(i);
+            request.copyWindow(buffers.input, i * windowSize);
+            for (int layer = 0; layer < 2; layer++) {
+                buffers.stateIn.put((layer * n + i) * STATE_SIZE, request.state.data, layer * STATE_SIZE, STATE_SIZE);
+            }
+        }
 
-                // 返回语音概率
-                return output[0][0];
+        // 固定输出不归Result所有，关闭Result不会释放它们
+        session.run(tensors.inputs, tensors.outputs).close();
+        scatter(round, buffers.prob, buffers.stateOut);
+    }
+
+    /**
+     * 分发概率和新状态，stateOut布局为[2][N][128]
+     */
+    private void scatter(List<InferenceRequest> round, FloatBuffer prob, FloatBuffer stateOut) {
+        int n = round.size();
+        for (int i = 0; i < n; i++) {
+            InferenceRequest request = round.get(i);
+            synchronized (request) {
+                if (request.cancelled) {
+                    continue;
+                }
+                for (int layer = 0; layer < 2; layer++) {
+                    stateOut.get((layer * n + i) * STATE_SIZE, request.state.data, layer * STATE_SIZE, STATE_SIZE);
+                }
+                request.advance(prob.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void resetSession(String sessionId) {
+        SessionState state = sessionStates.remove(sessionId);
+        if (state != null) {
+            state.lock.lock();
+            try {
+                if (state.buffers != null) {
+                    state.buffers.close();
+                    state.buffers = null;
+                }
             } finally {
-                // 释放资源
-                inputTensor.close();
-                stateTensor.close();
-                srTensor.close();
+                state.lock.unlock();
             }
-        } catch (OrtException e) {
-            logger.error("VAD模型推理失败", e);
-            return 0.0f;
         }
     }
 
     @Override
     public void reset() {
-        state = new float[2][1][128];
-        context = new float[0][];
+        resetSession(DEFAULT_SESSION);
     }
 
     @PreDestroy
     @Override
     public void close() {
+        running = false;
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        // 等批量推理线程退出（同时释放各自的缓冲区）后再关闭会话，避免推理中的线程访问已释放的本地资源
+        boolean stopped = true;
+        for (Thread worker : workers) {
+            try {
+                if (!worker.join(Duration.ofMillis(INFERENCE_TIMEOUT_MS))) {
+                    stopped = false;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stopped = false;
+                break;
+            }
+        }
+        workers.clear();
+        InferenceRequest request;
+        while ((request = pending.poll()) != null) {
+            request.complete();
+        }
+        if (!stopped) {
+            logger.warn("VAD批量推理线程未能及时退出，模型资源留待进程退出时释放");
+            return;
+        }
+        for (String sessionId : sessionStates.keySet()) {
+            resetSession(sessionId);
+        }
         try {
+            if (srTensor != null) {
+                srTensor.close();
+            }
             if (session != null) {
                 session.close();
             }
@@ -123,4 +447,212 @@ public class SileroVadModel implements VadModel {
             logger.error("关闭VAD模型失败", e);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 分配本地字节序的直接内存
+     */
+    private static FloatBuffer allocateDirect(int size) {
+        return ByteBuffer.allocateDirect(size * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * 会话的RNN状态，扁平存储为[2][128]
+     */
+    private class SessionState {
+        private final float[] data = new float[2 * STATE_SIZE];
+        // 非批量模式下保护会话自己的推理缓冲区
+        private final ReentrantLock lock = new ReentrantLock();
+        // 非批量模式下会话自己的推理缓冲区
+        private InferenceBuffers buffers;
+        // 非批量模式下复用的批次和轮次列表，在lock内使用
+        private final List<InferenceRequest> batch = new ArrayList<>(1);
+        private final List<InferenceRequest> round = new ArrayList<>(1);
+        // 最近一次参与推理的轮次，只由持有该会话请求的推理线程访问
+        private long lastRound;
+
+        // 复用的推理请求，同一时刻只给一个调用方使用
+        private volatile InferenceRequest slot = new InferenceRequest(this);
+        private final AtomicBoolean slotInUse = new AtomicBoolean(false);
+
+        /**
+         * 取复用的请求，同一会话并发调用时另建一个
+         */
+        InferenceRequest acquire() {
+            return slotInUse.compareAndSet(false, true) ? slot : new InferenceRequest(this);
+        }
+
+        /**
+         * 归还请求，超时放弃的请求可能仍被推理线程持有，换一个新的复用
+         */
+        void release(InferenceRequest request, boolean abandoned) {
+            if (request != slot) {
+                return;
+            }
+            if (abandoned) {
+                slot = new InferenceRequest(this);
+            }
+            slotInUse.set(false);
+        }
+    }
+
+    /**
+     * 某个批大小下复用的输入输出张量
+     */
+    private record BatchTensors(Map<String, OnnxTensor> inputs, Map<String, OnnxTensor> outputs) {
+    }
+
+    /**
+     * 预分配的直接内存推理缓冲区，按批大小缓存建立在其切片上的张量
+     */
+    private class InferenceBuffers {
+        private final FloatBuffer input;
+        private final FloatBuffer stateIn;
+        private final FloatBuffer prob;
+        private final FloatBuffer stateOut;
+        private final BatchTensors[] tensors;
+
+        InferenceBuffers(int capacity) {
+            input = allocateDirect(capacity * windowSize);
+            stateIn = allocateDirect(2 * capacity * STATE_SIZE);
+            prob = allocateDirect(capacity);
+            stateOut = allocateDirect(2 * capacity * STATE_SIZE);
+            tensors = new BatchTensors[capacity + 1];
+        }
+
+        BatchTensors tensorsFor(int n) throws OrtException {
+            BatchTensors cached = tensors[n];
+            if (cached == null) {
+                OnnxTensor inputTensor = OnnxTensor.createTensor(env, input.slice(0, n * windowSize), new long[] { n, windowSize });
+                OnnxTensor stateTensor = OnnxTensor.createTensor(env, stateIn.slice(0, 2 * n * STATE_SIZE), new long[] { 2, n, STATE_SIZE });
+                OnnxTensor probTensor = OnnxTensor.createTensor(env, prob.slice(0, n), new long[] { n, 1 });
+                OnnxTensor stateOutTensor = OnnxTensor.createTensor(env, stateOut.slice(0, 2 * n * STATE_SIZE), new long[] { 2, n, STATE_SIZE });
+                cached = new BatchTensors(
+                        Map.of("input", inputTensor, "sr", srTensor, "state", stateTensor),
+                        Map.of(probOutputName, probTensor, stateOutputName, stateOutTensor));
+                tensors[n] = cached;
+            }
+            return cached;
+        }
+
+        void close() {
+            for (BatchTensors cached : tensors) {
+                if (cached == null) {
+                    continue;
+                }
+                cached.inputs.forEach((name, tensor) -> {
+                    if (tensor != srTensor) {
+                        tensor.close();
+                    }
+                });
+                cached.outputs.values().forEach(OnnxTensor::close);
+            }
+        }
+    }
+
+    /**
+     * 一次推理请求，在同一会话的样本上按步长滑动窗口
+     * 对象按会话复用，每次推理前由 {@link #prepare} 重置；推理线程完成后park等待的调用方被唤醒
+     */
+    private class InferenceRequest {
+        private final SessionState state;
+        private float[] samples;
+        private int length;
+        private int hop;
+        private int windowCount;
+        private float maxProb;
+        private int index;
+        private boolean cancelled;
+        private Throwable error;
+        private Thread waiter;
+        private volatile boolean completed;
+
+        InferenceRequest(SessionState state) {
+            this.state = state;
+        }
+
+        /**
+         * 重置为一次新的推理，调用时请求不在任何队列和批次中
+         *
+         * @param waiter 等待结果的线程，在调用线程上直接推理时为null
+         */
+        void prepare(float[] samples, int length, int hop, Thread waiter) {
+            this.samples = samples;
+            this.length = length;
+            this.hop = hop;
+            this.windowCount = length <= windowSize ? 1 : (length - windowSize) / hop + 1;
+            this.maxProb = 0.0f;
+            this.index = 0;
+            this.error = null;
+            this.waiter = waiter;
+            this.completed = false;
+            synchronized (this) {
+                cancelled = false;
+            }
+        }
+
+        /**
+         * 把当前窗口拷贝到目标缓冲区，不足部分补零
+         */
+        void copyWindow(FloatBuffer dst, int offset) {
+            int start = index * hop;
+            int count = Math.min(windowSize, length - start);
+            dst.put(offset, samples, start, count);
+            for (int i = count; i < windowSize; i++) {
+                dst.put(offset + i, 0.0f);
+            }
+        }
+
+        boolean isDone() {
+            return index >= windowCount;
+        }
+
+        /**
+         * 调用方已放弃等待，返回后不会再有推理结果写回会话状态
+         */
+        synchronized void cancel() {
+            cancelled = true;
+        }
+
+        synchronized boolean isCancelled() {
+            return cancelled;
+        }
+
+        void advance(float prob) {
+            maxProb = Math.max(maxProb, prob);
+            index++;
+        }
+
+        /**
+         * 等待推理完成
+         *
+         * @return 超时返回false
+         */
+        boolean await(long timeoutMs) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (!completed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(this, remaining);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+            return true;
+        }
+
+        void complete() {
+            completed = true;
+            Thread thread = waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        void fail(Throwable e) {
+            error = e;
+            complete();
+        }
+    }
+}
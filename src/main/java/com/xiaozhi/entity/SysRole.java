@@ -22,6 +22,16 @@ public class SysRole extends Base {
 
     private Integer ttsId;
 
+    /**
+     * 备用TTS服务ID，主服务响应慢或失败时对冲请求；为空不启用，0为默认Edge服务
+     */
+    private Integer hedgeTtsId;
+
+    /**
+     * 备用TTS服务的音色，备用服务为配置的服务（hedgeTtsId > 0）时必填，默认Edge服务使用默认音色
+     */
+    private String hedgeVoiceName;
+
     private Integer modelId;
 
     private String modelName;
@@ -37,6 +47,11 @@ public class SysRole extends Base {
     private Float vadSilenceTh;
     private Integer vadSilenceMs;
 
+    /**
+     * 提示词的token预算（系统提示词 + 历史消息 + 用户消息），为空时使用默认预算，0为只按条数限制
+     */
+    private Integer historyTokens;
+
     private String modelProvider;
 
     private String ttsProvider;
@@ -54,6 +69,24 @@ public class SysRole extends Base {
         return this;
     }
 
+    public Integer getHedgeTtsId() {
+        return hedgeTtsId;
+    }
+
+    public SysRole setHedgeTtsId(Integer hedgeTtsId) {
+        this.hedgeTtsId = hedgeTtsId;
+        return this;
+    }
+
+    public String getHedgeVoiceName() {
+        return hedgeVoiceName;
+    }
+
+    public SysRole setHedgeVoiceName(String hedgeVoiceName) {
+        this.hedgeVoiceName = hedgeVoiceName;
+        return this;
+    }
+
     public Integer getModelId() {
         return modelId;
     }
@@ -135,6 +168,15 @@ public class SysRole extends Base {
         return this;
     }
 
+    public Integer getHistoryTokens() {
+        return historyTokens;
+    }
+
+    public SysRole setHistoryTokens(Integer historyTokens) {
+        this.historyTokens = historyTokens;
+        return this;
+    }
+
     public String getTtsProvider() {
         return ttsProvider;
     }
@@ -0,0 +1,21 @@
+package com.xiaozhi.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 配置更新事件，模型/语音识别/语音合成配置修改并提交后发布
+ */
+public class ConfigUpdateEvent extends ApplicationEvent {
+
+    private final Integer configId;
+
+    public ConfigUpdateEvent(Object source, Integer configId) {
+        super(source);
+        this.configId = configId;
+    }
+
+    public Integer getConfigId() {
+        return configId;
+    }
+
+}
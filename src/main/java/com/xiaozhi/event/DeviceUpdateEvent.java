@@ -0,0 +1,21 @@
+package com.xiaozhi.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 设备更新事件，设备信息（如绑定的角色）修改并提交后发布
+ */
+public class DeviceUpdateEvent extends ApplicationEvent {
+
+    private final String deviceId;
+
+    public DeviceUpdateEvent(Object source, String deviceId) {
+        super(source);
+        this.deviceId = deviceId;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.xiaozhi.event;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ * 角色更新事件，角色信息修改并提交后发布
+ */
+public class RoleUpdateEvent extends ApplicationEvent {
+
+    private final Integer roleId;
+
+    public RoleUpdateEvent(Object source, Integer roleId) {
+        super(source);
+        this.roleId = roleId;
+    }
+
+    public Integer getRoleId() {
+        return roleId;
+    }
+
+}
@@ -0,0 +1,269 @@
+package com.xiaozhi.utils;
+
+import io.github.jaredmdobson.concentus.OpusDecoder;
+import io.github.jaredmdobson.concentus.OpusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一段合成好的音频，在对话流程中代替文件路径传递
+ *
+ * 来源：
+ * - PCM：服务商直接返回的16kHz单声道PCM，按收到的数据块保存在内存中，不合并复制
+ * - Opus帧：已编码好的帧（如TTS缓存），播放时不再编码；PCM来源也可以附带编码结果
+ * - 帧流：流式合成的Opus帧（{@link OpusFrameStream}），需要保存音频时同时追加PCM块
+ * - 文件：只能输出文件的服务商（或已有的缓存文件），播放时再读取；
+ *   会重复播放的文件（如验证码语音）标记为可重播，编码结果由 {@link OpusFrameStore} 保存
+ *
+ * 播放直接使用内存数据；需要持久化时调用 {@link #spill}，文件名立即确定，数据在虚拟线程中写入磁盘，
+ * 对话线程不等待磁盘IO。
+ *
+ * PCM块不放入缓冲池：数据块由服务商SDK或网络层分配，复制进池化缓冲区只会多一次拷贝而省不下分配；
+ * 片段播放后还可能被录音合并异步读取，也可能从不保存，没有可靠的归还时机。
+ */
+public final class AudioClip {
+    private static final Logger logger = LoggerFactory.getLogger(AudioClip.class);
+
+    private final String filePath;
+    private final OpusFrameStream frameStream;
+    private final boolean replayable;
+    private final List<byte[]> pcmChunks = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private long pcmLength = 0;
+    private volatile List<byte[]> opusFrames;
+    private String spilledPath;
+
+    private AudioClip(String filePath, OpusFrameStream frameStream) {
+        this(filePath, frameStream, false);
+    }
+
+    private AudioClip(String filePath, OpusFrameStream frameStream, boolean replayable) {
+        this.filePath = filePath;
+        this.frameStream = frameStream;
+        this.replayable = replayable;
+    }
+
+    /**
+     * 内存中的PCM音频
+     */
+    public static AudioClip ofPcm(byte[] pcm) {
+        AudioClip clip = new AudioClip(null, null);
+        clip.appendPcm(pcm);
+        return clip;
+    }
+
+    /**
+     * 已编码的Opus帧（16kHz、单声道、60ms一帧）
+     */
+    public static AudioClip ofOpus(List<byte[]> frames) {
+        AudioClip clip = new AudioClip(null, null);
+        clip.opusFrames = frames;
+        return clip;
+    }
+
+    /**
+     * 已有的音频文件（wav/mp3/pcm/opus），只播放一次，播放时在内存中编码
+     */
+    public static AudioClip ofFile(String filePath) {
+        return filePath == null || filePath.isEmpty() ? null : new AudioClip(filePath, null);
+    }
+
+    /**
+     * 会重复播放的音频文件（如验证码语音），编码结果保存在帧存储中，之后播放不再编码
+     */
+    public static AudioClip ofReplayableFile(String filePath) {
+        return filePath == null || filePath.isEmpty() ? null : new AudioClip(filePath, null, true);
+    }
+
+    /**
+     * 流式合成的音频，帧在合成过程中陆续写入
+     */
+    public static AudioClip ofStream(OpusFrameStream frameStream) {
+        return new AudioClip(null, frameStream);
+    }
+
+    /**
+     * 追加一块PCM数据，数据块直接引用不复制，调用方之后不能再修改
+     */
+    public void appendPcm(byte[] chunk) {
+        if (chunk == null || chunk.length == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            pcmChunks.add(chunk);
+            pcmLength += chunk.length;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isStreaming() {
+        return frameStream != null;
+    }
+
+    public OpusFrameStream getFrameStream() {
+        return frameStream;
+    }
+
+    /**
+     * 已编码的Opus帧，没有时返回null
+     */
+    public List<byte[]> getOpusFrames() {
+        return opusFrames;
+    }
+
+    /**
+     * 附带编码好的Opus帧，播放时直接使用
+     */
+    public void setOpusFrames(List<byte[]> opusFrames) {
+        this.opusFrames = opusFrames;
+    }
+
+    /**
+     * 是否为会重复播放的文件
+     */
+    public boolean isReplayable() {
+        return replayable;
+    }
+
+    /**
+     * 文件来源的音频路径，内存音频返回null
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    /**
+     * 内存中的PCM字节数
+     */
+    public long getPcmLength() {
+        return pcmLength;
+    }
+
+    /**
+     * 完整的PCM数据，文件来源时读取并解码文件
+     */
+    public byte[] toPcm() throws IOException {
+        if (filePath != null) {
+            return AudioUtils.readAsPcm(filePath);
+        }
+        lock.lock();
+        try {
+            if (pcmChunks.isEmpty() && opusFrames != null) {
+                return decodeOpus(opusFrames);
+            }
+            if (pcmChunks.size() == 1) {
+                return pcmChunks.getFirst();
+            }
+            byte[] pcm = new byte[(int) pcmLength];
+            int offset = 0;
+            for (byte[] chunk : pcmChunks) {
+                System.arraycopy(chunk, 0, pcm, offset, chunk.length);
+                offset += chunk.length;
+            }
+            return pcm;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 保存为WAV文件，只在第一次调用时写入，文件来源直接返回原路径
+     *
+     * @return 文件路径，文件在后台写入
+     */
+    public String spill() {
+        if (filePath != null) {
+            return filePath;
+        }
+        lock.lock();
+        try {
+            if (spilledPath == null) {
+                spilledPath = writeAsync(List.of(this));
+            }
+            return spilledPath;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 将多段音频按顺序合并保存为一个WAV文件
+     * 文件名立即返回，读取文件来源的音频和写入磁盘都在虚拟线程中完成
+     *
+     * @return 文件路径
+     */
+    public static String spill(List<AudioClip> clips) {
+        if (clips.size() == 1) {
+            return clips.getFirst().spill();
+        }
+        return writeAsync(clips);
+    }
+
+    private static String writeAsync(List<AudioClip> clips) {
+        String fileName = AudioUtils.newWavFileName();
+        List<AudioClip> snapshot = List.copyOf(clips);
+        Thread.startVirtualThread(() -> {
+            List<ByteBuffer> segments = new ArrayList<>();
+            for (AudioClip clip : snapshot) {
+                try {
+                    clip.collectPcm(segments);
+                } catch (IOException e) {
+                    logger.warn("读取音频失败，合并时跳过 - 文件: {}, 错误: {}", clip.filePath, e.getMessage());
+                }
+            }
+            if (AudioUtils.saveAsWav(fileName, segments.toArray(ByteBuffer[]::new)) == null) {
+                logger.error("保存音频失败 - 文件: {}", fileName);
+            }
+        });
+        return AudioUtils.AUDIO_PATH + fileName;
+    }
+
+    private void collectPcm(List<ByteBuffer> segments) throws IOException {
+        if (filePath != null) {
+            segments.add(ByteBuffer.wrap(AudioUtils.readAsPcm(filePath)));
+            return;
+        }
+        lock.lock();
+        try {
+            if (pcmChunks.isEmpty() && opusFrames != null) {
+                segments.add(ByteBuffer.wrap(decodeOpus(opusFrames)));
+                return;
+            }
+            for (byte[] chunk : pcmChunks) {
+                segments.add(ByteBuffer.wrap(chunk));
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 解码Opus帧，只在需要保存只有Opus帧的音频时使用
+     */
+    private static byte[] decodeOpus(List<byte[]> frames) throws IOException {
+        try {
+            OpusDecoder decoder = new OpusDecoder(AudioUtils.SAMPLE_RATE, AudioUtils.CHANNELS);
+            short[] samples = new short[AudioUtils.FRAME_SIZE];
+            ByteBuffer pcm = ByteBuffer.allocate(frames.size() * AudioUtils.FRAME_SIZE * 2)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            for (byte[] frame : frames) {
+                int decoded = decoder.decode(frame, 0, frame.length, samples, 0, AudioUtils.FRAME_SIZE, false);
+                pcm.asShortBuffer().put(samples, 0, decoded);
+                pcm.position(pcm.position() + decoded * 2);
+            }
+            return Arrays.copyOf(pcm.array(), pcm.position());
+        } catch (OpusException e) {
+            throw new IOException("解码Opus帧失败: " + e.getMessage(), e);
+        }
+    }
+}
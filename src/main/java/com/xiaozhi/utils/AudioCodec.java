@@ -0,0 +1,298 @@
+package com.xiaozhi.utils;
+
+import org.bytedeco.ffmpeg.avutil.AVChannelLayout;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.ffmpeg.global.swresample;
+import org.bytedeco.ffmpeg.swresample.SwrContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.DoublePointer;
+import org.bytedeco.javacpp.FloatPointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.Pointer;
+import org.bytedeco.javacpp.PointerPointer;
+import org.bytedeco.javacpp.ShortPointer;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.bytedeco.javacv.FrameGrabber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 进程内音频编解码（JavaCV/FFmpeg）
+ * 代替每次调用都启动 ffmpeg 进程并通过临时 .pcm 文件中转的方式。
+ *
+ * 解码：任意 FFmpeg 支持的格式（mp3/m4a/...），来源可以是文件、字节数组或输入流。
+ * FFmpegFrameGrabber 只负责解封装和解码（解码器上下文绑定在一个输入上，无法跨调用复用），
+ * 输出原始采样格式；重采样为 16kHz、单声道、16位小端PCM 的 SwrContext 按输入的采样格式、采样率和声道数
+ * 放在池中，连同输出缓冲区在调用之间复用。
+ * 编码：16kHz单声道PCM直接编码为MP3文件。
+ *
+ * FFmpeg原生库随 javacpp.platform 指定平台的依赖一起打包，在第一次使用时加载；
+ * 加载失败时 {@link #isAvailable()} 返回false，由调用方退回到 ffmpeg 命令，并只在第一次退回时记录警告。
+ */
+public final class AudioCodec {
+    private static final Logger logger = LoggerFactory.getLogger(AudioCodec.class);
+
+    private static final boolean AVAILABLE = loadNative();
+
+    // 每种输入格式池中保留的重采样器数量
+    private static final int MAX_POOLED_RESAMPLERS = 4;
+
+    private static final Map<ResamplerKey, Queue<Resampler>> RESAMPLERS = new ConcurrentHashMap<>();
+
+    private static final AtomicBoolean FALLBACK_WARNED = new AtomicBoolean(false);
+
+    private AudioCodec() {
+    }
+
+    private static boolean loadNative() {
+        try {
+            FFmpegFrameGrabber.tryLoad();
+            FFmpegFrameRecorder.tryLoad();
+            avutil.av_log_set_level(avutil.AV_LOG_ERROR);
+            return true;
+        } catch (Throwable e) {
+            // 第一次退回到ffmpeg命令时再记录警告
+            logger.info("FFmpeg原生库加载失败: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * FFmpeg原生库是否可用
+     */
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+
+    /**
+     * 调用方退回到 ffmpeg 命令时调用，只在第一次记录警告
+     */
+    public static void warnFallback(String operation) {
+        if (FALLBACK_WARNED.compareAndSet(false, true)) {
+            logger.warn("FFmpeg原生库不可用，{}等音频转换将每次启动ffmpeg进程，请检查javacpp.platform对应的原生库依赖", operation);
+        }
+    }
+
+    /**
+     * 解码音频文件为PCM（16kHz、单声道、16位）
+     */
+    public static byte[] decodeToPcm(String filePath) throws IOException {
+        return decode(new FFmpegFrameGrabber(filePath), filePath);
+    }
+
+    /**
+     * 解码内存中的音频数据为PCM（16kHz、单声道、16位）
+     */
+    public static byte[] decodeToPcm(byte[] audioData) throws IOException {
+        return decodeToPcm(new ByteArrayInputStream(audioData));
+    }
+
+    /**
+     * 解码输入流中的音频为PCM（16kHz、单声道、16位），流由调用方关闭
+     */
+    public static byte[] decodeToPcm(InputStream input) throws IOException {
+        // maximumSize为0：不需要回退读取，不额外缓存流数据
+        return decode(new FFmpegFrameGrabber(input, 0), "stream");
+    }
+
+    private static byte[] decode(FFmpegFrameGrabber grabber, String source) throws IOException {
+        // 不让grabber重采样，由池中的重采样器统一转换
+        grabber.setSampleMode(FrameGrabber.SampleMode.RAW);
+        Resampler resampler = null;
+        try (grabber) {
+            grabber.start();
+            resampler = acquire(new ResamplerKey(grabber.getSampleFormat(), grabber.getSampleRate(),
+                    grabber.getAudioChannels()));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Frame frame;
+            while ((frame = grabber.grabSamples()) != null) {
+                if (frame.samples != null && frame.samples.length > 0) {
+                    resampler.convert(frame.samples, out);
+                }
+            }
+            resampler.flush(out);
+            grabber.stop();
+            return out.toByteArray();
+        } catch (Exception e) {
+            throw new IOException("解码音频失败 - 来源: " + source + ", 错误: " + e.getMessage(), e);
+        } finally {
+            if (resampler != null) {
+                release(resampler);
+            }
+        }
+    }
+
+    private static Resampler acquire(ResamplerKey key) throws IOException {
+        Resampler resampler = RESAMPLERS.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).poll();
+        if (resampler == null) {
+            return new Resampler(key);
+        }
+        resampler.reset();
+        return resampler;
+    }
+
+    private static void release(Resampler resampler) {
+        Queue<Resampler> pool = RESAMPLERS.get(resampler.key);
+        // 池满或转换出错的重采样器直接释放
+        if (resampler.failed || pool.size() >= MAX_POOLED_RESAMPLERS) {
+            resampler.close();
+        } else {
+            pool.offer(resampler);
+        }
+    }
+
+    /**
+     * 将PCM（16kHz、单声道、16位小端）编码为MP3文件
+     */
+    public static void encodeMp3(byte[] pcm, String outputPath) throws IOException {
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(outputPath, AudioUtils.CHANNELS);
+        recorder.setFormat("mp3");
+        recorder.setAudioCodec(avcodec.AV_CODEC_ID_MP3);
+        recorder.setSampleRate(AudioUtils.SAMPLE_RATE);
+        recorder.setAudioBitrate(AudioUtils.BITRATE);
+        // 最高质量
+        recorder.setAudioQuality(0);
+        try (recorder) {
+            recorder.start();
+            ShortBuffer samples = ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+            recorder.recordSamples(AudioUtils.SAMPLE_RATE, AudioUtils.CHANNELS, samples);
+            recorder.stop();
+        } catch (Exception e) {
+            throw new IOException("编码MP3失败 - 文件: " + outputPath + ", 错误: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 重采样器的输入格式：FFmpeg采样格式、采样率和声道数
+     */
+    private record ResamplerKey(int sampleFormat, int sampleRate, int channels) {
+    }
+
+    /**
+     * 把一种输入格式重采样为16kHz单声道S16的SwrContext和输出缓冲区，同一时刻只由一次解码使用
+     */
+    private static final class Resampler {
+        private final ResamplerKey key;
+        private final boolean planar;
+        private final SwrContext context;
+        private final PointerPointer<Pointer> input;
+        private final PointerPointer<Pointer> output = new PointerPointer<>(1);
+        private BytePointer outputBuffer = new BytePointer(0L);
+        private byte[] chunk = new byte[0];
+        private boolean failed = false;
+
+        Resampler(ResamplerKey key) throws IOException {
+            this.key = key;
+            this.planar = avutil.av_sample_fmt_is_planar(key.sampleFormat()) != 0;
+            this.input = new PointerPointer<>(planar ? key.channels() : 1);
+
+            AVChannelLayout outLayout = new AVChannelLayout();
+            AVChannelLayout inLayout = new AVChannelLayout();
+            avutil.av_channel_layout_default(outLayout, AudioUtils.CHANNELS);
+            avutil.av_channel_layout_default(inLayout, key.channels());
+            SwrContext ctx = swresample.swr_alloc();
+            int ret = swresample.swr_alloc_set_opts2(ctx, outLayout, AudioUtils.SAMPLE_FORMAT, AudioUtils.SAMPLE_RATE,
+                    inLayout, key.sampleFormat(), key.sampleRate(), 0, null);
+            avutil.av_channel_layout_uninit(outLayout);
+            avutil.av_channel_layout_uninit(inLayout);
+            if (ret < 0 || swresample.swr_init(ctx) < 0) {
+                swresample.swr_free(ctx);
+                throw new IOException("创建重采样器失败: " + key);
+            }
+            this.context = ctx;
+        }
+
+        /**
+         * 清除上一段音频留下的状态，参数和缓冲区保留
+         */
+        void reset() throws IOException {
+            swresample.swr_close(context);
+            if (swresample.swr_init(context) < 0) {
+                failed = true;
+                throw new IOException("重置重采样器失败: " + key);
+            }
+        }
+
+        /**
+         * 转换一帧（planar格式每个声道一个缓冲区），结果追加到out
+         */
+        void convert(Buffer[] planes, ByteArrayOutputStream out) throws IOException {
+            int count = planar ? planes.length : 1;
+            for (int i = 0; i < count; i++) {
+                input.put(i, pointer(planes[i]));
+            }
+            int inSamples = planar ? planes[0].limit() : planes[0].limit() / key.channels();
+            write(swresample.swr_get_out_samples(context, inSamples), input, inSamples, out);
+        }
+
+        /**
+         * 取出重采样器中缓存的剩余样本
+         */
+        void flush(ByteArrayOutputStream out) throws IOException {
+            int remaining = swresample.swr_get_out_samples(context, 0);
+            if (remaining > 0) {
+                write(remaining, null, 0, out);
+            }
+        }
+
+        private void write(int maxSamples, PointerPointer<Pointer> in, int inSamples, ByteArrayOutputStream out)
+                throws IOException {
+            int bytes = Math.max(maxSamples, 0) * 2;
+            if (outputBuffer.capacity() < bytes) {
+                outputBuffer.deallocate();
+                outputBuffer = new BytePointer((long) bytes);
+                chunk = new byte[bytes];
+            }
+            output.put(0, outputBuffer);
+            int converted = swresample.swr_convert(context, output, maxSamples, in, inSamples);
+            if (converted < 0) {
+                failed = true;
+                throw new IOException("重采样失败，错误码: " + converted);
+            }
+            outputBuffer.position(0).get(chunk, 0, converted * 2);
+            out.write(chunk, 0, converted * 2);
+        }
+
+        void close() {
+            swresample.swr_free(context);
+            outputBuffer.deallocate();
+            input.deallocate();
+            output.deallocate();
+        }
+
+        private static Pointer pointer(Buffer buffer) {
+            if (buffer instanceof ByteBuffer b) {
+                return new BytePointer(b);
+            } else if (buffer instanceof ShortBuffer b) {
+                return new ShortPointer(b);
+            } else if (buffer instanceof IntBuffer b) {
+                return new IntPointer(b);
+            } else if (buffer instanceof FloatBuffer b) {
+                return new FloatPointer(b);
+            } else if (buffer instanceof DoubleBuffer b) {
+                return new DoublePointer(b);
+            }
+            throw new IllegalArgumentException("不支持的样本缓冲区: " + buffer.getClass());
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.xiaozhi.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 固定容量的音频环形缓冲区
+ *
+ * 存储空间按段（最大16KB）在首次写入时分配，段可以在堆内或堆外，分配后一直复用，
+ * 因此单个缓冲区的内存上限固定为容量，与说话时长无关。
+ * 支持两种写入方式：覆盖最旧数据（预缓冲）和写满即截断（录音采集）；
+ * 另外提供按帧（2字节长度前缀）存取的方法，用于保存Opus帧。
+ *
+ * 非线程安全，调用方需要自行保证同一时刻只有一个线程访问（VadService中由会话锁保证）。
+ */
+public class AudioRingBuffer {
+
+    private static final int SEGMENT_SIZE = 16 * 1024;
+
+    // 帧长度前缀字节数
+    private static final int FRAME_HEADER = 2;
+
+    private final int capacity;
+    private final boolean offHeap;
+    private final ByteBuffer[] segments;
+
+    // 最旧数据的位置和当前数据量
+    private int head = 0;
+    private int size = 0;
+
+    /**
+     * @param capacity 容量（字节）
+     * @param offHeap  是否使用堆外内存
+     */
+    public AudioRingBuffer(int capacity, boolean offHeap) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("容量必须大于0");
+        }
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+        this.segments = new ByteBuffer[(capacity + SEGMENT_SIZE - 1) / SEGMENT_SIZE];
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int remaining() {
+        return capacity - size;
+    }
+
+    /**
+     * 写入数据，空间不足时只写入能容纳的部分
+     *
+     * @return 实际写入的字节数
+     */
+    public int write(byte[] src, int off, int len) {
+        int n = Math.min(len, remaining());
+        copyIn(src, off, n);
+        return n;
+    }
+
+    /**
+     * 写入数据，空间不足时丢弃最旧的数据；超过容量时只保留最后capacity字节
+     */
+    public void writeOverwrite(byte[] src, int off, int len) {
+        if (len >= capacity) {
+            clear();
+            copyIn(src, off + len - capacity, capacity);
+            return;
+        }
+        int overflow = len - remaining();
+        if (overflow > 0) {
+            skip(overflow);
+        }
+        copyIn(src, off, len);
+    }
+
+    /**
+     * 写入一帧（带长度前缀），空间不足时丢弃最旧的完整帧
+     *
+     * @return 帧是否写入
+     */
+    public boolean writeFrame(byte[] frame) {
+        int total = frame.length + FRAME_HEADER;
+        if (frame.length > 0xFFFF || total > capacity) {
+            return false;
+        }
+        while (remaining() < total) {
+            skip(FRAME_HEADER + frameLength(head));
+        }
+        byte[] header = { (byte) (frame.length >> 8), (byte) frame.length };
+        copyIn(header, 0, FRAME_HEADER);
+        copyIn(frame, 0, frame.length);
+        return true;
+    }
+
+    /**
+     * 读取所有帧的副本，不消费数据
+     */
+    public List<byte[]> frames() {
+        List<byte[]> frames = new ArrayList<>();
+        int pos = 0;
+        while (pos + FRAME_HEADER <= size) {
+            int length = frameLength(physical(pos));
+            byte[] frame = new byte[length];
+            copyOut(pos + FRAME_HEADER, frame, 0, length);
+            frames.add(frame);
+            pos += FRAME_HEADER + length;
+        }
+        return frames;
+    }
+
+    /**
+     * 取出全部数据到调用方提供的数组中并清空缓冲区
+     *
+     * @return 读取的字节数
+     */
+    public int drainTo(byte[] dst, int off) {
+        int n = Math.min(size, dst.length - off);
+        copyOut(0, dst, off, n);
+        skip(n);
+        return n;
+    }
+
+    /**
+     * 取出全部数据并清空缓冲区
+     */
+    public byte[] drain() {
+        byte[] result = new byte[size];
+        drainTo(result, 0);
+        return result;
+    }
+
+    /**
+     * 复制全部数据，不消费
+     */
+    public byte[] toByteArray() {
+        byte[] result = new byte[size];
+        copyOut(0, result, 0, size);
+        return result;
+    }
+
+    /**
+     * 按顺序返回当前数据的只读视图，不复制数据。
+     * 视图直接引用缓冲区内存，在下一次写入或清空前有效，可直接用于 FileChannel 的聚集写。
+     */
+    public ByteBuffer[] snapshot() {
+        List<ByteBuffer> views = new ArrayList<>(segments.length + 1);
+        int pos = 0;
+        while (pos < size) {
+            int physical = physical(pos);
+            int index = physical / SEGMENT_SIZE;
+            int offset = physical % SEGMENT_SIZE;
+            int n = Math.min(size - pos, segmentLength(index) - offset);
+            views.add(segment(index).slice(offset, n).asReadOnlyBuffer());
+            pos += n;
+        }
+        return views.toArray(new ByteBuffer[0]);
+    }
+
+    /**
+     * 丢弃最旧的n个字节
+     */
+    public void skip(int n) {
+        n = Math.min(n, size);
+        head = (head + n) % capacity;
+        size -= n;
+        if (size == 0) {
+            head = 0;
+        }
+    }
+
+    /**
+     * 清空数据，已分配的存储段保留复用
+     */
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private int physical(int logical) {
+        return (head + logical) % capacity;
+    }
+
+    private int segmentLength(int index) {
+        return Math.min(SEGMENT_SIZE, capacity - index * SEGMENT_SIZE);
+    }
+
+    private ByteBuffer segment(int index) {
+        ByteBuffer segment = segments[index];
+        if (segment == null) {
+            int length = segmentLength(index);
+            segment = offHeap ? ByteBuffer.allocateDirect(length) : ByteBuffer.allocate(length);
+            segments[index] = segment;
+        }
+        return segment;
+    }
+
+    private int frameLength(int physical) {
+        int hi = segment(physical / SEGMENT_SIZE).get(physical % SEGMENT_SIZE) & 0xFF;
+        int next = (physical + 1) % capacity;
+        int lo = segment(next / SEGMENT_SIZE).get(next % SEGMENT_SIZE) & 0xFF;
+        return (hi << 8) | lo;
+    }
+
+    private void copyIn(byte[] src, int off, int len) {
+        int written = 0;
+        while (written < len) {
+            int physical = physical(size);
+            int index = physical / SEGMENT_SIZE;
+            int offset = physical % SEGMENT_SIZE;
+            int n = Math.min(len - written, segmentLength(index) - offset);
+            segment(index).put(offset, src, off + written, n);
+            written += n;
+            size += n;
+        }
+    }
+
+    private void copyOut(int logical, byte[] dst, int off, int len) {
+        int read = 0;
+        while (read < len) {
+            int physical = physical(logical + read);
+            int index = physical / SEGMENT_SIZE;
+            int offset = physical % SEGMENT_SIZE;
+            int n = Math.min(len - read, segmentLength(index) - offset);
+            segment(index).get(offset, dst, off + read, n);
+            read += n;
+        }
+    }
+}
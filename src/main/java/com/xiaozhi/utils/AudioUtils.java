@@ -1,15 +1,19 @@
 package com.xiaozhi.utils;
 
 import org.bytedeco.ffmpeg.global.avutil;
-import org.bytedeco.javacv.FrameRecorder;
 import org.slf4j.Logger;
 
 import java.io.DataOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
@@ -23,9 +27,11 @@ public class AudioUtils {
     public static final int BITRATE = 24000; // 24kbps比特率
     public static final int SAMPLE_FORMAT = avutil.AV_SAMPLE_FMT_S16; // 16位PCM
     public static final int OPUS_FRAME_DURATION_MS = 60; // OPUS帧持续时间（毫秒）
+    public static final int WAV_HEADER_SIZE = 44; // WAV文件头长度
 
     /**
      * 将原始音频数据保存为MP3文件
+     * 优先进程内编码，FFmpeg原生库不可用时使用ffmpeg命令
      *
      * @param audio PCM音频数据
      * @return 文件名
@@ -35,6 +41,18 @@ public class AudioUtils {
         String fileName = uuid + ".mp3";
         String filePath = AUDIO_PATH + fileName;
 
+        if (AudioCodec.isAvailable()) {
+            try {
+                Files.createDirectories(Paths.get(AUDIO_PATH));
+                AudioCodec.encodeMp3(audio, filePath);
+                return fileName;
+            } catch (IOException e) {
+                logger.error("保存MP3文件时发生错误", e);
+                return null;
+            }
+        }
+        AudioCodec.warnFallback("MP3编码");
+
         // 创建临时PCM文件
         String tempPcmPath = AUDIO_PATH + uuid + ".pcm";
 
@@ -110,51 +128,90 @@ public class AudioUtils {
      * @return 文件名
      */
     public static String saveAsWav(byte[] audioData) {
-        String uuid = UUID.randomUUID().toString().replace("-", "");
-        String fileName = uuid + ".wav";
-        String filePath = AUDIO_PATH + fileName;
-        // WAV文件参数
-        int bitsPerSample = 16; // 16位采样
+        return saveAsWav(ByteBuffer.wrap(audioData));
+    }
 
-        try {
-            // 确保音频目录存在
-            Files.createDirectories(Paths.get(AUDIO_PATH));
+    /**
+     * 将按顺序排列的多段PCM数据保存为WAV文件，数据通过 FileChannel 聚集写入，不做合并复制
+     *
+     * @param segments PCM数据段（如环形缓冲区的快照视图）
+     * @return 文件名
+     */
+    public static String saveAsWav(ByteBuffer... segments) {
+        return saveAsWav(newWavFileName(), segments);
+    }
 
-            try (FileOutputStream fos = new FileOutputStream(filePath);
-                 DataOutputStream dos = new DataOutputStream(fos)) {
+    /**
+     * 生成新的WAV文件名，供先确定文件名、后写入数据的场景使用
+     */
+    public static String newWavFileName() {
+        return UUID.randomUUID().toString().replace("-", "") + ".wav";
+    }
 
-                // 写入WAV文件头
-                // RIFF头
-                dos.writeBytes("RIFF");
-                dos.writeInt(Integer.reverseBytes(36 + audioData.length)); // 文件长度
-                dos.writeBytes("WAVE");
+    /**
+     * 将按顺序排列的多段PCM数据保存为指定名称的WAV文件
+     *
+     * @param fileName 文件名（不含目录）
+     * @param segments PCM数据段
+     * @return 文件名，写入失败返回null
+     */
+    public static String saveAsWav(String fileName, ByteBuffer... segments) {
+        String filePath = AUDIO_PATH + fileName;
 
-                // fmt子块
-                dos.writeBytes("fmt ");
-                dos.writeInt(Integer.reverseBytes(16)); // 子块大小
-                dos.writeShort(Short.reverseBytes((short) 1)); // 音频格式 (1 = PCM)
-                dos.writeShort(Short.reverseBytes((short) CHANNELS)); // 通道数
-                dos.writeInt(Integer.reverseBytes(SAMPLE_RATE)); // 采样率
-                dos.writeInt(Integer.reverseBytes(SAMPLE_RATE * CHANNELS * bitsPerSample / 8)); // 字节率
-                dos.writeShort(Short.reverseBytes((short) (CHANNELS * bitsPerSample / 8))); // 块对齐
-                dos.writeShort(Short.reverseBytes((short) bitsPerSample)); // 每个样本的位数
+        long dataLength = 0;
+        for (ByteBuffer segment : segments) {
+            dataLength += segment.remaining();
+        }
 
-                // data子块
-                dos.writeBytes("data");
-                dos.writeInt(Integer.reverseBytes(audioData.length)); // 数据大小
+        try {
+            // 确保音频目录存在
+            Files.createDirectories(Paths.get(AUDIO_PATH));
 
-                // 写入音频数据
-                dos.write(audioData);
+            try (FileChannel channel = FileChannel.open(Paths.get(filePath),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer[] buffers = new ByteBuffer[segments.length + 1];
+                buffers[0] = wavHeader((int) dataLength);
+                System.arraycopy(segments, 0, buffers, 1, segments.length);
+                long total = dataLength + WAV_HEADER_SIZE;
+                long written = 0;
+                while (written < total) {
+                    written += channel.write(buffers);
+                }
                 return fileName;
             }
-        } catch (FrameRecorder.Exception e) {
-            logger.error("编码MP3时发生错误", e);
         } catch (IOException e) {
             logger.error("写入WAV文件时发生错误", e);
         }
         return null;
     }
 
+    /**
+     * 构建16位单声道PCM的WAV文件头
+     *
+     * @param dataLength 音频数据字节数
+     */
+    public static ByteBuffer wavHeader(int dataLength) {
+        int bitsPerSample = 16; // 16位采样
+        ByteBuffer header = ByteBuffer.allocate(WAV_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        // RIFF头
+        header.put("RIFF".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(36 + dataLength); // 文件长度
+        header.put("WAVE".getBytes(StandardCharsets.US_ASCII));
+        // fmt子块
+        header.put("fmt ".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(16); // 子块大小
+        header.putShort((short) 1); // 音频格式 (1 = PCM)
+        header.putShort((short) CHANNELS); // 通道数
+        header.putInt(SAMPLE_RATE); // 采样率
+        header.putInt(SAMPLE_RATE * CHANNELS * bitsPerSample / 8); // 字节率
+        header.putShort((short) (CHANNELS * bitsPerSample / 8)); // 块对齐
+        header.putShort((short) bitsPerSample); // 每个样本的位数
+        // data子块
+        header.put("data".getBytes(StandardCharsets.US_ASCII));
+        header.putInt(dataLength); // 数据大小
+        return header.flip();
+    }
+
     /**
      * 合并多个音频文件为一个WAV文件
      * 支持合并的格式： wav, mp3, pcm
@@ -293,11 +350,16 @@ public class AudioUtils {
 
     /**
      * 将MP3转换为PCM格式
+     * 优先进程内解码，FFmpeg原生库不可用时使用ffmpeg命令
      *
      * @param mp3Path MP3文件路径
      * @return PCM数据字节数组
      */
     public static byte[] mp3ToPcm(String mp3Path) throws IOException {
+        if (AudioCodec.isAvailable()) {
+            return AudioCodec.decodeToPcm(mp3Path);
+        }
+        AudioCodec.warnFallback("MP3解码");
         try {
             // 创建临时PCM文件
             String tempPcmPath = AUDIO_PATH + UUID.randomUUID().toString().replace("-", "") + ".pcm";
@@ -361,6 +423,8 @@ public class AudioUtils {
             return "audio/x-pcm";
         } else if (filePath.toLowerCase().endsWith(".opus")) {
             return "audio/opus";
+        } else if (filePath.toLowerCase().endsWith(".ogg")) {
+            return "audio/ogg";
         } else {
             return "application/octet-stream";
         }
@@ -2,10 +2,9 @@ package com.xiaozhi.utils;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -24,6 +23,10 @@ public class AutomaticGainControl {
     private static final float RELEASE_TIME = 0.02f;          // 释放时间 (秒) - 更快的释放速度
     private static final int SAMPLE_RATE = AudioUtils.SAMPLE_RATE; // 采样率
     
+    // 噪声底估计器：window（有序滑动窗口）、p2（P²分位数）、sort（原有的逐帧排序）
+    @Value("${agc.noise-floor.estimator:window}")
+    private String noiseFloorEstimator = "window";
+
     // 每个会话的 AGC 状态
     private final ConcurrentHashMap<String, AgcState> sessionStates = new ConcurrentHashMap<>();
     
@@ -43,17 +46,29 @@ public class AutomaticGainControl {
         
         // 噪声底估计
         float noiseFloor = 0.0001f;  // 初始噪声底设为一个小的非零值
-        float[] recentLevels = new float[50];
-        int levelIndex = 0;
+        // 估计器收集到足够的电平后才为true，之前的噪声底只是初始值
+        volatile boolean noiseFloorReady = false;
+        final NoiseFloorEstimator noiseFloorEstimator;
         
         // 增益调整历史
         float[] recentGains = new float[10];
         int gainIndex = 0;
+
+        // 复用的样本缓冲区
+        float[] samples = new float[AudioUtils.FRAME_SIZE * 12];
+
+        public float[] samples(int size) {
+            if (samples.length < size) {
+                samples = new float[size];
+            }
+            return samples;
+        }
         
-        public AgcState(float targetLevel, float maxGain, float minGain) {
+        public AgcState(float targetLevel, float maxGain, float minGain, NoiseFloorEstimator noiseFloorEstimator) {
             this.targetLevel = targetLevel;
             this.maxGain = maxGain;
             this.minGain = minGain;
+            this.noiseFloorEstimator = noiseFloorEstimator;
             
             // 初始化增益历史
             for (int i = 0; i < recentGains.length; i++) {
@@ -62,19 +77,12 @@ public class AutomaticGainControl {
         }
         
         public void updateNoiseFloor(float level) {
-            recentLevels[levelIndex % recentLevels.length] = level;
-            levelIndex++;
+            noiseFloorEstimator.update(level);
             
-            if (levelIndex >= recentLevels.length) {
-                // 计算最低的 20% 作为噪声底
-                float[] sorted = recentLevels.clone();
-                java.util.Arrays.sort(sorted);
-                int count = recentLevels.length / 5;
-                float sum = 0;
-                for (int i = 0; i < count; i++) {
-                    sum += sorted[i];
-                }
-                noiseFloor = Math.max(0.00001f, sum / count);  // 确保噪声底不会太小
+            if (noiseFloorEstimator.isReady()) {
+                // 最近电平中最低的 20% 作为噪声底
+                noiseFloor = Math.max(0.00001f, noiseFloorEstimator.estimate());  // 确保噪声底不会太小
+                noiseFloorReady = true;
             }
         }
         
@@ -108,10 +116,12 @@ public class AutomaticGainControl {
         AgcState state = getOrCreateState(sessionId, deviceType);
         
         // 转换为浮点数组
-        float[] samples = bytesToFloats(pcmData);
+        int sampleCount = pcmData.length / 2;
+        float[] samples = state.samples(sampleCount);
+        PcmKernels.pcmToFloat(pcmData, 0, samples, sampleCount);
         
         // 计算当前帧的电平
-        float currentLevel = calculateLevel(samples);
+        float currentLevel = PcmKernels.rms(samples, sampleCount);
         
         // 更新噪声底估计
         state.updateNoiseFloor(currentLevel);
@@ -172,11 +182,6 @@ public class AutomaticGainControl {
             actualGain = Math.min(state.maxGain, actualGain * 2.0f);
         }
         
-        float[] processedSamples = applyGain(samples, actualGain);
-        
-        // 防止削波
-        processedSamples = limitSamples(processedSamples);
-        
         // 每50帧记录一次AGC状态 (减少日志频率)
         state.frameCount++;
         // if (state.frameCount % 50 == 0) {
@@ -189,8 +194,10 @@ public class AutomaticGainControl {
         //             sessionId, formattedLevel, formattedGain, formattedNoiseFloor, formattedSnr, deviceType);
         // }
         
-        // 转换回字节数组
-        return floatsToBytes(processedSamples);
+        // 应用增益并限幅防止削波（留一点余量），转换回字节数组
+        byte[] result = new byte[sampleCount * 2];
+        PcmKernels.floatToPcm(samples, sampleCount, actualGain, 0.95f, result, 0);
+        return result;
     }
     
     /**
@@ -230,83 +237,42 @@ public class AutomaticGainControl {
                 }
             }
 
-            return new AgcState(targetLevel, maxGain, minGain);
+            return new AgcState(targetLevel, maxGain, minGain, NoiseFloorEstimator.create(noiseFloorEstimator));
         });
     }
     
     /**
-     * 计算音频电平（RMS）
-     */
-    private float calculateLevel(float[] samples) {
-        if (samples.length == 0) return 0.0f;
-        
-        float sum = 0.0f;
-        for (float sample : samples) {
-            sum += sample * sample;
-        }
-        return (float)Math.sqrt(sum / samples.length);
-    }
-    
-    /**
-     * 应用增益
-     */
-    private float[] applyGain(float[] samples, float gain) {
-        float[] result = new float[samples.length];
-        for (int i = 0; i < samples.length; i++) {
-            result[i] = samples[i] * gain;
-        }
-        return result;
-    }
-    
-    /**
-     * 限制样本值防止削波
+     * 获取当前增益值
      */
-    private float[] limitSamples(float[] samples) {
-        float[] result = new float[samples.length];
-        for (int i = 0; i < samples.length; i++) {
-            result[i] = Math.max(-0.95f, Math.min(0.95f, samples[i]));  // 留一点余量
-        }
-        return result;
+    public float getCurrentGain(String sessionId) {
+        AgcState state = sessionStates.get(sessionId);
+        return state != null ? state.currentGain : 1.0f;
     }
     
     /**
-     * 字节数组转浮点数组
+     * 获取当前噪声底，会话不存在时返回0，每帧调用时代替 {@link #getStats} 避免创建对象
      */
-    private float[] bytesToFloats(byte[] pcmData) {
-        int sampleCount = pcmData.length / 2;
-        float[] samples = new float[sampleCount];
-        
-        ByteBuffer buffer = ByteBuffer.wrap(pcmData).order(ByteOrder.LITTLE_ENDIAN);
-        for (int i = 0; i < sampleCount; i++) {
-            short sample = buffer.getShort();
-            samples[i] = sample / 32768.0f;
-        }
-        
-        return samples;
+    public float getNoiseFloor(String sessionId) {
+        AgcState state = sessionStates.get(sessionId);
+        return state != null ? state.noiseFloor : 0.0f;
     }
-    
+
     /**
-     * 浮点数组转字节数组
+     * 噪声底是否已由估计器建立，未建立时 {@link #getNoiseFloor} 返回的只是初始值
      */
-    private byte[] floatsToBytes(float[] samples) {
-        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
-        
-        for (float sample : samples) {
-            short pcmSample = (short)(sample * 32767);
-            buffer.putShort(pcmSample);
-        }
-        
-        return buffer.array();
+    public boolean isNoiseFloorReady(String sessionId) {
+        AgcState state = sessionStates.get(sessionId);
+        return state != null && state.noiseFloorReady;
     }
-    
+
     /**
-     * 获取当前增益值
+     * 获取当前信噪比，会话不存在时返回0
      */
-    public float getCurrentGain(String sessionId) {
+    public float getSnr(String sessionId) {
         AgcState state = sessionStates.get(sessionId);
-        return state != null ? state.currentGain : 1.0f;
+        return state != null ? state.smoothedLevel / (state.noiseFloor + 1e-10f) : 0.0f;
     }
-    
+
     /**
      * 获取AGC统计信息
      */
@@ -324,6 +290,13 @@ public class AutomaticGainControl {
         );
     }
     
+    /**
+     * 获取噪声底估计器类型
+     */
+    public String getNoiseFloorEstimator() {
+        return noiseFloorEstimator;
+    }
+
     /**
      * 重置会话的AGC状态
      */
@@ -0,0 +1,267 @@
+package com.xiaozhi.utils;
+
+import java.util.Arrays;
+
+/**
+ * 噪声底估计器
+ * 根据最近若干帧的电平估计噪声底，每帧调用一次 {@link #update(float)}，不分配内存。
+ *
+ * 可选实现：
+ * - window：滑动窗口内最低20%电平的平均值，维护有序窗口增量更新，结果与 sort 一致（仅有浮点舍入差异）
+ * - p2：P²算法在线估计电平的10%分位数（即最低20%的中位数），O(1)且不保存历史，但没有窗口，不会遗忘很久以前的电平
+ * - sort：每帧复制窗口并完整排序，原有实现，仅用于对比
+ */
+public interface NoiseFloorEstimator {
+
+    // 窗口长度（帧）
+    int WINDOW = 50;
+
+    // 取窗口内最低的 1/5
+    int LOWEST = WINDOW / 5;
+
+    /**
+     * 输入一帧的电平
+     */
+    void update(float level);
+
+    /**
+     * 窗口是否已填满，填满前估计值不可用
+     */
+    boolean isReady();
+
+    /**
+     * 当前噪声底估计
+     */
+    float estimate();
+
+    /**
+     * 按名称创建估计器，未知名称使用 window
+     */
+    static NoiseFloorEstimator create(String type) {
+        if (type == null) {
+            return new SortedWindow();
+        }
+        return switch (type.toLowerCase()) {
+            case "p2" -> new P2Quantile(0.1);
+            case "sort" -> new FullSort();
+            default -> new SortedWindow();
+        };
+    }
+
+    /**
+     * 有序滑动窗口：环形数组记录到达顺序，另一个数组保持有序。
+     * 每帧二分查找删除最旧电平、插入新电平，同时增量维护最低 LOWEST 个电平的和。
+     */
+    final class SortedWindow implements NoiseFloorEstimator {
+        private final float[] ring = new float[WINDOW];
+        private final float[] sorted = new float[WINDOW];
+        private int count = 0;
+        private int next = 0;
+        private double lowestSum = 0;
+
+        @Override
+        public void update(float level) {
+            if (count == WINDOW) {
+                remove(ring[next]);
+            }
+            insert(level);
+            ring[next] = level;
+            next = (next + 1) % WINDOW;
+        }
+
+        private void remove(float level) {
+            int index = indexOf(level);
+            if (index < LOWEST) {
+                // 第 LOWEST 小的电平补进最低区间
+                lowestSum += sorted[LOWEST] - level;
+            }
+            System.arraycopy(sorted, index + 1, sorted, index, count - index - 1);
+            count--;
+        }
+
+        private void insert(float level) {
+            int index = upperBound(level);
+            System.arraycopy(sorted, index, sorted, index + 1, count - index);
+            sorted[index] = level;
+            count++;
+            if (index < LOWEST) {
+                lowestSum += level;
+                if (count > LOWEST) {
+                    // 原来第 LOWEST 小的电平被挤出最低区间
+                    lowestSum -= sorted[LOWEST];
+                }
+            } else if (count <= LOWEST) {
+                lowestSum += level;
+            }
+        }
+
+        private int indexOf(float level) {
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sorted[mid] < level) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        private int upperBound(float level) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sorted[mid] <= level) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        public boolean isReady() {
+            return count == WINDOW;
+        }
+
+        @Override
+        public float estimate() {
+            return (float) (lowestSum / LOWEST);
+        }
+    }
+
+    /**
+     * P²分位数估计（Jain & Chlamtac），用5个标记点在线跟踪指定分位数
+     */
+    final class P2Quantile implements NoiseFloorEstimator {
+        private final double p;
+        private final double[] heights = new double[5];
+        private final double[] positions = new double[5];
+        private final double[] desired = new double[5];
+        private final double[] increments = new double[5];
+        private long count = 0;
+
+        P2Quantile(double p) {
+            this.p = p;
+            increments[0] = 0;
+            increments[1] = p / 2;
+            increments[2] = p;
+            increments[3] = (1 + p) / 2;
+            increments[4] = 1;
+        }
+
+        @Override
+        public void update(float level) {
+            if (count < 5) {
+                heights[(int) count] = level;
+                count++;
+                if (count == 5) {
+                    Arrays.sort(heights);
+                    for (int i = 0; i < 5; i++) {
+                        positions[i] = i + 1;
+                    }
+                    desired[0] = 1;
+                    desired[1] = 1 + 2 * p;
+                    desired[2] = 1 + 4 * p;
+                    desired[3] = 3 + 2 * p;
+                    desired[4] = 5;
+                }
+                return;
+            }
+            count++;
+
+            // 找到所在区间并更新极值
+            int k;
+            if (level < heights[0]) {
+                heights[0] = level;
+                k = 0;
+            } else if (level >= heights[4]) {
+                heights[4] = level;
+                k = 3;
+            } else {
+                k = 0;
+                while (k < 3 && level >= heights[k + 1]) {
+                    k++;
+                }
+            }
+            for (int i = k + 1; i < 5; i++) {
+                positions[i]++;
+            }
+            for (int i = 0; i < 5; i++) {
+                desired[i] += increments[i];
+            }
+
+            // 调整中间三个标记点
+            for (int i = 1; i <= 3; i++) {
+                double d = desired[i] - positions[i];
+                if ((d >= 1 && positions[i + 1] - positions[i] > 1)
+                        || (d <= -1 && positions[i - 1] - positions[i] < -1)) {
+                    int sign = d > 0 ? 1 : -1;
+                    double h = parabolic(i, sign);
+                    if (heights[i - 1] < h && h < heights[i + 1]) {
+                        heights[i] = h;
+                    } else {
+                        heights[i] = linear(i, sign);
+                    }
+                    positions[i] += sign;
+                }
+            }
+        }
+
+        private double parabolic(int i, int d) {
+            return heights[i] + d / (positions[i + 1] - positions[i - 1])
+                    * ((positions[i] - positions[i - 1] + d) * (heights[i + 1] - heights[i])
+                    / (positions[i + 1] - positions[i])
+                    + (positions[i + 1] - positions[i] - d) * (heights[i] - heights[i - 1])
+                    / (positions[i] - positions[i - 1]));
+        }
+
+        private double linear(int i, int d) {
+            return heights[i] + d * (heights[i + d] - heights[i]) / (positions[i + d] - positions[i]);
+        }
+
+        @Override
+        public boolean isReady() {
+            return count >= WINDOW;
+        }
+
+        @Override
+        public float estimate() {
+            return (float) heights[2];
+        }
+    }
+
+    /**
+     * 原有实现：每帧复制窗口并排序
+     */
+    final class FullSort implements NoiseFloorEstimator {
+        private final float[] recentLevels = new float[WINDOW];
+        private int levelIndex = 0;
+
+        @Override
+        public void update(float level) {
+            recentLevels[levelIndex % recentLevels.length] = level;
+            levelIndex++;
+        }
+
+        @Override
+        public boolean isReady() {
+            return levelIndex >= recentLevels.length;
+        }
+
+        @Override
+        public float estimate() {
+            float[] sorted = recentLevels.clone();
+            Arrays.sort(sorted);
+            float sum = 0;
+            for (int i = 0; i < LOWEST; i++) {
+                sum += sorted[i];
+            }
+            return sum / LOWEST;
+        }
+    }
+}
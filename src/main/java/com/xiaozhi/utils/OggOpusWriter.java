@@ -0,0 +1,289 @@
+package com.xiaozhi.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 增量Ogg-Opus写入器（RFC 7845）
+ * 直接保存已有的Opus数据包（设备上传的原始帧或实际下发给设备的帧），不做重新编码。
+ * 数据包先在内存中凑满一页（约1秒）再写入文件，关闭时写出带结束标志的最后一页。
+ * 生成的文件可以被 {@link OpusProcessor#readOpus} 读取，也可以在浏览器中直接播放。
+ */
+public class OggOpusWriter implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(OggOpusWriter.class);
+
+    public static final String EXTENSION = ".ogg";
+
+    // 每页最多的数据包数，60ms一帧时约1秒一页
+    private static final int PACKETS_PER_PAGE = 16;
+
+    // 页头固定部分长度（不含分段表）
+    private static final int PAGE_HEADER_SIZE = 27;
+
+    private static final byte FLAG_CONTINUED = 0x01;
+    private static final byte FLAG_BOS = 0x02;
+    private static final byte FLAG_EOS = 0x04;
+
+    private static final int[] CRC_TABLE = new int[256];
+
+    // SILK模式下各配置的帧长（48kHz样本数）：10/20/40/60ms
+    private static final int[] SILK_FRAME_SAMPLES = {480, 960, 1920, 2880};
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i << 24;
+            for (int j = 0; j < 8; j++) {
+                crc = (crc & 0x80000000) != 0 ? (crc << 1) ^ 0x04C11DB7 : crc << 1;
+            }
+            CRC_TABLE[i] = crc;
+        }
+    }
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int serial = ThreadLocalRandom.current().nextInt();
+    private int pageSequence = 0;
+
+    // 当前页缓存的数据包
+    private final byte[][] pending = new byte[PACKETS_PER_PAGE][];
+    private int pendingCount = 0;
+
+    // 已写入数据包的总样本数（48kHz）
+    private long granulePosition = 0;
+    private long packetCount = 0;
+    private boolean failed = false;
+    private boolean closed = false;
+
+    private OggOpusWriter(String fileName, FileChannel channel) {
+        this.fileName = fileName;
+        this.channel = channel;
+    }
+
+    /**
+     * 在音频目录下创建新的Ogg-Opus文件，并写入 OpusHead 和 OpusTags 两个头页
+     */
+    public static OggOpusWriter create() throws IOException {
+        String fileName = UUID.randomUUID().toString().replace("-", "") + EXTENSION;
+        return create(Paths.get(AudioUtils.AUDIO_PATH, fileName));
+    }
+
+    /**
+     * 在指定路径创建Ogg-Opus文件，已存在时覆盖
+     */
+    public static OggOpusWriter create(Path path) throws IOException {
+        String fileName = path.getFileName().toString();
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        OggOpusWriter writer = new OggOpusWriter(fileName, channel);
+        try {
+            writer.writeHeaders();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return writer;
+    }
+
+    /**
+     * 文件名（不含目录）
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * 已写入的数据包数
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    /**
+     * 追加一个Opus数据包
+     */
+    public void writePacket(byte[] packet) {
+        if (packet == null || packet.length == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed || failed) {
+                return;
+            }
+            pending[pendingCount++] = packet;
+            granulePosition += packetSamples(packet);
+            packetCount++;
+            if (pendingCount == PACKETS_PER_PAGE) {
+                flushPage((byte) 0);
+            }
+        } catch (IOException e) {
+            failed = true;
+            logger.error("写入Ogg数据失败 - 文件: {}", fileName, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写出最后一页并关闭文件
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!failed) {
+                flushPage(FLAG_EOS);
+            }
+        } catch (IOException e) {
+            logger.error("写入Ogg结束页失败 - 文件: {}", fileName, e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("关闭Ogg文件失败 - 文件: {}", fileName, e);
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在虚拟线程中关闭文件，调用方不等待磁盘IO
+     */
+    public void closeAsync() {
+        Thread.startVirtualThread(this::close);
+    }
+
+    private void writeHeaders() throws IOException {
+        // OpusHead：版本1，单声道，pre-skip 0，原始采样率16kHz，增益0，映射族0
+        ByteBuffer head = ByteBuffer.allocate(19).order(ByteOrder.LITTLE_ENDIAN);
+        head.put("OpusHead".getBytes(StandardCharsets.US_ASCII));
+        head.put((byte) 1);
+        head.put((byte) AudioUtils.CHANNELS);
+        head.putShort((short) 0);
+        head.putInt(AudioUtils.SAMPLE_RATE);
+        head.putShort((short) 0);
+        head.put((byte) 0);
+        writePage(FLAG_BOS, 0, head.array());
+
+        byte[] vendor = "xiaozhi".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer tags = ByteBuffer.allocate(8 + 4 + vendor.length + 4).order(ByteOrder.LITTLE_ENDIAN);
+        tags.put("OpusTags".getBytes(StandardCharsets.US_ASCII));
+        tags.putInt(vendor.length);
+        tags.put(vendor);
+        tags.putInt(0);
+        writePage((byte) 0, 0, tags.array());
+    }
+
+    private void flushPage(byte flags) throws IOException {
+        byte[][] packets = new byte[pendingCount][];
+        System.arraycopy(pending, 0, packets, 0, pendingCount);
+        pendingCount = 0;
+        writePage(flags, granulePosition, packets);
+    }
+
+    private void writePage(byte flags, long granule, byte[]... packets) throws IOException {
+        int segmentCount = 0;
+        int dataLength = 0;
+        for (byte[] packet : packets) {
+            segmentCount += packet.length / 255 + 1;
+            dataLength += packet.length;
+        }
+        if (segmentCount > 255) {
+            // 单页最多255个分段，超出时拆成多页（只在异常大的数据包时出现）
+            int half = packets.length / 2;
+            byte[][] first = new byte[half][];
+            byte[][] second = new byte[packets.length - half][];
+            System.arraycopy(packets, 0, first, 0, half);
+            System.arraycopy(packets, half, second, 0, second.length);
+            long firstGranule = granule;
+            for (byte[] packet : second) {
+                firstGranule -= packetSamples(packet);
+            }
+            writePage((byte) (flags & ~FLAG_EOS), firstGranule, first);
+            writePage((byte) (flags & ~FLAG_BOS), granule, second);
+            return;
+        }
+
+        ByteBuffer page = ByteBuffer.allocate(PAGE_HEADER_SIZE + segmentCount + dataLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        page.put("OggS".getBytes(StandardCharsets.US_ASCII));
+        page.put((byte) 0);
+        page.put((byte) (flags & ~FLAG_CONTINUED));
+        page.putLong(granule);
+        page.putInt(serial);
+        page.putInt(pageSequence++);
+        page.putInt(0); // 校验和，稍后填充
+        page.put((byte) segmentCount);
+        for (byte[] packet : packets) {
+            int remaining = packet.length;
+            while (remaining >= 255) {
+                page.put((byte) 255);
+                remaining -= 255;
+            }
+            page.put((byte) remaining);
+        }
+        for (byte[] packet : packets) {
+            page.put(packet);
+        }
+        page.putInt(22, crc(page.array()));
+        page.flip();
+        while (page.hasRemaining()) {
+            channel.write(page);
+        }
+    }
+
+    private static int crc(byte[] data) {
+        int crc = 0;
+        for (byte b : data) {
+            crc = (crc << 8) ^ CRC_TABLE[((crc >>> 24) & 0xFF) ^ (b & 0xFF)];
+        }
+        return crc;
+    }
+
+    /**
+     * 根据TOC字节计算数据包包含的样本数（48kHz）
+     */
+    static int packetSamples(byte[] packet) {
+        int toc = packet[0] & 0xFF;
+        int config = toc >> 3;
+        int frameSamples;
+        if (config < 12) {
+            // SILK：10/20/40/60ms
+            frameSamples = SILK_FRAME_SAMPLES[config & 3];
+        } else if (config < 16) {
+            // Hybrid：10/20ms
+            frameSamples = (config & 1) == 0 ? 480 : 960;
+        } else {
+            // CELT：2.5/5/10/20ms
+            frameSamples = 120 << (config & 3);
+        }
+        int frames = switch (toc & 3) {
+            case 0 -> 1;
+            case 1, 2 -> 2;
+            default -> packet.length > 1 ? packet[1] & 0x3F : 0;
+        };
+        return frameSamples * frames;
+    }
+}
@@ -0,0 +1,297 @@
+package com.xiaozhi.utils;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 音频文件的Opus帧存储
+ * 可重播的音频文件第一次播放时编码为Opus帧，帧列表保存在内存LRU中，同时写入同目录下的 .frames 文件；
+ * 之后再播放同一文件（如验证码语音）直接读取帧，不再解码和编码。只播放一次的文件用 {@link #encode} 在内存中编码，不占用存储。
+ * 超过有效期未更新的 .frames 文件定时删除。
+ *
+ * .frames 文件格式（小端）：魔数"OPFR"、帧数（4字节），之后每帧为长度（2字节）加帧数据。
+ * 源文件比 .frames 文件新时视为已变更，重新编码。
+ */
+@Component
+public class OpusFrameStore {
+    private static final Logger logger = LoggerFactory.getLogger(OpusFrameStore.class);
+
+    public static final String EXTENSION = ".frames";
+
+    private static final int MAGIC = 0x5246504F; // "OPFR"
+    private static final int HEADER_SIZE = 8;
+
+    // 每帧额外占用的内存估算（数组对象头和链表引用）
+    private static final int FRAME_OVERHEAD = 32;
+
+    @Value("${audio.frame-store.memory.max-bytes:8388608}")
+    private long memoryMaxBytes;
+
+    @Value("${audio.frame-store.disk.ttl-hours:168}")
+    private long diskTtlHours;
+
+    @Resource
+    private OpusProcessor opusProcessor;
+
+    private record Entry(long sourceModified, List<byte[]> frames, long size) {
+    }
+
+    // 访问顺序的LinkedHashMap，最久未使用的在最前
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(64, 0.75f, true);
+    private final ReentrantLock lock = new ReentrantLock();
+    private long memoryBytes = 0;
+
+    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofVirtual().name("opus-frame-store-cleaner-", 0).factory());
+
+    @PostConstruct
+    public void init() {
+        cleaner.scheduleWithFixedDelay(this::cleanExpired, 1, 60, TimeUnit.MINUTES);
+    }
+
+    @PreDestroy
+    public void destroy() {
+        cleaner.shutdownNow();
+    }
+
+    /**
+     * 读取音频文件的Opus帧，没有编码结果时编码并保存
+     *
+     * @param audioPath 音频文件路径（wav/mp3/pcm/opus/ogg）
+     * @return 帧列表，文件不存在或无法解码时返回空列表
+     */
+    public List<byte[]> load(String audioPath) throws IOException {
+        File source = new File(audioPath);
+        if (!source.isFile()) {
+            logger.warn("音频文件不存在: {}", audioPath);
+            return List.of();
+        }
+        long modified = source.lastModified();
+        String key = source.getAbsolutePath();
+
+        lock.lock();
+        try {
+            Entry entry = memory.get(key);
+            if (entry != null && entry.sourceModified() == modified) {
+                return entry.frames();
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        Path framesPath = Paths.get(audioPath + EXTENSION);
+        List<byte[]> frames = null;
+        File framesFile = framesPath.toFile();
+        if (framesFile.isFile() && framesFile.lastModified() >= modified) {
+            frames = read(framesPath);
+        }
+        if (frames == null) {
+            frames = encodeFile(audioPath);
+            if (!frames.isEmpty()) {
+                List<byte[]> snapshot = frames;
+                Thread.startVirtualThread(() -> write(framesPath, snapshot));
+            }
+        }
+        put(key, new Entry(modified, frames, sizeOf(frames)));
+        return frames;
+    }
+
+    /**
+     * 在内存中编码音频文件，不读写存储，用于只播放一次的文件
+     *
+     * @param audioPath 音频文件路径（wav/mp3/pcm/opus/ogg）
+     * @return 帧列表，文件不存在时返回空列表
+     */
+    public List<byte[]> encode(String audioPath) throws IOException {
+        if (!new File(audioPath).isFile()) {
+            logger.warn("音频文件不存在: {}", audioPath);
+            return List.of();
+        }
+        return encodeFile(audioPath);
+    }
+
+    private List<byte[]> encodeFile(String audioPath) throws IOException {
+        String lower = audioPath.toLowerCase();
+        if (lower.contains(".opus") || lower.endsWith(OggOpusWriter.EXTENSION)) {
+            // 已经是Opus数据，直接读取帧
+            return List.copyOf(opusProcessor.readOpus(new File(audioPath)));
+        }
+        List<byte[]> frames = new ArrayList<>();
+        OpusStreamEncoder encoder = opusProcessor.createStreamEncoder(frames::add);
+        encoder.write(AudioUtils.readAsPcm(audioPath));
+        encoder.finish();
+        return List.copyOf(frames);
+    }
+
+    private void put(String key, Entry entry) {
+        if (entry.size() > memoryMaxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry previous = memory.put(key, entry);
+            if (previous != null) {
+                memoryBytes -= previous.size();
+            }
+            memoryBytes += entry.size();
+            Iterator<Entry> it = memory.values().iterator();
+            while (memoryBytes > memoryMaxBytes && it.hasNext()) {
+                memoryBytes -= it.next().size();
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static long sizeOf(List<byte[]> frames) {
+        long size = 0;
+        for (byte[] frame : frames) {
+            size += frame.length + FRAME_OVERHEAD;
+        }
+        return size;
+    }
+
+    /**
+     * 内存映射读取 .frames 文件，格式不对时返回null
+     */
+    private List<byte[]> read(Path path) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC) {
+                return null;
+            }
+            int count = buffer.getInt();
+            List<byte[]> frames = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                if (buffer.remaining() < 2) {
+                    return null;
+                }
+                int length = buffer.getShort() & 0xFFFF;
+                if (buffer.remaining() < length) {
+                    return null;
+                }
+                byte[] frame = new byte[length];
+                buffer.get(frame);
+                frames.add(frame);
+            }
+            return List.copyOf(frames);
+        } catch (IOException e) {
+            logger.warn("读取Opus帧文件失败 - 文件: {}, 错误: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * 写入 .frames 文件，先写临时文件再改名，并发读取时不会读到写了一半的文件
+     */
+    private void write(Path path, List<byte[]> frames) {
+        for (byte[] frame : frames) {
+            if (frame.length > 0xFFFF) {
+                // 不是正常的Opus帧（无法识别格式的文件整体作为一帧），只缓存在内存中
+                return;
+            }
+        }
+        Path temp = path.resolveSibling(path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + frames.size() * 2 + dataLength(frames))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(frames.size());
+        for (byte[] frame : frames) {
+            buffer.putShort((short) frame.length);
+            buffer.put(frame);
+        }
+        buffer.flip();
+        try {
+            try (FileChannel channel = FileChannel.open(temp,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("保存Opus帧文件失败 - 文件: {}, 错误: {}", path, e.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * 删除音频目录下过期的 .frames 文件，源文件已删除的同时清理
+     */
+    private void cleanExpired() {
+        Path root = Paths.get(AudioUtils.AUDIO_PATH);
+        if (!Files.isDirectory(root)) {
+            return;
+        }
+        long expireBefore = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(diskTtlHours);
+        int removed = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(root, "*" + EXTENSION)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Path source = file.resolveSibling(name.substring(0, name.length() - EXTENSION.length()));
+                if ((file.toFile().lastModified() < expireBefore || !Files.exists(source))
+                        && deleteQuietly(file)) {
+                    removed++;
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("清理Opus帧文件失败: {}", e.getMessage());
+        }
+        if (removed > 0) {
+            logger.info("已清理过期Opus帧文件 {} 个", removed);
+        }
+    }
+
+    private static boolean deleteQuietly(Path path) {
+        try {
+            return Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("删除Opus帧文件失败 - 文件: {}, 错误: {}", path, e.getMessage());
+            return false;
+        }
+    }
+
+    private static int dataLength(List<byte[]> frames) {
+        int length = 0;
+        for (byte[] frame : frames) {
+            length += frame.length;
+        }
+        return length;
+    }
+}
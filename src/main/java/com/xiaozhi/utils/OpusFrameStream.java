@@ -0,0 +1,74 @@
+package com.xiaozhi.utils;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Opus帧流
+ * 生产方（流式TTS编码线程）边合成边追加帧，消费方（帧发送任务）按节奏取帧；
+ * 生产方结束后调用 {@link #complete()}，取完剩余帧即播放完毕。
+ * 播放被打断时消费方调用 {@link #cancel()}，之后追加的帧直接丢弃。
+ */
+public class OpusFrameStream {
+
+    private final ConcurrentLinkedQueue<byte[]> frames = new ConcurrentLinkedQueue<>();
+    private volatile boolean complete = false;
+    private volatile boolean cancelled = false;
+
+    /**
+     * 用已有的帧创建已结束的流
+     */
+    public static OpusFrameStream of(List<byte[]> frames) {
+        OpusFrameStream stream = new OpusFrameStream();
+        stream.frames.addAll(frames);
+        stream.complete();
+        return stream;
+    }
+
+    /**
+     * 追加一帧
+     */
+    public void offer(byte[] frame) {
+        if (!cancelled) {
+            frames.offer(frame);
+        }
+    }
+
+    /**
+     * 取出下一帧，暂无可用帧时返回null
+     */
+    public byte[] poll() {
+        return frames.poll();
+    }
+
+    /**
+     * 生产方已写完所有帧
+     */
+    public void complete() {
+        complete = true;
+    }
+
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * 已结束且所有帧都已取出
+     */
+    public boolean isDrained() {
+        // 先读完成标志：完成前追加的帧此时一定可见
+        return complete && frames.isEmpty();
+    }
+
+    /**
+     * 取消播放，清空并丢弃后续帧
+     */
+    public void cancel() {
+        cancelled = true;
+        frames.clear();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
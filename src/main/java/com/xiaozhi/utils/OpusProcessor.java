@@ -10,11 +10,13 @@ import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.ShortBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
 @Component
 public class OpusProcessor {
@@ -168,25 +170,17 @@ public class OpusProcessor {
             } else {
                 // 后续片段需要与前一个片段进行平滑过渡
                 int overlapStart = Math.max(0, offset - overlapBytes);
-                int overlapLength = Math.min(overlapBytes, offset - overlapStart);
+                int overlapLength = Math.min(Math.min(overlapBytes, offset - overlapStart), chunk.length) & ~1;
                 
                 if (overlapLength > 0 && chunk.length > 0) {
                     // 在重叠区域应用线性交叉淡变
-                    for (int j = 0; j < overlapLength; j += 2) {
-                        // 计算淡变权重
-                        float weight = (float)j / overlapLength;
-                        
-                        // 获取重叠区域的样本
-                        short sample1 = (short)((result[overlapStart + j] & 0xFF) | ((result[overlapStart + j + 1] & 0xFF) << 8));
-                        short sample2 = (short)((chunk[j] & 0xFF) | ((chunk[j + 1] & 0xFF) << 8));
-                        
-                        // 线性混合
-                        short mixed = (short)((1 - weight) * sample1 + weight * sample2);
-                        
-                        // 写回结果
-                        result[overlapStart + j] = (byte)(mixed & 0xFF);
-                        result[overlapStart + j + 1] = (byte)((mixed >> 8) & 0xFF);
-                    }
+                    int overlapSamples = overlapLength / 2;
+                    float[] previous = new float[overlapSamples];
+                    float[] next = new float[overlapSamples];
+                    PcmKernels.pcmToFloat(result, overlapStart, previous, overlapSamples);
+                    PcmKernels.pcmToFloat(chunk, 0, next, overlapSamples);
+                    PcmKernels.crossfade(previous, next, previous, overlapSamples);
+                    PcmKernels.floatToPcm(previous, overlapSamples, 1.0f, 1.0f, result, overlapStart);
                     
                     // 复制剩余部分
                     System.arraycopy(chunk, overlapLength, result, offset, chunk.length - overlapLength);
@@ -209,6 +203,25 @@ public class OpusProcessor {
         return result;
     }
 
+    /**
+     * 解码Opus数据到调用方提供的缓冲区，用于需要复用缓冲区的热路径
+     *
+     * @return 解码得到的样本数
+     */
+    public int opusToPcm(String sid, byte[] data, short[] out) throws OpusException {
+        if (data == null || data.length == 0) {
+            return 0;
+        }
+
+        try {
+            return getDecoder(sid).decode(data, 0, data.length, out, 0, out.length, false);
+        } catch (OpusException e) {
+            logger.warn("解码失败: {}", e.getMessage());
+            resetDecoder(sid);
+            throw e;
+        }
+    }
+
     /**
      * Opus转short数组
      */
@@ -332,8 +345,8 @@ public class OpusProcessor {
                 // 跳过版本和标志
                 in.skip(2);
 
-                // 跳过粒度位置、序列号、页序号、校验和
-                in.skip(16);
+                // 跳过粒度位置(8)、序列号(4)、页序号(4)、校验和(4)
+                in.skip(20);
 
                 // 读取分段数
                 int segCount = in.read();
@@ -369,7 +382,8 @@ public class OpusProcessor {
 
                     // 如果段长不是255，表示包结束
                     if (segLen != 255) {
-                        if (packetLen > 0 && offset + packetLen <= pageData.length) {
+                        if (packetLen > 0 && offset + packetLen <= pageData.length
+                                && !isOpusHeaderPacket(pageData, offset, packetLen)) {
                             byte[] packet = new byte[packetLen];
                             System.arraycopy(pageData, offset, packet, 0, packetLen);
                             packets.add(packet);
@@ -393,6 +407,17 @@ public class OpusProcessor {
         return packets;
     }
 
+    /**
+     * OpusHead / OpusTags 头包，不是音频数据
+     */
+    private boolean isOpusHeaderPacket(byte[] data, int offset, int length) {
+        if (length < 8) {
+            return false;
+        }
+        String magic = new String(data, offset, 8, StandardCharsets.US_ASCII);
+        return "OpusHead".equals(magic) || "OpusTags".equals(magic);
+    }
+
     /**
      * 读取Opus文件
      */
@@ -822,26 +847,38 @@ public class OpusProcessor {
      * 获取编码器
      */
     private OpusEncoder getEncoder(String sid, int rate, int channels) {
-        return encoders.computeIfAbsent(sid, k -> {
-            try {
-                OpusEncoder encoder = new OpusEncoder(rate, channels, OpusApplication.OPUS_APPLICATION_VOIP);
-
-                // 优化设置
-                encoder.setBitrate(AudioUtils.BITRATE);
-                // 这里后续看是不是要针对音乐做一个切换
-                encoder.setSignalType(OpusSignal.OPUS_SIGNAL_VOICE);
-                encoder.setComplexity(5); // 复杂度高音质好，低速度快
-                encoder.setPacketLossPercent(0); // 降低丢包补偿，减少处理延迟
-                encoder.setForceChannels(channels);
-                encoder.setUseVBR(false); // 使用CBR模式确保稳定的比特率
-                encoder.setUseDTX(false); // 禁用DTX以确保连续的帧
-
-                return encoder;
-            } catch (OpusException e) {
-                logger.error("创建编码器失败: 采样率={}, 通道={}", rate, channels, e);
-                throw new RuntimeException("创建编码器失败", e);
-            }
-        });
+        return encoders.computeIfAbsent(sid, k -> newEncoder(rate, channels));
+    }
+
+    /**
+     * 创建流式编码器，PCM数据分块写入，每凑满一帧即编码输出
+     * 每个流独立持有编码器，同一会话中并发合成的多个句子互不影响
+     *
+     * @param frameConsumer 接收编码后的Opus帧
+     */
+    public OpusStreamEncoder createStreamEncoder(Consumer<byte[]> frameConsumer) {
+        return new OpusStreamEncoder(newEncoder(SAMPLE_RATE, CHANNELS), frameConsumer, PRE_WARM_FRAMES);
+    }
+
+    private OpusEncoder newEncoder(int rate, int channels) {
+        try {
+            OpusEncoder encoder = new OpusEncoder(rate, channels, OpusApplication.OPUS_APPLICATION_VOIP);
+
+            // 优化设置
+            encoder.setBitrate(AudioUtils.BITRATE);
+            // 这里后续看是不是要针对音乐做一个切换
+            encoder.setSignalType(OpusSignal.OPUS_SIGNAL_VOICE);
+            encoder.setComplexity(5); // 复杂度高音质好，低速度快
+            encoder.setPacketLossPercent(0); // 降低丢包补偿，减少处理延迟
+            encoder.setForceChannels(channels);
+            encoder.setUseVBR(false); // 使用CBR模式确保稳定的比特率
+            encoder.setUseDTX(false); // 禁用DTX以确保连续的帧
+
+            return encoder;
+        } catch (OpusException e) {
+            logger.error("创建编码器失败: 采样率={}, 通道={}", rate, channels, e);
+            throw new RuntimeException("创建编码器失败", e);
+        }
     }
 
     /**
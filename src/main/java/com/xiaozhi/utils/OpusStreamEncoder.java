@@ -0,0 +1,148 @@
+package com.xiaozhi.utils;
+
+import io.github.jaredmdobson.concentus.OpusEncoder;
+import io.github.jaredmdobson.concentus.OpusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * 流式Opus编码器
+ * 接收任意长度的PCM数据块（16kHz、16bit、单声道、小端），凑满一帧（60ms）立即编码并交给帧消费者，
+ * 不足一帧的样本留到下一块，{@link #finish()} 时补静音编码最后一帧。
+ * 与 {@link OpusProcessor#pcmToOpus} 一致：开头输出预热静音帧，第一帧音频做20ms淡入。
+ *
+ * 通过 {@link OpusProcessor#createStreamEncoder} 创建。
+ */
+public class OpusStreamEncoder {
+    private static final Logger logger = LoggerFactory.getLogger(OpusStreamEncoder.class);
+
+    private static final int FRAME_SIZE = AudioUtils.FRAME_SIZE;
+    private static final int MAX_SIZE = 1275;
+
+    // 第一帧淡入样本数（20ms）
+    private static final int FADE_IN_SAMPLES = 320;
+
+    private final OpusEncoder encoder;
+    private final Consumer<byte[]> frameConsumer;
+    private final int preWarmFrames;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final short[] frame = new short[FRAME_SIZE];
+    private final byte[] opusBuf = new byte[MAX_SIZE];
+    private int frameFill = 0;
+
+    // 上一块数据末尾落单的字节，-1表示没有
+    private int pendingByte = -1;
+
+    private boolean started = false;
+    private boolean finished = false;
+    private long frameCount = 0;
+
+    OpusStreamEncoder(OpusEncoder encoder, Consumer<byte[]> frameConsumer, int preWarmFrames) {
+        this.encoder = encoder;
+        this.frameConsumer = frameConsumer;
+        this.preWarmFrames = preWarmFrames;
+    }
+
+    /**
+     * 写入PCM数据块
+     */
+    public void write(byte[] pcm) {
+        write(pcm, 0, pcm.length);
+    }
+
+    /**
+     * 写入PCM数据块，长度可以是奇数
+     */
+    public void write(byte[] pcm, int offset, int length) {
+        if (pcm == null || length <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            int p = offset;
+            int end = offset + length;
+            if (pendingByte >= 0) {
+                appendSample((short) (pendingByte | (pcm[p++] << 8)));
+                pendingByte = -1;
+            }
+            while (p + 1 < end) {
+                appendSample((short) ((pcm[p] & 0xFF) | (pcm[p + 1] << 8)));
+                p += 2;
+            }
+            if (p < end) {
+                pendingByte = pcm[p] & 0xFF;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 编码剩余样本（补静音到一帧），之后的写入会被忽略
+     */
+    public void finish() {
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (frameFill > 0) {
+                Arrays.fill(frame, frameFill, FRAME_SIZE, (short) 0);
+                encodeFrame();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 已输出的帧数（含预热帧）
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    private void appendSample(short sample) {
+        frame[frameFill++] = sample;
+        if (frameFill == FRAME_SIZE) {
+            encodeFrame();
+        }
+    }
+
+    private void encodeFrame() {
+        if (!started) {
+            started = true;
+            // 预热编码器，解决开头破音问题
+            short[] silence = new short[FRAME_SIZE];
+            for (int i = 0; i < preWarmFrames; i++) {
+                emit(silence);
+            }
+            for (int i = 0; i < FADE_IN_SAMPLES; i++) {
+                frame[i] = (short) (frame[i] * ((float) i / FADE_IN_SAMPLES));
+            }
+        }
+        emit(frame);
+        frameFill = 0;
+    }
+
+    private void emit(short[] samples) {
+        try {
+            int opusLen = encoder.encode(samples, 0, FRAME_SIZE, opusBuf, 0, opusBuf.length);
+            if (opusLen > 0) {
+                frameCount++;
+                frameConsumer.accept(Arrays.copyOf(opusBuf, opusLen));
+            }
+        } catch (OpusException e) {
+            logger.warn("流式编码失败: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.xiaozhi.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * PCM音频处理的基础运算
+ *
+ * 运行时加载了 jdk.incubator.vector 模块（启动参数 --add-modules jdk.incubator.vector）时使用SIMD实现，
+ * 否则使用标量实现，两者结果在浮点舍入误差范围内一致。可以通过系统属性 -Dpcm.vector.enabled=false 强制使用标量实现。
+ *
+ * 所有方法都写入调用方提供的数组，不分配内存；PCM字节数组均为16bit小端格式。
+ */
+public final class PcmKernels {
+    private static final Logger logger = LoggerFactory.getLogger(PcmKernels.class);
+
+    // 16bit PCM 与 [-1, 1] 浮点之间的换算系数
+    public static final float SHORT_TO_FLOAT = 1.0f / 32768.0f;
+    public static final float FLOAT_TO_SHORT = 32767.0f;
+
+    private static final boolean VECTOR = detectVector();
+
+    private PcmKernels() {
+    }
+
+    private static boolean detectVector() {
+        if (!Boolean.parseBoolean(System.getProperty("pcm.vector.enabled", "true"))) {
+            return false;
+        }
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            logger.info("未加载jdk.incubator.vector模块，PCM运算使用标量实现");
+            return false;
+        }
+        try {
+            boolean usable = PcmVectorKernels.isUsable();
+            logger.info("PCM运算使用{}实现", usable ? "SIMD" : "标量");
+            return usable;
+        } catch (Throwable e) {
+            logger.warn("初始化SIMD运算失败，使用标量实现: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 是否使用SIMD实现
+     */
+    public static boolean isVectorized() {
+        return VECTOR;
+    }
+
+    /**
+     * PCM字节转换为浮点样本，dst[i] = sample / 32768
+     *
+     * @param src     PCM字节
+     * @param offset  起始字节位置
+     * @param dst     输出样本
+     * @param samples 样本数
+     */
+    public static void pcmToFloat(byte[] src, int offset, float[] dst, int samples) {
+        if (VECTOR) {
+            PcmVectorKernels.pcmToFloat(src, offset, dst, samples);
+        } else {
+            ScalarKernels.pcmToFloat(src, offset, dst, samples);
+        }
+    }
+
+    /**
+     * short样本转换为浮点样本，dst[i] = src[i] / 32768
+     */
+    public static void shortToFloat(short[] src, float[] dst, int samples) {
+        if (VECTOR) {
+            PcmVectorKernels.shortToFloat(src, dst, samples);
+        } else {
+            ScalarKernels.shortToFloat(src, dst, samples);
+        }
+    }
+
+    /**
+     * short样本转换为PCM字节
+     */
+    public static void shortToPcm(short[] src, byte[] dst, int offset, int samples) {
+        // 字节交织没有合适的向量指令，标量循环已足够快
+        ScalarKernels.shortToPcm(src, dst, offset, samples);
+    }
+
+    /**
+     * 浮点样本乘以增益后限幅到 [-limit, limit]，再转换为PCM字节，sample = (short) (x * gain * 32767)
+     *
+     * @param src     浮点样本
+     * @param samples 样本数
+     * @param gain    增益
+     * @param limit   限幅值，取值 (0, 1]
+     * @param dst     输出PCM字节
+     * @param offset  输出起始字节位置
+     */
+    public static void floatToPcm(float[] src, int samples, float gain, float limit, byte[] dst, int offset) {
+        if (VECTOR) {
+            PcmVectorKernels.floatToPcm(src, samples, gain, limit, dst, offset);
+        } else {
+            ScalarKernels.floatToPcm(src, samples, gain, limit, dst, offset);
+        }
+    }
+
+    /**
+     * 平方和
+     */
+    public static float sumSquares(float[] src, int samples) {
+        return VECTOR ? PcmVectorKernels.sumSquares(src, samples) : ScalarKernels.sumSquares(src, samples);
+    }
+
+    /**
+     * 绝对值之和
+     */
+    public static float sumAbs(float[] src, int samples) {
+        return VECTOR ? PcmVectorKernels.sumAbs(src, samples) : ScalarKernels.sumAbs(src, samples);
+    }
+
+    /**
+     * 均方根电平
+     */
+    public static float rms(float[] src, int samples) {
+        return samples == 0 ? 0.0f : (float) Math.sqrt(sumSquares(src, samples) / samples);
+    }
+
+    /**
+     * 平均绝对幅度
+     */
+    public static float meanAbs(float[] src, int samples) {
+        return samples == 0 ? 0.0f : sumAbs(src, samples) / samples;
+    }
+
+    /**
+     * 软门限降噪：幅度低于 noise[i] * factor 时按 (幅度/阈值)^2 衰减，
+     * 结果幅度低于 floor 时再衰减到 0.1 倍
+     *
+     * @param src     输入样本
+     * @param noise   噪声幅度估计，长度不小于 samples
+     * @param factor  阈值系数
+     * @param floor   噪声地板
+     * @param dst     输出样本，可以与 src 相同
+     * @param samples 样本数
+     */
+    public static void softGate(float[] src, float[] noise, float factor, float floor, float[] dst, int samples) {
+        if (VECTOR) {
+            PcmVectorKernels.softGate(src, noise, factor, floor, dst, samples);
+        } else {
+            ScalarKernels.softGate(src, noise, factor, floor, dst, samples);
+        }
+    }
+
+    /**
+     * 线性交叉淡变，dst[i] = a[i] * (1 - w) + b[i] * w，w = i / samples
+     */
+    public static void crossfade(float[] a, float[] b, float[] dst, int samples) {
+        if (VECTOR) {
+            PcmVectorKernels.crossfade(a, b, dst, samples);
+        } else {
+            ScalarKernels.crossfade(a, b, dst, samples);
+        }
+    }
+
+    /**
+     * 标量实现，也用于SIMD实现处理尾部样本
+     */
+    static final class ScalarKernels {
+
+        private ScalarKernels() {
+        }
+
+        static void pcmToFloat(byte[] src, int offset, float[] dst, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int p = offset + i * 2;
+                dst[i] = (short) ((src[p] & 0xFF) | (src[p + 1] << 8)) * SHORT_TO_FLOAT;
+            }
+        }
+
+        static void pcmToFloat(byte[] src, int offset, float[] dst, int samples) {
+            pcmToFloat(src, offset, dst, 0, samples);
+        }
+
+        static void shortToFloat(short[] src, float[] dst, int from, int to) {
+            for (int i = from; i < to; i++) {
+                dst[i] = src[i] * SHORT_TO_FLOAT;
+            }
+        }
+
+        static void shortToFloat(short[] src, float[] dst, int samples) {
+            shortToFloat(src, dst, 0, samples);
+        }
+
+        static void shortToPcm(short[] src, byte[] dst, int offset, int samples) {
+            for (int i = 0; i < samples; i++) {
+                short sample = src[i];
+                dst[offset + i * 2] = (byte) sample;
+                dst[offset + i * 2 + 1] = (byte) (sample >> 8);
+            }
+        }
+
+        static void floatToPcm(float[] src, int from, int to, float gain, float limit, byte[] dst, int offset) {
+            for (int i = from; i < to; i++) {
+                float x = Math.max(-limit, Math.min(limit, src[i] * gain));
+                short sample = (short) (x * FLOAT_TO_SHORT);
+                dst[offset + i * 2] = (byte) sample;
+                dst[offset + i * 2 + 1] = (byte) (sample >> 8);
+            }
+        }
+
+        static void floatToPcm(float[] src, int samples, float gain, float limit, byte[] dst, int offset) {
+            floatToPcm(src, 0, samples, gain, limit, dst, offset);
+        }
+
+        static float sumSquares(float[] src, int from, int to) {
+            float sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += src[i] * src[i];
+            }
+            return sum;
+        }
+
+        static float sumSquares(float[] src, int samples) {
+            return sumSquares(src, 0, samples);
+        }
+
+        static float sumAbs(float[] src, int from, int to) {
+            float sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += Math.abs(src[i]);
+            }
+            return sum;
+        }
+
+        static float sumAbs(float[] src, int samples) {
+            return sumAbs(src, 0, samples);
+        }
+
+        static void softGate(float[] src, float[] noise, float factor, float floor, float[] dst, int from, int to) {
+            for (int i = from; i < to; i++) {
+                float x = src[i];
+                float magnitude = Math.abs(x);
+                float threshold = noise[i] * factor;
+                if (magnitude < threshold) {
+                    float gain = magnitude / threshold;
+                    x *= gain * gain;
+                }
+                if (Math.abs(x) < floor) {
+                    x *= 0.1f;
+                }
+                dst[i] = x;
+            }
+        }
+
+        static void softGate(float[] src, float[] noise, float factor, float floor, float[] dst, int samples) {
+            softGate(src, noise, factor, floor, dst, 0, samples);
+        }
+
+        static void crossfade(float[] a, float[] b, float[] dst, int from, int to, int samples) {
+            for (int i = from; i < to; i++) {
+                float weight = (float) i / samples;
+                dst[i] = a[i] * (1 - weight) + b[i] * weight;
+            }
+        }
+
+        static void crossfade(float[] a, float[] b, float[] dst, int samples) {
+            crossfade(a, b, dst, 0, samples, samples);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.xiaozhi.utils;
+
+import com.xiaozhi.utils.PcmKernels.ScalarKernels;
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link PcmKernels} 的SIMD实现，只在 jdk.incubator.vector 模块可用时才会被加载。
+ * 主循环按向量宽度处理，尾部样本交给标量实现。
+ */
+final class PcmVectorKernels {
+
+    private static final VectorSpecies<Float> F = FloatVector.SPECIES_PREFERRED;
+
+    // 与浮点向量通道数相同的short/byte向量，用于类型转换
+    private static final VectorSpecies<Short> S = VectorSpecies.of(short.class,
+            VectorShape.forBitSize(F.length() * Short.SIZE));
+    private static final VectorSpecies<Byte> B = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(F.length() * Short.SIZE));
+
+    private PcmVectorKernels() {
+    }
+
+    /**
+     * 检查向量宽度和字节序是否满足要求：字节向量按小端重解释为short时结果必须与标量实现一致
+     */
+    static boolean isUsable() {
+        if (F.length() < 4) {
+            return false;
+        }
+        int samples = F.length();
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (i * 1031 - 4000);
+            pcm[i * 2] = (byte) sample;
+            pcm[i * 2 + 1] = (byte) (sample >> 8);
+        }
+        float[] expected = new float[samples];
+        float[] actual = new float[samples];
+        ScalarKernels.pcmToFloat(pcm, 0, expected, samples);
+        pcmToFloat(pcm, 0, actual, samples);
+        return java.util.Arrays.equals(expected, actual);
+    }
+
+    static void pcmToFloat(byte[] src, int offset, float[] dst, int samples) {
+        int i = 0;
+        int bound = F.loopBound(samples);
+        for (; i < bound; i += F.length()) {
+            ShortVector s = ByteVector.fromArray(B, src, offset + i * 2).reinterpretAsShorts();
+            FloatVector f = (FloatVector) s.convertShape(VectorOperators.S2F, F, 0);
+            f.mul(PcmKernels.SHORT_TO_FLOAT).intoArray(dst, i);
+        }
+        ScalarKernels.pcmToFloat(src, offset, dst, i, samples);
+    }
+
+    static void shortToFloat(short[] src, float[] dst, int samples) {
+        int i = 0;
+        int bound = F.loopBound(samples);
+        for (; i < bound; i += F.length()) {
+            FloatVector f = (FloatVector) ShortVector.fromArray(S, src, i).convertShape(VectorOperators.S2F, F, 0);
+            f.mul(PcmKernels.SHORT_TO_FLOAT).intoArray(dst, i);
+        }
+        ScalarKernels.shortToFloat(src, dst, i, samples);
+    }
+
+    static void floatToPcm(float[] src, int samples, float gain, float limit, byte[] dst, int offset) {
+        int i = 0;
+        int bound = F.loopBound(samples);
+        for (; i < bound; i += F.length()) {
+            FloatVector f = FloatVector.fromArray(F, src, i).mul(gain).max(-limit).min(limit)
+                    .mul(PcmKernels.FLOAT_TO_SHORT);
+            ShortVector s = (ShortVector) f.convertShape(VectorOperators.F2S, S, 0);
+            s.reinterpretAsBytes().intoArray(dst, offset + i * 2);
+        }
+        ScalarKernels.floatToPcm(src, i, samples, gain, limit, dst, offset);
+    }
+
+    static float sumSquares(float[] src, int samples) {
+        int i = 0;
+        int bound = F.loopBound(samples);
+        FloatVector acc = FloatVector.zero(F);
+        for (; i < bound; i += F.length()) {
+            FloatVector f = FloatVector.fromArray(F, src, i);
+            acc = f.fma(f, acc);
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + ScalarKernels.sumSquares(src, i, samples);
+    }
+
+    static float sumAbs(float[] src, int samples) {
+        int i = 0;
+        int bound = F.loopBound(samples);
+        FloatVector acc = FloatVector.zero(F);
+        for (; i < bound; i += F.length()) {
+            acc = acc.add(FloatVector.fromArray(F, src, i).abs());
+        }
+        return acc.reduceLanes(VectorOperators.ADD) + ScalarKernels.sumAbs(src, i, samples);
+    }
+
+    static void softGate(float[] src, float[] noise, float factor, float floor, float[] dst, int samples) {
+        int i = 0;
+        int bound = F.loopBound(samples);
+        for (; i < bound; i += F.length()) {
+            FloatVector x = FloatVector.fromArray(F, src, i);
+            FloatVector magnitude = x.abs();
+            FloatVector threshold = FloatVector.fromArray(F, noise, i).mul(factor);
+            VectorMask<Float> below = magnitude.lt(threshold);
+            FloatVector gain = magnitude.div(threshold);
+            x = x.blend(x.mul(gain.mul(gain)), below);
+            x = x.blend(x.mul(0.1f), x.abs().lt(floor));
+            x.intoArray(dst, i);
+        }
+        ScalarKernels.softGate(src, noise, factor, floor, dst, i, samples);
+    }
+
+    static void crossfade(float[] a, float[] b, float[] dst, int samples) {
+        int i = 0;
+        int bound = F.loopBound(samples);
+        FloatVector index = FloatVector.zero(F).addIndex(1);
+        float total = samples;
+        for (; i < bound; i += F.length()) {
+            FloatVector weight = index.add(i).div(total);
+            FloatVector fa = FloatVector.fromArray(F, a, i);
+            FloatVector fb = FloatVector.fromArray(F, b, i);
+            fa.mul(weight.neg().add(1)).add(fb.mul(weight)).intoArray(dst, i);
+        }
+        ScalarKernels.crossfade(a, b, dst, i, samples, samples);
+    }
+}
@@ -0,0 +1,129 @@
+package com.xiaozhi.utils;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 增量WAV写入器
+ * 创建时先写入数据长度为0的文件头，之后PCM数据边采集边追加到文件，
+ * 关闭时回写文件头中的长度字段。写入失败后不再写入，已写入的部分仍会在关闭时补全文件头。
+ */
+public class WavWriter implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(WavWriter.class);
+
+    private final String fileName;
+    private final FileChannel channel;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long dataLength = 0;
+    private boolean failed = false;
+    private boolean closed = false;
+
+    private WavWriter(String fileName, FileChannel channel) {
+        this.fileName = fileName;
+        this.channel = channel;
+    }
+
+    /**
+     * 在音频目录下创建新的WAV文件
+     */
+    public static WavWriter create() throws IOException {
+        String fileName = UUID.randomUUID().toString().replace("-", "") + ".wav";
+        Files.createDirectories(Paths.get(AudioUtils.AUDIO_PATH));
+        FileChannel channel = FileChannel.open(Paths.get(AudioUtils.AUDIO_PATH + fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        WavWriter writer = new WavWriter(fileName, channel);
+        try {
+            writer.writeFully(AudioUtils.wavHeader(0));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return writer;
+    }
+
+    /**
+     * 文件名（不含目录）
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * 已写入的PCM字节数
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * 追加PCM数据
+     */
+    public void write(byte[] pcm, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            if (closed || failed) {
+                return;
+            }
+            writeFully(ByteBuffer.wrap(pcm, offset, length));
+            dataLength += length;
+        } catch (IOException e) {
+            failed = true;
+            logger.error("写入WAV数据失败 - 文件: {}", fileName, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 回写文件头并关闭文件
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ByteBuffer header = AudioUtils.wavHeader((int) dataLength);
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } catch (IOException e) {
+            logger.error("更新WAV文件头失败 - 文件: {}", fileName, e);
+        } finally {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warn("关闭WAV文件失败 - 文件: {}", fileName, e);
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 在虚拟线程中关闭文件，调用方不等待磁盘IO
+     */
+    public void closeAsync() {
+        Thread.startVirtualThread(this::close);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package com.xiaozhi.benchmark;
+
+import com.xiaozhi.utils.PcmKernels;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每帧DSP开销对比：原有的逐样本循环 与 PcmKernels（SIMD/标量）
+ *
+ * 运行方式：在IDE中执行 main 方法，或 mvn test-compile 后以 org.openjdk.jmh.Main 启动。
+ * main 方法会再以 -Dpcm.vector.enabled=false 运行一次 frameKernels，对比 PcmKernels 的标量实现。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class PcmKernelsBenchmark {
+
+    // 60ms 16kHz 单声道帧
+    @Param({"960"})
+    private int samples;
+
+    private byte[] pcm;
+    private float[] floats;
+    private float[] noise;
+    private float[] gated;
+    private byte[] out;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        pcm = new byte[samples * 2];
+        random.nextBytes(pcm);
+        floats = new float[samples];
+        noise = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            noise[i] = random.nextFloat() * 0.05f;
+        }
+        gated = new float[samples];
+        out = new byte[samples * 2];
+    }
+
+    /**
+     * 原有实现：逐样本转换、计算能量、应用增益和限幅，每一步都分配新数组
+     */
+    @Benchmark
+    public byte[] frameLegacy(Blackhole blackhole) {
+        float[] samplesIn = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) ((pcm[i * 2] & 0xFF) | (pcm[i * 2 + 1] << 8));
+            samplesIn[i] = sample / 32768.0f;
+        }
+        float energy = 0;
+        float squares = 0;
+        for (float sample : samplesIn) {
+            energy += Math.abs(sample);
+            squares += sample * sample;
+        }
+        blackhole.consume(energy / samples);
+        float gain = 0.1f / ((float) Math.sqrt(squares / samples) + 1e-6f);
+        float[] gained = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            gained[i] = samplesIn[i] * gain;
+        }
+        float[] limited = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            limited[i] = Math.max(-0.95f, Math.min(0.95f, gained[i]));
+        }
+        byte[] result = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            short sample = (short) (limited[i] * 32767);
+            result[i * 2] = (byte) sample;
+            result[i * 2 + 1] = (byte) (sample >> 8);
+        }
+        return result;
+    }
+
+    /**
+     * PcmKernels 实现：同样的处理步骤，写入复用的缓冲区
+     */
+    @Benchmark
+    public byte[] frameKernels(Blackhole blackhole) {
+        PcmKernels.pcmToFloat(pcm, 0, floats, samples);
+        blackhole.consume(PcmKernels.meanAbs(floats, samples));
+        float gain = 0.1f / (PcmKernels.rms(floats, samples) + 1e-6f);
+        PcmKernels.floatToPcm(floats, samples, gain, 0.95f, out, 0);
+        return out;
+    }
+
+    /**
+     * 降噪软门限
+     */
+    @Benchmark
+    public float[] softGate() {
+        PcmKernels.softGate(floats, noise, 1.5f, 0.01f, gated, samples);
+        return gated;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options vector = new OptionsBuilder()
+                .include(PcmKernelsBenchmark.class.getSimpleName())
+                .build();
+        new Runner(vector).run();
+
+        Options scalar = new OptionsBuilder()
+                .include(PcmKernelsBenchmark.class.getSimpleName() + ".frameKernels")
+                .jvmArgsAppend("-Dpcm.vector.enabled=false")
+                .build();
+        new Runner(scalar).run();
+    }
+}
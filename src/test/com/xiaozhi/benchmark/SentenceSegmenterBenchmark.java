@@ -0,0 +1,168 @@
+package com.xiaozhi.benchmark;
+
+import com.xiaozhi.dialogue.llm.SentenceSegmenter;
+import com.xiaozhi.utils.EmojiUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * LLM回复断句的每token开销：原有的逐字符正则实现 与 SentenceSegmenter 查表实现
+ *
+ * 输入是一段含数字、表情和颜文字的中文回复，按1~3个字符随机切成token，每次调用处理一个token，结果即每个token的耗时。
+ * 运行方式：在IDE中执行 main 方法，或 mvn test-compile 后以 org.openjdk.jmh.Main 启动。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SentenceSegmenterBenchmark {
+
+    private static final String REPLY = "好的，我来帮你查一下今天的天气。北京今天晴，最高气温23.5度，最低气温12.8度，"
+            + "空气质量指数是56，属于良好☀️。明天可能会有小雨，降水概率大约40%，出门记得带伞哦(^_^)！"
+            + "另外，这周末气温会回升到25度左右，很适合去公园散步🌳：比如颐和园、奥林匹克森林公园等等。"
+            + "如果你还想了解其他城市的天气，随时告诉我~\n祝你今天心情愉快😊";
+
+    private String[] tokens;
+    private int next;
+    private LegacySegmenter legacy;
+    private SentenceSegmenter segmenter;
+    private Consumer<String> sink;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        tokens = tokenize(REPLY).toArray(new String[0]);
+        legacy = new LegacySegmenter();
+        segmenter = new SentenceSegmenter();
+        sink = blackhole::consume;
+    }
+
+    /**
+     * 依次取出回复中的token，取完后从头开始，断句状态跨调用保留，与流式回复一致
+     */
+    private String nextToken() {
+        String token = tokens[next];
+        next = next + 1 == tokens.length ? 0 : next + 1;
+        return token;
+    }
+
+    /**
+     * 原有实现：每个码点创建字符串、执行四次正则匹配，并对整句执行颜文字正则
+     */
+    @Benchmark
+    public int legacy() {
+        legacy.append(nextToken(), sink);
+        return legacy.currentSentence.length();
+    }
+
+    /**
+     * SentenceSegmenter：码点查表分类，小数点和颜文字用状态机判断
+     */
+    @Benchmark
+    public int segmenter() {
+        segmenter.append(nextToken(), sink);
+        return next;
+    }
+
+    private static List<String> tokenize(String text) {
+        Random random = new Random(42);
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < text.length();) {
+            int end = text.offsetByCodePoints(i, Math.min(1 + random.nextInt(3), text.codePointCount(i, text.length())));
+            result.add(text.substring(i, end));
+            i = end;
+        }
+        return result;
+    }
+
+    /**
+     * 原 ChatService.TokenStreamResponseListener.onToken 的断句逻辑
+     */
+    private static final class LegacySegmenter {
+        private static final Pattern SENTENCE_END_PATTERN = Pattern.compile("[。！？!?]");
+        private static final Pattern PAUSE_PATTERN = Pattern.compile("[，、；,;]");
+        private static final Pattern SPECIAL_PATTERN = Pattern.compile("[：:\"]");
+        private static final Pattern NEWLINE_PATTERN = Pattern.compile("[\n\r]");
+        private static final Pattern NUMBER_PATTERN = Pattern.compile("\\d+\\.\\d+");
+        private static final int MIN_SENTENCE_LENGTH = 5;
+
+        private final StringBuilder currentSentence = new StringBuilder();
+        private final StringBuilder contextBuffer = new StringBuilder();
+
+        private void append(String token, Consumer<String> sink) {
+            for (int i = 0; i < token.length();) {
+                int codePoint = token.codePointAt(i);
+                String charStr = new String(Character.toChars(codePoint));
+                contextBuffer.append(charStr);
+                if (contextBuffer.length() > 20) {
+                    contextBuffer.delete(0, contextBuffer.length() - 20);
+                }
+                currentSentence.append(charStr);
+
+                boolean isEndMark = SENTENCE_END_PATTERN.matcher(charStr).find();
+                boolean isPauseMark = PAUSE_PATTERN.matcher(charStr).find();
+                boolean isSpecialMark = SPECIAL_PATTERN.matcher(charStr).find();
+                boolean isNewline = NEWLINE_PATTERN.matcher(charStr).find();
+                boolean isEmoji = EmojiUtils.isEmoji(codePoint);
+                boolean containsKaomoji = currentSentence.length() >= 3
+                        && EmojiUtils.containsKaomoji(currentSentence.toString());
+
+                if (isEndMark && charStr.equals(".")) {
+                    String context = contextBuffer.toString();
+                    Matcher numberMatcher = NUMBER_PATTERN.matcher(context);
+                    if (numberMatcher.find() && numberMatcher.end() >= context.length() - 3) {
+                        isEndMark = false;
+                    }
+                }
+
+                boolean shouldSendSentence = isEndMark || isNewline
+                        || ((isPauseMark || isSpecialMark || isEmoji || containsKaomoji)
+                        && currentSentence.length() >= MIN_SENTENCE_LENGTH);
+                if (shouldSendSentence && currentSentence.length() >= MIN_SENTENCE_LENGTH) {
+                    String sentence = EmojiUtils.filterKaomoji(currentSentence.toString().trim());
+                    if (containsSubstantialContent(sentence)) {
+                        sink.accept(sentence);
+                        currentSentence.setLength(0);
+                    }
+                }
+                i += Character.charCount(codePoint);
+            }
+        }
+
+        private static boolean containsSubstantialContent(String text) {
+            if (text == null || text.trim().length() < MIN_SENTENCE_LENGTH) {
+                return false;
+            }
+            return text.replaceAll("[\\p{P}\\s]", "").length() >= 2;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SentenceSegmenterBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
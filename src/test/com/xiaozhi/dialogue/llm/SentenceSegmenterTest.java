@@ -0,0 +1,98 @@
+package com.xiaozhi.dialogue.llm;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SentenceSegmenter 的断句边界
+ */
+public class SentenceSegmenterTest {
+
+    @Test
+    public void splitsAtSentenceEndings() {
+        Result result = segment("你好，今天天气不错。我们去公园吧！");
+        assertEquals(List.of("你好，今天天气不错。", "我们去公园吧！"), result.sentences);
+        assertEquals("", result.remainder);
+    }
+
+    @Test
+    public void tokenBoundariesDoNotChangeSentences() {
+        String text = "价格是3.5元，很便宜。This is a test. 网址是example.com，记一下吧。";
+        SentenceSegmenter segmenter = new SentenceSegmenter();
+        List<String> byChar = new ArrayList<>();
+        text.codePoints().forEach(c -> segmenter.append(new String(Character.toChars(c)), byChar::add));
+
+        assertEquals(segment(text).sentences, byChar);
+    }
+
+    @Test
+    public void dotBeforeAlnumIsNotSentenceEnd() {
+        Result result = segment("价格是3.5元，网址是example.com，好的");
+        assertEquals(List.of("价格是3.5元，", "网址是example.com，"), result.sentences);
+        assertEquals("好的", result.remainder);
+    }
+
+    @Test
+    public void dotBeforeSpaceEndsEnglishSentence() {
+        Result result = segment("This is a test. Next");
+        assertEquals(List.of("This is a test."), result.sentences);
+        assertEquals(" Next", result.remainder);
+    }
+
+    @Test
+    public void shortSentencesWaitForMoreText() {
+        Result result = segment("好的。嗯，那我们出发吧。");
+        // "好的。" 不足最小长度，与后面的内容合成一句，到停顿标点时已达到最小长度
+        assertEquals(List.of("好的。嗯，", "那我们出发吧。"), result.sentences);
+    }
+
+    @Test
+    public void punctuationOnlyIsNotASentence() {
+        Result result = segment("……。！？");
+        assertTrue(result.sentences.isEmpty());
+        assertFalse(SentenceSegmenter.hasSubstantialContent("……。！？"));
+        assertTrue(SentenceSegmenter.hasSubstantialContent("今天天气不错"));
+    }
+
+    @Test
+    public void kaomojiEndsSentenceAndIsRemoved() {
+        Result result = segment("今天真的好开心(^_^)接下来");
+        assertEquals(List.of("今天真的好开心"), result.sentences);
+        assertEquals("接下来", result.remainder);
+    }
+
+    @Test
+    public void emojiIsWeakBreak() {
+        Result result = segment("我们一起出发吧😀然后");
+        assertEquals(List.of("我们一起出发吧😀"), result.sentences);
+        assertEquals("然后", result.remainder);
+    }
+
+    @Test
+    public void resetDropsPendingText() {
+        SentenceSegmenter segmenter = new SentenceSegmenter();
+        List<String> sentences = new ArrayList<>();
+        segmenter.append("没说完的半句话", sentences::add);
+        segmenter.reset();
+        segmenter.append("新的一句话开始了。", sentences::add);
+
+        assertEquals(List.of("新的一句话开始了。"), sentences);
+        assertEquals("", segmenter.remainder());
+    }
+
+    private static Result segment(String text) {
+        SentenceSegmenter segmenter = new SentenceSegmenter();
+        List<String> sentences = new ArrayList<>();
+        segmenter.append(text, sentences::add);
+        return new Result(sentences, segmenter.remainder());
+    }
+
+    private record Result(List<String> sentences, String remainder) {
+    }
+}
@@ -0,0 +1,146 @@
+package com.xiaozhi.dialogue.llm.memory;
+
+import com.xiaozhi.entity.SysDevice;
+import com.xiaozhi.entity.SysRole;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.messages.Message;
+import org.springframework.ai.chat.messages.MessageType;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+
+/**
+ * MessageWindowConversation 按token预算和条数裁剪历史
+ * 估算规则：每个汉字1个token，每条消息另加4个token；角色描述 "你是助手" 为8个token，每条十个字的历史为14个token。
+ */
+public class MessageWindowConversationTest {
+
+    private static final String TEN_CHARS = "一二三四五六七八九十";
+
+    private DatabaseChatMemory chatMemory;
+    private SysDevice device;
+    private SysRole role;
+
+    @BeforeEach
+    public void setUp() {
+        chatMemory = mock(DatabaseChatMemory.class);
+        device = new SysDevice().setDeviceId("device").setSessionId("session");
+        role = new SysRole().setRoleId(1).setRoleDesc("你是助手");
+    }
+
+    @Test
+    public void loadedHistoryIsTrimmedAfterSystemPrompt() {
+        // 预算60：扣除系统提示词后历史只剩52，6条历史只能留下最后一问一答
+        MessageWindowConversation conversation = conversation(60, 10, history(6));
+
+        List<Message> messages = conversation.messages();
+        assertEquals(2, messages.size());
+        assertEquals(MessageType.USER, messages.get(0).getMessageType());
+        assertEquals("问4" + TEN_CHARS.substring(2), messages.get(0).getText());
+    }
+
+    @Test
+    public void trimmedWindowNeverStartsWithAssistant() {
+        MessageWindowConversation conversation = conversation(50, 10, history(6));
+
+        List<Message> messages = conversation.messages();
+        assertEquals(2, messages.size());
+        assertEquals(MessageType.USER, messages.get(0).getMessageType());
+    }
+
+    @Test
+    public void newMessagesPushOutOldest() {
+        MessageWindowConversation conversation = conversation(60, 10, history(2));
+        conversation.addMessage(new UserMessage("新的问题" + TEN_CHARS.substring(4)), null);
+        conversation.addMessage(new AssistantMessage("新的回答" + TEN_CHARS.substring(4)), null);
+
+        List<Message> messages = conversation.messages();
+        assertEquals(2, messages.size());
+        assertEquals("新的问题" + TEN_CHARS.substring(4), messages.get(0).getText());
+    }
+
+    @Test
+    public void longUserMessageSkipsHistoryOnlyInPrompt() {
+        MessageWindowConversation conversation = conversation(80, 10, history(4));
+
+        UserMessage shortMessage = new UserMessage(TEN_CHARS);
+        List<Message> prompt = conversation.preview(shortMessage);
+        assertEquals(6, prompt.size());
+        assertInstanceOf(SystemMessage.class, prompt.get(0));
+        assertEquals("你是助手", prompt.get(0).getText());
+        assertSame(shortMessage, prompt.get(5));
+
+        // 34个token的用户消息只给历史留下38个token，只放得下最后一问一答
+        UserMessage longMessage = new UserMessage(TEN_CHARS.repeat(3));
+        prompt = conversation.preview(longMessage);
+        assertEquals(4, prompt.size());
+        assertEquals("问2" + TEN_CHARS.substring(2), prompt.get(1).getText());
+        assertSame(longMessage, prompt.get(3));
+        assertEquals(4, conversation.messages().size(), "窗口本身不因本次用户消息裁剪");
+    }
+
+    @Test
+    public void changedRoleDescriptionShrinksHistory() {
+        MessageWindowConversation conversation = conversation(80, 10, history(4));
+        assertEquals(4, conversation.messages().size());
+
+        // 系统提示词变为34个token后历史只剩46个token的预算，只放得下最后一问一答
+        role.setRoleDesc(TEN_CHARS.repeat(3));
+        conversation.preview(new UserMessage("你好"));
+        assertEquals(2, conversation.messages().size());
+        assertEquals("问2" + TEN_CHARS.substring(2), conversation.messages().get(0).getText());
+    }
+
+    @Test
+    public void exhaustedBudgetKeepsLastPair() {
+        MessageWindowConversation conversation = conversation(60, 10, history(4));
+
+        // 系统提示词34个token、用户消息34个token，已超出60的预算，历史仍保留最后一问一答
+        role.setRoleDesc(TEN_CHARS.repeat(3));
+        UserMessage longMessage = new UserMessage(TEN_CHARS.repeat(3));
+        List<Message> prompt = conversation.preview(longMessage);
+        assertEquals(4, prompt.size());
+        assertEquals(MessageType.USER, prompt.get(1).getMessageType());
+        assertEquals(MessageType.ASSISTANT, prompt.get(2).getMessageType());
+        assertSame(longMessage, prompt.get(3));
+        assertEquals(2, conversation.messages().size());
+    }
+
+    @Test
+    public void withoutBudgetOnlyMessageCountApplies() {
+        MessageWindowConversation conversation = conversation(0, 4, history(10));
+
+        List<Message> messages = conversation.messages();
+        assertEquals(4, messages.size());
+        assertEquals(MessageType.USER, messages.get(0).getMessageType());
+    }
+
+    private MessageWindowConversation conversation(int maxTokens, int maxMessages, List<Message> history) {
+        return new MessageWindowConversation(chatMemory, device, role, maxMessages, maxTokens, history);
+    }
+
+    /**
+     * 按一问一答交替生成的历史，每条十个字
+     */
+    private static List<Message> history(int count) {
+        List<Message> messages = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String text = TEN_CHARS.substring(2);
+            if (i % 2 == 0) {
+                messages.add(new UserMessage("问" + i + text));
+            } else {
+                messages.add(new AssistantMessage("答" + i + text));
+            }
+        }
+        return messages;
+    }
+}
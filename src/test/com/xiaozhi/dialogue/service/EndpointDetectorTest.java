@@ -0,0 +1,108 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.dialogue.service.EndpointDetector.Completeness;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * EndpointDetector 按识别文本、停顿习惯和VAD概率走势调整的静音时长
+ */
+public class EndpointDetectorTest {
+
+    private static final String SESSION = "s1";
+
+    // 平稳的中等概率，不触发概率走势的调整
+    private static final List<Float> FLAT = Collections.nCopies(10, 0.3f);
+
+    private EndpointDetector detector;
+
+    @BeforeEach
+    public void setUp() {
+        detector = new EndpointDetector();
+        ReflectionTestUtils.setField(detector, "adaptive", true);
+        ReflectionTestUtils.setField(detector, "minMs", 400);
+        ReflectionTestUtils.setField(detector, "maxMs", 2000);
+        ReflectionTestUtils.setField(detector, "completeFactor", 0.5);
+        ReflectionTestUtils.setField(detector, "incompleteFactor", 1.4);
+        detector.init();
+        detector.startUtterance(SESSION);
+    }
+
+    @Test
+    public void unknownTextKeepsConfiguredTimeout() {
+        assertEquals(800, detector.silenceTimeout(SESSION, 800, FLAT));
+
+        detector.onPartial(SESSION, "今天的天气");
+        assertEquals(800, detector.silenceTimeout(SESSION, 800, FLAT));
+    }
+
+    @Test
+    public void completeTextShortensTimeout() {
+        detector.onPartial(SESSION, "播放音乐");
+        assertEquals(500, detector.silenceTimeout(SESSION, 1000, FLAT));
+
+        // 概率持续处于低位时再缩短
+        assertEquals(425, detector.silenceTimeout(SESSION, 1000, Collections.nCopies(10, 0.01f)));
+    }
+
+    @Test
+    public void incompleteTextLengthensTimeoutUpToMax() {
+        detector.onPartial(SESSION, "我想，");
+        assertEquals(1120, detector.silenceTimeout(SESSION, 800, FLAT));
+        assertEquals(2000, detector.silenceTimeout(SESSION, 1600, FLAT));
+    }
+
+    @Test
+    public void risingProbabilityCancelsShortening() {
+        detector.onPartial(SESSION, "播放音乐");
+        List<Float> rising = List.of(0.05f, 0.1f, 0.15f, 0.2f, 0.25f, 0.3f);
+        assertEquals(1000, detector.silenceTimeout(SESSION, 1000, rising));
+    }
+
+    @Test
+    public void shortenedTimeoutStaysAboveMinAndUsualPauses() {
+        detector.onPartial(SESSION, "播放音乐");
+        assertEquals(400, detector.silenceTimeout(SESSION, 600, FLAT));
+
+        for (int i = 0; i < 5; i++) {
+            detector.recordPause(SESSION, 600);
+        }
+        // 不短于停顿p90的1.2倍，但也不超过配置的时长
+        assertEquals(720, detector.silenceTimeout(SESSION, 1000, FLAT));
+        assertEquals(600, detector.silenceTimeout(SESSION, 600, FLAT));
+    }
+
+    @Test
+    public void newUtteranceForgetsPreviousText() {
+        detector.onPartial(SESSION, "我想，");
+        detector.startUtterance(SESSION);
+        assertEquals(800, detector.silenceTimeout(SESSION, 800, FLAT));
+    }
+
+    @Test
+    public void disabledReturnsConfiguredTimeout() {
+        ReflectionTestUtils.setField(detector, "adaptive", false);
+        detector.onPartial(SESSION, "我想，");
+        assertEquals(800, detector.silenceTimeout(SESSION, 800, FLAT));
+    }
+
+    @Test
+    public void classifiesCompleteness() {
+        assertEquals(Completeness.COMPLETE, EndpointDetector.completeness("今天天气怎么样？"));
+        assertEquals(Completeness.COMPLETE, EndpointDetector.completeness("暂停"));
+        assertEquals(Completeness.COMPLETE, EndpointDetector.completeness("打开灯"));
+        assertEquals(Completeness.COMPLETE, EndpointDetector.completeness("你是谁呀"));
+        assertEquals(Completeness.INCOMPLETE, EndpointDetector.completeness("播放"));
+        assertEquals(Completeness.INCOMPLETE, EndpointDetector.completeness("我想听然后"));
+        assertEquals(Completeness.INCOMPLETE, EndpointDetector.completeness("等一下，"));
+        assertEquals(Completeness.UNKNOWN, EndpointDetector.completeness("今天的天气"));
+        assertEquals(Completeness.UNKNOWN, EndpointDetector.completeness("  "));
+        assertEquals(Completeness.UNKNOWN, EndpointDetector.completeness(null));
+    }
+}
@@ -0,0 +1,94 @@
+package com.xiaozhi.dialogue.service;
+
+import com.xiaozhi.dialogue.service.DialogueService.Sentence;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SentenceReorderBuffer 的按序取出、空位、溢出和清空
+ */
+public class SentenceReorderBufferTest {
+
+    @Test
+    public void takesSentencesInSeqOrder() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer(8);
+        Sentence first = sentence(0);
+        Sentence second = sentence(1);
+        buffer.offer(first);
+        buffer.offer(second);
+
+        assertSame(first, buffer.peek());
+        // 未取出前队头不变
+        assertSame(first, buffer.peek());
+        buffer.remove(first);
+        assertSame(second, buffer.peek());
+        buffer.remove(second);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void skipsSeqThatWasNeverOffered() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer(8);
+        Sentence first = sentence(0);
+        Sentence third = sentence(2);
+        buffer.offer(first);
+        buffer.offer(third);
+
+        buffer.remove(first);
+        assertSame(third, buffer.peek());
+    }
+
+    @Test
+    public void keepsOrderBeyondCapacity() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer(4);
+        for (int seq = 0; seq < 10; seq++) {
+            buffer.offer(sentence(seq));
+        }
+
+        List<Integer> order = new ArrayList<>();
+        Sentence next;
+        while ((next = buffer.peek()) != null) {
+            order.add(next.getSeq());
+            buffer.remove(next);
+        }
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), order);
+    }
+
+    @Test
+    public void clearDropsPendingAndPlaysLaterSentences() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer(4);
+        for (int seq = 0; seq < 6; seq++) {
+            buffer.offer(sentence(seq));
+        }
+        buffer.clear();
+        assertNull(buffer.peek());
+
+        Sentence later = sentence(6);
+        buffer.offer(later);
+        assertSame(later, buffer.peek());
+    }
+
+    @Test
+    public void signalIsKeptUntilTaken() {
+        SentenceReorderBuffer buffer = new SentenceReorderBuffer(4);
+        assertFalse(buffer.takeSignal());
+
+        buffer.signal();
+        buffer.signal();
+        assertTrue(buffer.isSignalled());
+        assertTrue(buffer.takeSignal());
+        assertFalse(buffer.takeSignal());
+    }
+
+    private static Sentence sentence(int seq) {
+        return new Sentence(seq, "句子" + seq, seq == 0, false);
+    }
+}
@@ -0,0 +1,130 @@
+package com.xiaozhi.dialogue.tts.hedge;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TtsHedger 的对冲触发、取消落后请求和自适应阈值
+ */
+public class TtsHedgerTest {
+
+    private TtsHedger hedger;
+
+    @BeforeEach
+    public void setUp() {
+        hedger = new TtsHedger();
+        ReflectionTestUtils.setField(hedger, "enabled", true);
+        ReflectionTestUtils.setField(hedger, "percentile", 0.95);
+        ReflectionTestUtils.setField(hedger, "defaultDelayMs", 50L);
+        ReflectionTestUtils.setField(hedger, "minDelayMs", 5L);
+        ReflectionTestUtils.setField(hedger, "maxDelayMs", 2000L);
+        hedger.init();
+    }
+
+    @Test
+    public void fastPrimaryNeverHedges() throws Exception {
+        AtomicInteger launched = new AtomicInteger();
+        String result = hedger.hedge("p", CompletableFuture.completedFuture("primary"), () -> {
+            launched.incrementAndGet();
+            return new CompletableFuture<>();
+        }).get(1, TimeUnit.SECONDS);
+
+        Thread.sleep(100);
+        assertEquals("primary", result);
+        assertEquals(0, launched.get());
+        assertEquals(0, hedger.getStats().hedged());
+    }
+
+    @Test
+    public void slowPrimaryIsHedgedAndCancelledWhenBackupWins() throws Exception {
+        CompletableFuture<String> primary = new CompletableFuture<>();
+        long start = System.nanoTime();
+        String result = hedger.hedge("p", primary, () -> CompletableFuture.completedFuture("backup"))
+                .get(1, TimeUnit.SECONDS);
+
+        assertEquals("backup", result);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 50, "不应早于阈值发出备用请求");
+        assertTrue(primary.isCancelled(), "备用服务胜出后应取消主服务");
+        assertEquals(1, hedger.getStats().hedged());
+        // 胜出次数在结果完成后计数
+        long deadline = System.currentTimeMillis() + 1000;
+        while (hedger.getStats().wins() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(1, hedger.getStats().wins());
+    }
+
+    @Test
+    public void primaryWinCancelsBackup() throws Exception {
+        CompletableFuture<String> primary = new CompletableFuture<>();
+        CompletableFuture<String> backup = new CompletableFuture<>();
+        CompletableFuture<String> result = hedger.hedge("p", primary, () -> backup);
+
+        Thread.sleep(100);
+        primary.complete("primary");
+
+        assertEquals("primary", result.get(1, TimeUnit.SECONDS));
+        assertTrue(backup.isCancelled(), "主服务胜出后应取消备用请求");
+        assertEquals(0, hedger.getStats().wins());
+    }
+
+    @Test
+    public void failedPrimaryFallsBackImmediately() throws Exception {
+        CompletableFuture<String> primary = CompletableFuture.failedFuture(new IOException("拒绝"));
+        long start = System.nanoTime();
+        String result = hedger.hedge("p", primary, () -> CompletableFuture.completedFuture("backup"))
+                .get(1, TimeUnit.SECONDS);
+
+        assertEquals("backup", result);
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 50);
+    }
+
+    @Test
+    public void callerGivingUpCancelsBothRequests() throws Exception {
+        CompletableFuture<String> primary = new CompletableFuture<>();
+        CompletableFuture<String> backup = new CompletableFuture<>();
+        CompletableFuture<String> result = hedger.hedge("p", primary, () -> backup);
+
+        Thread.sleep(100);
+        result.cancel(true);
+
+        assertTrue(primary.isCancelled());
+        assertTrue(backup.isCancelled());
+    }
+
+    @Test
+    public void thresholdFollowsP95OfPrimaryLatency() throws Exception {
+        assertEquals(50, hedger.getThreshold("p"));
+
+        // 32个样本中2个约150ms，p95（第31小）落在慢样本上
+        List<CompletableFuture<String>> results = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            CompletableFuture<String> primary = new CompletableFuture<>();
+            long delay = i < 2 ? 150 : 0;
+            CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> primary.complete("ok"));
+            results.add(hedger.hedge("p", primary, CompletableFuture::new));
+        }
+        for (CompletableFuture<String> result : results) {
+            result.get(1, TimeUnit.SECONDS);
+        }
+        long threshold = hedger.getThreshold("p");
+        assertTrue(threshold >= 140 && threshold < 1000, "阈值应接近慢样本: " + threshold);
+
+        // 之后的样本都很快，最近的256个样本中慢样本不足5%，阈值回落到下限
+        for (int i = 0; i < 256; i++) {
+            hedger.hedge("p", CompletableFuture.completedFuture("ok"), CompletableFuture::new).get();
+        }
+        assertEquals(5, hedger.getThreshold("p"));
+    }
+}
@@ -0,0 +1,207 @@
+package com.xiaozhi.dialogue.tts.scheduler;
+
+import com.xiaozhi.dialogue.tts.scheduler.TtsScheduler.Priority;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TtsScheduler 的额度、优先级和公平排队
+ */
+public class TtsSchedulerTest {
+
+    private static final String QUOTA = "test:1";
+
+    private TtsScheduler scheduler;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = new TtsScheduler();
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("tts.scheduler.test.max-concurrent", "1");
+        ReflectionTestUtils.setField(scheduler, "environment", environment);
+        ReflectionTestUtils.setField(scheduler, "maxConcurrentPerSession", 3);
+        scheduler.init();
+    }
+
+    @Test
+    public void timedOutCallKeepsQuotaUntilItReturns() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> slow = scheduler.submit(QUOTA, "s1", Priority.NORMAL, 50, () -> {
+            // 模拟不响应中断的服务商调用
+            awaitUninterruptibly(release);
+            return "slow";
+        });
+
+        ExecutionException error = assertThrows(ExecutionException.class, () -> slow.get(2, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, error.getCause());
+
+        AtomicBoolean started = new AtomicBoolean(false);
+        CompletableFuture<String> next = scheduler.submit(QUOTA, "s2", Priority.FIRST, 0, () -> {
+            started.set(true);
+            return "next";
+        });
+        Thread.sleep(200);
+        assertFalse(started.get(), "超时的调用返回前不应释放名额");
+        assertEquals(1, scheduler.getStats().get(QUOTA).running());
+        assertEquals(1, scheduler.getStats().get(QUOTA).queued());
+
+        release.countDown();
+        assertEquals("next", next.get(2, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getStats().get(QUOTA).running());
+    }
+
+    @Test
+    public void timeoutInterruptsRunningCall() throws Exception {
+        CompletableFuture<Boolean> interrupted = new CompletableFuture<>();
+        CompletableFuture<Void> call = scheduler.submit(QUOTA, "s1", Priority.NORMAL, 50, () -> {
+            try {
+                Thread.sleep(5000);
+                interrupted.complete(false);
+            } catch (InterruptedException e) {
+                interrupted.complete(true);
+            }
+            return null;
+        });
+
+        assertThrows(ExecutionException.class, () -> call.get(2, TimeUnit.SECONDS));
+        assertTrue(interrupted.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void cancelledWhileQueuedNeverRuns() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> busy = scheduler.submit(QUOTA, "s1", Priority.NORMAL, 0, () -> {
+            release.await();
+            return null;
+        });
+        AtomicBoolean ran = new AtomicBoolean(false);
+        CompletableFuture<Void> queued = scheduler.submit(QUOTA, "s2", Priority.NORMAL, 0, () -> {
+            ran.set(true);
+            return null;
+        });
+        queued.cancel(true);
+
+        release.countDown();
+        busy.get(2, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertFalse(ran.get());
+        assertEquals(0, scheduler.getStats().get(QUOTA).queued());
+    }
+
+    @Test
+    public void sessionWithAllCallsCancelledIsRemoved() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> busy = scheduler.submit(QUOTA, "s1", Priority.NORMAL, 0, () -> {
+            release.await();
+            return null;
+        });
+        CompletableFuture<Void> first = scheduler.submit(QUOTA, "s2", Priority.FIRST, 0, () -> null);
+        CompletableFuture<Void> second = scheduler.submit(QUOTA, "s2", Priority.NORMAL, 0, () -> null);
+        CompletableFuture<Void> third = scheduler.submit(QUOTA, "s2", Priority.NORMAL, 0, () -> null);
+        first.cancel(true);
+        second.cancel(true);
+        third.cancel(true);
+
+        release.countDown();
+        busy.get(2, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertEquals(0, scheduler.getStats().get(QUOTA).queued());
+        assertTrue(sessions().isEmpty(), "排队的调用全部取消后不应保留会话");
+    }
+
+    @Test
+    public void cancelSessionCancelsQueuedCalls() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> busy = scheduler.submit(QUOTA, "s1", Priority.NORMAL, 0, () -> {
+            release.await();
+            return null;
+        });
+        CompletableFuture<Void> queued = scheduler.submit(QUOTA, "s2", Priority.FIRST, 0, () -> null);
+
+        scheduler.cancelSession("s2");
+        assertThrows(CancellationException.class, () -> queued.get(1, TimeUnit.SECONDS));
+
+        release.countDown();
+        busy.get(2, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void firstSentencesRunBeforeNormalOnes() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(QUOTA, "s0", Priority.NORMAL, 0, () -> {
+            release.await();
+            return null;
+        });
+        scheduler.submit(QUOTA, "s1", Priority.NORMAL, 0, () -> order.add("s1-normal"));
+        scheduler.submit(QUOTA, "s1", Priority.RETRY, 0, () -> order.add("s1-retry"));
+        CompletableFuture<Boolean> last = scheduler.submit(QUOTA, "s2", Priority.FIRST, 0, () -> order.add("s2-first"));
+
+        release.countDown();
+        last.get(2, TimeUnit.SECONDS);
+        waitForSize(order, 3);
+        assertEquals(List.of("s2-first", "s1-retry", "s1-normal"), order);
+    }
+
+    @Test
+    public void sessionsTakeTurns() throws Exception {
+        List<String> order = new CopyOnWriteArrayList<>();
+        CountDownLatch release = new CountDownLatch(1);
+        scheduler.submit(QUOTA, "s0", Priority.NORMAL, 0, () -> {
+            release.await();
+            return null;
+        });
+        for (int i = 1; i <= 3; i++) {
+            String name = "a" + i;
+            scheduler.submit(QUOTA, "a", Priority.NORMAL, 0, () -> order.add(name));
+        }
+        scheduler.submit(QUOTA, "b", Priority.NORMAL, 0, () -> order.add("b1"));
+
+        release.countDown();
+        waitForSize(order, 4);
+        assertEquals(List.of("a1", "b1", "a2", "a3"), order);
+    }
+
+    private Map<?, ?> sessions() {
+        Map<?, ?> quotas = (Map<?, ?>) ReflectionTestUtils.getField(scheduler, "quotas");
+        return (Map<?, ?>) ReflectionTestUtils.getField(quotas.get(QUOTA), "sessions");
+    }
+
+    private static void waitForSize(List<String> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, list.size());
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        while (true) {
+            try {
+                latch.await();
+                return;
+            } catch (InterruptedException ignored) {
+                // 继续等待
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.xiaozhi.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * AudioRingBuffer 的截断写入、覆盖写入、帧存取和跨段读写
+ */
+public class AudioRingBufferTest {
+
+    @Test
+    public void writeTruncatesWhenFull() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8, false);
+        assertEquals(6, buffer.write(bytes(0, 6), 0, 6));
+        assertEquals(2, buffer.write(bytes(6, 6), 0, 6));
+
+        assertEquals(0, buffer.remaining());
+        assertArrayEquals(bytes(0, 8), buffer.toByteArray());
+    }
+
+    @Test
+    public void writeOverwriteKeepsNewestBytes() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8, false);
+        buffer.writeOverwrite(bytes(0, 6), 0, 6);
+        buffer.writeOverwrite(bytes(6, 4), 0, 4);
+        assertArrayEquals(bytes(2, 8), buffer.toByteArray());
+
+        // 一次写入超过容量时只保留最后capacity字节
+        buffer.writeOverwrite(bytes(20, 12), 0, 12);
+        assertArrayEquals(bytes(24, 8), buffer.toByteArray());
+    }
+
+    @Test
+    public void drainEmptiesBuffer() {
+        AudioRingBuffer buffer = new AudioRingBuffer(8, true);
+        buffer.writeOverwrite(bytes(0, 6), 0, 6);
+        buffer.writeOverwrite(bytes(6, 6), 0, 6);
+
+        assertArrayEquals(bytes(4, 8), buffer.drain());
+        assertTrue(buffer.isEmpty());
+        assertEquals(8, buffer.remaining());
+    }
+
+    @Test
+    public void framesDropOldestWholeFrame() {
+        AudioRingBuffer buffer = new AudioRingBuffer(12, false);
+        assertTrue(buffer.writeFrame(bytes(1, 3)));
+        assertTrue(buffer.writeFrame(bytes(2, 3)));
+        // 再写一帧需要丢弃最旧的完整帧
+        assertTrue(buffer.writeFrame(bytes(3, 4)));
+
+        List<byte[]> frames = buffer.frames();
+        assertEquals(2, frames.size());
+        assertArrayEquals(bytes(2, 3), frames.get(0));
+        assertArrayEquals(bytes(3, 4), frames.get(1));
+
+        assertFalse(buffer.writeFrame(new byte[11]), "超过容量的帧不写入");
+    }
+
+    @Test
+    public void dataWrapsAcrossSegments() {
+        int capacity = 40 * 1024;
+        AudioRingBuffer buffer = new AudioRingBuffer(capacity, false);
+        byte[] first = bytes(0, 30 * 1024);
+        byte[] second = bytes(7, 20 * 1024);
+        buffer.writeOverwrite(first, 0, first.length);
+        buffer.writeOverwrite(second, 0, second.length);
+
+        byte[] expected = new byte[capacity];
+        System.arraycopy(first, 10 * 1024, expected, 0, 20 * 1024);
+        System.arraycopy(second, 0, expected, 20 * 1024, 20 * 1024);
+        assertArrayEquals(expected, buffer.toByteArray());
+
+        // 快照按顺序引用各段内存，内容与复制的数据一致
+        ByteBuffer joined = ByteBuffer.allocate(capacity);
+        for (ByteBuffer view : buffer.snapshot()) {
+            joined.put(view);
+        }
+        assertArrayEquals(expected, joined.array());
+    }
+
+    @Test
+    public void rejectsNonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new AudioRingBuffer(0, false));
+    }
+
+    private static byte[] bytes(int start, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (start + i);
+        }
+        return data;
+    }
+}
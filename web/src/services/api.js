@@ -37,7 +37,8 @@ export default {
     query: "/api/message/query",
     update: "/api/message/update",
     delete: "/api/message/delete",
-    export: "/api/message/export"
+    export: "/api/message/export",
+    audio: "/api/message/audio"
   },
   config: {
     add: "/api/config/add",